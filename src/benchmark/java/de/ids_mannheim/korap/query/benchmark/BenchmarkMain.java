@@ -0,0 +1,35 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the
+ * allocation rate and the allocated bytes per operation next to the
+ * times. All options of the JMH command line are accepted, e.g. a
+ * regular expression selecting the benchmarks to run or
+ * <tt>-p ql=annis</tt> to restrict them to one query language.
+ *
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar [JMH options]
+ * </pre>
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class BenchmarkMain {
+
+    public static void main (String[] args) throws CommandLineOptionException,
+            RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder().parent(commandLine)
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
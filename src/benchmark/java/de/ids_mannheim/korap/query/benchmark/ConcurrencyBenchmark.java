@@ -0,0 +1,78 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of translations to JSON with an increasing
+ * number of threads, each with its own serializers. The translations
+ * share no mutable state, so the throughput should grow almost
+ * linearly with the number of threads up to the number of cores.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrencyBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "cql", "collection" })
+    public String ql;
+
+    private List<String> queries;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        queries = QueryCorpus.load(ql);
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public void threads1 (Blackhole blackhole) {
+        translate(blackhole);
+    }
+
+
+    @Benchmark
+    @Threads(2)
+    public void threads2 (Blackhole blackhole) {
+        translate(blackhole);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public void threads4 (Blackhole blackhole) {
+        translate(blackhole);
+    }
+
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void threadsMax (Blackhole blackhole) {
+        translate(blackhole);
+    }
+
+
+    private void translate (Blackhole blackhole) {
+        for (String query : queries) {
+            blackhole.consume(TranslationBenchmark.translate(query, ql)
+                    .toJSON());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.ids_mannheim.korap.query.parse.annis.AqlLexer;
+import de.ids_mannheim.korap.query.parse.collection.CollectionQueryLexer;
+import de.ids_mannheim.korap.query.parse.cosmas.c2psLexer;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusLexer;
+import de.ids_mannheim.korap.query.serialize.util.Antlr3DescriptiveErrorListener;
+
+/**
+ * Measures the tokenization of a corpus of queries. CQL queries are
+ * not covered, as the CQL parser has no separate lexer.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class LexerBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "collection" })
+    public String ql;
+
+    private List<String> queries;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        queries = QueryCorpus.load(ql);
+    }
+
+
+    /**
+     * @return The number of tokens of all queries.
+     */
+    @Benchmark
+    public int lex () {
+        int tokens = 0;
+        for (String query : queries) {
+            tokens += lex(query);
+        }
+        return tokens;
+    }
+
+
+    private int lex (String query) {
+        Lexer lexer;
+        switch (ql) {
+            case "poliqarpplus":
+                lexer = new PoliqarpPlusLexer(new ANTLRInputStream(query));
+                break;
+            case "annis":
+                lexer = new AqlLexer(new ANTLRInputStream(query));
+                break;
+            case "collection":
+                lexer = new CollectionQueryLexer(new ANTLRInputStream(query));
+                break;
+            case "cosmas2":
+                c2psLexer c2psLexer = new c2psLexer(new ANTLRStringStream(
+                        query));
+                c2psLexer.setErrorReporter(new Antlr3DescriptiveErrorListener(
+                        query));
+                org.antlr.runtime.CommonTokenStream c2psTokens = new org.antlr.runtime.CommonTokenStream(
+                        c2psLexer); // v3
+                c2psTokens.fill();
+                return c2psTokens.size();
+            default:
+                throw new IllegalArgumentException(ql);
+        }
+        lexer.removeErrorListeners();
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        tokens.fill();
+        return tokens.size();
+    }
+}
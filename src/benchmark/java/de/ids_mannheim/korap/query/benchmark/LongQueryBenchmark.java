@@ -0,0 +1,67 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.ids_mannheim.korap.query.serialize.QuerySerializer;
+
+/**
+ * Measures the translation to JSON of queries with increasingly long
+ * token sequences. The time divided by the length, i.e. the time per
+ * token, should stay roughly constant as the queries grow.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class LongQueryBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "collection" })
+    public String ql;
+
+    @Param({ "50", "100", "200", "400" })
+    public int length;
+
+    private String query;
+
+
+    @Setup
+    public void setUp () {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            switch (ql) {
+                case "poliqarpplus":
+                    query.append("[base=w").append(i).append("] ");
+                    break;
+                case "cosmas2":
+                    query.append("w").append(i).append(" ");
+                    break;
+                case "annis":
+                    if (i > 0)
+                        query.append(" & ");
+                    query.append("\"w").append(i).append("\"");
+                    break;
+                default:
+                    if (i > 0)
+                        query.append(" & ");
+                    query.append("textClass=w").append(i);
+            }
+        }
+        if (ql.equals("annis")) {
+            for (int i = 1; i < length; i++) {
+                query.append(" & #").append(i).append(" . #").append(i + 1);
+            }
+        }
+        this.query = query.toString();
+    }
+
+
+    @Benchmark
+    public String translate () {
+        QuerySerializer serializer = TranslationBenchmark.translate(query, ql);
+        return serializer.toJSON();
+    }
+}
@@ -0,0 +1,152 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.z3950.zing.cql.CQLParser;
+
+import de.ids_mannheim.korap.query.parse.annis.AqlLexer;
+import de.ids_mannheim.korap.query.parse.annis.AqlParser;
+import de.ids_mannheim.korap.query.parse.collection.CollectionQueryLexer;
+import de.ids_mannheim.korap.query.parse.collection.CollectionQueryParser;
+import de.ids_mannheim.korap.query.parse.cosmas.c2psLexer;
+import de.ids_mannheim.korap.query.parse.cosmas.c2psParser;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusLexer;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusParser;
+import de.ids_mannheim.korap.query.serialize.AnnisQueryProcessor;
+import de.ids_mannheim.korap.query.serialize.CollectionQueryProcessor;
+import de.ids_mannheim.korap.query.serialize.PoliqarpPlusQueryProcessor;
+import de.ids_mannheim.korap.query.serialize.util.Antlr3DescriptiveErrorListener;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
+
+/**
+ * Measures the tokenization and parsing of a corpus of queries, in
+ * the same way as the query processors parse them (for ANTLR 4
+ * grammars, in SLL mode first, see {@link TwoStageParsing}).
+ * Malformed queries are parsed up to their first error.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class ParserBenchmark extends AbstractBenchmark {
+
+    private static final TwoStageParsing.StartRule<PoliqarpPlusParser> POLIQARPPLUS_START = new TwoStageParsing.StartRule<PoliqarpPlusParser>() {
+        @Override
+        public ParserRuleContext invoke (PoliqarpPlusParser parser) {
+            return parser.request();
+        }
+    };
+    private static final TwoStageParsing.StartRule<AqlParser> ANNIS_START = new TwoStageParsing.StartRule<AqlParser>() {
+        @Override
+        public ParserRuleContext invoke (AqlParser parser) {
+            return parser.start();
+        }
+    };
+    private static final TwoStageParsing.StartRule<CollectionQueryParser> COLLECTION_START = new TwoStageParsing.StartRule<CollectionQueryParser>() {
+        @Override
+        public ParserRuleContext invoke (CollectionQueryParser parser) {
+            return parser.start();
+        }
+    };
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "cql", "collection" })
+    public String ql;
+
+    private List<String> queries;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        queries = QueryCorpus.load(ql);
+    }
+
+
+    /**
+     * @return The number of queries that could be parsed.
+     */
+    @Benchmark
+    public int parse () throws Exception {
+        int parsed = 0;
+        for (String query : queries) {
+            if (parse(query) != null) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+
+
+    private Object parse (String query) throws Exception {
+        switch (ql) {
+            case "poliqarpplus":
+                return parse(new PoliqarpPlusParser(tokenize(new PoliqarpPlusLexer(
+                        new ANTLRInputStream(query)))), POLIQARPPLUS_START,
+                        PoliqarpPlusQueryProcessor.getTwoStageParsing());
+            case "annis":
+                return parse(new AqlParser(tokenize(new AqlLexer(
+                        new ANTLRInputStream(query)))), ANNIS_START,
+                        AnnisQueryProcessor.getTwoStageParsing());
+            case "collection":
+                return parse(new CollectionQueryParser(
+                        tokenize(new CollectionQueryLexer(new ANTLRInputStream(
+                                query)))), COLLECTION_START,
+                        CollectionQueryProcessor.getTwoStageParsing());
+            case "cosmas2":
+                Antlr3DescriptiveErrorListener errorListener = new Antlr3DescriptiveErrorListener(
+                        query);
+                c2psLexer lexer = new c2psLexer(new ANTLRStringStream(query));
+                lexer.setErrorReporter(errorListener);
+                c2psParser parser = new c2psParser(
+                        new org.antlr.runtime.CommonTokenStream(lexer)); // v3
+                parser.setErrorReporter(errorListener);
+                try {
+                    return parser.c2ps_query().getTree();
+                }
+                catch (org.antlr.runtime.RecognitionException e) {
+                    return null;
+                }
+            case "cql":
+                try {
+                    return new CQLParser(CQLParser.V1POINT2).parse(query);
+                }
+                catch (Exception e) {
+                    return null;
+                }
+            default:
+                throw new IllegalArgumentException(ql);
+        }
+    }
+
+
+    private static CommonTokenStream tokenize (Lexer lexer) {
+        lexer.removeErrorListeners();
+        return new CommonTokenStream(lexer);
+    }
+
+
+    private static <P extends Parser> Object parse (P parser,
+            TwoStageParsing.StartRule<P> startRule,
+            TwoStageParsing twoStageParsing) {
+        parser.setErrorHandler(new StacklessBailErrorStrategy());
+        parser.removeErrorListeners();
+        try {
+            return twoStageParsing.parse(parser, startRule);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+}
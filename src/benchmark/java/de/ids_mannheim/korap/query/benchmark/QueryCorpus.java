@@ -0,0 +1,59 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the queries a benchmark runs on. There is one corpus per
+ * query language, taken from the queries of the unit tests of the
+ * respective processor, and one corpus of collection queries. A
+ * corpus is a UTF-8 text file with one query per line in the
+ * <tt>corpora</tt> resource folder.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class QueryCorpus {
+
+    private QueryCorpus () {}
+
+
+    /**
+     * Loads the corpus of a query language.
+     *
+     * @param name
+     *            The name of the corpus, i.e. <tt>poliqarpplus</tt>,
+     *            <tt>cosmas2</tt>, <tt>annis</tt>, <tt>cql</tt> or
+     *            <tt>collection</tt>.
+     * @return The queries of the corpus.
+     * @throws IOException
+     */
+    public static List<String> load (String name) throws IOException {
+        InputStream in = QueryCorpus.class.getResourceAsStream("/corpora/"
+                + name + ".txt");
+        if (in == null) {
+            throw new IllegalArgumentException("There is no corpus for "
+                    + name + "!");
+        }
+        List<String> queries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+                "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    queries.add(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,48 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.ids_mannheim.korap.query.serialize.QuerySerializer;
+
+/**
+ * Measures the JSON serialization of a corpus of translated queries
+ * with {@link QuerySerializer#toJSON()}. The queries are translated
+ * once before the measurement.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class SerializationBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "cql", "collection" })
+    public String ql;
+
+    private List<QuerySerializer> serializers;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        serializers = new ArrayList<QuerySerializer>();
+        for (String query : QueryCorpus.load(ql)) {
+            serializers.add(TranslationBenchmark.translate(query, ql));
+        }
+    }
+
+
+    @Benchmark
+    public void serialize (Blackhole blackhole) {
+        for (QuerySerializer serializer : serializers) {
+            blackhole.consume(serializer.toJSON());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.ids_mannheim.korap.query.serialize.QuerySerializer;
+
+/**
+ * Measures the translation of a corpus of queries to the map-based
+ * KoralQuery representation, i.e. {@link QuerySerializer#setQuery}
+ * (or {@link QuerySerializer#setCollection(String)} for collection
+ * queries) including tokenization and parsing, but without JSON
+ * serialization.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class TranslationBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "cosmas2", "annis", "cql", "collection" })
+    public String ql;
+
+    private List<String> queries;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        queries = QueryCorpus.load(ql);
+    }
+
+
+    @Benchmark
+    public void translate (Blackhole blackhole) {
+        for (String query : queries) {
+            blackhole.consume(translate(query, ql));
+        }
+    }
+
+
+    /**
+     * Translates a query of the given corpus with a new serializer.
+     */
+    static QuerySerializer translate (String query, String ql) {
+        QuerySerializer serializer = new QuerySerializer();
+        if (ql.equals("collection")) {
+            serializer.setQuery("[]", "poliqarpplus");
+            serializer.setCollection(query);
+        }
+        else {
+            serializer.setQuery(query, ql);
+        }
+        return serializer;
+    }
+}
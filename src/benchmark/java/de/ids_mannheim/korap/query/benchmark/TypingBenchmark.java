@@ -0,0 +1,72 @@
+package de.ids_mannheim.korap.query.benchmark;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.ids_mannheim.korap.query.serialize.IncrementalParsingSession;
+
+/**
+ * Measures the typing of a corpus of queries character by character
+ * in an {@link IncrementalParsingSession}, asking for the expected
+ * tokens at the cursor after every keystroke, and for comparison the
+ * same with a new session for every keystroke.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+@State(Scope.Thread)
+public class TypingBenchmark extends AbstractBenchmark {
+
+    @Param({ "poliqarpplus", "collection" })
+    public String ql;
+
+    private List<String> queries;
+
+
+    @Setup
+    public void setUp () throws IOException {
+        queries = QueryCorpus.load(ql);
+    }
+
+
+    /**
+     * @return The number of expected tokens over all keystrokes.
+     */
+    @Benchmark
+    public int typeIncrementally () {
+        int expected = 0;
+        for (String query : queries) {
+            IncrementalParsingSession session = new IncrementalParsingSession(
+                    ql);
+            for (int i = 0; i < query.length(); i++) {
+                session.edit(i, 0, query.substring(i, i + 1));
+                expected += session.getExpectedTokenTypes(i + 1).size();
+            }
+        }
+        return expected;
+    }
+
+
+    /**
+     * @return The number of expected tokens over all keystrokes.
+     */
+    @Benchmark
+    public int typeFromScratch () {
+        int expected = 0;
+        for (String query : queries) {
+            for (int i = 0; i < query.length(); i++) {
+                IncrementalParsingSession session = new IncrementalParsingSession(
+                        ql);
+                session.setQuery(query.substring(0, i + 1));
+                expected += session.getExpectedTokenTypes(i + 1).size();
+            }
+        }
+        return expected;
+    }
+}
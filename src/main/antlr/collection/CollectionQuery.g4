@@ -36,6 +36,7 @@ NEG					: '!';
 QMARK				: '?';
 SLASH				: '/';
 COLON				: ':';
+COMMA				: ',';
 DASH				: '-';
 TILDE				: '~';
 NEGTILDE			: '!~';
@@ -43,6 +44,7 @@ SINCE				: 'since';
 UNTIL				: 'until';
 IN					: 'in';
 ON					: 'on';
+REFERTO			: 'referTo';
 WS 					: ( ' ' | '\t' | '\r' | '\n' )+ -> skip ;
 fragment NO_RE      : ~[ \t\/];
 fragment ALPHABET   : ~('\t' | ' ' | '/' | '*' | '?' | '+' | '{' | '}' | '[' | ']'
@@ -103,6 +105,8 @@ operator
 expr
 : constraint
 | dateconstraint
+| setconstraint
+| vcReference
 | token
 ;
 
@@ -115,6 +119,18 @@ constraint
 : field operator value
 ;
 
+setconstraint
+: field IN valueList
+;
+
+valueList
+: LB value (COMMA value)* RB
+;
+
+vcReference
+: REFERTO (WORD | multiword)
+;
+
 token
 : LB (term|termGroup) RB
 ;
@@ -154,12 +170,15 @@ flag
 | FLAG_ix
 ;
 	
+// 'referTo' is only a keyword in front of a collection name
 field
 : WORD
+| REFERTO
 ;
 	
 value
 : WORD
+| REFERTO
 | DIGIT+
 | DATE
 | multiword
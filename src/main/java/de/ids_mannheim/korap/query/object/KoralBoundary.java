@@ -0,0 +1,40 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:boundary</tt>, i.e. a range of repetitions or distances.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralBoundary extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param min
+     *            The lower bound.
+     * @param max
+     *            The upper bound, <tt>null</tt> if unbounded.
+     */
+    public KoralBoundary (Integer min, Integer max) {
+        super("koral:boundary");
+        put("min", min);
+        if (max != null) {
+            put("max", max);
+        }
+    }
+
+
+    public Integer getMin () {
+        return (Integer) get("min");
+    }
+
+
+    /**
+     * @return The upper bound, <tt>null</tt> if unbounded.
+     */
+    public Integer getMax () {
+        return (Integer) get("max");
+    }
+}
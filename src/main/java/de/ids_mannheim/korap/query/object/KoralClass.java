@@ -0,0 +1,27 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:group</tt> with the class operation, which marks its
+ * operand for later reference or checks and modifies the classes of
+ * its operand.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralClass extends KoralGroup {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralClass () {
+        super("class");
+    }
+
+
+    /**
+     * @return The ID of the class introduced by this group.
+     */
+    public Integer getClassOut () {
+        return (Integer) get("classOut");
+    }
+}
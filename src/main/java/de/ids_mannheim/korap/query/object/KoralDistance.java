@@ -0,0 +1,33 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:distance</tt> (or <tt>cosmas:distance</tt> for units
+ * other than words) between the operands of a sequence.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralDistance extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param key
+     *            The unit of the distance, e.g. "w" for words.
+     */
+    public KoralDistance (String key) {
+        super(key.equals("w") ? "koral:distance" : "cosmas:distance");
+        put("key", key);
+    }
+
+
+    public String getKey () {
+        return (String) get("key");
+    }
+
+
+    public KoralBoundary getBoundary () {
+        return (KoralBoundary) get("boundary");
+    }
+}
@@ -0,0 +1,37 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:doc</tt>, i.e. a constraint on a metadata field in a
+ * virtual collection.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralDoc extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralDoc () {
+        super("koral:doc");
+    }
+
+
+    public String getKey () {
+        return (String) get("key");
+    }
+
+
+    public Object getValue () {
+        return get("value");
+    }
+
+
+    /**
+     * @return The match operator, e.g. "match:eq", <tt>null</tt> if
+     *         none is set.
+     */
+    public String getMatch () {
+        return (String) get("match");
+    }
+}
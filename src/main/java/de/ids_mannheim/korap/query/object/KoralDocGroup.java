@@ -0,0 +1,35 @@
+package de.ids_mannheim.korap.query.object;
+
+import java.util.ArrayList;
+
+/**
+ * A <tt>koral:docGroup</tt>, i.e. a boolean combination of
+ * constraints in a virtual collection.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralDocGroup extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param operation
+     *            The operation without the "operation:" prefix, e.g.
+     *            "and".
+     */
+    public KoralDocGroup (String operation) {
+        super("koral:docGroup");
+        put("operation", "operation:" + operation);
+        put("operands", new ArrayList<Object>());
+    }
+
+
+    /**
+     * @return The operation including the "operation:" prefix.
+     */
+    public String getOperation () {
+        return (String) get("operation");
+    }
+}
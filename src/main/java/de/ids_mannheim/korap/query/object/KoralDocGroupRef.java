@@ -0,0 +1,28 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:docGroupRef</tt>, i.e. a reference to a named virtual
+ * collection in a virtual collection.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralDocGroupRef extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param ref
+     *            The name of the referenced collection.
+     */
+    public KoralDocGroupRef (String ref) {
+        super("koral:docGroupRef");
+        put("ref", ref);
+    }
+
+
+    public String getRef () {
+        return (String) get("ref");
+    }
+}
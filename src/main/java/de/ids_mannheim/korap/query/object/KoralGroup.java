@@ -0,0 +1,34 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:group</tt>, i.e. an operation (sequence, position,
+ * disjunction, repetition, ...) on a list of operands. Further
+ * attributes of the operation are to be set before the operands are
+ * added, to keep the established key order of the serialization.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralGroup extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param operation
+     *            The operation without the "operation:" prefix, e.g.
+     *            "sequence".
+     */
+    public KoralGroup (String operation) {
+        super("koral:group");
+        put("operation", "operation:" + operation);
+    }
+
+
+    /**
+     * @return The operation including the "operation:" prefix.
+     */
+    public String getOperation () {
+        return (String) get("operation");
+    }
+}
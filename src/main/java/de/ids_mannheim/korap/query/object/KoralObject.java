@@ -0,0 +1,80 @@
+package de.ids_mannheim.korap.query.object;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Base class of the KoralQuery node types that the query processors
+ * build their translations from. The node types give typed access to
+ * the common keys, such as {@link #getType()} and
+ * {@link #getOperands()}, instead of casting map lookups.
+ * 
+ * A KoralQuery object is still a mutable map from KoralQuery keys to
+ * values, so it is serialized to JSON-LD just like the untyped maps
+ * used before, and further keys are set with
+ * {@link #put(Object, Object)}. The keys are serialized in insertion
+ * order, starting with the <tt>@type</tt> key that is set on
+ * construction. Trees that are read from JSON, e.g. the collections of
+ * a CollectionRegistry, consist of plain maps, so code that handles
+ * them as well reads the keys directly.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralObject extends LinkedHashMap<String, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * KoralQuery objects have few keys, so a smaller table than the
+     * default one suffices.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+
+    /**
+     * @param type
+     *            The value of the <tt>@type</tt> key, e.g.
+     *            "koral:token".
+     */
+    public KoralObject (String type) {
+        super(INITIAL_CAPACITY);
+        put("@type", type);
+    }
+
+
+    /**
+     * @return The value of the <tt>@type</tt> key.
+     */
+    public String getType () {
+        return (String) get("@type");
+    }
+
+
+    /**
+     * @return The operands of this object, <tt>null</tt> if it has
+     *         none.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> getOperands () {
+        return (List<Object>) get("operands");
+    }
+
+
+    /**
+     * Adds an operand to this object, creating the operands list if
+     * there is none yet.
+     * 
+     * @param operand
+     *            A KoralQuery object.
+     */
+    public void addOperand (Object operand) {
+        List<Object> operands = getOperands();
+        if (operands == null) {
+            operands = new ArrayList<Object>();
+            put("operands", operands);
+        }
+        operands.add(operand);
+    }
+}
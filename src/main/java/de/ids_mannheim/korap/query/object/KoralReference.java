@@ -0,0 +1,24 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:reference</tt>, i.e. a focus or split operation on a
+ * class or span reference of its operand.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralReference extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param operation
+     *            The operation without the "operation:" prefix, e.g.
+     *            "focus".
+     */
+    public KoralReference (String operation) {
+        super("koral:reference");
+        put("operation", "operation:" + operation);
+    }
+}
@@ -0,0 +1,18 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:relation</tt>, i.e. the relation between the operands
+ * of a relation group.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralRelation extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralRelation () {
+        super("koral:relation");
+    }
+}
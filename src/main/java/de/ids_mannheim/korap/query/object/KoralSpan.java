@@ -0,0 +1,17 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:span</tt>, i.e. an element or annotated span.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralSpan extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralSpan () {
+        super("koral:span");
+    }
+}
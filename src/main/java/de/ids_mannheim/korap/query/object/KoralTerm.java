@@ -0,0 +1,18 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:term</tt>, i.e. a constraint on an annotation key and
+ * value.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralTerm extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralTerm () {
+        super("koral:term");
+    }
+}
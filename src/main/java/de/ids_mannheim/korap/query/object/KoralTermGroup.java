@@ -0,0 +1,34 @@
+package de.ids_mannheim.korap.query.object;
+
+import java.util.ArrayList;
+
+/**
+ * A <tt>koral:termGroup</tt>, i.e. a boolean combination of terms.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralTermGroup extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param relation
+     *            The relation without the "relation:" prefix, e.g.
+     *            "and".
+     */
+    public KoralTermGroup (String relation) {
+        super("koral:termGroup");
+        put("relation", "relation:" + relation);
+        put("operands", new ArrayList<Object>());
+    }
+
+
+    /**
+     * @return The relation including the "relation:" prefix.
+     */
+    public String getRelation () {
+        return (String) get("relation");
+    }
+}
@@ -0,0 +1,17 @@
+package de.ids_mannheim.korap.query.object;
+
+/**
+ * A <tt>koral:token</tt>, i.e. a token matching a term or term group.
+ * 
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class KoralToken extends KoralObject {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public KoralToken () {
+        super("koral:token");
+    }
+}
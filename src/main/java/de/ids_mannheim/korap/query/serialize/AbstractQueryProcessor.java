@@ -2,14 +2,20 @@ package de.ids_mannheim.korap.query.serialize;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.Logger;
 
+import de.ids_mannheim.korap.query.object.KoralObject;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
 /**
  * This is an abstract class which provides fields and methods for
  * concrete
@@ -32,67 +38,119 @@ public abstract class AbstractQueryProcessor {
     /**
      * Top-level map representing the whole request.
      */
-    LinkedHashMap<String, Object> requestMap = new LinkedHashMap<String, Object>();
+    LinkedHashMap<String, Object> requestMap;
     /**
      * Keeps track of open node categories.
      */
     LinkedList<String> openNodeCats = new LinkedList<String>();
     /**
-     * Keeps track of all visited nodes in a tree.
+     * Keeps track of all visited nodes in a tree. Parse tree nodes
+     * are compared by identity, so look-ups take constant time.
      */
-    List<ParseTree> visited = new ArrayList<ParseTree>();
+    Set<ParseTree> visited = Collections
+            .newSetFromMap(new IdentityHashMap<ParseTree, Boolean>());
     /**
      * Keeps track of active object, used for inserting new KoralQuery
      * objects
      * into last created objects.
      */
-    LinkedList<LinkedHashMap<String, Object>> objectStack = new LinkedList<LinkedHashMap<String, Object>>();
+    LinkedList<KoralObject> objectStack = new LinkedList<KoralObject>();
     /**
-     * Keeps track of how many objects there are to pop after every
-     * recursion
-     * of {@link #processNode(ParseTree)}
+     * Keeps track of how many objects there are to pop after the
+     * children of every node have been processed
      */
     LinkedList<Integer> objectsToPop = new LinkedList<Integer>();
     /**
-     * If true, print debug statements
+     * The initial value of {@link #printDebug} for new and reset
+     * processors and of the verbosity of new serializers.
+     * 
+     * @deprecated Use {@link #setVerbose(boolean)} or
+     *             {@link QuerySerializer#setVerbose(boolean)}, which
+     *             do not affect concurrent translations.
      */
+    @Deprecated
     public static boolean verbose = false;
+    /**
+     * If true, print debug statements. This is a per-instance flag,
+     * so that concurrent translations do not influence each other.
+     */
+    protected boolean printDebug = verbose;
+    /**
+     * Receives the timings of the translation stages, null if no
+     * timings are to be taken.
+     */
+    protected TranslationListener listener;
+    /**
+     * The limits on the complexity of the query, null if there are
+     * none.
+     */
+    protected QueryLimits limits;
+    /**
+     * The deadline of the translation, null if there is none.
+     */
+    protected TranslationDeadline deadline;
+    /**
+     * True once the query has exceeded one of the {@link #limits}.
+     */
+    private boolean limitExceeded = false;
+    /**
+     * The number of classes in the translation of the query, see
+     * {@link #countClass()}.
+     */
+    private int classCount = 0;
     protected Integer stackedObjects = 0;
     /**
      * Contains error arrays, consisting of an error code and a
      * message.
      */
-    private ArrayList<List<Object>> errors = new ArrayList<List<Object>>();
+    private ArrayList<List<Object>> errors;
     /**
      * Contains warning arrays, consisting of a warning code
      * (optional) and a
      * message.
      */
-    private ArrayList<List<Object>> warnings = new ArrayList<List<Object>>();
+    private ArrayList<List<Object>> warnings;
     /**
      * Contains other messages.
      */
-    private ArrayList<List<Object>> messages = new ArrayList<List<Object>>();
+    private ArrayList<List<Object>> messages;
     /**
      * Virtual collection queries.
      */
-    private LinkedHashMap<String, Object> collection = new LinkedHashMap<String, Object>();
+    private LinkedHashMap<String, Object> collection;
     /**
      * Holds information on displaying directives.
      */
-    private LinkedHashMap<String, Object> meta = new LinkedHashMap<String, Object>();
+    private LinkedHashMap<String, Object> meta;
     /**
      * Indicates which classes are to be highlighted in KWIC view.
      */
-    private ArrayList<Integer> highlightClasses = new ArrayList<Integer>();
+    private ArrayList<Integer> highlightClasses;
 
     /**
      * Indicates positions of alignment rulers in KWIC view.
      */
-    private ArrayList<List<Integer>> alignments = new ArrayList<List<Integer>>();
+    private ArrayList<List<Integer>> alignments;
 
 
     AbstractQueryProcessor () {
+        initRequestMap();
+    }
+
+
+    /**
+     * Creates the containers of the KoralQuery request, which are
+     * handed out with {@link #getRequestMap()}.
+     */
+    private void initRequestMap () {
+        requestMap = new LinkedHashMap<String, Object>();
+        errors = new ArrayList<List<Object>>();
+        warnings = new ArrayList<List<Object>>();
+        messages = new ArrayList<List<Object>>();
+        collection = new LinkedHashMap<String, Object>();
+        meta = new LinkedHashMap<String, Object>();
+        highlightClasses = new ArrayList<Integer>();
+        alignments = new ArrayList<List<Integer>>();
         requestMap.put("@context",
                 "http://korap.ids-mannheim.de/ns/koral/0.3/context.jsonld");
         requestMap.put("errors", errors);
@@ -115,6 +173,300 @@ public abstract class AbstractQueryProcessor {
     public abstract void process (String query);
 
 
+    /**
+     * Resets this processor to the state of a freshly constructed
+     * one, such that it can process another query. The request map of
+     * the previous query is not modified, as it may still be in use;
+     * a new one is created instead. Subclasses must call this method
+     * when they override it.
+     */
+    public void reset () {
+        query = null;
+        openNodeCats.clear();
+        objectStack.clear();
+        objectsToPop.clear();
+        printDebug = verbose;
+        listener = null;
+        limits = null;
+        deadline = null;
+        limitExceeded = false;
+        classCount = 0;
+        stackedObjects = 0;
+        releaseParseTree();
+        initRequestMap();
+    }
+
+
+    /**
+     * Drops all references to the parse tree of the last query,
+     * which are only needed while the query is processed. Called at
+     * the end of {@link #process(String)}, such that a processor
+     * does not keep the tree alive after the translation. Subclasses
+     * must call this method when they override it.
+     */
+    protected void releaseParseTree () {
+        visited.clear();
+    }
+
+
+    /**
+     * Switches printing of debug statements on or off for this
+     * processor. Must be called before {@link #process(String)}.
+     * 
+     * @param verbose
+     *            If true, print debug statements.
+     */
+    public void setVerbose (boolean verbose) {
+        this.printDebug = verbose;
+    }
+
+
+    /**
+     * Switches printing of debug statements on or off for all
+     * processors and serializers created or reset afterwards, like
+     * the static {@link #verbose} field.
+     * 
+     * @param verbose
+     *            If true, print debug statements.
+     * @deprecated Use {@link #setVerbose(boolean)} or
+     *             {@link QuerySerializer#setVerbose(boolean)}, which
+     *             do not affect concurrent translations.
+     */
+    @Deprecated
+    public static void setDefaultVerbose (boolean verbose) {
+        AbstractQueryProcessor.verbose = verbose;
+    }
+
+
+    /**
+     * Lets the listener receive the timings of the translation stages
+     * of this processor. Must be called before
+     * {@link #process(String)}.
+     * 
+     * @param listener
+     *            A translation listener, or null to take no timings.
+     */
+    public void setTranslationListener (TranslationListener listener) {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Sets the limits on the complexity of the query. Must be called
+     * before {@link #process(String)}.
+     * 
+     * @param limits
+     *            The limits, or null if there are none.
+     */
+    public void setQueryLimits (QueryLimits limits) {
+        this.limits = limits;
+    }
+
+
+    /**
+     * Sets the deadline of the translation. Must be called before
+     * {@link #process(String)}.
+     * 
+     * @param deadline
+     *            The deadline, or null if there is none.
+     */
+    public void setDeadline (TranslationDeadline deadline) {
+        this.deadline = deadline;
+    }
+
+
+    /**
+     * Aborts the translation if its {@link #deadline} has expired.
+     * Called periodically while the query is tokenized, parsed and
+     * translated.
+     * 
+     * @throws TranslationCancelledException
+     *             If the deadline has expired.
+     */
+    protected void checkDeadline () {
+        if (deadline != null)
+            deadline.check();
+    }
+
+
+    /**
+     * @return true iff the query has exceeded one of the
+     *         {@link #limits}, in which case it is not translated.
+     */
+    protected boolean isLimitExceeded () {
+        return limitExceeded;
+    }
+
+
+    /**
+     * Checks a value of the query against its limit. Only the first
+     * exceeded limit is reported as an error.
+     * 
+     * @param value
+     *            The value of the query.
+     * @param max
+     *            The limit.
+     * @param description
+     *            The description of the limit, a format string for
+     *            the limit.
+     * @return true iff the value does not exceed the limit.
+     */
+    private boolean checkLimit (int value, int max, String description) {
+        if (value <= max)
+            return true;
+        if (!limitExceeded) {
+            limitExceeded = true;
+            addError(StatusCodes.QUERY_TOO_COMPLEX,
+                    "The query exceeds the maximum "
+                            + String.format(description, max) + ".");
+        }
+        return false;
+    }
+
+
+    /**
+     * Checks the length of the query against the {@link #limits}.
+     * 
+     * @param query
+     *            The query string.
+     * @return true iff the query is not too long.
+     */
+    protected boolean checkQueryLength (String query) {
+        return limits == null || query == null
+                || checkLimit(query.length(), limits.getMaxQueryLength(),
+                        "length of %d characters");
+    }
+
+
+    /**
+     * Checks the tokens of the query against the {@link #limits}.
+     * 
+     * @param tokenCount
+     *            The number of tokens.
+     * @param nesting
+     *            The maximum nesting depth of brackets.
+     * @return true iff the query has neither too many tokens nor too
+     *         deeply nested brackets.
+     */
+    protected boolean checkTokens (int tokenCount, int nesting) {
+        return limits == null
+                || (checkLimit(tokenCount, limits.getMaxTokens(),
+                        "number of %d tokens") && checkLimit(nesting,
+                        limits.getMaxDepth(), "nesting depth of %d"));
+    }
+
+
+    /**
+     * Checks the parse tree of the query against the {@link #limits}.
+     * 
+     * @param depth
+     *            The depth of the tree.
+     * @param nodeCount
+     *            The number of nodes of the tree.
+     * @return true iff the tree is neither too deep nor too large.
+     */
+    protected boolean checkParseTree (int depth, int nodeCount) {
+        return limits == null
+                || (checkLimit(depth, limits.getMaxDepth(),
+                        "nesting depth of %d") && checkLimit(nodeCount,
+                        limits.getMaxNodes(), "number of %d parse tree nodes"));
+    }
+
+
+    /**
+     * Counts a class of the translation against the {@link #limits}.
+     * Called by the
+     * {@link de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator}
+     * for every class it creates.
+     */
+    public void countClass () {
+        classCount++;
+        if (limits != null) {
+            checkLimit(classCount, limits.getMaxClasses(),
+                    "number of %d classes");
+        }
+    }
+
+
+    /**
+     * Checks the bounds of a distance or repetition against the
+     * {@link #limits}. Called by the
+     * {@link de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator}
+     * for every boundary it creates.
+     * 
+     * @param min
+     *            The minimum, may be null.
+     * @param max
+     *            The maximum, null if unbounded.
+     */
+    public void checkBoundary (Integer min, Integer max) {
+        if (limits != null) {
+            int bound = Math.max(min == null ? 0 : min, max == null ? 0
+                    : max);
+            checkLimit(bound, limits.getMaxDistance(), "distance of %d");
+        }
+    }
+
+
+    /**
+     * Returns the query language of this processor, which is reported
+     * to the {@link #listener}.
+     * 
+     * @return The query language, or null if it is unknown.
+     */
+    protected String getQueryLanguage () {
+        return null;
+    }
+
+
+    /**
+     * Starts timing a translation stage.
+     * 
+     * @return The current time in nanoseconds, 0 if there is no
+     *         {@link #listener}.
+     */
+    protected long startTiming () {
+        return listener == null ? 0 : System.nanoTime();
+    }
+
+
+    /**
+     * Reports a completed translation stage to the {@link #listener},
+     * if there is one.
+     * 
+     * @param stage
+     *            The completed stage.
+     * @param start
+     *            The start of the stage as returned by
+     *            {@link #startTiming()}.
+     */
+    protected void stageCompleted (TranslationListener.Stage stage, long start) {
+        if (listener != null) {
+            listener.stageCompleted(getQueryLanguage(), stage,
+                    System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Reports the processing of the query to the {@link #listener},
+     * if there is one.
+     * 
+     * @param nodeCount
+     *            The number of nodes of the parse tree.
+     * @param start
+     *            The start of the processing as returned by
+     *            {@link #startTiming()}.
+     */
+    protected void queryProcessed (int nodeCount, long start) {
+        if (listener != null) {
+            listener.queryProcessed(getQueryLanguage(), nodeCount,
+                    Collections.<List<Object>> unmodifiableList(errors),
+                    System.nanoTime() - start);
+        }
+    }
+
+
     /**
      * Adds a warning to {@link #warnings}.
      * 
@@ -181,6 +533,22 @@ public abstract class AbstractQueryProcessor {
     }
 
 
+    /**
+     * Adds an error at a position of the query to {@link #errors}.
+     * 
+     * @param code
+     *            The error code.
+     * @param msg
+     *            The error message.
+     * @param offset
+     *            The offset of the error in the query.
+     */
+    public void addError (int code, String msg, int offset) {
+        List<Object> error = Arrays.asList(new Object[] { code, msg, offset });
+        errors.add(error);
+    }
+
+
     /**
      * Adds an error to {@link #errors}.
      * 
@@ -213,6 +581,24 @@ public abstract class AbstractQueryProcessor {
     }
 
 
+    /**
+     * @return The errors of the processed query, each consisting of
+     *         an error code, a message and possibly an offset.
+     */
+    public List<List<Object>> getErrors () {
+        return errors;
+    }
+
+
+    /**
+     * @return The warnings of the processed query, each consisting
+     *         of an optional warning code and a message.
+     */
+    public List<List<Object>> getWarnings () {
+        return warnings;
+    }
+
+
     /**
      * Getter method for the {@link #requestMap}, which represents the
      * entire KoralQuery request (query, displaying directives,
@@ -1,6 +1,5 @@
 package de.ids_mannheim.korap.query.serialize;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -10,21 +9,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
+import de.ids_mannheim.korap.query.object.KoralGroup;
+import de.ids_mannheim.korap.query.object.KoralObject;
+import de.ids_mannheim.korap.query.object.KoralRelation;
+import de.ids_mannheim.korap.query.object.KoralTerm;
+import de.ids_mannheim.korap.query.object.KoralTermGroup;
+import de.ids_mannheim.korap.query.object.KoralToken;
 import de.ids_mannheim.korap.query.parse.annis.AqlLexer;
 import de.ids_mannheim.korap.query.parse.annis.AqlParser;
 import de.ids_mannheim.korap.query.serialize.util.Antlr4DescriptiveErrorListener;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
 
 /**
  * Processor class for ANNIS QL queries. This class uses an ANTLR v4
@@ -44,6 +49,18 @@ import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
 public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     private static Logger log = LoggerFactory
             .getLogger(AnnisQueryProcessor.class);
+
+    /**
+     * Two-stage (SLL, then LL) parsing of ANNIS QL queries, shared by
+     * all processors.
+     */
+    private static final TwoStageParsing twoStageParsing = new TwoStageParsing();
+    private static final TwoStageParsing.StartRule<AqlParser> startRule = new TwoStageParsing.StartRule<AqlParser>() {
+        @Override
+        public ParserRuleContext invoke (AqlParser parser) {
+            return parser.start();
+        }
+    };
     /**
      * Flag that indicates whether token fields or meta fields are
      * currently
@@ -162,67 +179,127 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     private LinkedHashMap<ParseTree, Integer> objectsToWrapInClass = new LinkedHashMap<ParseTree, Integer>();
 
 
+    /**
+     * Constructs a processor without processing a query. The
+     * processor can be configured (e.g. by
+     * {@link #setVerbose(boolean)}) before calling
+     * {@link #process(String)}.
+     */
+    public AnnisQueryProcessor () {}
+
+
     public AnnisQueryProcessor (String query) {
-        KoralObjectGenerator.setQueryProcessor(this);
         process(query);
     }
 
 
     @Override
     public void process (String query) {
-        ParseTree tree = parseAnnisQuery(query);
-        if (this.parser != null) {
-            super.parser = this.parser;
-        }
-        else {
-            throw new NullPointerException("Parser has not been instantiated!");
-        }
-        log.info("Processing Annis query: " + query);
-        if (tree != null) {
-            log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
-            processNode(tree);
-            // Last check to see if all relations have left the queue
-            if (!queuedRelations.isEmpty()) {
-                ParseTree queued = queuedRelations.pop();
-                if (verbose)
-                    System.out.println("Taking off queue (last rel): "
-                            + queued.getText());
-                if (checkOperandsProcessedPreviously(queued)) {
-                    processNode(queued);
-                }
-                else {
-                    addError(StatusCodes.UNBOUND_ANNIS_RELATION,
-                            "The relation " + queued.getText()
-                                    + " is not bound to any other relations.");
-                    requestMap
-                            .put("query", new LinkedHashMap<String, Object>());
+        AbstractQueryProcessor previous = KoralObjectGenerator
+                .getQueryProcessor();
+        KoralObjectGenerator.setQueryProcessor(this);
+        long start = startTiming();
+        int nodeCount = 0;
+        try {
+            ParseTree tree = parseAnnisQuery(query);
+            if (this.parser != null) {
+                super.parser = this.parser;
+            }
+            else {
+                throw new NullPointerException("Parser has not been instantiated!");
+            }
+            log.debug("Processing Annis query: " + query);
+            if (tree != null && checkParseTree(tree)) {
+                if (log.isDebugEnabled())
+                    log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
+                if (listener != null)
+                    nodeCount = countNodes(tree);
+                long translationStart = startTiming();
+                walk(tree);
+                // Last check to see if all relations have left the queue
+                if (!queuedRelations.isEmpty()) {
+                    ParseTree queued = queuedRelations.pop();
+                    if (printDebug)
+                        System.out.println("Taking off queue (last rel): "
+                                + queued.getText());
+                    if (checkOperandsProcessedPreviously(queued)) {
+                        walk(queued);
+                    }
+                    else {
+                        addError(StatusCodes.UNBOUND_ANNIS_RELATION,
+                                "The relation " + queued.getText()
+                                        + " is not bound to any other relations.");
+                        requestMap
+                                .put("query", new LinkedHashMap<String, Object>());
+                    }
                 }
+                if (isLimitExceeded())
+                    requestMap.put("query", new LinkedHashMap<String, Object>());
+                stageCompleted(TranslationListener.Stage.TRANSLATION,
+                        translationStart);
             }
         }
+        finally {
+            queryProcessed(nodeCount, start);
+            releaseParseTree();
+            KoralObjectGenerator.setQueryProcessor(previous);
+        }
+    }
+
+
+    @Override
+    protected String getQueryLanguage () {
+        return "annis";
+    }
+
+
+    @Override
+    public void reset () {
+        super.reset();
+        inMeta = false;
+        operandStack.clear();
+        nodeVariables.clear();
+        variableCount = 1;
+        curToken = new LinkedHashMap<String, Object>();
+        invertedOperandsLists.clear();
+        classCounter = 1;
+        relationCounter = 0;
+        totalRelationCount = 0;
+        refClassMapping.clear();
+        nodeReferencesTotal.clear();
+        nodeReferencesProcessed.clear();
+    }
+
+
+    @Override
+    protected void releaseParseTree () {
+        super.releaseParseTree();
+        nodes2refs.clear();
+        unaryRelations.clear();
+        queuedRelations.clear();
+        objectsToWrapInClass.clear();
     }
 
 
     /**
-     * Traverses the parse tree by recursively calling itself,
-     * starting with
-     * the root node of the tree and calling itself with the children
-     * of its
-     * current node in a depth-first, left-to-right fashion. In each
-     * call,
-     * depending on the category of the current node, special
-     * processor
-     * methods for the respective node category are called to process
-     * the node.
+     * Processes a node before its children, as the parse tree is
+     * traversed by {@link #walk(ParseTree)}, starting with the root
+     * node of the tree and continuing with the children of its
+     * current node in a depth-first, left-to-right fashion. For each
+     * node, depending on the category of the current node, special
+     * processor methods for the respective node category are called
+     * to process the node.
      * 
      * @param node
      *            The node currently visited in the parse tree
      *            traversal.
      */
-    private void processNode (ParseTree node) {
+    @Override
+    protected boolean enterNode (ParseTree node) {
         String nodeCat = getNodeCat(node);
         // Top-down processing
         if (visited.contains(node))
-            return;
+            return false;
         openNodeCats.push(nodeCat);
         stackedObjects = 0;
         // Before doing anything else, check if any relations are queued
@@ -231,15 +308,15 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
             if (!queuedRelations.isEmpty()) {
                 ParseTree queued = queuedRelations.getFirst();
                 if (checkOperandsProcessedPreviously(queued)) {
-                    if (verbose)
+                    if (printDebug)
                         System.out.println("Taking off queue: "
                                 + queued.getText());
                     queuedRelations.removeFirst();
-                    processNode(queued);
+                    walk(queued);
                 }
             }
         }
-        if (verbose) {
+        if (printDebug) {
             System.err.println(" " + objectStack);
             System.out.println(openNodeCats);
         }
@@ -251,37 +328,33 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
          ****************************************************************
          ****************************************************************
          */
-        if (nodeCat.equals("exprTop")) {
-            processExprTop(node);
-        }
-
-        if (nodeCat.equals("andTopExpr")) {
-            processAndTopExpr(node);
-        }
-
-        if (nodeCat.equals("n_ary_linguistic_term")) {
-            processN_ary_linguistic_term(node);
+        switch (nodeCat) {
+            case "exprTop":
+                processExprTop(node);
+                break;
+            case "andTopExpr":
+                processAndTopExpr(node);
+                break;
+            case "n_ary_linguistic_term":
+                processN_ary_linguistic_term(node);
+                break;
         }
 
         objectsToPop.push(stackedObjects);
+        return true;
+    }
 
-        /*
-         ****************************************************************
-         **************************************************************** 
-         *  recursion until 'request' node (root of tree) is processed  *
-         ****************************************************************
-         ****************************************************************
-         */
-        for (int i = 0; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            processNode(child);
-        }
 
-        /*
-         **************************************************************
-         * Stuff that happens after processing the children of a node *
-         **************************************************************
-         */
+    /**
+     * Processes a node after its children, taking the items pushed
+     * by {@link #enterNode(ParseTree)} off the stacks.
+     * 
+     * @param node
+     *            The node currently visited in the parse tree
+     *            traversal.
+     */
+    @Override
+    protected void exitNode (ParseTree node) {
         if (!objectsToPop.isEmpty()) {
             for (int i = 0; i < objectsToPop.pop(); i++) {
                 objectStack.pop();
@@ -391,8 +464,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     private void processExprTop (ParseTree node) {
         List<ParseTree> andTopExprs = getChildrenWithCat(node, "andTopExpr");
         if (andTopExprs.size() > 1) {
-            LinkedHashMap<String, Object> topOr = KoralObjectGenerator
-                    .makeGroup("disjunction");
+            KoralGroup topOr = KoralObjectGenerator.makeGroup("disjunction");
             requestMap.put("query", topOr);
             objectStack.push(topOr);
         }
@@ -410,8 +482,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
         else if (firstChildNodeCat.equals("tok")) {
             object = KoralObjectGenerator.makeToken();
             if (node.getChildCount() > 1) { // empty tokens do not wrap a term
-                LinkedHashMap<String, Object> term = KoralObjectGenerator
-                        .makeTerm();
+                KoralTerm term = KoralObjectGenerator.makeTerm();
                 term.put("layer", "orth");
                 object.put("wrap", term);
             }
@@ -427,8 +498,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
             if (Arrays.asList(new String[] { "p", "lemma", "m", "orth" })
                     .contains(qNameParse.get("layer"))) {
                 object = KoralObjectGenerator.makeToken();
-                LinkedHashMap<String, Object> term = KoralObjectGenerator
-                        .makeTerm();
+                KoralTerm term = KoralObjectGenerator.makeTerm();
                 object.put("wrap", term);
                 term.putAll(qNameParse);
             }
@@ -439,15 +509,14 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
         }
         else if (firstChildNodeCat.equals("textSpec")) {
             object = KoralObjectGenerator.makeToken();
-            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                    .makeTerm();
+            KoralTerm term = KoralObjectGenerator.makeTerm();
             object.put("wrap", term);
             term.put("layer", "orth");
             term.putAll(parseTextSpec(node.getChild(0)));
         }
         if (node.getChildCount() == 3) {
             // (foundry/)?layer=key specification
-            if (object.get("@type").equals("koral:token")) {
+            if (object instanceof KoralToken) {
                 HashMap<String, Object> term = (HashMap<String, Object>) object
                         .get("wrap");
                 term.putAll(parseTextSpec(node.getChild(2)));
@@ -474,10 +543,9 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 object.put("attr", parseUnaryOperator(unaryTermsForRef.get(0)));
             }
             else {
-                LinkedHashMap<String, Object> termGroup = KoralObjectGenerator
+                KoralTermGroup termGroup = KoralObjectGenerator
                         .makeTermGroup("and");
-                ArrayList<Object> operands = (ArrayList<Object>) termGroup
-                        .get("operands");
+                List<Object> operands = termGroup.getOperands();
                 for (ParseTree unaryTerm : unaryTermsForRef) {
                     operands.add(parseUnaryOperator(unaryTerm));
                 }
@@ -600,8 +668,8 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
             ParseTree operandTree2 = node.getChild(i + 1);
             String reltype = getNodeCat(node.getChild(i).getChild(0));
 
-            LinkedHashMap<String, Object> group = null;
-            ArrayList<Object> operands = null;
+            KoralObject group = null;
+            List<Object> operands = null;
             // make sure one of the operands has already been put into a 
             // relation (if this is not the 1st relation). If none of the
             // operands has been ingested at a lower level (and is therefore
@@ -611,7 +679,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 if (!checkOperandsProcessedPreviously(node)) {
                     queuedRelations.add(node);
                     relationCounter--;
-                    if (verbose) {
+                    if (printDebug) {
                         System.out
                                 .println("Adding to queue: " + node.getText());
                     }
@@ -635,12 +703,10 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 // make an (outer) group and an inner group containing the dummy 
                 // node or previous relations
                 group = KoralObjectGenerator.makeGroup("relation");
-                LinkedHashMap<String, Object> innerGroup = KoralObjectGenerator
+                KoralObject innerGroup = KoralObjectGenerator
                         .makeGroup("relation");
-                LinkedHashMap<String, Object> relation = KoralObjectGenerator
-                        .makeRelation();
-                LinkedHashMap<String, Object> term = KoralObjectGenerator
-                        .makeTerm();
+                KoralRelation relation = KoralObjectGenerator.makeRelation();
+                KoralTerm term = KoralObjectGenerator.makeTerm();
                 term.put("layer", "c");
                 relation.put("wrap", term);
                 // commonancestor is an indirect commonparent relation
@@ -651,10 +717,8 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 innerGroup.put("relation", relation);
                 // Get operands list before possible re-assignment of 'group' 
                 // (see following 'if')
-                ArrayList<Object> outerOperands = (ArrayList<Object>) group
-                        .get("operands");
-                ArrayList<Object> innerOperands = (ArrayList<Object>) innerGroup
-                        .get("operands");
+                List<Object> outerOperands = group.getOperands();
+                List<Object> innerOperands = innerGroup.getOperands();
                 // for lowest level, add the underspecified node as first 
                 // operand and wrap it in a class group
                 if (i == 1) {
@@ -703,7 +767,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 if (groupType.equals("relation")
                         || groupType.equals("treeRelation")) {
                     group = KoralObjectGenerator.makeGroup(groupType);
-                    LinkedHashMap<String, Object> relation = new LinkedHashMap<String, Object>();
+                    KoralRelation relation = new KoralRelation();
                     putAllButGroupType(relation, operatorGroup);
                     group.put("relation", relation);
                 }
@@ -712,13 +776,13 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                     putAllButGroupType(group, operatorGroup);
                 }
                 else if (groupType.equals("position")) {
-                    group = new LinkedHashMap<String, Object>();
+                    group = new KoralGroup("position");
                     putAllButGroupType(group, operatorGroup);
                 }
 
                 // Get operands list before possible re-assignment of 'group'
                 // (see following 'if')
-                operands = (ArrayList<Object>) group.get("operands");
+                operands = group.getOperands();
 
                 ParseTree leftChildSpec = getFirstChildWithCat(node.getChild(i)
                         .getChild(0), "@l");
@@ -727,13 +791,12 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
                 if (leftChildSpec != null || rightChildSpec != null) {
                     String frame = (leftChildSpec != null) ? "frames:startsWith"
                             : "frames:endsWith";
-                    LinkedHashMap<String, Object> positionGroup = KoralObjectGenerator
+                    KoralGroup positionGroup = KoralObjectGenerator
                             .makePosition(new String[] { frame });
                     operand2 = KoralObjectGenerator.wrapInClass(operand2,
                             ++classCounter + 128);
-                    ((ArrayList<Object>) positionGroup.get("operands"))
-                            .add(group);
-                    ((ArrayList<Object>) positionGroup.get("operands"))
+                    positionGroup.getOperands().add(group);
+                    positionGroup.getOperands()
                             .add(KoralObjectGenerator
                                     .makeReference(classCounter + 128));
                     group = positionGroup;
@@ -824,7 +887,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
      *         koral:span
      */
     private LinkedHashMap<String, Object> parseUnaryOperator (ParseTree node) {
-        LinkedHashMap<String, Object> term = KoralObjectGenerator.makeTerm();
+        KoralTerm term = KoralObjectGenerator.makeTerm();
         String op = node.getChild(1).toStringTree(parser).substring(1);
         if (op.equals("arity") || op.equals("tokenarity")) {
             LinkedHashMap<String, Object> boundary = boundaryFromRangeSpec(
@@ -859,19 +922,18 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
             if (qName != null)
                 term = parseQNameNode(qName);
             if (edgeSpecNode != null) {
-                LinkedHashMap<String, Object> edgeSpec = parseEdgeSpec(edgeSpecNode);
-                String edgeSpecType = (String) edgeSpec.get("@type");
-                if (edgeSpecType.equals("koral:termGroup")) {
-                    ((ArrayList<Object>) edgeSpec.get("operands")).add(term);
+                KoralObject edgeSpec = parseEdgeSpec(edgeSpecNode);
+                if (edgeSpec instanceof KoralTermGroup) {
+                    edgeSpec.getOperands().add(term);
                     term = edgeSpec;
                 }
                 else {
-                    term = KoralObjectGenerator.makeTermGroup("and");
-                    ArrayList<Object> termGroupOperands = (ArrayList<Object>) term
-                            .get("operands");
+                    KoralTermGroup termGroup = KoralObjectGenerator
+                            .makeTermGroup("and");
+                    List<Object> termGroupOperands = termGroup.getOperands();
+                    term = termGroup;
                     termGroupOperands.add(edgeSpec);
-                    LinkedHashMap<String, Object> constTerm = KoralObjectGenerator
-                            .makeTerm();
+                    KoralTerm constTerm = KoralObjectGenerator.makeTerm();
                     constTerm.put("layer", "c");
                     termGroupOperands.add(constTerm);
                 }
@@ -891,8 +953,7 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
             ParseTree star = getFirstChildWithCat(operatorNode, "*");
             ParseTree rangeSpec = getFirstChildWithCat(operatorNode,
                     "rangeSpec");
-            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                    .makeTerm();
+            KoralTerm term = KoralObjectGenerator.makeTerm();
             if (qName != null)
                 term.putAll(parseQNameNode(qName));
             if (edgeSpec != null)
@@ -982,16 +1043,14 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
-    @SuppressWarnings("unchecked")
-    private LinkedHashMap<String, Object> parseEdgeSpec (ParseTree edgeSpec) {
+    private KoralObject parseEdgeSpec (ParseTree edgeSpec) {
         List<ParseTree> annos = getChildrenWithCat(edgeSpec, "edgeAnno");
         if (annos.size() == 1)
             return parseEdgeAnno(annos.get(0));
         else {
-            LinkedHashMap<String, Object> termGroup = KoralObjectGenerator
+            KoralTermGroup termGroup = KoralObjectGenerator
                     .makeTermGroup("and");
-            ArrayList<Object> operands = (ArrayList<Object>) termGroup
-                    .get("operands");
+            List<Object> operands = termGroup.getOperands();
             for (ParseTree anno : annos) {
                 operands.add(parseEdgeAnno(anno));
             }
@@ -1000,9 +1059,8 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
-    private LinkedHashMap<String, Object> parseEdgeAnno (ParseTree edgeAnnoSpec) {
-        LinkedHashMap<String, Object> edgeAnno = KoralObjectGenerator
-                .makeTerm();
+    private KoralTerm parseEdgeAnno (ParseTree edgeAnnoSpec) {
+        KoralTerm edgeAnno = KoralObjectGenerator.makeTerm();
         ParseTree textSpecNode = getFirstChildWithCat(edgeAnnoSpec, "textSpec");
         ParseTree layerNode = getFirstChildWithCat(edgeAnnoSpec, "layer");
         ParseTree foundryNode = getFirstChildWithCat(edgeAnnoSpec, "foundry");
@@ -1112,8 +1170,8 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     private void putIntoSuperObject (LinkedHashMap<String, Object> object,
             int objStackPosition) {
         if (objectStack.size() > objStackPosition) {
-            ArrayList<Object> topObjectOperands = (ArrayList<Object>) objectStack
-                    .get(objStackPosition).get("operands");
+            List<Object> topObjectOperands = objectStack.get(
+                    objStackPosition).getOperands();
             if (!invertedOperandsLists.contains(topObjectOperands)) {
                 topObjectOperands.add(object);
             }
@@ -1137,35 +1195,56 @@ public class AnnisQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
+    /**
+     * Returns the settings and statistics of the two-stage parsing of
+     * ANNIS QL queries. The SLL stage can be switched off, and the
+     * counters show how often the parser had to fall back to LL mode.
+     * 
+     * @return The {@link TwoStageParsing} shared by all processors.
+     */
+    public static TwoStageParsing getTwoStageParsing () {
+        return twoStageParsing;
+    }
+
+
     private ParserRuleContext parseAnnisQuery (String query) {
-        Lexer lexer = new AqlLexer((CharStream) null);
         ParserRuleContext tree = null;
         Antlr4DescriptiveErrorListener errorListener = new Antlr4DescriptiveErrorListener(
                 query);
         // Like p. 111
         try {
+            // Reuse lexer and parser of previous queries
+            if (parser == null) {
+                lexer = new AqlLexer((CharStream) null);
+                parser = new AqlParser((TokenStream) null);
+                // Don't throw out erroneous stuff
+                parser.setErrorHandler(new StacklessBailErrorStrategy());
+            }
+            // Reject queries with unbalanced brackets without lexing
+            // and parsing
+            int offset = QueryPreScanner.scanAnnis(query);
+            if (offset != QueryPreScanner.UNDECIDED) {
+                addError(StatusCodes.MALFORMED_QUERY,
+                        QueryUtils.UNBALANCED_PARS, offset);
+                return null;
+            }
             // Tokenize input data
-            ANTLRInputStream input = new ANTLRInputStream(query);
-            lexer.setInputStream(input);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            parser = new AqlParser(tokens);
-            // Don't throw out erroneous stuff
-            parser.setErrorHandler(new BailErrorStrategy());
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(errorListener);
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-            // Get starting rule from parser
-            Method startRule = AqlParser.class.getMethod("start");
-            tree = (ParserRuleContext) startRule
-                    .invoke(parser, (Object[]) null);
+            if (!setInput(query, errorListener))
+                return null;
+            long parsingStart = startTiming();
+            tree = twoStageParsing.parse((AqlParser) parser, startRule);
+            stageCompleted(TranslationListener.Stage.PARSING, parsingStart);
+        }
+        catch (TranslationCancelledException e) {
+            throw e;
         }
         // Some things went wrong ...
         catch (Exception e) {
-            log.error("Could not parse query. "
-                    + "Please make sure it is well-formed.");
-            log.error(errorListener.generateFullErrorMsg().toString());
-            addError(errorListener.generateFullErrorMsg());
+            // the error is only generated if it is read
+            List<Object> error = errorListener.getFullErrorMsg();
+            if (log.isDebugEnabled())
+                log.debug("Could not parse query: " + error);
+            addError(error);
         }
         return tree;
     }
@@ -1,13 +1,17 @@
 package de.ids_mannheim.korap.query.serialize;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.Parser;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
 import org.antlr.runtime.tree.Tree;
 
+import de.ids_mannheim.korap.query.serialize.util.TreeWalker;
+
 /**
  * This class is provides methods for navigation and search in
  * Abstract Syntax
@@ -34,24 +38,217 @@ public abstract class Antlr3AbstractQueryProcessor extends
 
     /**
      * Returns the category (or 'label') of the root of a (sub-)
-     * ParseTree (ANTLR 3).
+     * ParseTree (ANTLR 3), i.e. the text of its token up to the first
+     * whitespace. The category is determined in constant time, i.e.
+     * independently of the size of the subtree.
      * 
      * @param node
      *            The tree node.
      * @return The category of the node.
      */
     protected static String getNodeCat (Tree node) {
-        String nodeCat = node.toStringTree();
-        // from opening parenthesis to 1st whitespace
-        Pattern p = Pattern.compile("\\((.*?)\\s");
-        Matcher m = p.matcher(node.toStringTree());
-        if (m.find()) {
-            nodeCat = m.group(1);
+        String nodeCat = node.toString();
+        if (nodeCat != null && node.getChildCount() > 0) {
+            // the label of an inner node ends at the first whitespace,
+            // as in the bracketed tree notation
+            for (int i = 0; i < nodeCat.length(); i++) {
+                if (" \t\n\u000B\f\r".indexOf(nodeCat.charAt(i)) >= 0)
+                    return nodeCat.substring(0, i);
+            }
         }
         return nodeCat;
     }
 
 
+    /**
+     * Walks the parse tree with an explicit stack, see
+     * {@link #walk(Tree)}.
+     */
+    private final TreeWalker<Tree> walker = new TreeWalker<Tree>() {
+        @Override
+        protected boolean enter (Tree node) {
+            checkDeadline();
+            return enterNode(node);
+        }
+
+
+        @Override
+        protected void exit (Tree node) {
+            exitNode(node);
+        }
+
+
+        @Override
+        protected int getChildCount (Tree node) {
+            return node.getChildCount();
+        }
+
+
+        @Override
+        protected Tree getChild (Tree node, int index) {
+            return node.getChild(index);
+        }
+    };
+
+
+    /**
+     * Traverses a (sub-)tree in a top-down, depth-first,
+     * left-to-right fashion, calling {@link #enterNode(Tree)}
+     * before and {@link #exitNode(Tree)} after the children of
+     * every node. The traversal does not recurse, so the depth of the
+     * tree is not limited by the stack size of the current thread.
+     * 
+     * @param node
+     *            The root of the (sub-)tree.
+     */
+    protected void walk (Tree node) {
+        walker.walk(node);
+    }
+
+
+    /**
+     * Processes a node before its children, see
+     * {@link #walk(Tree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     * @return true iff the children of the node are to be processed
+     *         and {@link #exitNode(Tree)} is to be called after
+     *         them.
+     */
+    protected abstract boolean enterNode (Tree node);
+
+
+    /**
+     * Processes a node after its children, see
+     * {@link #walk(Tree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     */
+    protected abstract void exitNode (Tree node);
+
+
+    /**
+     * A token stream that checks the {@link #deadline} while tokens
+     * are fetched from the lexer and looked at by the parser,
+     * including the lookahead of syntactic predicates, which can
+     * backtrack for long without consuming any token.
+     */
+    protected class DeadlineTokenStream extends CommonTokenStream {
+
+        private int lookaheads = 0;
+
+
+        public DeadlineTokenStream (TokenSource tokenSource) {
+            super(tokenSource);
+        }
+
+
+        @Override
+        protected void fetch (int n) {
+            checkDeadline();
+            super.fetch(n);
+        }
+
+
+        @Override
+        public Token LT (int k) {
+            if ((++lookaheads & 0xff) == 0)
+                checkDeadline();
+            return super.LT(k);
+        }
+    }
+
+
+    /**
+     * Checks the number of tokens and the nesting of brackets
+     * against the {@link #limits}.
+     * 
+     * @param tokens
+     *            The tokens of the query.
+     * @return true iff the query has neither too many tokens nor too
+     *         deeply nested brackets.
+     */
+    protected boolean checkTokens (List<? extends Token> tokens) {
+        int count = 0;
+        int nesting = 0;
+        int maxNesting = 0;
+        for (Token token : tokens) {
+            if (token.getType() == Token.EOF
+                    || token.getChannel() != Token.DEFAULT_CHANNEL)
+                continue;
+            count++;
+            switch (token.getText()) {
+                case "(":
+                case "[":
+                case "{":
+                    maxNesting = Math.max(maxNesting, ++nesting);
+                    break;
+                case ")":
+                case "]":
+                case "}":
+                    nesting--;
+                    break;
+            }
+        }
+        return checkTokens(count, maxNesting);
+    }
+
+
+    /**
+     * Checks the depth and the number of nodes of a tree against the
+     * {@link #limits}.
+     * 
+     * @param tree
+     *            The tree of the query.
+     * @return true iff the tree is neither too deep nor too large.
+     */
+    protected boolean checkParseTree (Tree tree) {
+        if (limits == null)
+            return true;
+        int nodeCount = 0;
+        int maxDepth = 0;
+        LinkedList<Tree> stack = new LinkedList<Tree>();
+        LinkedList<Integer> depths = new LinkedList<Integer>();
+        stack.push(tree);
+        depths.push(1);
+        while (!stack.isEmpty()) {
+            Tree current = stack.pop();
+            int depth = depths.pop();
+            nodeCount++;
+            maxDepth = Math.max(maxDepth, depth);
+            for (int i = 0; i < current.getChildCount(); i++) {
+                stack.push(current.getChild(i));
+                depths.push(depth + 1);
+            }
+        }
+        return checkParseTree(maxDepth, nodeCount);
+    }
+
+
+    /**
+     * Counts the nodes of a (sub-)tree.
+     * 
+     * @param node
+     *            The root of the tree.
+     * @return The number of nodes, including the root.
+     */
+    protected static int countNodes (Tree node) {
+        int count = 0;
+        LinkedList<Tree> stack = new LinkedList<Tree>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Tree current = stack.pop();
+            count++;
+            for (int i = 0; i < current.getChildCount(); i++) {
+                stack.push(current.getChild(i));
+            }
+        }
+        return count;
+    }
+
+
     /**
      * Tests whether a certain node has a child of a certain category.
      * 
@@ -1,13 +1,23 @@
 package de.ids_mannheim.korap.query.serialize;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import de.ids_mannheim.korap.query.serialize.util.TreeWalker;
+
 /**
  * This class is provides methods for navigation and search in
  * Abstract Syntax
@@ -32,25 +42,274 @@ public abstract class Antlr4AbstractQueryProcessor extends
      * can be used in the methods of this class.
      */
     protected Parser parser;
+    /**
+     * The lexer feeding the {@link #parser}. Both are created by the
+     * subclasses for the first query and reused for all further
+     * queries of a processor, see {@link #setInput(String,
+     * ANTLRErrorListener)}.
+     */
+    protected Lexer lexer;
+
+
+    /**
+     * Points the {@link #lexer} and the {@link #parser} at a new
+     * query. The error listener replaces the error listeners of the
+     * previous query. If there is a {@link #listener} or there are
+     * {@link #limits}, the query is tokenized right away.
+     * 
+     * @param query
+     *            The query string.
+     * @param errorListener
+     *            The error listener for this query.
+     * @return false iff the query exceeds the {@link #limits} on its
+     *         length or tokens, in which case it must not be parsed.
+     */
+    protected boolean setInput (String query,
+            ANTLRErrorListener errorListener) {
+        if (!checkQueryLength(query))
+            return false;
+        checkDeadline();
+        lexer.setInputStream(new ANTLRInputStream(query));
+        // a token stream cannot be reused, as it keeps its end of
+        // file flag
+        parser.setInputStream(deadline == null ? new CommonTokenStream(
+                lexer) : new DeadlineTokenStream(lexer));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        if (listener != null || limits != null) {
+            // tokenize the whole query, such that lexing is timed
+            // separately from parsing
+            long start = startTiming();
+            CommonTokenStream tokens = (CommonTokenStream) parser
+                    .getInputStream();
+            tokens.fill();
+            stageCompleted(TranslationListener.Stage.LEXING, start);
+            if (limits != null)
+                return checkTokens(tokens.getTokens());
+        }
+        return true;
+    }
+
+
+    /**
+     * A token stream that checks the {@link #deadline} while tokens
+     * are fetched from the lexer and looked at by the parser,
+     * including the lookahead of its adaptive prediction, which can
+     * take long without consuming any token.
+     */
+    private class DeadlineTokenStream extends CommonTokenStream {
+
+        private int lookaheads = 0;
+
+
+        DeadlineTokenStream (TokenSource tokenSource) {
+            super(tokenSource);
+        }
+
+
+        @Override
+        protected int fetch (int n) {
+            checkDeadline();
+            return super.fetch(n);
+        }
+
+
+        @Override
+        public Token LT (int k) {
+            if ((++lookaheads & 0xff) == 0)
+                checkDeadline();
+            return super.LT(k);
+        }
+    }
+
+
+    /**
+     * Checks the number of tokens and the nesting of brackets
+     * against the {@link #limits}.
+     */
+    private boolean checkTokens (List<Token> tokens) {
+        int count = 0;
+        int nesting = 0;
+        int maxNesting = 0;
+        for (Token token : tokens) {
+            if (token.getType() == Token.EOF
+                    || token.getChannel() != Token.DEFAULT_CHANNEL)
+                continue;
+            count++;
+            switch (token.getText()) {
+                case "(":
+                case "[":
+                case "{":
+                    maxNesting = Math.max(maxNesting, ++nesting);
+                    break;
+                case ")":
+                case "]":
+                case "}":
+                    nesting--;
+                    break;
+            }
+        }
+        return checkTokens(count, maxNesting);
+    }
+
+
+    /**
+     * Checks the depth and the number of nodes of a parse tree
+     * against the {@link #limits}.
+     * 
+     * @param tree
+     *            The parse tree of the query.
+     * @return true iff the tree is neither too deep nor too large.
+     */
+    protected boolean checkParseTree (ParseTree tree) {
+        if (limits == null)
+            return true;
+        int nodeCount = 0;
+        int maxDepth = 0;
+        LinkedList<ParseTree> stack = new LinkedList<ParseTree>();
+        LinkedList<Integer> depths = new LinkedList<Integer>();
+        stack.push(tree);
+        depths.push(1);
+        while (!stack.isEmpty()) {
+            ParseTree current = stack.pop();
+            int depth = depths.pop();
+            nodeCount++;
+            maxDepth = Math.max(maxDepth, depth);
+            for (int i = 0; i < current.getChildCount(); i++) {
+                stack.push(current.getChild(i));
+                depths.push(depth + 1);
+            }
+        }
+        return checkParseTree(maxDepth, nodeCount);
+    }
+
+
+    /**
+     * Also releases the characters and tokens of the last query held
+     * by the lexer and the token stream.
+     */
+    @Override
+    protected void releaseParseTree () {
+        super.releaseParseTree();
+        if (lexer != null) {
+            lexer.setInputStream((CharStream) null);
+            lexer.removeErrorListeners();
+            parser.setInputStream((TokenStream) null);
+            parser.removeErrorListeners();
+        }
+    }
 
 
     /**
      * Returns the category (or 'label') of the root of a (sub-)
-     * ParseTree (ANTLR 4).
+     * ParseTree (ANTLR 4). The category of a rule node is the name of
+     * its rule, the category of a terminal node is the text of its
+     * token. The category is looked up in constant time, i.e.
+     * independently of the size of the subtree.
      * 
      * @param node
      *            The tree node.
      * @return The category of the node.
      */
     protected String getNodeCat (ParseTree node) {
-        String nodeCat = node.toStringTree(parser);
-        // pattern: from opening parenthesis to 1st whitespace
-        Pattern p = Pattern.compile("\\((.*?)\\s");
-        Matcher m = p.matcher(node.toStringTree(parser));
-        if (m.find()) {
-            nodeCat = m.group(1);
+        if (node instanceof ParserRuleContext) {
+            return parser.getRuleNames()[((ParserRuleContext) node)
+                    .getRuleIndex()];
         }
-        return nodeCat;
+        return node.getText();
+    }
+
+
+    /**
+     * Walks the parse tree with an explicit stack, see
+     * {@link #walk(ParseTree)}.
+     */
+    private final TreeWalker<ParseTree> walker = new TreeWalker<ParseTree>() {
+        @Override
+        protected boolean enter (ParseTree node) {
+            checkDeadline();
+            return enterNode(node);
+        }
+
+
+        @Override
+        protected void exit (ParseTree node) {
+            exitNode(node);
+        }
+
+
+        @Override
+        protected int getChildCount (ParseTree node) {
+            return node.getChildCount();
+        }
+
+
+        @Override
+        protected ParseTree getChild (ParseTree node, int index) {
+            return node.getChild(index);
+        }
+    };
+
+
+    /**
+     * Traverses a (sub-)tree in a top-down, depth-first,
+     * left-to-right fashion, calling {@link #enterNode(ParseTree)}
+     * before and {@link #exitNode(ParseTree)} after the children of
+     * every node. The traversal does not recurse, so the depth of the
+     * tree is not limited by the stack size of the current thread.
+     * 
+     * @param node
+     *            The root of the (sub-)tree.
+     */
+    protected void walk (ParseTree node) {
+        walker.walk(node);
+    }
+
+
+    /**
+     * Processes a node before its children, see
+     * {@link #walk(ParseTree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     * @return true iff the children of the node are to be processed
+     *         and {@link #exitNode(ParseTree)} is to be called after
+     *         them.
+     */
+    protected abstract boolean enterNode (ParseTree node);
+
+
+    /**
+     * Processes a node after its children, see
+     * {@link #walk(ParseTree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     */
+    protected abstract void exitNode (ParseTree node);
+
+
+    /**
+     * Counts the nodes of a (sub-)tree.
+     * 
+     * @param node
+     *            The root of the tree.
+     * @return The number of nodes, including the root.
+     */
+    protected static int countNodes (ParseTree node) {
+        int count = 0;
+        LinkedList<ParseTree> stack = new LinkedList<ParseTree>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            ParseTree current = stack.pop();
+            count++;
+            for (int i = 0; i < current.getChildCount(); i++) {
+                stack.push(current.getChild(i));
+            }
+        }
+        return count;
     }
 
 
@@ -87,17 +346,22 @@ public abstract class Antlr4AbstractQueryProcessor extends
      *         specified
      *         category.
      */
-    protected boolean hasDescendantWithCat (ParseTree node, String childCat) {
-        for (int i = 0; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            if (getNodeCat(child).equals(childCat)) {
-                return true;
-            }
-            if (hasDescendantWithCat(child, childCat)) {
+    protected boolean hasDescendantWithCat (final ParseTree node,
+            final String childCat) {
+        final boolean[] found = new boolean[1];
+        new ParseTreeSearch() {
+            @Override
+            protected boolean enter (ParseTree descendant) {
+                if (descendant != node
+                        && getNodeCat(descendant).equals(childCat)) {
+                    found[0] = true;
+                    stop();
+                    return false;
+                }
                 return true;
             }
-        }
-        return false;
+        }.walk(node);
+        return found[0];
     }
 
 
@@ -154,19 +418,47 @@ public abstract class Antlr4AbstractQueryProcessor extends
      *         the given
      *         category.
      */
-    protected List<ParseTree> getDescendantsWithCat (ParseTree node,
-            String nodeCat) {
-        ArrayList<ParseTree> descendants = new ArrayList<ParseTree>();
-        for (ParseTree child : getChildren(node)) {
-            if (getNodeCat(child).equals(nodeCat)) {
-                descendants.add(child);
+    protected List<ParseTree> getDescendantsWithCat (final ParseTree node,
+            final String nodeCat) {
+        final ArrayList<ParseTree> descendants = new ArrayList<ParseTree>();
+        new ParseTreeSearch() {
+            @Override
+            protected boolean enter (ParseTree descendant) {
+                if (descendant != node
+                        && getNodeCat(descendant).equals(nodeCat)) {
+                    descendants.add(descendant);
+                }
+                return true;
             }
-            descendants.addAll(getDescendantsWithCat(child, nodeCat));
-        }
+        }.walk(node);
         return descendants;
     }
 
 
+    /**
+     * Searches a parse tree with an explicit stack, like
+     * {@link #walk(ParseTree)}.
+     */
+    private static abstract class ParseTreeSearch extends
+            TreeWalker<ParseTree> {
+
+        @Override
+        protected void exit (ParseTree node) {}
+
+
+        @Override
+        protected int getChildCount (ParseTree node) {
+            return node.getChildCount();
+        }
+
+
+        @Override
+        protected ParseTree getChild (ParseTree node, int index) {
+            return node.getChild(index);
+        }
+    }
+
+
     /**
      * Returns the first child of a node which is of a given category.
      * 
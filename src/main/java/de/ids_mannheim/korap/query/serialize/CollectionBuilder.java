@@ -0,0 +1,290 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import de.ids_mannheim.korap.query.object.KoralDoc;
+import de.ids_mannheim.korap.query.object.KoralDocGroup;
+import de.ids_mannheim.korap.query.serialize.util.CollectionSimplifier;
+import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+
+/**
+ * Assembles virtual collections programmatically, i.e. without
+ * writing and parsing collection queries, e.g.
+ *
+ * <pre>
+ * new CollectionBuilder().string(&quot;textClass&quot;, Match.EQ, &quot;politik&quot;)
+ *         .and(new CollectionBuilder().date(&quot;pubDate&quot;, Match.GEQ, &quot;2010&quot;)
+ *                 .or(new CollectionBuilder().reference(&quot;recent&quot;)))
+ * </pre>
+ *
+ * The <tt>koral:doc</tt>s and <tt>koral:docGroup</tt>s are the ones
+ * the {@link CollectionQueryProcessor} creates for the equivalent
+ * collection query, except that consecutive constraints form a single
+ * conjunction instead of nested binary ones.
+ *
+ * A builder can start from an already compiled collection, e.g. the
+ * <tt>collection</tt> of a translated request, to restrict it
+ * further without parsing it again. The compiled collection is not
+ * modified.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class CollectionBuilder {
+
+    /**
+     * The match operators of constraints.
+     */
+    public enum Match {
+        EQ, NE, CONTAINS, CONTAINSNOT, LT, GT, LEQ, GEQ;
+
+        private String toKoral () {
+            return "match:" + name().toLowerCase();
+        }
+
+
+        private boolean isInequation () {
+            return this == LT || this == GT || this == LEQ || this == GEQ;
+        }
+    }
+
+    private static final Pattern DATE_PATTERN = Pattern
+            .compile("[0-9]{4}(-[0-9]{2}(-[0-9]{2})?)?");
+
+    private Map<String, Object> collection;
+    /**
+     * Whether the collection is a conjunction created by this builder
+     * that has not been handed out yet, such that further constraints
+     * can be added to its operands.
+     */
+    private boolean extensible;
+
+
+    public CollectionBuilder () {}
+
+
+    /**
+     * @param collection
+     *            A compiled collection, which is restricted by the
+     *            constraints added to this builder, or null.
+     */
+    public CollectionBuilder (Map<String, Object> collection) {
+        if (collection != null && !collection.isEmpty())
+            this.collection = collection;
+    }
+
+
+    /**
+     * Adds a constraint on a string field, e.g.
+     * <tt>textClass=politik</tt>.
+     *
+     * @param key
+     *            The field.
+     * @param match
+     *            EQ, NE, CONTAINS or CONTAINSNOT.
+     * @param value
+     *            The value.
+     * @return This builder.
+     * @throws IllegalArgumentException
+     *             If the match is an inequation, which is only
+     *             defined for dates.
+     */
+    public CollectionBuilder string (String key, Match match, String value) {
+        if (match.isInequation())
+            throw new IllegalArgumentException("The match " + match
+                    + " is only defined for dates!");
+        KoralDoc doc = doc(key);
+        doc.put("value", value);
+        doc.put("match", match.toKoral());
+        return add(doc);
+    }
+
+
+    /**
+     * Adds a constraint with a regular expression, e.g.
+     * <tt>textClass=/pol.*&#47;</tt>.
+     *
+     * @param key
+     *            The field.
+     * @param match
+     *            EQ, NE, CONTAINS or CONTAINSNOT.
+     * @param regex
+     *            The regular expression without slashes.
+     * @return This builder.
+     * @throws IllegalArgumentException
+     *             If the match is an inequation, which is only
+     *             defined for dates.
+     */
+    public CollectionBuilder regex (String key, Match match, String regex) {
+        if (match.isInequation())
+            throw new IllegalArgumentException("The match " + match
+                    + " is only defined for dates!");
+        KoralDoc doc = doc(key);
+        doc.put("value", regex);
+        doc.put("type", "type:regex");
+        doc.put("match", match.toKoral());
+        return add(doc);
+    }
+
+
+    /**
+     * Adds a constraint on a date field, e.g.
+     * <tt>pubDate since 2010</tt>, which corresponds to the match
+     * GEQ, <tt>until</tt> to LEQ and <tt>in</tt> to EQ.
+     *
+     * @param key
+     *            The field.
+     * @param match
+     *            EQ, NE or an inequation.
+     * @param date
+     *            The date in the form <tt>yyyy[-mm[-dd]]</tt>.
+     * @return This builder.
+     * @throws IllegalArgumentException
+     *             If the date is malformed or the match is CONTAINS
+     *             or CONTAINSNOT.
+     */
+    public CollectionBuilder date (String key, Match match, String date) {
+        if (match == Match.CONTAINS || match == Match.CONTAINSNOT)
+            throw new IllegalArgumentException("The match " + match
+                    + " is not defined for dates!");
+        if (date == null || !DATE_PATTERN.matcher(date).matches())
+            throw new IllegalArgumentException("Malformed date: " + date);
+        KoralDoc doc = doc(key);
+        doc.put("type", "type:date");
+        doc.put("value", date);
+        doc.put("match", match.toKoral());
+        return add(doc);
+    }
+
+
+    /**
+     * Adds a set constraint, e.g. <tt>corpusSigle in [GOE, WPD]</tt>.
+     *
+     * @param key
+     *            The field.
+     * @param values
+     *            The values, of which duplicates are removed.
+     * @return This builder.
+     * @throws IllegalArgumentException
+     *             If there are no values.
+     */
+    public CollectionBuilder in (String key, Collection<String> values) {
+        if (values.isEmpty())
+            throw new IllegalArgumentException("The set of " + key
+                    + " is empty!");
+        KoralDoc doc = doc(key);
+        doc.put("value", new ArrayList<Object>(new LinkedHashSet<String>(
+                values)));
+        doc.put("match", "match:in");
+        return add(doc);
+    }
+
+
+    /**
+     * Adds a reference to a named collection, e.g.
+     * <tt>referTo recent</tt>.
+     *
+     * @param name
+     *            The name of the collection.
+     * @return This builder.
+     */
+    public CollectionBuilder reference (String name) {
+        return add(KoralObjectGenerator.makeDocGroupRef(name));
+    }
+
+
+    /**
+     * Restricts the collection to the collection of another builder.
+     *
+     * @param other
+     *            A builder, whose collection is taken as it is.
+     * @return This builder.
+     */
+    public CollectionBuilder and (CollectionBuilder other) {
+        return add(other.build());
+    }
+
+
+    /**
+     * Extends the collection by the collection of another builder.
+     *
+     * @param other
+     *            A builder, whose collection is taken as it is.
+     * @return This builder.
+     */
+    public CollectionBuilder or (CollectionBuilder other) {
+        Map<String, Object> operand = other.build();
+        if (operand == null)
+            return this;
+        if (collection != null) {
+            KoralDocGroup group = KoralObjectGenerator.makeDocGroup("or");
+            group.getOperands().add(collection);
+            group.getOperands().add(operand);
+            operand = group;
+        }
+        collection = operand;
+        extensible = false;
+        return this;
+    }
+
+
+    /**
+     * Negates the collection, see
+     * {@link CollectionSimplifier#negate(Map)}.
+     *
+     * @return This builder.
+     * @throws IllegalArgumentException
+     *             If the collection contains a constraint that cannot
+     *             be negated, e.g. a reference or a date comparison.
+     */
+    public CollectionBuilder not () {
+        if (collection != null) {
+            collection = CollectionSimplifier.negate(collection);
+            extensible = false;
+        }
+        return this;
+    }
+
+
+    /**
+     * Returns the collection. Constraints added to this builder
+     * afterwards do not modify it.
+     *
+     * @return The collection, or null if it is empty.
+     */
+    public Map<String, Object> build () {
+        extensible = false;
+        return collection;
+    }
+
+
+    private static KoralDoc doc (String key) {
+        KoralDoc doc = KoralObjectGenerator.makeDoc();
+        doc.put("key", key);
+        return doc;
+    }
+
+
+    private CollectionBuilder add (Map<String, Object> operand) {
+        if (operand == null)
+            return this;
+        if (collection == null) {
+            collection = operand;
+        }
+        else if (extensible) {
+            ((KoralDocGroup) collection).getOperands().add(operand);
+        }
+        else {
+            KoralDocGroup group = KoralObjectGenerator.makeDocGroup("and");
+            group.getOperands().add(collection);
+            group.getOperands().add(operand);
+            collection = group;
+            extensible = true;
+        }
+        return this;
+    }
+}
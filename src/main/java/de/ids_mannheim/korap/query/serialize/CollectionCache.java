@@ -0,0 +1,140 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * A bounded cache of compiled virtual collections that can be shared
+ * by any number of {@link QuerySerializer}s (see
+ * {@link QuerySerializer#setCollectionCache(CollectionCache)}).
+ *
+ * Compiled collections are keyed on the collection query string and
+ * the settings of the serializer that its translation depends on,
+ * i.e. its query limits and its handling of collections, but not on
+ * the query, so that requests with different queries or meta
+ * information but the same corpus restriction share them. A
+ * compiled collection consists of the immutable translation of the
+ * collection query (including its errors, warnings and messages) and
+ * the JSON serialization of its <tt>collection</tt>, which the
+ * serializers copy into their output instead of serializing the
+ * collection again. Collections with expanded references to a
+ * {@link CollectionRegistry} are not serialized in advance, since
+ * the registered collections are streamed from their files. As with the {@link TranslationCache}, concurrent
+ * requests for a collection that is not yet cached wait for a single
+ * translation, failed translations are not cached, and the least
+ * recently used entries are evicted once the maximum size is reached.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class CollectionCache extends
+        SingleFlightCache<List<Object>, CollectionCache.CompiledCollection> {
+
+    private static final ObjectWriter writer = new ObjectMapper().writer();
+
+
+    /**
+     * The translation of a collection query together with the JSON
+     * serialization of its collection.
+     */
+    static class CompiledCollection {
+
+        /**
+         * The immutable request map of the collection query.
+         */
+        final Map<String, Object> request;
+        /**
+         * The serialized collection, or null if the collection is
+         * empty or contains expanded references, which are streamed
+         * from their files instead.
+         */
+        final String json;
+
+
+        CompiledCollection (Map<String, Object> request, String json) {
+            this.request = request;
+            this.json = json;
+        }
+    }
+
+
+    /**
+     * @param maximumSize
+     *            The maximum number of collections kept in the cache.
+     */
+    public CollectionCache (int maximumSize) {
+        super(maximumSize);
+    }
+
+
+    /**
+     * Returns the compiled collection for the given collection query,
+     * translating it with the loader if it is not cached yet.
+     *
+     * @param collection
+     *            The collection query.
+     * @param settings
+     *            The settings of the serializer the translation
+     *            depends on, e.g. its query limits, which must
+     *            implement {@link Object#equals(Object)}.
+     * @param loader
+     *            Translates the collection query if it is not cached
+     *            yet.
+     * @param deadline
+     *            The deadline of the request, may be null.
+     * @return The compiled collection.
+     * @throws TranslationCancelledException
+     *             If the deadline has expired.
+     */
+    CompiledCollection get (String collection, Object settings,
+            final Callable<Map<String, Object>> loader,
+            TranslationDeadline deadline) {
+        return get(Arrays.asList(collection, settings),
+                new Callable<CompiledCollection>() {
+                    @Override
+                    public CompiledCollection call () throws Exception {
+                        return compile(loader.call());
+                    }
+                }, deadline);
+    }
+
+
+    private static CompiledCollection compile (Map<String, Object> request)
+            throws JsonProcessingException {
+        request = TranslationCache.freeze(request);
+        Object collection = request.get("collection");
+        String json = null;
+        if (collection instanceof Map && !((Map<?, ?>) collection).isEmpty()
+                && !containsRegisteredCollection(collection))
+            json = writer.writeValueAsString(collection);
+        return new CompiledCollection(request, json);
+    }
+
+
+    /**
+     * Checks whether a collection contains a registered collection,
+     * whose serialization would copy its whole file to the heap.
+     */
+    private static boolean containsRegisteredCollection (Object collection) {
+        LinkedList<Object> pending = new LinkedList<Object>();
+        pending.push(collection);
+        // groups may be nested deeply
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (object instanceof CollectionRegistry.RegisteredCollection)
+                return true;
+            if (object instanceof Map
+                    && ((Map<?, ?>) object).get("operands") instanceof List)
+                pending.addAll((List<?>) ((Map<?, ?>) object)
+                        .get("operands"));
+        }
+        return false;
+    }
+}
@@ -1,17 +1,20 @@
 package de.ids_mannheim.korap.query.serialize;
 
+import de.ids_mannheim.korap.query.object.*;
 import de.ids_mannheim.korap.query.parse.collection.CollectionQueryLexer;
 import de.ids_mannheim.korap.query.parse.collection.CollectionQueryParser;
 import de.ids_mannheim.korap.query.serialize.util.Antlr4DescriptiveErrorListener;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,54 +38,105 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
     private static Logger log = LoggerFactory
             .getLogger(CollectionQueryProcessor.class);
 
+    /**
+     * Two-stage (SLL, then LL) parsing of collection queries, shared
+     * by all processors.
+     */
+    private static final TwoStageParsing twoStageParsing = new TwoStageParsing();
+    private static final Pattern DATE_PATTERN = Pattern
+            .compile("[0-9]{4}(-([0-9]{2})(-([0-9]{2}))?)?");
+    /**
+     * The number of equations on the same field from which on a
+     * disjunction is collapsed into a set constraint, see
+     * {@link #collapseDisjunctions()}.
+     */
+    public static final int MIN_SET_SIZE = 8;
+    private static final TwoStageParsing.StartRule<CollectionQueryParser> startRule = new TwoStageParsing.StartRule<CollectionQueryParser>() {
+        @Override
+        public ParserRuleContext invoke (CollectionQueryParser parser) {
+            return parser.start();
+        }
+    };
 
-    public CollectionQueryProcessor () {
-        KoralObjectGenerator.setQueryProcessor(this);
-    }
+
+    public CollectionQueryProcessor () {}
 
 
     public CollectionQueryProcessor (boolean verbose) {
-        KoralObjectGenerator.setQueryProcessor(this);
-        CollectionQueryProcessor.verbose = verbose;
+        this.printDebug = verbose;
     }
 
 
     public CollectionQueryProcessor (String query) {
-        KoralObjectGenerator.setQueryProcessor(this);
         process(query);
     }
 
 
     @Override
     public void process (String query) {
-        ParseTree tree = parseCollectionQuery(query);
-        if (this.parser != null) {
-            super.parser = this.parser;
-        }
-        else {
-            throw new NullPointerException("Parser has not been instantiated!");
-        }
-        log.info("Processing virtual collection query: " + query);
-        if (verbose)
-            System.out.println(tree.toStringTree(parser));
-        if (tree != null) {
-            log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
-            processNode(tree);
+        AbstractQueryProcessor previous = KoralObjectGenerator
+                .getQueryProcessor();
+        KoralObjectGenerator.setQueryProcessor(this);
+        long start = startTiming();
+        int nodeCount = 0;
+        try {
+            ParseTree tree = parseCollectionQuery(query);
+            if (this.parser != null) {
+                super.parser = this.parser;
+            }
+            else {
+                throw new NullPointerException("Parser has not been instantiated!");
+            }
+            log.debug("Processing virtual collection query: " + query);
+            if (tree != null && checkParseTree(tree)) {
+                if (printDebug)
+                    System.out.println(tree.toStringTree(parser));
+                if (log.isDebugEnabled())
+                    log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
+                if (listener != null)
+                    nodeCount = countNodes(tree);
+                long translationStart = startTiming();
+                walk(tree);
+                collapseDisjunctions();
+                stageCompleted(TranslationListener.Stage.TRANSLATION,
+                        translationStart);
+            }
+            else if (!isLimitExceeded()) {
+                addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
+                        + query + " <<<.");
+            }
         }
-        else {
-            addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
-                    + query + " <<<.");
+        finally {
+            queryProcessed(nodeCount, start);
+            releaseParseTree();
+            KoralObjectGenerator.setQueryProcessor(previous);
         }
     }
 
 
-    private void processNode (ParseTree node) {
+    @Override
+    protected String getQueryLanguage () {
+        return "collection";
+    }
+
+
+    /**
+     * Processes a node before its children, see
+     * {@link #walk(ParseTree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     * @return false iff the node is an illegal constraint, in which
+     *         case its children are not processed.
+     */
+    @Override
+    protected boolean enterNode (ParseTree node) {
         // Top-down processing
         String nodeCat = getNodeCat(node);
         openNodeCats.push(nodeCat);
 
         stackedObjects = 0;
-        if (verbose) {
+        if (printDebug) {
             System.err.println(" " + objectStack);
             System.out.println(openNodeCats);
         }
@@ -95,138 +149,379 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
          ****************************************************************
          */
 
-        if (nodeCat.equals("relation")) {
-            String operator = getNodeCat(node.getChild(1).getChild(0)).equals(
-                    "&") ? "and" : "or";
-            LinkedHashMap<String, Object> relationGroup = KoralObjectGenerator
-                    .makeDocGroup(operator);
-            putIntoSuperObject(relationGroup);
-            objectStack.push(relationGroup);
-            stackedObjects++;
+        switch (nodeCat) {
+            case "relation":
+                processRelation(node);
+                break;
+            case "constraint":
+                if (!processConstraint(node))
+                    return false;
+                break;
+            case "dateconstraint":
+                if (!processDateconstraint(node))
+                    return false;
+                break;
+            case "setconstraint":
+                if (!processSetconstraint(node))
+                    return false;
+                break;
+            case "vcReference":
+                processVcReference(node);
+                break;
+            case "token":
+                processToken(node);
+                break;
         }
 
-        if (nodeCat.equals("constraint")) {
-            ParseTree fieldNode = getFirstChildWithCat(node, "field");
-            String field = fieldNode.getChild(0).toStringTree(parser);
-            ParseTree operatorNode = getFirstChildWithCat(node, "operator");
-            ParseTree valueNode = getFirstChildWithCat(node, "value");
-            LinkedHashMap<String, Object> term = KoralObjectGenerator.makeDoc();
-            term.put("key", field);
-            term.putAll(parseValue(valueNode));
-            String match = operatorNode.getText();
-            term.put("match", "match:" + interpretMatchOperator(match));
-            if (checkOperatorValueConformance(term) == false) {
-                requestMap = new LinkedHashMap<String, Object>();
-                return;
+        objectsToPop.push(stackedObjects);
+        return true;
+    }
+
+
+    /**
+     * Processes a node after its children, taking the items pushed
+     * by {@link #enterNode(ParseTree)} off the stacks.
+     * 
+     * @param node
+     *            The currently processed node.
+     */
+    @Override
+    protected void exitNode (ParseTree node) {
+        if (!objectsToPop.isEmpty()) {
+            int toPop = objectsToPop.pop();
+            for (int i = 0; i < toPop; i++) {
+                objectStack.pop();
             }
-            if (checkDateValidity(valueNode)) {
-                addWarning("The collection query contains a value that looks"
-                        + " like a date ('" + valueNode.getText() + "') and an"
-                        + " operator that is only defined for strings" + " ('"
-                        + match + "'). The value is interpreted as"
-                        + " a string. Use a date operator to ensure the value"
-                        + " is treated as a date");
+        }
+        openNodeCats.pop();
+
+
+    }
+
+
+    /**
+     * Processes a 'relation' node.
+     * 
+     * @param node
+     */
+    private void processRelation (ParseTree node) {
+        String operator = getNodeCat(node.getChild(1).getChild(0)).equals(
+                "&") ? "and" : "or";
+        KoralDocGroup relationGroup = KoralObjectGenerator
+                .makeDocGroup(operator);
+        putIntoSuperObject(relationGroup);
+        objectStack.push(relationGroup);
+        stackedObjects++;
+    }
+
+
+    /**
+     * Processes a 'constraint' node.
+     * 
+     * @param node
+     * @return false iff the constraint is illegal, in which case the
+     *         request is discarded.
+     */
+    private boolean processConstraint (ParseTree node) {
+        ParseTree fieldNode = getFirstChildWithCat(node, "field");
+        String field = fieldNode.getChild(0).toStringTree(parser);
+        ParseTree operatorNode = getFirstChildWithCat(node, "operator");
+        ParseTree valueNode = getFirstChildWithCat(node, "value");
+        KoralDoc term = KoralObjectGenerator.makeDoc();
+        term.put("key", field);
+        term.putAll(parseValue(valueNode));
+        String match = operatorNode.getText();
+        term.put("match", "match:" + interpretMatchOperator(match));
+        if (checkOperatorValueConformance(term) == false) {
+            discardCollection();
+            return false;
+        }
+        if (checkDateValidity(valueNode)) {
+            addWarning("The collection query contains a value that looks"
+                    + " like a date ('" + valueNode.getText() + "') and an"
+                    + " operator that is only defined for strings" + " ('"
+                    + match + "'). The value is interpreted as"
+                    + " a string. Use a date operator to ensure the value"
+                    + " is treated as a date");
+        }
+        putIntoSuperObject(term);
+        return true;
+    }
+
+
+    /**
+     * Processes a 'dateconstraint' node.
+     * 
+     * @param node
+     * @return false iff the constraint is illegal, in which case the
+     *         request is discarded.
+     */
+    private boolean processDateconstraint (ParseTree node) {
+        ParseTree fieldNode = getFirstChildWithCat(node, "field");
+        String field = fieldNode.getChild(0).toStringTree(parser);
+        ParseTree dateOpNode = getFirstChildWithCat(node, "dateOp");
+        ParseTree dateNode = getFirstChildWithCat(node, "date");
+
+        KoralDoc term = KoralObjectGenerator.makeDoc();
+        term.put("key", field);
+        term.putAll(parseValue(dateNode));
+        String match = dateOpNode.getText();
+        term.put("match", "match:" + interpretMatchOperator(match));
+        if (checkOperatorValueConformance(term) == false) {
+            discardCollection();
+            return false;
+        }
+        putIntoSuperObject(term);
+        return true;
+    }
+
+
+    /**
+     * Processes a 'setconstraint' node, i.e. <tt>field in [v1, v2,
+     * ...]</tt>, into a single <tt>koral:doc</tt> with the match
+     * <tt>match:in</tt> and the list of values.
+     * 
+     * @param node
+     * @return false iff the constraint is illegal, in which case the
+     *         request is discarded.
+     */
+    private boolean processSetconstraint (ParseTree node) {
+        ParseTree fieldNode = getFirstChildWithCat(node, "field");
+        String field = fieldNode.getChild(0).toStringTree(parser);
+        ParseTree valueListNode = getFirstChildWithCat(node, "valueList");
+        Set<Object> values = new LinkedHashSet<Object>();
+        for (ParseTree valueNode : getChildrenWithCat(valueListNode, "value")) {
+            LinkedHashMap<String, Object> value = parseValue(valueNode);
+            if (value.containsKey("type")) {
+                addError(StatusCodes.INCOMPATIBLE_OPERATOR_AND_OPERAND,
+                        "You used a regular expression in a value list.");
+                discardCollection();
+                return false;
             }
-            putIntoSuperObject(term);
-        }
-
-        if (nodeCat.equals("dateconstraint")) {
-            ParseTree fieldNode = getFirstChildWithCat(node, "field");
-            String field = fieldNode.getChild(0).toStringTree(parser);
-            ParseTree dateOpNode = getFirstChildWithCat(node, "dateOp");
-            ParseTree dateNode = getFirstChildWithCat(node, "date");
-
-            LinkedHashMap<String, Object> term = KoralObjectGenerator.makeDoc();
-            term.put("key", field);
-            term.putAll(parseValue(dateNode));
-            String match = dateOpNode.getText();
-            term.put("match", "match:" + interpretMatchOperator(match));
-            if (checkOperatorValueConformance(term) == false) {
-                requestMap = new LinkedHashMap<String, Object>();
-                return;
+            values.add(value.get("value"));
+        }
+        putIntoSuperObject(makeSet(field, values));
+        return true;
+    }
+
+
+    /**
+     * Discards the request after an illegal constraint, but keeps its
+     * errors, warnings and messages, such that the collection query is
+     * rejected instead of silently selecting all documents.
+     */
+    private void discardCollection () {
+        LinkedHashMap<String, Object> discarded = new LinkedHashMap<String, Object>();
+        discarded.put("errors", requestMap.get("errors"));
+        discarded.put("warnings", requestMap.get("warnings"));
+        discarded.put("messages", requestMap.get("messages"));
+        requestMap = discarded;
+    }
+
+
+    /**
+     * Processes a 'vcReference' node, i.e. <tt>referTo name</tt>, into
+     * a <tt>koral:docGroupRef</tt>.
+     * 
+     * @param node
+     */
+    private void processVcReference (ParseTree node) {
+        ParseTree nameNode = node.getChild(1);
+        String name = nameNode.getText();
+        if (getNodeCat(nameNode).equals("multiword")) {
+            name = "";
+            for (int i = 1; i < nameNode.getChildCount() - 1; i++) {
+                name += nameNode.getChild(i).getText() + " ";
             }
-            putIntoSuperObject(term);
+            name = name.substring(0, name.length() - 1);
         }
+        putIntoSuperObject(KoralObjectGenerator.makeDocGroupRef(name));
+    }
 
-        if (nodeCat.equals("token")) {
-            LinkedHashMap<String, Object> token = KoralObjectGenerator
-                    .makeToken();
-            // handle negation
-            List<ParseTree> negations = getChildrenWithCat(node, "!");
-            boolean negated = false;
-            boolean isRegex = false;
-            if (negations.size() % 2 == 1)
-                negated = true;
-            if (getNodeCat(node.getChild(0)).equals("key")) {
-                // no 'term' child, but direct key specification: process here
-                LinkedHashMap<String, Object> term = KoralObjectGenerator
-                        .makeTerm();
-                String key = node.getChild(0).getText();
-                if (getNodeCat(node.getChild(0).getChild(0)).equals("regex")) {
-                    isRegex = true;
-                    term.put("type", "type:regex");
-                    key = key.substring(1, key.length() - 1);
-                }
-                term.put("layer", "orth");
-                term.put("key", key);
-                String matches = negated ? "ne" : "eq";
-                term.put("match", "match:" + matches);
-                ParseTree flagNode = getFirstChildWithCat(node, "flag");
-                if (flagNode != null) {
-                    // substring removes leading slash '/'
-                    String flag = getNodeCat(flagNode.getChild(0)).substring(1);
-                    if (flag.contains("i"))
-                        term.put("caseInsensitive", true);
-                    else if (flag.contains("I"))
-                        term.put("caseInsensitive", false);
-                    if (flag.contains("x")) {
-                        term.put("type", "type:regex");
-                        if (!isRegex) {
-                            key = QueryUtils.escapeRegexSpecialChars(key);
-                        }
-                        term.put("key", ".*?" + key + ".*?"); // overwrite key
-                    }
+
+    private KoralDoc makeSet (String field, Collection<Object> values) {
+        KoralDoc set = KoralObjectGenerator.makeDoc();
+        set.put("key", field);
+        set.put("value", new ArrayList<Object>(values));
+        set.put("match", "match:in");
+        return set;
+    }
+
+
+    /**
+     * Collapses the equations on the same field in the disjunctions
+     * of the collection into set constraints, if there are at least
+     * {@link #MIN_SET_SIZE} of them, e.g. <tt>corpusSigle=A |
+     * corpusSigle=B | ...</tt> into <tt>corpusSigle in [A, B,
+     * ...]</tt>. Nested disjunctions are flattened into the
+     * disjunctions they are part of. As the nesting may be deep, the
+     * collection is traversed without recursion.
+     */
+    private void collapseDisjunctions () {
+        Object collection = requestMap.get("collection");
+        if (!(collection instanceof KoralDocGroup))
+            return;
+        LinkedList<List<Object>> pending = new LinkedList<List<Object>>();
+        requestMap.put("collection", collapse(collection, pending));
+        while (!pending.isEmpty()) {
+            List<Object> operands = pending.pop();
+            for (int i = 0; i < operands.size(); i++) {
+                operands.set(i, collapse(operands.get(i), pending));
+            }
+        }
+    }
+
+
+    /**
+     * Collapses the equations of a disjunction, see
+     * {@link #collapseDisjunctions()}.
+     * 
+     * @param object
+     *            An object of the collection.
+     * @param pending
+     *            The operand lists that remain to be processed, to
+     *            which the operands of the object are added.
+     * @return The object, or the collapsed disjunction.
+     */
+    private Object collapse (Object object, LinkedList<List<Object>> pending) {
+        if (!(object instanceof KoralDocGroup))
+            return object;
+        KoralDocGroup group = (KoralDocGroup) object;
+        if (!group.getOperation().equals("operation:or")) {
+            pending.push(group.getOperands());
+            return group;
+        }
+        // flatten nested disjunctions
+        List<Object> operands = new ArrayList<Object>();
+        LinkedList<Object> stack = new LinkedList<Object>();
+        stack.push(group);
+        while (!stack.isEmpty()) {
+            Object operand = stack.pop();
+            if (operand instanceof KoralDocGroup
+                    && ((KoralDocGroup) operand).getOperation().equals(
+                            "operation:or")) {
+                List<Object> nested = ((KoralDocGroup) operand).getOperands();
+                for (int i = nested.size() - 1; i >= 0; i--) {
+                    stack.push(nested.get(i));
                 }
-                token.put("wrap", term);
             }
             else {
-                // child is 'term' or 'termGroup' -> process in extra method 
-                LinkedHashMap<String, Object> termOrTermGroup = parseTermOrTermGroup(
-                        node.getChild(1), negated);
-                token.put("wrap", termOrTermGroup);
+                operands.add(operand);
+                if (operand instanceof KoralDocGroup)
+                    pending.push(((KoralDocGroup) operand).getOperands());
             }
-            putIntoSuperObject(token);
-            visited.add(node.getChild(0));
-            visited.add(node.getChild(2));
         }
-        objectsToPop.push(stackedObjects);
-
-        /*
-         ****************************************************************
-         **************************************************************** 
-         *  recursion until 'request' node (root of tree) is processed  *
-         ****************************************************************
-         ****************************************************************
-         */
-        for (int i = 0; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            processNode(child);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        boolean collapsible = false;
+        for (Object operand : operands) {
+            String field = equationField(operand);
+            if (field != null) {
+                int count = counts.containsKey(field) ? counts.get(field) + 1
+                        : 1;
+                counts.put(field, count);
+                collapsible |= count >= MIN_SET_SIZE;
+            }
         }
-
-        /*
-         **************************************************************
-         * Stuff that happens after processing the children of a node *
-         **************************************************************
-         */
-        if (!objectsToPop.isEmpty()) {
-            int toPop = objectsToPop.pop();
-            for (int i = 0; i < toPop; i++) {
-                objectStack.pop();
+        if (!collapsible)
+            return group;
+        // the set takes the place of the first equation
+        Map<String, Set<Object>> sets = new HashMap<String, Set<Object>>();
+        List<Object> collapsed = new ArrayList<Object>();
+        for (Object operand : operands) {
+            String field = equationField(operand);
+            if (field == null || counts.get(field) < MIN_SET_SIZE) {
+                collapsed.add(operand);
+            }
+            else {
+                if (!sets.containsKey(field)) {
+                    sets.put(field, new LinkedHashSet<Object>());
+                    collapsed.add(field);
+                }
+                sets.get(field).add(((KoralDoc) operand).getValue());
             }
         }
-        openNodeCats.pop();
+        for (int i = 0; i < collapsed.size(); i++) {
+            if (collapsed.get(i) instanceof String) {
+                String field = (String) collapsed.get(i);
+                collapsed.set(i, makeSet(field, sets.get(field)));
+            }
+        }
+        if (collapsed.size() == 1)
+            return collapsed.get(0);
+        group.getOperands().clear();
+        group.getOperands().addAll(collapsed);
+        return group;
+    }
 
 
+    /**
+     * @return The field of a string equation, e.g.
+     *         <tt>corpusSigle=A</tt>, or null if the object is none.
+     */
+    private static String equationField (Object object) {
+        if (!(object instanceof KoralDoc))
+            return null;
+        KoralDoc doc = (KoralDoc) object;
+        if (!"match:eq".equals(doc.getMatch()) || doc.containsKey("type")
+                || !(doc.getValue() instanceof String))
+            return null;
+        return doc.getKey();
+    }
+
+
+    /**
+     * Processes a 'token' node.
+     * 
+     * @param node
+     */
+    private void processToken (ParseTree node) {
+        KoralToken token = KoralObjectGenerator.makeToken();
+        // handle negation
+        List<ParseTree> negations = getChildrenWithCat(node, "!");
+        boolean negated = false;
+        boolean isRegex = false;
+        if (negations.size() % 2 == 1)
+            negated = true;
+        if (getNodeCat(node.getChild(0)).equals("key")) {
+            // no 'term' child, but direct key specification: process here
+            KoralTerm term = KoralObjectGenerator.makeTerm();
+            String key = node.getChild(0).getText();
+            if (getNodeCat(node.getChild(0).getChild(0)).equals("regex")) {
+                isRegex = true;
+                term.put("type", "type:regex");
+                key = key.substring(1, key.length() - 1);
+            }
+            term.put("layer", "orth");
+            term.put("key", key);
+            String matches = negated ? "ne" : "eq";
+            term.put("match", "match:" + matches);
+            ParseTree flagNode = getFirstChildWithCat(node, "flag");
+            if (flagNode != null) {
+                // substring removes leading slash '/'
+                String flag = getNodeCat(flagNode.getChild(0)).substring(1);
+                if (flag.contains("i"))
+                    term.put("caseInsensitive", true);
+                else if (flag.contains("I"))
+                    term.put("caseInsensitive", false);
+                if (flag.contains("x")) {
+                    term.put("type", "type:regex");
+                    if (!isRegex) {
+                        key = QueryUtils.escapeRegexSpecialChars(key);
+                    }
+                    term.put("key", ".*?" + key + ".*?"); // overwrite key
+                }
+            }
+            token.put("wrap", term);
+        }
+        else {
+            // child is 'term' or 'termGroup' -> process in extra method 
+            LinkedHashMap<String, Object> termOrTermGroup = parseTermOrTermGroup(
+                    node.getChild(1), negated);
+            token.put("wrap", termOrTermGroup);
+        }
+        putIntoSuperObject(token);
+        visited.add(node.getChild(0));
+        visited.add(node.getChild(2));
     }
 
 
@@ -284,8 +579,7 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
      * @return
      */
     private boolean checkDateValidity (ParseTree valueNode) {
-        Pattern p = Pattern.compile("[0-9]{4}(-([0-9]{2})(-([0-9]{2}))?)?");
-        Matcher m = p.matcher(valueNode.getText());
+        Matcher m = DATE_PATTERN.matcher(valueNode.getText());
 
         if (!m.find())
             return false;
@@ -384,8 +678,8 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
     private void putIntoSuperObject (LinkedHashMap<String, Object> object,
             int objStackPosition) {
         if (objectStack.size() > objStackPosition) {
-            ArrayList<Object> topObjectOperands = (ArrayList<Object>) objectStack
-                    .get(objStackPosition).get("operands");
+            List<Object> topObjectOperands = objectStack.get(
+                    objStackPosition).getOperands();
             topObjectOperands.add(object);
         }
         else {
@@ -418,8 +712,7 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
             boolean negatedGlobal, String mode) {
         if (getNodeCat(node).equals("term")) {
             String key = null;
-            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                    .makeTerm();
+            KoralTerm term = KoralObjectGenerator.makeTerm();
             // handle negation
             boolean negated = negatedGlobal;
             boolean isRegex = false;
@@ -493,7 +786,7 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
             // For termGroups, establish a boolean relation between operands 
             // and recursively call this function with the term or termGroup 
             // operands.
-            LinkedHashMap<String, Object> termGroup = null;
+            KoralTermGroup termGroup = null;
             ParseTree leftOp = null;
             ParseTree rightOp = null;
             // check for leading/trailing parantheses
@@ -510,8 +803,7 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
             ParseTree boolOp = getFirstChildWithCat(node, "booleanOp");
             String operator = boolOp.getText().equals("&") ? "and" : "or";
             termGroup = KoralObjectGenerator.makeTermGroup(operator);
-            ArrayList<Object> operands = (ArrayList<Object>) termGroup
-                    .get("operands");
+            List<Object> operands = termGroup.getOperands();
             // recursion with left/right operands
             operands.add(parseTermOrTermGroup(leftOp, negatedGlobal, mode));
             operands.add(parseTermOrTermGroup(rightOp, negatedGlobal, mode));
@@ -520,36 +812,51 @@ public class CollectionQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
+    /**
+     * Returns the settings and statistics of the two-stage parsing of
+     * collection queries. The SLL stage can be switched off, and the
+     * counters show how often the parser had to fall back to LL mode.
+     * 
+     * @return The {@link TwoStageParsing} shared by all processors.
+     */
+    public static TwoStageParsing getTwoStageParsing () {
+        return twoStageParsing;
+    }
+
+
     private ParserRuleContext parseCollectionQuery (String query) {
-        Lexer lexer = new CollectionQueryLexer((CharStream) null);
         ParserRuleContext tree = null;
         Antlr4DescriptiveErrorListener errorListener = new Antlr4DescriptiveErrorListener(
                 query);
         // Like p. 111
         try {
-
+            // Reuse lexer and parser of previous queries
+            if (parser == null) {
+                lexer = new CollectionQueryLexer((CharStream) null);
+                parser = new CollectionQueryParser((TokenStream) null);
+                // Don't throw out erroneous stuff
+                parser.setErrorHandler(new StacklessBailErrorStrategy());
+            }
+            // Reject queries with unbalanced brackets or quotes
+            // without lexing and parsing
+            if (QueryPreScanner.scanCollection(query) != QueryPreScanner.UNDECIDED)
+                return null;
             // Tokenize input data
-            ANTLRInputStream input = new ANTLRInputStream(query);
-            lexer.setInputStream(input);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            parser = new CollectionQueryParser(tokens);
-
-            // Don't throw out erroneous stuff
-            parser.setErrorHandler(new BailErrorStrategy());
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(errorListener);
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-            // Get starting rule from parser
-            Method startRule = CollectionQueryParser.class.getMethod("start");
-            tree = (ParserRuleContext) startRule
-                    .invoke(parser, (Object[]) null);
+            if (!setInput(query, errorListener))
+                return null;
+            long parsingStart = startTiming();
+            tree = twoStageParsing.parse((CollectionQueryParser) parser, startRule);
+            stageCompleted(TranslationListener.Stage.PARSING, parsingStart);
+        }
+        catch (TranslationCancelledException e) {
+            throw e;
         }
         // Some things went wrong ...
         catch (Exception e) {
-            System.err
-                    .println("ERROR: " + errorListener.generateFullErrorMsg());
-            System.err.println("Parsing exception message: " + e);
+            if (log.isDebugEnabled()) {
+                log.debug("Could not parse query: "
+                        + errorListener.generateFullErrorMsg());
+            }
         }
         // Return the generated tree
         return tree;
@@ -0,0 +1,443 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import de.ids_mannheim.korap.query.object.KoralDocGroupRef;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * A registry of named virtual collections that collection queries
+ * refer to with <tt>referTo name</tt> (see
+ * {@link QuerySerializer#setCollectionRegistry(CollectionRegistry)}).
+ *
+ * The collections are stored in a local directory, each as the JSON
+ * serialization of its <tt>koral:doc</tt> or <tt>koral:docGroup</tt>
+ * in a file named after the collection. A file is memory-mapped when
+ * its collection is referred to for the first time, so that large
+ * collections, e.g. lists of hundreds of thousands of text IDs, are
+ * neither parsed nor copied to the heap for each request: references
+ * are kept as <tt>koral:docGroupRef</tt>s, and expanded references
+ * are serialized by copying the mapped file. A registered collection
+ * is only parsed when it is inspected as a map, e.g. by the
+ * {@link QuerySerializer#build()} or the collection simplification.
+ * A registry can be shared by any number of serializers and threads.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class CollectionRegistry {
+
+    public static final String SUFFIX = ".json";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File directory;
+    /**
+     * The collections that have been mapped so far.
+     */
+    private final ConcurrentMap<String, RegisteredCollection> collections = new ConcurrentHashMap<String, RegisteredCollection>();
+    /**
+     * Guards the replacement of collection files and the mapping of
+     * files, such that a file that is being replaced is not mapped
+     * and cached after its replacement.
+     */
+    private final Object lock = new Object();
+    /**
+     * Counts the registrations, such that cached translations of
+     * collections that refer to the registry can be told apart from
+     * those made before a collection was registered or replaced.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * @param directory
+     *            The directory of the collection files.
+     * @throws IllegalArgumentException
+     *             If the directory does not exist.
+     */
+    public CollectionRegistry (File directory) {
+        if (!directory.isDirectory())
+            throw new IllegalArgumentException(directory
+                    + " is not a directory!");
+        this.directory = directory;
+    }
+
+
+    /**
+     * Stores a collection in the registry, replacing any collection
+     * of the same name. The file is replaced atomically, such that
+     * concurrent readers see either the old or the new collection.
+     *
+     * @param name
+     *            The name of the collection.
+     * @param collection
+     *            The collection, e.g. the <tt>collection</tt> of a
+     *            translated collection query.
+     * @throws IOException
+     *             If the collection cannot be written.
+     */
+    public void register (String name, Map<String, Object> collection)
+            throws IOException {
+        File file = file(name);
+        File temporary = File.createTempFile("collection", SUFFIX, directory);
+        try {
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                mapper.writeValue(out, collection);
+            }
+            finally {
+                out.close();
+            }
+            synchronized (lock) {
+                Files.move(temporary.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                collections.remove(name);
+                generation.incrementAndGet();
+            }
+        }
+        finally {
+            temporary.delete();
+        }
+    }
+
+
+    /**
+     * @return The number of registrations so far, which is part of
+     *         the keys of cached translations.
+     */
+    long getGeneration () {
+        return generation.get();
+    }
+
+
+    /**
+     * @param name
+     *            The name of a collection.
+     * @return true if a collection of the name is registered.
+     */
+    public boolean contains (String name) {
+        return collections.containsKey(name) || file(name).isFile();
+    }
+
+
+    /**
+     * Returns a registered collection, mapping its file if it has not
+     * been mapped yet. Files are mapped one at a time and never while
+     * a collection is replaced, so the collection of a replaced file
+     * is not cached again.
+     *
+     * @param name
+     *            The name of the collection.
+     * @return The collection, or null if no collection of the name is
+     *         registered.
+     * @throws IOException
+     *             If the file of the collection cannot be read or does
+     *             not contain a JSON object.
+     */
+    public RegisteredCollection get (String name) throws IOException {
+        RegisteredCollection collection = collections.get(name);
+        if (collection != null)
+            return collection;
+        synchronized (lock) {
+            collection = collections.get(name);
+            if (collection != null)
+                return collection;
+            File file = file(name);
+            if (!file.isFile())
+                return null;
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                collection = new RegisteredCollection(name, channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            finally {
+                // the mapping stays valid after the file is closed
+                input.close();
+            }
+            collection.validate();
+            collections.put(name, collection);
+            return collection;
+        }
+    }
+
+
+    /**
+     * Checks the references of a collection against the registry and
+     * replaces them by the registered collections if requested.
+     * Unknown references are reported as errors of the processor.
+     *
+     * @param collection
+     *            A translated collection.
+     * @param expand
+     *            If true, the references are replaced.
+     * @param processor
+     *            The processor that translated the collection.
+     * @return The collection with the replaced references.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> resolve (Map<String, Object> collection,
+            boolean expand, AbstractQueryProcessor processor) {
+        collection = resolveReference(collection, expand, processor);
+        LinkedList<List<Object>> pending = new LinkedList<List<Object>>();
+        if (!(collection instanceof RegisteredCollection)
+                && collection.get("operands") instanceof List)
+            pending.push((List<Object>) collection.get("operands"));
+        // groups may be nested deeply, see the collapsed disjunctions
+        // of the CollectionQueryProcessor
+        while (!pending.isEmpty()) {
+            List<Object> operands = pending.pop();
+            for (int i = 0; i < operands.size(); i++) {
+                if (!(operands.get(i) instanceof Map))
+                    continue;
+                Map<String, Object> operand = resolveReference(
+                        (Map<String, Object>) operands.get(i), expand,
+                        processor);
+                operands.set(i, operand);
+                if (!(operand instanceof RegisteredCollection)
+                        && operand.get("operands") instanceof List)
+                    pending.push((List<Object>) operand.get("operands"));
+            }
+        }
+        return collection;
+    }
+
+
+    private Map<String, Object> resolveReference (Map<String, Object> object,
+            boolean expand, AbstractQueryProcessor processor) {
+        if (!(object instanceof KoralDocGroupRef))
+            return object;
+        String name = ((KoralDocGroupRef) object).getRef();
+        try {
+            RegisteredCollection collection = get(name);
+            if (collection != null)
+                return expand ? collection : object;
+            processor.addError(StatusCodes.UNKNOWN_COLLECTION_REFERENCE,
+                    "There is no collection named '" + name + "'.");
+        }
+        catch (IOException e) {
+            processor.addError(StatusCodes.UNKNOWN_COLLECTION_REFERENCE,
+                    "The collection named '" + name
+                            + "' cannot be read: " + e.getMessage());
+        }
+        return object;
+    }
+
+
+    /**
+     * The names are encoded, such that any name maps to a file in the
+     * directory of the registry.
+     */
+    private File file (String name) {
+        try {
+            return new File(directory, URLEncoder.encode(name, "UTF-8")
+                    + SUFFIX);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * A collection of the registry, backed by its memory-mapped
+     * file. It is serialized by streaming the file to the output of
+     * the generator, and it is parsed into an immutable map only when
+     * its entries are accessed.
+     */
+    public static final class RegisteredCollection extends
+            AbstractMap<String, Object> implements JsonSerializable {
+
+        /**
+         * The number of characters streamed to a generator at once.
+         */
+        private static final int CHUNK_SIZE = 8192;
+
+        private final String name;
+        private final ByteBuffer buffer;
+        private volatile SoftReference<Map<String, Object>> parsed = new SoftReference<Map<String, Object>>(
+                null);
+
+
+        private RegisteredCollection (String name, MappedByteBuffer buffer) {
+            this.name = name;
+            this.buffer = buffer;
+        }
+
+
+        /**
+         * @return The name of the collection.
+         */
+        public String getName () {
+            return name;
+        }
+
+
+        /**
+         * Copies the collection to the heap. Serializations of the
+         * collection do not need it, they stream the mapped file.
+         *
+         * @return The JSON serialization of the collection.
+         */
+        public String getJson () {
+            return StandardCharsets.UTF_8.decode(buffer.duplicate())
+                    .toString();
+        }
+
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet () {
+            return parse().entrySet();
+        }
+
+
+        private Map<String, Object> parse () {
+            Map<String, Object> map = parsed.get();
+            if (map == null) {
+                try {
+                    map = TranslationCache.freeze(mapper
+                            .<Map<String, Object>> readValue(stream(),
+                                    new TypeReference<Map<String, Object>>() {}));
+                }
+                catch (IOException e) {
+                    // the file has been validated when it was mapped
+                    throw new IllegalStateException(e);
+                }
+                parsed = new SoftReference<Map<String, Object>>(map);
+            }
+            return map;
+        }
+
+
+        /**
+         * A registered collection is a JSON object with at least a
+         * type.
+         */
+        @Override
+        public boolean isEmpty () {
+            return false;
+        }
+
+
+        @Override
+        public void serialize (JsonGenerator generator,
+                SerializerProvider provider) throws IOException {
+            // token buffers, e.g. of ObjectMapper#valueToTree, cannot
+            // take raw values
+            if (generator instanceof TokenBuffer) {
+                provider.defaultSerializeValue(parse(), generator);
+                return;
+            }
+            // the file is decoded chunk by chunk; the first chunk is
+            // written as a value, such that the generator inserts a
+            // separator if needed, and the others are appended
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer bytes = buffer.duplicate();
+            CharBuffer chars = CharBuffer.allocate(Math.min(CHUNK_SIZE,
+                    Math.max(bytes.remaining(), 1)));
+            boolean first = true;
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, true);
+                if (result.isUnderflow())
+                    decoder.flush(chars);
+                if (first)
+                    generator.writeRawValue(chars.array(), 0,
+                            chars.position());
+                else
+                    generator.writeRaw(chars.array(), 0, chars.position());
+                first = false;
+                chars.clear();
+            }
+            while (result.isOverflow());
+        }
+
+
+        @Override
+        public void serializeWithType (JsonGenerator generator,
+                SerializerProvider provider, TypeSerializer typeSerializer)
+                throws IOException {
+            serialize(generator, provider);
+        }
+
+
+        /**
+         * Checks that the file contains a single JSON object, so that
+         * it can be copied into serializations.
+         */
+        private void validate () throws IOException {
+            JsonParser parser = mapper.getFactory().createParser(stream());
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new IOException("Not a JSON object");
+                parser.skipChildren();
+                if (parser.nextToken() != null)
+                    throw new IOException("Content after the JSON object");
+            }
+            finally {
+                parser.close();
+            }
+        }
+
+
+        private InputStream stream () {
+            final ByteBuffer buffer = this.buffer.duplicate();
+            return new InputStream() {
+                @Override
+                public int read () {
+                    return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+                }
+
+
+                @Override
+                public int read (byte[] bytes, int offset, int length) {
+                    if (!buffer.hasRemaining())
+                        return -1;
+                    length = Math.min(length, buffer.remaining());
+                    buffer.get(bytes, offset, length);
+                    return length;
+                }
+            };
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package de.ids_mannheim.korap.query.serialize;
 
+import de.ids_mannheim.korap.query.object.*;
 import de.ids_mannheim.korap.query.parse.cosmas.c2psLexer;
 import de.ids_mannheim.korap.query.parse.cosmas.c2psParser;
 import de.ids_mannheim.korap.query.serialize.util.Antlr3DescriptiveErrorListener;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
 import de.ids_mannheim.korap.query.serialize.util.ResourceMapper;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TreeWalker;
 
 import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.MissingTokenException;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.UnwantedTokenException;
+import org.antlr.runtime.tree.CommonErrorNode;
 import org.antlr.runtime.tree.Tree;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.Logger;
@@ -32,7 +39,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     private static Logger log = LoggerFactory
             .getLogger(Cosmas2QueryProcessor.class);
 
-    LinkedList<LinkedHashMap<String, Object>[]> toWrapStack = new LinkedList<LinkedHashMap<String, Object>[]>();
+    LinkedList<KoralObject[]> toWrapStack = new LinkedList<KoralObject[]>();
     /**
      * Field for repetition query (Kleene + or * operations, or
      * min/max queries: {2,4}
@@ -45,7 +52,8 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     LinkedList<ArrayList<Object>> openFieldGroups = new LinkedList<ArrayList<Object>>();
     /**
      * Keeps track of how many toWrap objects there are to pop after
-     * every recursion of {@link #processNode(ParseTree)}
+     * the children of every node have been processed, see
+     * {@link #exitNode(Tree)}
      */
     LinkedList<Integer> toWrapsToPop = new LinkedList<Integer>();
     /**
@@ -72,13 +80,15 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
      * parent node of the argument, the number of the argument and an
      * object in whose operands list the argument shall be wrapped.
      */
-    Table<Tree, Integer, LinkedHashMap<String, Object>> operandWrap = HashBasedTable
+    Table<Tree, Integer, KoralObject> operandWrap = HashBasedTable
             .create();
 
     /**
-     * Keeps track of all visited nodes in a tree
+     * Keeps track of all visited nodes in a tree. Tree nodes are
+     * compared by identity, so look-ups take constant time.
      */
-    List<Tree> visited = new ArrayList<Tree>();
+    Set<Tree> visited = Collections
+            .newSetFromMap(new IdentityHashMap<Tree, Boolean>());
 
     Integer stackedToWrap = 0;
     /**
@@ -105,7 +115,28 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
      * inverted order (e.g. the IN() operator) compared to their AST
      * representation.
      */
-    private LinkedList<ArrayList<Object>> invertedOperandsLists = new LinkedList<ArrayList<Object>>();
+    private LinkedList<List<Object>> invertedOperandsLists = new LinkedList<List<Object>>();
+
+    /**
+     * The lexer feeding the {@link #parser}. Both are created for the
+     * first query and reused for all further queries of a processor.
+     */
+    private c2psLexer lexer;
+
+    /**
+     * Maps the node categories to the token types of the
+     * {@link c2psParser}. The subtrees created by the local grammars
+     * (like c2ps_opWF for OPWF nodes) carry token types of their own
+     * vocabularies, so the type of a node is looked up by its
+     * category.
+     */
+    private static final Map<String, Integer> nodeTypes = new HashMap<String, Integer>();
+
+    static {
+        for (int type = 0; type < c2psParser.tokenNames.length; type++) {
+            nodeTypes.put(c2psParser.tokenNames[type], type);
+        }
+    }
 
 
     /**
@@ -117,29 +148,124 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
      * @throws QueryException
      */
     public Cosmas2QueryProcessor (String query) {
-        KoralObjectGenerator.setQueryProcessor(this);
-        this.query = query;
         process(query);
-        log.info(">>> " + requestMap.get("query") + " <<<");
+        log.debug(">>> " + requestMap.get("query") + " <<<");
     }
 
 
+    /**
+     * Constructs a processor without processing a query. The
+     * processor can be configured (e.g. by
+     * {@link #setVerbose(boolean)}) before calling
+     * {@link #process(String)}.
+     */
+    public Cosmas2QueryProcessor () {}
+
+
     @Override
     public void process (String query) {
-        Tree tree = null;
-        tree = parseCosmasQuery(query);
-        log.info("Processing CosmasII query: " + query);
-        if (tree != null) {
-            log.debug("ANTLR parse tree: " + tree.toStringTree());
-            processNode(tree);
+        AbstractQueryProcessor previous = KoralObjectGenerator
+                .getQueryProcessor();
+        KoralObjectGenerator.setQueryProcessor(this);
+        long start = startTiming();
+        int nodeCount = 0;
+        try {
+            this.query = query;
+            Tree tree = null;
+            tree = parseCosmasQuery(query);
+            log.debug("Processing CosmasII query: " + query);
+            if (tree != null && checkParseTree(tree)) {
+                if (log.isDebugEnabled())
+                    log.debug("ANTLR parse tree: " + tree.toStringTree());
+                if (listener != null)
+                    nodeCount = countNodes(tree);
+                long translationStart = startTiming();
+                walk(tree);
+                if (isLimitExceeded())
+                    requestMap.put("query", new LinkedHashMap<String, Object>());
+                stageCompleted(TranslationListener.Stage.TRANSLATION,
+                        translationStart);
+            }
         }
+        finally {
+            queryProcessed(nodeCount, start);
+            releaseParseTree();
+            KoralObjectGenerator.setQueryProcessor(previous);
+        }
+    }
+
+
+    @Override
+    protected String getQueryLanguage () {
+        return "cosmas2";
+    }
+
+
+    @Override
+    public void reset () {
+        super.reset();
+        toWrapStack.clear();
+        repetition = "";
+        openFieldGroups.clear();
+        toWrapsToPop.clear();
+        inMeta = false;
+        inOPALL = false;
+        inOPNHIT = false;
+        classCounter = 1;
+        negate = false;
+        stackedToWrap = 0;
+        nodeHasSequentiableSiblings = false;
+        invertedOperandsLists.clear();
     }
 
 
-    private void processNode (Tree node) {
+    /**
+     * Also releases the characters and tokens of the last query held
+     * by the lexer and the token stream.
+     */
+    @Override
+    protected void releaseParseTree () {
+        super.releaseParseTree();
+        visited.clear();
+        operandWrap.clear();
+        sequencedNodes.clear();
+        if (lexer != null) {
+            lexer.setCharStream(null);
+            lexer.setErrorReporter(null);
+            ((c2psParser) parser).setErrorReporter(null);
+            ((org.antlr.runtime.CommonTokenStream) parser.getTokenStream())
+                    .setTokenSource(lexer);
+        }
+    }
+
+
+    /**
+     * Returns the token type of a node's category in the vocabulary
+     * of the {@link c2psParser}.
+     * 
+     * @param node
+     *            The tree node.
+     * @return The token type, {@link Token#INVALID_TOKEN_TYPE} if the
+     *         category is not a token of the {@link c2psParser}.
+     */
+    private static int getNodeType (Tree node) {
+        Integer type = nodeTypes.get(getNodeCat(node));
+        return type == null ? Token.INVALID_TOKEN_TYPE : type;
+    }
+
+
+    /**
+     * Processes a node before its children, see {@link #walk(Tree)}.
+     * 
+     * @param node
+     *            The currently processed node.
+     * @return false iff the node has been visited before.
+     */
+    @Override
+    protected boolean enterNode (Tree node) {
         // Top-down processing
         if (visited.contains(node))
-            return;
+            return false;
         else
             visited.add(node);
 
@@ -149,7 +275,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         stackedObjects = 0;
         stackedToWrap = 0;
 
-        if (verbose) {
+        if (printDebug) {
             System.err.println(" " + objectStack);
             System.out.println(openNodeCats);
         }
@@ -180,7 +306,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
                     }
                     if (nodeHasSequentiableSiblings) {
                         // Step I: create sequence
-                        LinkedHashMap<String, Object> sequence = KoralObjectGenerator
+                        KoralGroup sequence = KoralObjectGenerator
                                 .makeGroup("sequence");
                         // push sequence on object stack but don't
                         // increment stackedObjects counter since
@@ -198,85 +324,71 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             }
         }
 
-        if (nodeCat.equals("OPWF") || nodeCat.equals("OPLEM")) {
-            processOPWF_OPLEM(node);
-        }
-
-        if (nodeCat.equals("OPMORPH")) {
-            processOPMORPH(node);
-        }
-
-        if (nodeCat.equals("OPELEM")) {
-            processOPELEM(node);
-        }
-
-        if (nodeCat.equals("OPLABEL")) {
-            processOPLABEL(node);
-        }
-
-        if (nodeCat.equals("OPAND") || nodeCat.equals("OPNOT")) {
-            processOPAND_OPNOT(node);
-        }
-
-        if (nodeCat.equals("OPOR")) {
-            processOPOR(node);
-        }
-
-        if (nodeCat.equals("OPPROX")) {
-            processOPPROX(node);
-        }
-
-        // inlcusion or overlap
-        if (nodeCat.equals("OPIN") || nodeCat.equals("OPOV")) {
-            processOPIN_OPOV(node);
-        }
-
-        // Wrap the argument of an #IN operator in a previously
-        // defined container
-        if (nodeCat.equals("ARG1") || nodeCat.equals("ARG2")) {
-            processARG1_ARG2(node);
-        }
-
-        if (nodeCat.equals("OPALL")) {
-            inOPALL = true;
-        }
-
-        if (nodeCat.equals("OPNHIT")) {
-            processOPNHIT(node);
-        }
-
-        if (nodeCat.equals("OPEND") || nodeCat.equals("OPBEG")) {
-            processOPEND_OPBEG(node);
-        }
-
-        if (nodeCat.equals("OPBED")) {
-            processOPBED(node);
+        switch (getNodeType(node)) {
+            case c2psParser.OPWF:
+            case c2psParser.OPLEM:
+                processOPWF_OPLEM(node);
+                break;
+            case c2psParser.OPMORPH:
+                processOPMORPH(node);
+                break;
+            case c2psParser.OPELEM:
+                processOPELEM(node);
+                break;
+            case c2psParser.OPLABEL:
+                processOPLABEL(node);
+                break;
+            case c2psParser.OPAND:
+            case c2psParser.OPNOT:
+                processOPAND_OPNOT(node);
+                break;
+            case c2psParser.OPOR:
+                processOPOR(node);
+                break;
+            case c2psParser.OPPROX:
+                processOPPROX(node);
+                break;
+            // inclusion or overlap
+            case c2psParser.OPIN:
+            case c2psParser.OPOV:
+                processOPIN_OPOV(node);
+                break;
+            // Wrap the argument of an #IN operator in a previously
+            // defined container
+            case c2psParser.ARG1:
+            case c2psParser.ARG2:
+                processARG1_ARG2(node);
+                break;
+            case c2psParser.OPALL:
+                inOPALL = true;
+                break;
+            case c2psParser.OPNHIT:
+                processOPNHIT(node);
+                break;
+            case c2psParser.OPEND:
+            case c2psParser.OPBEG:
+                processOPEND_OPBEG(node);
+                break;
+            case c2psParser.OPBED:
+                processOPBED(node);
+                break;
         }
         objectsToPop.push(stackedObjects);
         toWrapsToPop.push(stackedToWrap);
+        return true;
+    }
 
-        /*
-         * ***************************************************************
-         * ***************************************************************
-         * recursion until 'request' node (root of tree) is processed
-         * *
-         * ***********************************************************
-         * ****
-         * ********************************************************
-         * *******
-         */
-        for (int i = 0; i < node.getChildCount(); i++) {
-            Tree child = node.getChild(i);
-            processNode(child);
-        }
 
-        /*
-         * *************************************************************
-         * Stuff that happens after processing the children of a node
-         * *
-         * ***********************************************************
-         * **
-         */
+    /**
+     * Processes a node after its children, taking the items pushed
+     * by {@link #enterNode(Tree)} off the stacks.
+     * 
+     * @param node
+     *            The currently processed node.
+     */
+    @Override
+    protected void exitNode (Tree node) {
+        String nodeCat = getNodeCat(node);
 
         // remove sequence from object stack if node is implicitly
         // sequenced
@@ -314,9 +426,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     private void processOPEND_OPBEG (Tree node) {
         // Step I: create group
         String nodeCat = getNodeCat(node);
-        LinkedHashMap<String, Object> beggroup = new LinkedHashMap<String, Object>();
-        beggroup.put("@type", "koral:reference");
-        beggroup.put("operation", "operation:focus");
+        KoralReference beggroup = new KoralReference("focus");
         ArrayList<Integer> spanRef = new ArrayList<Integer>();
         if (nodeCat.equals("OPBEG")) {
             spanRef.add(0);
@@ -353,7 +463,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         Tree endConditions = getFirstChildWithCat(node.getChild(optsChild),
                 "TPEND");
 
-        LinkedHashMap<String, Object> submatchgroup = KoralObjectGenerator
+        KoralReference submatchgroup = KoralObjectGenerator
                 .makeReference(classCounter + 128);
         ArrayList<Object> submatchOperands = new ArrayList<Object>();
         submatchgroup.put("operands", submatchOperands);
@@ -378,7 +488,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         // Step III: insert conditions. need to stack matches-groups
         // because position groups may only have two operands
         // indicates where to insert next condition group
-        ArrayList<Object> currentLowestOperands = submatchOperands;
+        List<Object> currentLowestOperands = submatchOperands;
         int conditionCount = 0;
         for (LinkedHashMap<String, Object> conditionGroup : conditionGroups) {
             conditionCount++;
@@ -386,18 +496,16 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
                 submatchOperands.add(conditionGroup);
             }
             else if (conditionCount < conditionGroups.size()) {
-                LinkedHashMap<String, Object> matchesGroup = KoralObjectGenerator
+                KoralGroup matchesGroup = KoralObjectGenerator
                         .makePosition(new String[] { "frames:matches" });
-                @SuppressWarnings("unchecked")
-                ArrayList<Object> matchesOperands = (ArrayList<Object>) matchesGroup
-                        .get("operands");
+                List<Object> matchesOperands = matchesGroup.getOperands();
                 matchesOperands.add(conditionGroup);
                 // matches groups that are embedded at the second or
                 // lower level receive an additional
                 // focus to grep out only the query term to which the
                 // constraint applies
                 if (conditionCount > 1) {
-                    LinkedHashMap<String, Object> focus = KoralObjectGenerator
+                    KoralReference focus = KoralObjectGenerator
                             .makeReference(classCounter + 128 - 2);
                     ArrayList<Object> focusOperands = new ArrayList<Object>();
                     focus.put("operands", focusOperands);
@@ -421,9 +529,9 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
                 classCounter + 128 + 2 };
         // classRef.add(classCounter + 1); // yes, do this twice (two
         // classes)!
-        LinkedHashMap<String, Object> group = KoralObjectGenerator
+        KoralReference group = KoralObjectGenerator
                 .makeReference(classCounter + 128);
-        LinkedHashMap<String, Object> classRefCheck = KoralObjectGenerator
+        KoralClass classRefCheck = KoralObjectGenerator
                 .makeClassRefOp("classRefOp:inversion", classRef,
                         classCounter + 128);
         ArrayList<Object> operands = new ArrayList<Object>();
@@ -445,8 +553,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         if (operandWrap.containsRow(parent)) {
             // Step I: create group
             int argNr = nodeCat.equals("ARG1") ? 1 : 2;
-            LinkedHashMap<String, Object> container = operandWrap.row(parent)
-                    .get(argNr);
+            KoralObject container = operandWrap.row(parent).get(argNr);
             // Step II: ingest
             if (container != null) {
                 objectStack.push(container);
@@ -465,8 +572,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         wrapOperandInClass(node, 1, 128 + classCounter++);
         // LinkedHashMap<String, Object> posgroup =
         // makePosition(null);
-        LinkedHashMap<String, Object> posGroup = KoralObjectGenerator
-                .makeGroup("position");
+        KoralGroup posGroup = KoralObjectGenerator.makeGroup("position");
         LinkedHashMap<String, Object> positionOptions;
         // posgroup
         if (nodeCat.equals("OPIN")) {
@@ -482,30 +588,29 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         }
         objectStack.push(posGroup);
         // mark this an inverted operands object
-        invertedOperandsLists
-                .push((ArrayList<Object>) posGroup.get("operands"));
+        invertedOperandsLists.push(posGroup.getOperands());
         stackedObjects++;
         // Step II: wrap in classRefCheck and/or focus and decide where to put
         ArrayList<String> check = (ArrayList<String>) positionOptions
                 .get("classRefCheck");
         Integer[] classIn = new Integer[] { classCounter + 128 - 2,
                 classCounter + 128 - 1 };
-        LinkedHashMap<String, Object> topGroup;
+        KoralObject topGroup;
         if (!check.isEmpty()) {
             // wrap position in a classRefCheck
             topGroup = KoralObjectGenerator.makeClassRefCheck(check, classIn,
                     classCounter + 128);
-            ((ArrayList<Object>) topGroup.get("operands")).add(posGroup);
+            topGroup.addOperand(posGroup);
         }
         else {
             topGroup = posGroup;
         }
-        LinkedHashMap<String, Object> focusGroup = null;
+        KoralObject focusGroup = null;
         if ((boolean) positionOptions.get("matchall") == true) {
             focusGroup = KoralObjectGenerator.makeClassRefOp(
                     "classRefOp:delete",
                     new Integer[] { 128 + classCounter++ }, 128 + classCounter);
-            ((ArrayList<Object>) focusGroup.get("operands")).add(topGroup);
+            focusGroup.addOperand(topGroup);
         }
         else { // match only first argument
             focusGroup = KoralObjectGenerator.wrapInReference(topGroup,
@@ -515,10 +620,9 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         // wrap in 'merge' operation if grouping option is set
         if (positionOptions.containsKey("grouping")) {
             if (positionOptions.get("grouping").equals(true)) {
-                LinkedHashMap<String, Object> mergeOperation = KoralObjectGenerator
+                KoralGroup mergeOperation = KoralObjectGenerator
                         .makeGroup("merge");
-                ArrayList<Object> mergeOperands = (ArrayList<Object>) mergeOperation
-                        .get("operands");
+                List<Object> mergeOperands = mergeOperation.getOperands();
                 mergeOperands.add(focusGroup);
                 focusGroup = mergeOperation;
             }
@@ -534,11 +638,10 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         Tree typ = prox_opts.getChild(0);
         Tree dist_list = prox_opts.getChild(1);
         // Step I: create group
-        LinkedHashMap<String, Object> group = KoralObjectGenerator
-                .makeGroup("sequence");
+        KoralGroup group = KoralObjectGenerator.makeGroup("sequence");
 
         ArrayList<Object> constraints = new ArrayList<Object>();
-        boolean exclusion = typ.getChild(0).toStringTree().equals("EXCL");
+        boolean exclusion = typ.getChild(0).getText().equals("EXCL");
 
         boolean inOrder = false;
         boolean invertedOperands = false;
@@ -552,13 +655,13 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         // possibly several distance constraints
         for (int i = 0; i < dist_list.getChildCount(); i++) {
             String direction = dist_list.getChild(i).getChild(0).getChild(0)
-                    .toStringTree().toLowerCase();
+                    .getText().toLowerCase();
             String minStr = dist_list.getChild(i).getChild(1).getChild(0)
-                    .toStringTree();
+                    .getText();
             String maxStr = dist_list.getChild(i).getChild(1).getChild(1)
-                    .toStringTree();
+                    .getText();
             String meas = dist_list.getChild(i).getChild(2).getChild(0)
-                    .toStringTree();
+                    .getText();
             if (minStr.equals("VAL0")) {
                 minStr = "0";
             }
@@ -579,7 +682,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             if (!meas.equals("w") && min == 0) {
                 processSpanDistance(meas, min, max);
             }
-            LinkedHashMap<String, Object> distance = KoralObjectGenerator
+            KoralDistance distance = KoralObjectGenerator
                     .makeDistance(meas, min, max);
             // override @type, min/max to be treated according to 
             // Cosmas particularities
@@ -604,7 +707,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             }
         }
         group.put("inOrder", inOrder);
-        LinkedHashMap<String, Object> embeddedSequence = group;
+        KoralObject embeddedSequence = group;
 
         if (!(openNodeCats.get(1).equals("OPBEG")
                 || openNodeCats.get(1).equals("OPEND") || inOPALL || openNodeCats
@@ -617,10 +720,9 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             classCounter++;
         }
         else if (openNodeCats.get(1).equals("OPNHIT")) {
-            LinkedHashMap<String, Object> repetition = KoralObjectGenerator
+            KoralGroup repetition = KoralObjectGenerator
                     .makeRepetition(min, max);
-            ((ArrayList<Object>) repetition.get("operands"))
-                    .add(KoralObjectGenerator.makeToken());
+            repetition.getOperands().add(KoralObjectGenerator.makeToken());
             // TODO go on with this: put the repetition into a class
             // and put it in between the operands
             // -> what if there's several distance constraints. with
@@ -652,9 +754,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         //        }
         //        else {
         if (invertedOperands) {
-            ArrayList<Object> operands = (ArrayList<Object>) embeddedSequence
-                    .get("operands");
-            invertedOperandsLists.push(operands);
+            invertedOperandsLists.push(embeddedSequence.getOperands());
         }
         // Step II: decide where to put
         putIntoSuperObject(group, 0);
@@ -667,8 +767,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
     private void processOPOR (Tree node) {
         // Step I: create group
-        LinkedHashMap<String, Object> disjunction = KoralObjectGenerator
-                .makeGroup("disjunction");
+        KoralGroup disjunction = KoralObjectGenerator.makeGroup("disjunction");
         objectStack.push(disjunction);
         stackedObjects++;
         // Step II: decide where to put
@@ -679,10 +778,9 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     private void processOPAND_OPNOT (Tree node) {
         // Step I: create group
         String nodeCat = getNodeCat(node);
-        LinkedHashMap<String, Object> distgroup = KoralObjectGenerator
-                .makeGroup("sequence");
+        KoralGroup distgroup = KoralObjectGenerator.makeGroup("sequence");
         ArrayList<Object> distances = new ArrayList<Object>();
-        LinkedHashMap<String, Object> zerodistance = KoralObjectGenerator
+        KoralDistance zerodistance = KoralObjectGenerator
                 .makeDistance("t", 0, 0);
         zerodistance.put("@type", "cosmas:distance"); // overwrite @type: cosmas:distance! 
         if (nodeCat.equals("OPNOT"))
@@ -699,8 +797,8 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
     private void processOPLABEL (Tree node) {
         // Step I: create element
-        String key = node.getChild(0).toStringTree().replaceAll("<|>", "");
-        LinkedHashMap<String, Object> elem = KoralObjectGenerator.makeSpan(key);
+        String key = node.getChild(0).getText().replaceAll("<|>", "");
+        KoralSpan elem = KoralObjectGenerator.makeSpan(key);
         // Step II: decide where to put
         putIntoSuperObject(elem);
     }
@@ -709,8 +807,8 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     @SuppressWarnings("unchecked")
     private void processOPELEM (Tree node) {
         // Step I: create element
-        LinkedHashMap<String, Object> span = KoralObjectGenerator.makeSpan();
-        if (node.getChild(0).toStringTree().equals("EMPTY")) {
+        KoralSpan span = KoralObjectGenerator.makeSpan();
+        if (node.getChild(0).getText().equals("EMPTY")) {
             addError(
                     StatusCodes.MALFORMED_QUERY,
                     "Empty #ELEM() operator."
@@ -721,7 +819,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             int elname = 0;
             Tree elnameNode = getFirstChildWithCat(node, "ELNAME");
             if (elnameNode != null) {
-                span.put("key", elnameNode.getChild(0).toStringTree()
+                span.put("key", elnameNode.getChild(0).getText()
                         .toLowerCase());
                 elname = 1;
             }
@@ -737,45 +835,42 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
                  * to avoid a top-level group that only contains a
                  * sub-group).
                  */
-                LinkedHashMap<String, Object> termGroup = KoralObjectGenerator
+                KoralObject termGroup = KoralObjectGenerator
                         .makeTermGroup("and");
-                ArrayList<Object> termGroupOperands = (ArrayList<Object>) termGroup
-                        .get("operands");
+                List<Object> termGroupOperands = termGroup.getOperands();
                 for (int i = elname; i < node.getChildCount(); i++) {
                     Tree attrNode = node.getChild(i);
                     if (attrNode.getChildCount() == 2) {
-                        LinkedHashMap<String, Object> term = KoralObjectGenerator
-                                .makeTerm();
+                        KoralTerm term = KoralObjectGenerator.makeTerm();
                         termGroupOperands.add(term);
-                        String layer = attrNode.getChild(0).toStringTree();
+                        String layer = attrNode.getChild(0).getText();
                         String[] splitted = layer.split("/");
                         if (splitted.length > 1) {
                             term.put("foundry", splitted[0]);
                             layer = splitted[1];
                         }
                         term.put("layer", translateMorph(layer));
-                        term.put("key", attrNode.getChild(1).toStringTree());
+                        term.put("key", attrNode.getChild(1).getText());
                         String match = getNodeCat(attrNode).equals("EQ") ? "eq"
                                 : "ne";
                         term.put("match", "match:" + match);
                     }
                     else {
-                        LinkedHashMap<String, Object> subTermGroup = KoralObjectGenerator
+                        KoralTermGroup subTermGroup = KoralObjectGenerator
                                 .makeTermGroup("and");
-                        ArrayList<Object> subTermGroupOperands = (ArrayList<Object>) subTermGroup
-                                .get("operands");
+                        List<Object> subTermGroupOperands = subTermGroup
+                                .getOperands();
                         int j;
                         for (j = 1; j < attrNode.getChildCount(); j++) {
-                            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                                    .makeTerm();
-                            String layer = attrNode.getChild(0).toStringTree();
+                            KoralTerm term = KoralObjectGenerator.makeTerm();
+                            String layer = attrNode.getChild(0).getText();
                             String[] splitted = layer.split("/");
                             if (splitted.length > 1) {
                                 term.put("foundry", splitted[0]);
                                 layer = splitted[1];
                             }
                             term.put("layer", translateMorph(layer));
-                            term.put("key", attrNode.getChild(j).toStringTree());
+                            term.put("key", attrNode.getChild(j).getText());
                             String match = getNodeCat(attrNode).equals("EQ") ? "eq"
                                     : "ne";
                             term.put("match", "match:" + match);
@@ -796,7 +891,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
                 // possibly only one term was present throughout all
                 // nodes: extract it from the group
                 if (termGroupOperands.size() == 1) {
-                    termGroup = (LinkedHashMap<String, Object>) termGroupOperands
+                    termGroup = (KoralObject) termGroupOperands
                             .get(0);
                 }
                 span.put("attr", termGroup);
@@ -809,9 +904,9 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
     private void processOPMORPH (Tree node) {
         // Step I: get info
-        String[] morphterms = node.getChild(0).toStringTree().replace(" ", "")
+        String[] morphterms = node.getChild(0).getText().replace(" ", "")
                 .split("&");
-        LinkedHashMap<String, Object> token = KoralObjectGenerator.makeToken();
+        KoralToken token = KoralObjectGenerator.makeToken();
         ArrayList<Object> terms = new ArrayList<Object>();
         LinkedHashMap<String, Object> fieldMap = null;
         // regex group #2 is foundry, #4 layer, #5 operator,
@@ -870,7 +965,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
             token.put("wrap", fieldMap);
         }
         else {
-            LinkedHashMap<String, Object> termGroup = KoralObjectGenerator
+            KoralTermGroup termGroup = KoralObjectGenerator
                     .makeTermGroup("and");
             termGroup.put("operands", terms);
             token.put("wrap", termGroup);
@@ -890,15 +985,14 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     private void processOPWF_OPLEM (Tree node) {
         String nodeCat = getNodeCat(node);
         // Step I: get info
-        LinkedHashMap<String, Object> token = KoralObjectGenerator.makeToken();
+        KoralToken token = KoralObjectGenerator.makeToken();
         objectStack.push(token);
         stackedObjects++;
-        LinkedHashMap<String, Object> fieldMap = KoralObjectGenerator
-                .makeTerm();
+        KoralTerm fieldMap = KoralObjectGenerator.makeTerm();
         token.put("wrap", fieldMap);
         // make category-specific fieldMap entry
         String attr = nodeCat.equals("OPWF") ? "orth" : "lemma";
-        String value = node.getChild(0).toStringTree().replaceAll("\"", "");
+        String value = node.getChild(0).getText().replaceAll("\"", "");
         // check for wildcard string
         Pattern p = Pattern.compile("[+*?]");
         Matcher m = p.matcher(value);
@@ -953,8 +1047,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
      *            The class id.
      */
     private void wrapOperandInClass (Tree node, int arg, int cls) {
-        LinkedHashMap<String, Object> clsGroup = KoralObjectGenerator
-                .makeSpanClass(cls);
+        KoralClass clsGroup = KoralObjectGenerator.makeSpanClass(cls);
         wrapOperand(node, arg, clsGroup);
     }
 
@@ -973,8 +1066,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
      *            The object in whose operand list the argument shall
      *            be wrapped.
      */
-    private void wrapOperand (Tree node, int arg,
-            LinkedHashMap<String, Object> container) {
+    private void wrapOperand (Tree node, int arg, KoralObject container) {
         operandWrap.put(node, arg, container);
     }
 
@@ -1016,7 +1108,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         // spanRef to be used for the subquery X
         Integer[] hitSpanRef = null;
 
-        String nodeString = cond.toStringTree();
+        String nodeString = cond.getText();
         if (nodeString.startsWith("-")) {
             negated = true;
             nodeString = nodeString.substring(1);
@@ -1049,30 +1141,28 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         }
         // Create the position group and add the span and the subquery
         // as operands, possibly wrapped in spanRefs
-        LinkedHashMap<String, Object> positionGroup = KoralObjectGenerator
+        KoralGroup positionGroup = KoralObjectGenerator
                 .makePosition(new String[] { position });
         if (negated)
             positionGroup.put("exclude", true);
         ArrayList<Object> posOperands = new ArrayList<Object>();
-        LinkedHashMap<String, Object> classGroup = KoralObjectGenerator
+        KoralObject classGroup = KoralObjectGenerator
                 .makeSpanClass(128 + classCounter++);
         classGroup.put("operands", distributedOperands);
         positionGroup.put("operands", posOperands);
-        LinkedHashMap<String, Object> span = KoralObjectGenerator
-                .makeSpan(elem);
+        KoralObject span = KoralObjectGenerator.makeSpan(elem);
         objectStack.push(classGroup);
         if (hitSpanRef != null) {
-            LinkedHashMap<String, Object> spanRefAroundHit = KoralObjectGenerator
+            KoralReference spanRefAroundHit = KoralObjectGenerator
                     .makeSpanReference(hitSpanRef, "focus");
-            ((ArrayList<Object>) spanRefAroundHit.get("operands"))
-                    .add(classGroup);
+            spanRefAroundHit.getOperands().add(classGroup);
             // re-assign after wrapping classGroup in spanRef
             classGroup = spanRefAroundHit;
         }
         if (elemSpanRef != null) {
-            LinkedHashMap<String, Object> spanRefAroundSpan = KoralObjectGenerator
+            KoralReference spanRefAroundSpan = KoralObjectGenerator
                     .makeSpanReference(elemSpanRef, "focus");
-            ((ArrayList<Object>) spanRefAroundSpan.get("operands")).add(span);
+            spanRefAroundSpan.getOperands().add(span);
             // re-assign after wrapping span in spanRef
             span = spanRefAroundSpan;
         }
@@ -1094,7 +1184,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         posOptions.put("matchall", false);
         String posOption = null;
         if (posnode != null) {
-            posOption = posnode.getChild(0).toStringTree();
+            posOption = posnode.getChild(0).getText();
             switch (posOption) {
                 case "L":
                     positions.add("frames:startsWith");
@@ -1131,13 +1221,13 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         posOptions.put("frames", positions);
         posOptions.put("classRefCheck", classRefCheck);
         if (exclnode != null) {
-            if (exclnode.getChild(0).toStringTree().equals("YES")) {
+            if (exclnode.getChild(0).getText().equals("YES")) {
                 negatePosition = !negatePosition;
             }
         }
 
         if (rangenode != null) {
-            String range = rangenode.getChild(0).toStringTree().toLowerCase();
+            String range = rangenode.getChild(0).getText().toLowerCase();
             if (range.equals("all")) {
                 posOptions.put("matchall", true);
                 // LinkedHashMap<String,Object> ref =
@@ -1152,7 +1242,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
         boolean grouping = false;
         if (groupnode != null) {
-            if (groupnode.getChild(0).toStringTree().equalsIgnoreCase("max")) {
+            if (groupnode.getChild(0).getText().equalsIgnoreCase("max")) {
                 grouping = true;
             }
         }
@@ -1174,7 +1264,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         posOptions.put("matchall", false);
         String posOption = null;
         if (posnode != null) {
-            posOption = posnode.getChild(0).toStringTree();
+            posOption = posnode.getChild(0).getText();
             switch (posOption) {
                 case "L":
                     positions.add("frames:startsWith");
@@ -1213,13 +1303,13 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
         posOptions.put("frames", positions);
         posOptions.put("classRefCheck", classRefCheck);
         if (exclnode != null) {
-            if (exclnode.getChild(0).toStringTree().equals("YES")) {
+            if (exclnode.getChild(0).getText().equals("YES")) {
                 negatePosition = !negatePosition;
             }
         }
 
         if (rangenode != null) {
-            String range = rangenode.getChild(0).toStringTree().toLowerCase();
+            String range = rangenode.getChild(0).getText().toLowerCase();
             if (range.equals("all")) {
                 posOptions.put("matchall", true);
                 // LinkedHashMap<String,Object> ref =
@@ -1234,7 +1324,7 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
         boolean grouping = false;
         if (groupnode != null) {
-            if (groupnode.getChild(0).toStringTree().equalsIgnoreCase("max")) {
+            if (groupnode.getChild(0).getText().equalsIgnoreCase("max")) {
                 grouping = true;
             }
         }
@@ -1244,14 +1334,10 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     }
 
 
-    @SuppressWarnings({ "unchecked" })
-    private LinkedHashMap<String, Object> wrap (
-            LinkedHashMap<String, Object>[] wrapCascade) {
+    private KoralObject wrap (KoralObject[] wrapCascade) {
         int i;
         for (i = 0; i < wrapCascade.length - 1; i++) {
-            ArrayList<Object> containerOperands = (ArrayList<Object>) wrapCascade[i + 1]
-                    .get("operands");
-            containerOperands.add(0, wrapCascade[i]);
+            wrapCascade[i + 1].getOperands().add(0, wrapCascade[i]);
         }
         return wrapCascade[i];
     }
@@ -1261,8 +1347,8 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
     private void putIntoSuperObject (LinkedHashMap<String, Object> object,
             int objStackPosition) {
         if (objectStack.size() > objStackPosition) {
-            ArrayList<Object> topObjectOperands = (ArrayList<Object>) objectStack
-                    .get(objStackPosition).get("operands");
+            List<Object> topObjectOperands = objectStack.get(
+                    objStackPosition).getOperands();
             if (!invertedOperandsLists.contains(topObjectOperands)) {
                 topObjectOperands.add(object);
             }
@@ -1310,44 +1396,123 @@ public class Cosmas2QueryProcessor extends Antlr3AbstractQueryProcessor {
 
 
     private Tree parseCosmasQuery (String query) {
+        if (!checkQueryLength(query))
+            return null;
+        checkDeadline();
         query = rewritePositionQuery(query);
+        // Reject queries with unbalanced parentheses without lexing
+        // and parsing
+        int offset = QueryPreScanner.scanCosmas2(query);
+        if (offset != QueryPreScanner.UNDECIDED) {
+            addError(StatusCodes.MALFORMED_QUERY, QueryUtils.UNBALANCED_PARS,
+                    offset);
+            return null;
+        }
         Tree tree = null;
         Antlr3DescriptiveErrorListener errorListener = new Antlr3DescriptiveErrorListener(
                 query);
         try {
             ANTLRStringStream ss = new ANTLRStringStream(query);
-            c2psLexer lex = new c2psLexer(ss);
-            org.antlr.runtime.CommonTokenStream tokens = new org.antlr.runtime.CommonTokenStream(
-                    lex); // v3
-            parser = new c2psParser(tokens);
+            // Reuse lexer and parser of previous queries
+            if (parser == null) {
+                lexer = new c2psLexer(ss);
+                // the token stream checks the deadline, if any, while
+                // the parser backtracks
+                parser = new c2psParser(new DeadlineTokenStream(lexer)); // v3
+            }
+            else {
+                lexer.setCharStream(ss);
+                org.antlr.runtime.CommonTokenStream tokens = (org.antlr.runtime.CommonTokenStream) parser
+                        .getTokenStream();
+                tokens.setTokenSource(lexer);
+                parser.setTokenStream(tokens);
+            }
             // Use custom error reporters
-            lex.setErrorReporter(errorListener);
+            lexer.setErrorReporter(errorListener);
             ((c2psParser) parser).setErrorReporter(errorListener);
+            if (listener != null || limits != null) {
+                // tokenize the whole query, such that lexing is timed
+                // separately
+                long lexingStart = startTiming();
+                org.antlr.runtime.CommonTokenStream tokens = (org.antlr.runtime.CommonTokenStream) parser
+                        .getTokenStream();
+                tokens.fill();
+                stageCompleted(TranslationListener.Stage.LEXING,
+                        lexingStart);
+                if (limits != null && !checkTokens(tokens.getTokens()))
+                    return null;
+            }
+            long parsingStart = startTiming();
             c2psParser.c2ps_query_return c2Return = ((c2psParser) parser)
                     .c2ps_query(); // statt t().
+            stageCompleted(TranslationListener.Stage.PARSING, parsingStart);
             // AST Tree anzeigen:
             tree = (Tree) c2Return.getTree();
 
         }
         catch (RecognitionException e) {
-            log.error("Could not parse query. Please make sure it is well-formed.");
+            log.debug("Could not parse query. Please make sure it is well-formed.");
             addError(StatusCodes.MALFORMED_QUERY,
                     "Could not parse query. Please make sure it is well-formed.");
         }
-        String treestring = tree.toStringTree();
-
+        // syntax errors are reported to the error listener by the
+        // c2psParser, the local grammars insert error nodes instead
         boolean erroneous = false;
         if (parser.failed() || parser.getNumberOfSyntaxErrors() > 0) {
             erroneous = true;
-            tree = null;
         }
-
-        if (erroneous || treestring.contains("<mismatched token")
-                || treestring.contains("<error")
-                || treestring.contains("<unexpected")) {
-            log.error(errorListener.generateFullErrorMsg().toString());
-            addError(errorListener.generateFullErrorMsg());
+        if (erroneous || (tree != null && containsErrorNode(tree))) {
+            // the error is only generated if it is read
+            List<Object> error = errorListener.getFullErrorMsg();
+            if (log.isDebugEnabled())
+                log.debug("Could not parse query: " + error);
+            addError(error);
+        }
+        if (erroneous) {
+            tree = null;
         }
         return tree;
     }
+
+
+    /**
+     * Checks whether a tree contains error nodes for mismatched or
+     * unexpected tokens, which the local grammars insert into their
+     * subtrees when they fail to parse an operator.
+     */
+    private static boolean containsErrorNode (Tree tree) {
+        final boolean[] found = new boolean[1];
+        new TreeWalker<Tree>() {
+            @Override
+            protected boolean enter (Tree node) {
+                if (node instanceof CommonErrorNode) {
+                    RecognitionException e = ((CommonErrorNode) node).trappedException;
+                    if (!(e instanceof MissingTokenException)
+                            && !(e instanceof UnwantedTokenException)) {
+                        found[0] = true;
+                        stop();
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+
+            @Override
+            protected void exit (Tree node) {}
+
+
+            @Override
+            protected int getChildCount (Tree node) {
+                return node.getChildCount();
+            }
+
+
+            @Override
+            protected Tree getChild (Tree node, int index) {
+                return node.getChild(index);
+            }
+        }.walk(tree);
+        return found[0];
+    }
 }
\ No newline at end of file
@@ -17,7 +17,7 @@ import java.util.Map;
 public class CqlQueryProcessor extends AbstractQueryProcessor {
 
     private static final String VERSION_1_1 = "1.1";
-    private static final String VERSION_1_2 = "1.2";
+    static final String VERSION_1_2 = "1.2";
     private static final String INDEX_CQL_SERVERCHOICE = "cql.serverChoice";
     private static final String INDEX_WORDS = "words";
     private static final String TERM_RELATION_CQL_1_1 = "scr";
@@ -48,11 +48,58 @@ public class CqlQueryProcessor extends AbstractQueryProcessor {
 
     public CqlQueryProcessor (String query, String version,
                               boolean isCaseSensitive) {
+        this(version, isCaseSensitive);
+        process(query);
+    }
+
+
+    /**
+     * Constructs a processor for CQL 1.2 with case-sensitive terms
+     * without processing a query, e.g. for the
+     * {@link QueryProcessorPool}.
+     */
+    public CqlQueryProcessor () {
+        this(VERSION_1_2, true);
+    }
+
+
+    /**
+     * Constructs a processor without processing a query. The
+     * processor can be configured (e.g. by
+     * {@link #setTranslationListener(TranslationListener)}) before
+     * calling {@link #process(String)}.
+     * 
+     * @param version
+     *            The CQL version.
+     * @param isCaseSensitive
+     *            Whether terms are matched case-sensitively.
+     */
+    public CqlQueryProcessor (String version, boolean isCaseSensitive) {
         this.version = version;
         this.isCaseSensitive = isCaseSensitive;
         this.requestMap = new LinkedHashMap<>();
         requestMap.put("@context", KORAP_CONTEXT);
-        process(query);
+    }
+
+
+    /**
+     * Sets the CQL version of the queries processed next.
+     * 
+     * @param version
+     *            The CQL version.
+     */
+    void setVersion (String version) {
+        this.version = version;
+    }
+
+
+    @Override
+    public void reset () {
+        super.reset();
+        version = VERSION_1_2;
+        isCaseSensitive = true;
+        requestMap = new LinkedHashMap<>();
+        requestMap.put("@context", KORAP_CONTEXT);
     }
 
 
@@ -67,11 +114,40 @@ public class CqlQueryProcessor extends AbstractQueryProcessor {
         if ((query == null) || query.isEmpty())
             addError(StatusCodes.MALFORMED_QUERY,
                     "SRU diagnostic 27: An empty query is unsupported.");
+        if (!checkQueryLength(query)) {
+            // errors are collected in the request map of the
+            // superclass
+            requestMap.put("errors", super.getRequestMap().get("errors"));
+            return;
+        }
+        checkDeadline();
 
+        long start = startTiming();
         CQLNode cqlNode = parseQuerytoCQLNode(query);
+        stageCompleted(TranslationListener.Stage.PARSING, start);
+        long translationStart = startTiming();
         Map<String, Object> queryMap = parseCQLNode(cqlNode);
         requestMap.put("query", queryMap);
         // requestMap.put("query", sentenceWrapper(queryMap));
+        stageCompleted(TranslationListener.Stage.TRANSLATION, translationStart);
+        if (listener != null)
+            queryProcessed(countNodes(cqlNode), start);
+    }
+
+
+    @Override
+    protected String getQueryLanguage () {
+        return "cql";
+    }
+
+
+    private static int countNodes (CQLNode node) {
+        if (node instanceof CQLBooleanNode) {
+            CQLBooleanNode booleanNode = (CQLBooleanNode) node;
+            return 1 + countNodes(booleanNode.getLeftOperand())
+                    + countNodes(booleanNode.getRightOperand());
+        }
+        return node == null ? 0 : 1;
     }
 
 
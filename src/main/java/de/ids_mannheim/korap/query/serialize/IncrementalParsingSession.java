@@ -0,0 +1,638 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.LexerNoViableAltException;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.WildcardTransition;
+import org.antlr.v4.runtime.misc.IntervalSet;
+
+import de.ids_mannheim.korap.query.parse.collection.CollectionQueryLexer;
+import de.ids_mannheim.korap.query.parse.collection.CollectionQueryParser;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusLexer;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusParser;
+
+/**
+ * An editing session for a PoliqarpPlus or collection query, which
+ * keeps the tokens of the query and the states of the parser between
+ * edits, e.g. for a query assistant that checks a query and proposes
+ * the next tokens while the query is being typed.
+ *
+ * After an edit, the lexer only restarts at the first token whose
+ * lexing looked at the edited text, and the old tokens are reused as
+ * soon as a new token after the edit matches an old one. The parser
+ * state before every token is kept as well, and only recomputed from
+ * the first changed token on, as far as it is needed. The cost of an
+ * edit therefore depends on the size of the edit and the distance
+ * between the edit and the cursor rather than on the length of the
+ * query.
+ *
+ * Rather than running the generated parser, the session simulates
+ * the ATN of the parser: the state of the parser before a token is
+ * the set of ATN states, each with a stack of rule invocations, that
+ * the parser can be in after the tokens read so far. The state tells
+ * which tokens may follow and lets the session continue parsing at
+ * any token. The simulation is exact, as the grammars have no
+ * semantic predicates.
+ *
+ * A session is not thread-safe.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class IncrementalParsingSession {
+
+    private final Lexer lexer;
+    private final ATN atn;
+    private final String[] tokenNames;
+
+    private String query = "";
+    private TokenList tokens = new TokenList(8);
+    /**
+     * The parser states before the tokens of the query, as far as
+     * they have been computed.
+     */
+    private final List<Config[]> states = new ArrayList<Config[]>();
+    /**
+     * The offset of the first character the lexer failed to match
+     * since the last token, -1 if there is none.
+     */
+    private int lexerError = -1;
+
+
+    /**
+     * Starts a session with an empty query.
+     *
+     * @param ql
+     *            The query language, i.e. poliqarpplus or collection.
+     * @throws IllegalArgumentException
+     *             If the query language is not supported.
+     */
+    public IncrementalParsingSession (String ql) {
+        int startRule;
+        if (ql.equalsIgnoreCase("poliqarp")
+                || ql.equalsIgnoreCase("poliqarpplus")) {
+            lexer = new PoliqarpPlusLexer((CharStream) null);
+            atn = PoliqarpPlusParser._ATN;
+            tokenNames = PoliqarpPlusParser.tokenNames;
+            startRule = PoliqarpPlusParser.RULE_request;
+        }
+        else if (ql.equalsIgnoreCase("collection")) {
+            lexer = new CollectionQueryLexer((CharStream) null);
+            atn = CollectionQueryParser._ATN;
+            tokenNames = CollectionQueryParser.tokenNames;
+            startRule = CollectionQueryParser.RULE_start;
+        }
+        else {
+            throw new IllegalArgumentException(ql
+                    + " is not supported by incremental parsing!");
+        }
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError (Recognizer<?, ?> recognizer,
+                    Object offendingSymbol, int line, int charPositionInLine,
+                    String msg, RecognitionException e) {
+                if (lexerError < 0
+                        && e instanceof LexerNoViableAltException) {
+                    lexerError = ((LexerNoViableAltException) e)
+                            .getStartIndex();
+                }
+            }
+        });
+        Closure initial = new Closure();
+        initial.add(new Config(atn.ruleToStartState[startRule], null));
+        states.add(initial.toArray());
+        relex("", 0, 0, 0);
+    }
+
+
+    /**
+     * @return The current query.
+     */
+    public String getQuery () {
+        return query;
+    }
+
+
+    /**
+     * Replaces the query, e.g. by the current content of an input
+     * field. The edit is determined as the text between the common
+     * prefix and the common suffix of the old and the new query.
+     *
+     * @param query
+     *            The new query.
+     */
+    public void setQuery (String query) {
+        int oldLength = this.query.length();
+        int newLength = query.length();
+        int max = Math.min(oldLength, newLength);
+        int prefix = 0;
+        while (prefix < max
+                && this.query.charAt(prefix) == query.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && this.query.charAt(oldLength - 1 - suffix) == query
+                        .charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+        relex(query, prefix, oldLength - suffix, newLength - suffix);
+    }
+
+
+    /**
+     * Replaces a part of the query.
+     *
+     * @param offset
+     *            The offset of the replaced text.
+     * @param length
+     *            The length of the replaced text, 0 for an insertion.
+     * @param replacement
+     *            The new text, empty for a deletion.
+     * @throws IndexOutOfBoundsException
+     *             If the replaced text is not part of the query.
+     */
+    public void edit (int offset, int length, String replacement) {
+        if (offset < 0 || length < 0 || offset + length > query.length()) {
+            throw new IndexOutOfBoundsException("Cannot replace "
+                    + length + " characters at " + offset + " in a query"
+                    + " of length " + query.length());
+        }
+        String edited = query.substring(0, offset) + replacement
+                + query.substring(offset + length);
+        relex(edited, offset, offset + length,
+                offset + replacement.length());
+    }
+
+
+    /**
+     * Returns the types of the tokens that may follow the tokens
+     * ending at or before the cursor. A token being typed at the
+     * cursor therefore counts as complete.
+     *
+     * @param cursor
+     *            The offset of the cursor in the query.
+     * @return The token types, including {@link Token#EOF} if the
+     *         query may end at the cursor. The set is empty if the
+     *         query is malformed before the cursor.
+     */
+    public IntervalSet getExpectedTokenTypes (int cursor) {
+        IntervalSet expected = new IntervalSet();
+        IntervalSet vocabulary = IntervalSet.of(Token.MIN_USER_TOKEN_TYPE,
+                atn.maxTokenType);
+        for (Config config : state(tokensBefore(cursor))) {
+            if (config.state == null) {
+                expected.add(Token.EOF);
+                continue;
+            }
+            for (int i = 0; i < config.state.getNumberOfTransitions(); i++) {
+                Transition transition = config.state.transition(i);
+                if (transition.isEpsilon())
+                    continue;
+                if (transition instanceof WildcardTransition)
+                    expected.addAll(vocabulary);
+                else if (transition instanceof NotSetTransition)
+                    expected.addAll(transition.label().complement(vocabulary));
+                else
+                    expected.addAll(transition.label());
+            }
+        }
+        return expected;
+    }
+
+
+    /**
+     * Returns the names of the tokens that may follow the tokens
+     * ending at or before the cursor, see
+     * {@link #getExpectedTokenTypes(int)}.
+     *
+     * @param cursor
+     *            The offset of the cursor in the query.
+     * @return The names of the token types as used by the grammar,
+     *         i.e. the literal in quotes for literal tokens, and
+     *         &lt;EOF&gt; for the end of the query.
+     */
+    public List<String> getExpectedTokens (int cursor) {
+        List<String> names = new ArrayList<String>();
+        for (int type : getExpectedTokenTypes(cursor).toArray()) {
+            names.add(type == Token.EOF ? "<EOF>" : tokenNames[type]);
+        }
+        return names;
+    }
+
+
+    /**
+     * @return true iff the query is well-formed.
+     */
+    public boolean isComplete () {
+        Config[] last = state(tokens.size);
+        return last.length > 0;
+    }
+
+
+    /**
+     * @return The offset of the first token that cannot be parsed,
+     *         which is the length of the query if the query ends
+     *         prematurely, or -1 if the query is well-formed.
+     */
+    public int getErrorOffset () {
+        for (int i = 0; i < tokens.size; i++) {
+            if (state(i + 1).length == 0)
+                return tokens.starts[i];
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return The number of tokens before the cursor, not counting
+     *         the end of the query.
+     */
+    private int tokensBefore (int cursor) {
+        // the stop indices do not decrease
+        int low = 0;
+        int high = tokens.size - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens.stops[middle] < cursor)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+
+    /**
+     * Lexes the edited query again, starting at the first token whose
+     * lexing looked at the edited text, and drops the parser states
+     * after that token.
+     *
+     * @param edited
+     *            The edited query.
+     * @param editStart
+     *            The offset of the edit.
+     * @param oldEditEnd
+     *            The end of the replaced text in the old query.
+     * @param newEditEnd
+     *            The end of the replacement in the edited query.
+     */
+    private void relex (String edited, int editStart, int oldEditEnd,
+            int newEditEnd) {
+        TokenList old = tokens;
+        int delta = newEditEnd - oldEditEnd;
+        int first = 0;
+        // EOF is always lexed again
+        while (first < old.size - 1 && old.lookEnds[first] < editStart) {
+            first++;
+        }
+        TokenList relexed = new TokenList(old.size + 8);
+        relexed.append(old, 0, first, 0);
+        TrackingInputStream input = new TrackingInputStream(edited);
+        lexer.setInputStream(input);
+        input.seek(first == 0 ? 0 : old.stops[first - 1] + 1);
+        input.examined = input.index() - 1;
+        lexerError = -1;
+        int resync = first;
+        while (true) {
+            Token token = lexer.nextToken();
+            int type = token.getType();
+            int start = token.getStartIndex();
+            int stop = token.getStopIndex();
+            int lookEnd = Math.max(input.examined, stop);
+            input.examined = stop;
+            // the characters the lexer skipped depend on the token
+            // that ends them
+            if (lexerError >= 0) {
+                relexed.add(Token.INVALID_TYPE, lexerError, lexerError,
+                        lookEnd);
+                lexerError = -1;
+            }
+            if (type != Token.EOF
+                    && token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
+            }
+            relexed.add(type, start, stop, lookEnd);
+            if (type == Token.EOF)
+                break;
+            // a token after the edit that matches an old token is
+            // followed by the same tokens as before
+            if (start >= newEditEnd) {
+                while (resync < old.size && old.starts[resync] < start - delta) {
+                    resync++;
+                }
+                if (resync < old.size && old.starts[resync] == start - delta
+                        && old.stops[resync] == stop - delta
+                        && old.types[resync] == type) {
+                    relexed.append(old, resync + 1, old.size, delta);
+                    break;
+                }
+            }
+        }
+        query = edited;
+        tokens = relexed;
+        int valid = Math.min(states.size(), first + 1);
+        states.subList(valid, states.size()).clear();
+    }
+
+
+    /**
+     * Returns the parser state before the token with the given index,
+     * computing the missing states from the last known one.
+     */
+    private Config[] state (int index) {
+        while (states.size() <= index) {
+            int last = states.size() - 1;
+            states.add(consume(states.get(last), tokens.types[last]));
+        }
+        return states.get(index);
+    }
+
+
+    /**
+     * Returns the parser state after a token of the given type.
+     */
+    private Config[] consume (Config[] state, int type) {
+        Closure closure = new Closure();
+        for (Config config : state) {
+            if (config.state == null) {
+                // the end of the start rule is only followed by EOF
+                if (type == Token.EOF)
+                    closure.add(config);
+                continue;
+            }
+            for (int i = 0; i < config.state.getNumberOfTransitions(); i++) {
+                Transition transition = config.state.transition(i);
+                if (!transition.isEpsilon()
+                        && transition.matches(type,
+                                Token.MIN_USER_TOKEN_TYPE, atn.maxTokenType)) {
+                    closure.add(new Config(transition.target, config.stack));
+                }
+            }
+        }
+        return closure.toArray();
+    }
+
+
+    /**
+     * The configurations of the parser after a token. The rule
+     * invocations made while following the epsilon transitions after
+     * the token form a graph: all invocations with the same return
+     * state share a frame, which returns to each of the frames the
+     * rule was invoked from. The number of configurations is thereby
+     * bounded by the size of the ATN times the number of tokens, even
+     * for ambiguous queries, whose separate stacks would multiply
+     * with every token.
+     */
+    private static class Closure {
+
+        private final Set<Config> seen = new HashSet<Config>();
+        private final Map<ATNState, Frame> frames = new HashMap<ATNState, Frame>();
+        private final List<Config> configs = new ArrayList<Config>();
+        private final Deque<Config> pending = new ArrayDeque<Config>();
+
+
+        /**
+         * Follows all epsilon transitions from the configuration, and
+         * keeps the reached configurations that read a token (or the
+         * end of the start rule).
+         */
+        void add (Config config) {
+            pending.push(config);
+            while (!pending.isEmpty()) {
+                Config current = pending.pop();
+                if (!seen.add(current))
+                    continue;
+                if (current.state == null) {
+                    configs.add(current);
+                    continue;
+                }
+                if (current.state instanceof RuleStopState) {
+                    if (current.stack == null) {
+                        pending.push(Config.END);
+                    }
+                    else {
+                        current.stack.returned = true;
+                        for (Frame parent : current.stack.parents) {
+                            pending.push(new Config(
+                                    current.stack.returnState, parent));
+                        }
+                    }
+                    continue;
+                }
+                boolean reads = false;
+                for (int i = 0; i < current.state.getNumberOfTransitions(); i++) {
+                    Transition transition = current.state.transition(i);
+                    if (transition instanceof RuleTransition) {
+                        pending.push(new Config(transition.target, invoke(
+                                ((RuleTransition) transition).followState,
+                                current.stack)));
+                    }
+                    else if (transition.isEpsilon()) {
+                        pending.push(new Config(transition.target,
+                                current.stack));
+                    }
+                    else {
+                        reads = true;
+                    }
+                }
+                if (reads)
+                    configs.add(current);
+            }
+        }
+
+
+        /**
+         * Returns the frame of a rule invocation after this token,
+         * adding the invoking frame to its parents. If the rule has
+         * already returned without reading a token, it returns to the
+         * new parent as well.
+         */
+        private Frame invoke (ATNState returnState, Frame parent) {
+            Frame frame = frames.get(returnState);
+            if (frame == null) {
+                frame = new Frame(returnState);
+                frames.put(returnState, frame);
+            }
+            if (!frame.parents.contains(parent)) {
+                frame.parents.add(parent);
+                if (frame.returned)
+                    pending.push(new Config(returnState, parent));
+            }
+            return frame;
+        }
+
+
+        Config[] toArray () {
+            return configs.toArray(new Config[configs.size()]);
+        }
+    }
+
+
+    /**
+     * The invocations of a rule after the same token with the same
+     * return state, i.e. the state to return to after the invoked
+     * rule, and the frames of the enclosing invocations, where null
+     * stands for the invocation of the start rule. Frames are
+     * compared by identity.
+     */
+    private static class Frame {
+
+        final ATNState returnState;
+        final List<Frame> parents = new ArrayList<Frame>(2);
+        /**
+         * Whether the rule has returned without reading a token,
+         * while the frame is being built.
+         */
+        boolean returned = false;
+
+
+        Frame (ATNState returnState) {
+            this.returnState = returnState;
+        }
+    }
+
+
+    /**
+     * An ATN state with a stack of rule invocations.
+     */
+    private static class Config {
+
+        /**
+         * The end of the start rule, which has neither a state nor a
+         * stack.
+         */
+        static final Config END = new Config(null, null);
+
+        final ATNState state;
+        final Frame stack;
+
+
+        Config (ATNState state, Frame stack) {
+            this.state = state;
+            this.stack = stack;
+        }
+
+
+        @Override
+        public int hashCode () {
+            return 31 * (state == null ? -1 : state.stateNumber)
+                    + System.identityHashCode(stack);
+        }
+
+
+        @Override
+        public boolean equals (Object object) {
+            if (!(object instanceof Config))
+                return false;
+            Config other = (Config) object;
+            return state == other.state && stack == other.stack;
+        }
+    }
+
+
+    /**
+     * The tokens of a query on the default channel, up to and
+     * including EOF, with the offset of the last character the lexer
+     * looked at for each token.
+     */
+    private static class TokenList {
+
+        int[] types;
+        int[] starts;
+        int[] stops;
+        int[] lookEnds;
+        int size = 0;
+
+
+        TokenList (int capacity) {
+            types = new int[capacity];
+            starts = new int[capacity];
+            stops = new int[capacity];
+            lookEnds = new int[capacity];
+        }
+
+
+        void add (int type, int start, int stop, int lookEnd) {
+            if (size == types.length)
+                grow(size + 1);
+            types[size] = type;
+            starts[size] = start;
+            stops[size] = stop;
+            lookEnds[size] = lookEnd;
+            size++;
+        }
+
+
+        /**
+         * Appends a range of tokens of another list, with their
+         * offsets shifted by the given distance.
+         */
+        void append (TokenList other, int from, int to, int shift) {
+            int count = to - from;
+            if (size + count > types.length)
+                grow(size + count);
+            System.arraycopy(other.types, from, types, size, count);
+            for (int i = 0; i < count; i++) {
+                starts[size + i] = other.starts[from + i] + shift;
+                stops[size + i] = other.stops[from + i] + shift;
+                lookEnds[size + i] = other.lookEnds[from + i] + shift;
+            }
+            size += count;
+        }
+
+
+        private void grow (int minCapacity) {
+            int capacity = Math.max(minCapacity, types.length * 2);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            lookEnds = Arrays.copyOf(lookEnds, capacity);
+        }
+    }
+
+
+    /**
+     * A character stream that records the offset of the last
+     * character read by the lexer.
+     */
+    private static class TrackingInputStream extends ANTLRInputStream {
+
+        int examined;
+
+
+        TrackingInputStream (String input) {
+            super(input);
+        }
+
+
+        @Override
+        public int LA (int i) {
+            if (i > 0 && p + i - 1 > examined)
+                examined = p + i - 1;
+            return super.LA(i);
+        }
+    }
+}
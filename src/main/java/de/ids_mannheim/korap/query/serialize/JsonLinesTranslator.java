@@ -0,0 +1,299 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Translates a stream of JSON lines requests into a stream of JSON
+ * lines KoralQuery serializations, as used by the batch mode of the
+ * {@link QuerySerializer} command line. Every line of the input is a
+ * JSON object with the fields <tt>query</tt> and <tt>ql</tt> and the
+ * optional fields <tt>version</tt>, <tt>collection</tt> and
+ * <tt>meta</tt>, e.g.
+ *
+ * <pre>
+ * {"query":"[base=Mann]","ql":"poliqarpplus","collection":"textClass=politik"}
+ * </pre>
+ *
+ * For every non-empty input line, one line with its serialization is
+ * written, in the order of the input. The lines are read in batches,
+ * which are translated in parallel by
+ * {@link QuerySerializer#translateAll(List, ExecutorService)}, such
+ * that arbitrarily long inputs can be streamed. A line that is not a
+ * JSON object results in an {@link StatusCodes#UNKNOWN_QUERY_ERROR}.
+ *
+ * The translator takes the throughput and the latencies of the query
+ * processors, which are printed by {@link #printSummary(PrintStream)}.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class JsonLinesTranslator {
+
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    private final QuerySerializer serializer;
+    private final ExecutorService executor;
+    private int batchSize = 1024;
+
+    private final LatencyListener latencies = new LatencyListener();
+    private long requests;
+    private long nanos;
+
+
+    /**
+     * @param serializer
+     *            The serializer whose settings are used for the
+     *            translation of every request. Its translation
+     *            listener is replaced by the translator's own.
+     * @param executor
+     *            The executor translating the requests.
+     */
+    public JsonLinesTranslator (QuerySerializer serializer,
+                                ExecutorService executor) {
+        this.serializer = serializer;
+        this.executor = executor;
+        serializer.setTranslationListener(latencies);
+    }
+
+
+    /**
+     * @param batchSize
+     *            The number of lines that are read and translated
+     *            together, 1024 by default. Larger batches keep the
+     *            threads busier, but delay the first output.
+     * @return This translator.
+     */
+    public JsonLinesTranslator setBatchSize (int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+
+    /**
+     * Translates all requests of the input and writes their
+     * serializations to the output. The output is flushed after
+     * every batch, but neither stream is closed.
+     *
+     * @param in
+     *            The JSON lines requests.
+     * @param out
+     *            The JSON lines serializations.
+     * @throws IOException
+     *             If the input cannot be read or the output cannot be
+     *             written.
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting
+     *             for the translations.
+     */
+    public void translate (BufferedReader in, Writer out) throws IOException,
+            InterruptedException {
+        long start = System.nanoTime();
+        List<TranslationRequest> batch = new ArrayList<TranslationRequest>(
+                batchSize);
+        List<String> unreadable = new ArrayList<String>(batchSize);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            TranslationRequest request = null;
+            String error = null;
+            try {
+                request = readRequest(line);
+            }
+            catch (IOException | IllegalArgumentException e) {
+                error = "Could not read request: " + e.getMessage();
+            }
+            batch.add(request);
+            unreadable.add(error);
+            if (batch.size() == batchSize) {
+                translate(batch, unreadable, out);
+            }
+        }
+        translate(batch, unreadable, out);
+        nanos += System.nanoTime() - start;
+    }
+
+
+    /**
+     * Translates and writes a batch, in which unreadable requests are
+     * represented by null and their errors.
+     */
+    private void translate (List<TranslationRequest> batch,
+            List<String> unreadable, Writer out) throws IOException,
+            InterruptedException {
+        List<TranslationRequest> readable = new ArrayList<TranslationRequest>(
+                batch.size());
+        for (TranslationRequest request : batch) {
+            if (request != null)
+                readable.add(request);
+        }
+        Iterator<String> results = serializer.translateAll(readable,
+                executor).iterator();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i) != null) {
+                out.write(results.next());
+            }
+            else {
+                List<Object> error = Arrays.<Object> asList(
+                        StatusCodes.UNKNOWN_QUERY_ERROR, unreadable.get(i));
+                out.write(mapper.writeValueAsString(Collections.singletonMap(
+                        "errors", Collections.singletonList(error))));
+                latencies.unreadable.incrementAndGet();
+            }
+            out.write('\n');
+        }
+        out.flush();
+        requests += batch.size();
+        batch.clear();
+        unreadable.clear();
+    }
+
+
+    private TranslationRequest readRequest (String line) throws IOException {
+        JsonNode node = mapper.readTree(line);
+        if (node == null || !node.isObject())
+            throw new IllegalArgumentException("not a JSON object");
+        TranslationRequest request = new TranslationRequest(text(node,
+                "query"), text(node, "ql"));
+        request.setVersion(text(node, "version"));
+        request.setCollection(text(node, "collection"));
+        if (node.get("meta") != null && node.get("meta").isObject()) {
+            Map<String, Object> meta = mapper.convertValue(node.get("meta"),
+                    new TypeReference<Map<String, Object>>() {});
+            request.setMeta(meta);
+        }
+        return request;
+    }
+
+
+    private String text (JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+
+    /**
+     * Prints the number of translated requests, the throughput, the
+     * number of queries with errors and the mean, maximum and
+     * (sampled) percentiles of the latencies of the query processors.
+     *
+     * @param out
+     *            The stream to print to.
+     */
+    public void printSummary (PrintStream out) {
+        double seconds = nanos / 1e9;
+        out.printf("Translated %d requests in %.3f s (%.1f requests/s)%n",
+                requests, seconds, seconds > 0 ? requests / seconds : 0);
+        out.printf("Queries with errors: %d, unreadable requests: %d%n",
+                latencies.failed.get(), latencies.unreadable.get());
+        long[] sorted = latencies.sorted();
+        if (sorted.length > 0) {
+            out.printf(
+                    "Processing latency (ms): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    latencies.mean() / 1e6, percentile(sorted, 50) / 1e6,
+                    percentile(sorted, 90) / 1e6,
+                    percentile(sorted, 99) / 1e6, latencies.max() / 1e6);
+        }
+    }
+
+
+    private static long percentile (long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+
+    /**
+     * Collects the latencies of the query processors, i.e. of
+     * lexing, parsing and translation, and counts the queries with
+     * errors. Collection queries are not taken into account. The mean
+     * and the maximum are exact, the percentiles are taken from a
+     * uniform sample of at most {@link #SAMPLE_SIZE} latencies, such
+     * that the memory used does not grow with the number of queries.
+     */
+    private static class LatencyListener implements TranslationListener {
+
+        private static final int SAMPLE_SIZE = 1 << 16;
+
+        private final long[] sample = new long[SAMPLE_SIZE];
+        private final Random random = new Random();
+        private long count;
+        private long sum;
+        private long max;
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong unreadable = new AtomicLong();
+
+
+        @Override
+        public void stageCompleted (String ql, Stage stage, long nanos) {}
+
+
+        @Override
+        public void queryProcessed (String ql, int nodeCount,
+                List<List<Object>> errors, long nanos) {
+            if ("collection".equals(ql))
+                return;
+            if (!errors.isEmpty())
+                failed.incrementAndGet();
+            add(nanos);
+        }
+
+
+        /**
+         * Adds a latency to the sample by reservoir sampling: the
+         * n-th latency replaces a random one of the sample with
+         * probability {@link #SAMPLE_SIZE}/n.
+         */
+        private synchronized void add (long nanos) {
+            if (count < SAMPLE_SIZE) {
+                sample[(int) count] = nanos;
+            }
+            else {
+                long index = (long) (random.nextDouble() * (count + 1));
+                if (index < SAMPLE_SIZE)
+                    sample[(int) index] = nanos;
+            }
+            count++;
+            sum += nanos;
+            max = Math.max(max, nanos);
+        }
+
+
+        private synchronized long[] sorted () {
+            long[] sorted = Arrays.copyOf(sample,
+                    (int) Math.min(count, SAMPLE_SIZE));
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+
+        private synchronized double mean () {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+
+        private synchronized long max () {
+            return max;
+        }
+    }
+}
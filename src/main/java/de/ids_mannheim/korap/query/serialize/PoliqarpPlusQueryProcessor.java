@@ -1,17 +1,20 @@
 package de.ids_mannheim.korap.query.serialize;
 
+import de.ids_mannheim.korap.query.object.*;
 import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusLexer;
 import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusParser;
 import de.ids_mannheim.korap.query.serialize.util.Antlr4DescriptiveErrorListener;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Method;
 import java.util.*;
 
 /**
@@ -36,11 +39,33 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
     private static Logger log = LoggerFactory
             .getLogger(PoliqarpPlusQueryProcessor.class);
+
+    /**
+     * Two-stage (SLL, then LL) parsing of PoliqarpPlus queries, shared
+     * by all processors.
+     */
+    private static final TwoStageParsing twoStageParsing = new TwoStageParsing();
+    private static final TwoStageParsing.StartRule<PoliqarpPlusParser> startRule = new TwoStageParsing.StartRule<PoliqarpPlusParser>() {
+        @Override
+        public ParserRuleContext invoke (PoliqarpPlusParser parser) {
+            return parser.request();
+        }
+    };
+
     private int classCounter = 1;
 
     LinkedHashMap<ParseTree, Integer> classWrapRegistry = new LinkedHashMap<ParseTree, Integer>();
 
 
+    /**
+     * Constructs a processor without processing a query. The
+     * processor can be configured (e.g. by
+     * {@link #setVerbose(boolean)}) before calling
+     * {@link #process(String)}.
+     */
+    public PoliqarpPlusQueryProcessor () {}
+
+
     /**
      * Constructor
      * 
@@ -49,33 +74,72 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
      * @throws QueryException
      */
     public PoliqarpPlusQueryProcessor (String query) {
-        KoralObjectGenerator.setQueryProcessor(this);
         process(query);
-        log.info(">>> " + requestMap.get("query") + " <<<");
+        log.debug(">>> " + requestMap.get("query") + " <<<");
     }
 
 
     @Override
     public void process (String query) {
-        ParseTree tree;
-        tree = parsePoliqarpQuery(query);
-        super.parser = this.parser;
-        log.info("Processing PoliqarpPlus query: " + query);
-        if (tree != null) {
-            log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
-            processNode(tree);
+        AbstractQueryProcessor previous = KoralObjectGenerator
+                .getQueryProcessor();
+        KoralObjectGenerator.setQueryProcessor(this);
+        long start = startTiming();
+        int nodeCount = 0;
+        try {
+            ParseTree tree;
+            tree = parsePoliqarpQuery(query);
+            super.parser = this.parser;
+            log.debug("Processing PoliqarpPlus query: " + query);
+            if (tree != null && checkParseTree(tree)) {
+                if (log.isDebugEnabled())
+                    log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
+                if (listener != null)
+                    nodeCount = countNodes(tree);
+                long translationStart = startTiming();
+                walk(tree);
+                if (isLimitExceeded())
+                    requestMap.put("query", new LinkedHashMap<String, Object>());
+                stageCompleted(TranslationListener.Stage.TRANSLATION,
+                        translationStart);
+            }
+            else if (!isLimitExceeded()) {
+                addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
+                        + query + " <<<.");
+            }
         }
-        else {
-            addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
-                    + query + " <<<.");
+        finally {
+            queryProcessed(nodeCount, start);
+            releaseParseTree();
+            KoralObjectGenerator.setQueryProcessor(previous);
         }
     }
 
 
+    @Override
+    protected String getQueryLanguage () {
+        return "poliqarpplus";
+    }
+
+
+    @Override
+    public void reset () {
+        super.reset();
+        classCounter = 1;
+    }
+
+
+    @Override
+    protected void releaseParseTree () {
+        super.releaseParseTree();
+        classWrapRegistry.clear();
+    }
+
+
     /**
-     * Recursively calls itself with the children of the currently
-     * active node, traversing the tree nodes in a top-down,
-     * depth-first fashion. A list is maintained that contains all
+     * Processes a node before its children, as the tree nodes are
+     * traversed in a top-down, depth-first fashion by
+     * {@link #walk(ParseTree)}. A set is maintained that contains all
      * visited nodes which have been directly addressed by their
      * (grand-/grand-grand-/...) parent nodes, such that some
      * processing time is saved, as these node will not be processed.
@@ -85,13 +149,13 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
      * 
      * @param node
      *            The currently processed node. The process(String
-     *            query) method calls this method with the root.
-     * @throws QueryException
+     *            query) method walks the tree from the root.
      */
-    private void processNode (ParseTree node) {
+    @Override
+    protected boolean enterNode (ParseTree node) {
         // Top-down processing
         if (visited.contains(node))
-            return;
+            return false;
         else
             visited.add(node);
 
@@ -100,7 +164,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
         stackedObjects = 0;
 
-        if (verbose) {
+        if (printDebug) {
             System.err.println(" " + objectStack);
             System.out.println(openNodeCats);
         }
@@ -109,8 +173,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         // in a class, e.g. by an alignment operation
         if (classWrapRegistry.containsKey(node)) {
             Integer classId = classWrapRegistry.get(node);
-            LinkedHashMap<String, Object> spanClass = KoralObjectGenerator
-                    .makeSpanClass(classId);
+            KoralClass spanClass = KoralObjectGenerator.makeSpanClass(classId);
             putIntoSuperObject(spanClass);
             objectStack.push(spanClass);
             stackedObjects++;
@@ -123,82 +186,70 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
          ****************************************************************
          ****************************************************************
          */
-        if (nodeCat.equals("segment")) {
-            processSegment(node);
-        }
-
-        if (nodeCat.equals("sequence")) {
-            processSequence(node);
-        }
-
-        if (nodeCat.equals("emptyTokenSequence")) {
-            processEmptyTokenSequence(node);
-        }
-
-        if (nodeCat.equals("emptyTokenSequenceClass")) {
-            processEmptyTokenSequenceClass(node);
-        }
-
-        if (nodeCat.equals("token")) {
-            processToken(node);
-        }
-
-        if (nodeCat.equals("alignment")) {
-            processAlignment(node);
-        }
-
-        if (nodeCat.equals("span")) {
-            processSpan(node);
-        }
-
-        if (nodeCat.equals("disjunction")) {
-            processDisjunction(node);
-        }
-
-        if (nodeCat.equals("position")) {
-            processPosition(node);
-        }
-
-        if (nodeCat.equals("relation")) {
-            processRelation(node);
-        }
-
-        if (nodeCat.equals("spanclass")) {
-            processSpanclass(node);
-        }
-
-        if (nodeCat.equals("matching")) {
-            processMatching(node);
-        }
-
-        if (nodeCat.equals("submatch")) {
-            processSubmatch(node);
-        }
-
-        if (nodeCat.equals("meta")) {
-            processMeta(node);
-        }
-
-        if (nodeCat.equals("within")
-                && !getNodeCat(node.getParent()).equals("position")) {
-            processWithin(node);
+        switch (nodeCat) {
+            case "segment":
+                processSegment(node);
+                break;
+            case "sequence":
+                processSequence(node);
+                break;
+            case "emptyTokenSequence":
+                processEmptyTokenSequence(node);
+                break;
+            case "emptyTokenSequenceClass":
+                processEmptyTokenSequenceClass(node);
+                break;
+            case "token":
+                processToken(node);
+                break;
+            case "alignment":
+                processAlignment(node);
+                break;
+            case "span":
+                processSpan(node);
+                break;
+            case "disjunction":
+                processDisjunction(node);
+                break;
+            case "position":
+                processPosition(node);
+                break;
+            case "relation":
+                processRelation(node);
+                break;
+            case "spanclass":
+                processSpanclass(node);
+                break;
+            case "matching":
+                processMatching(node);
+                break;
+            case "submatch":
+                processSubmatch(node);
+                break;
+            case "meta":
+                processMeta(node);
+                break;
+            case "within":
+                if (!getNodeCat(node.getParent()).equals("position")) {
+                    processWithin(node);
+                }
+                break;
         }
 
         objectsToPop.push(stackedObjects);
+        return true;
+    }
 
-        /*
-         ****************************************************************
-         **************************************************************** 
-         *  Recursion until 'request' node (root of tree) is processed  *
-         ****************************************************************
-         ****************************************************************
-         */
-        for (int i = 0; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            processNode(child);
-        }
 
-        // Stuff that happens when leaving a node (taking items off stacks)
+    /**
+     * Processes a node after its children, taking the items pushed
+     * by {@link #enterNode(ParseTree)} off the stacks.
+     * 
+     * @param node
+     *            The currently processed node.
+     */
+    @Override
+    protected void exitNode (ParseTree node) {
         for (int i = 0; i < objectsToPop.get(0); i++) {
             objectStack.pop();
         }
@@ -216,7 +267,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         // Cover possible quantification (i.e. repetition) of segment
         ParseTree quantification = getFirstChildWithCat(node, "repetition");
         if (quantification != null) {
-            LinkedHashMap<String, Object> quantGroup = KoralObjectGenerator
+            KoralGroup quantGroup = KoralObjectGenerator
                     .makeGroup("repetition");
             Integer[] minmax = parseRepetition(quantification);
             quantGroup.put("boundary",
@@ -250,13 +301,12 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
                 return;
             }
         }
-        LinkedHashMap<String, Object> sequence = KoralObjectGenerator
-                .makeGroup("sequence");
+        KoralGroup sequence = KoralObjectGenerator.makeGroup("sequence");
         ParseTree distanceNode = getFirstChildWithCat(node, "distance");
 
         if (distanceNode != null) {
             Integer[] minmax = parseDistance(distanceNode);
-            LinkedHashMap<String, Object> distance = KoralObjectGenerator
+            KoralDistance distance = KoralObjectGenerator
                     .makeDistance("w", minmax[0], minmax[1]);
             sequence.put("inOrder", true);
             ArrayList<Object> distances = new ArrayList<Object>();
@@ -280,12 +330,11 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         Integer[] minmax = parseEmptySegments(node);
         // object will be either a repetition group or a single empty
         // token
-        LinkedHashMap<String, Object> object;
-        LinkedHashMap<String, Object> emptyToken = KoralObjectGenerator
-                .makeToken();
+        KoralObject object;
+        KoralToken emptyToken = KoralObjectGenerator.makeToken();
         if (minmax[0] != 1 || minmax[1] == null || minmax[1] != 1) {
             object = KoralObjectGenerator.makeRepetition(minmax[0], minmax[1]);
-            ((ArrayList<Object>) object.get("operands")).add(emptyToken);
+            object.getOperands().add(emptyToken);
         }
         else {
             object = emptyToken;
@@ -302,8 +351,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
             classId = Integer.parseInt(node.getChild(1).getChild(0)
                     .toStringTree(parser));
         }
-        LinkedHashMap<String, Object> classGroup = KoralObjectGenerator
-                .makeSpanClass(classId);
+        KoralClass classGroup = KoralObjectGenerator.makeSpanClass(classId);
         addHighlightClass(classId);
         putIntoSuperObject(classGroup);
         objectStack.push(classGroup);
@@ -312,7 +360,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
 
     private void processToken (ParseTree node) {
-        LinkedHashMap<String, Object> token = KoralObjectGenerator.makeToken();
+        KoralToken token = KoralObjectGenerator.makeToken();
         // handle negation
         List<ParseTree> negations = getChildrenWithCat(node, "!");
         int termOrTermGroupChildId = 1;
@@ -325,8 +373,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
         if (getNodeCat(node.getChild(0)).equals("key")) {
             // no 'term' child, but direct key specification: process here
-            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                    .makeTerm();
+            KoralTerm term = KoralObjectGenerator.makeTerm();
             String key = node.getChild(0).getText();
             if (getNodeCat(node.getChild(0).getChild(0)).equals("regex")) {
                 isRegex = true;
@@ -423,9 +470,8 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         boolean negated = false;
         if (negations.size() % 2 == 1)
             negated = true;
-        LinkedHashMap<String, Object> span = KoralObjectGenerator.makeSpan();
-        LinkedHashMap<String, Object> wrappedTerm = KoralObjectGenerator
-                .makeTerm();
+        KoralSpan span = KoralObjectGenerator.makeSpan();
+        KoralTerm wrappedTerm = KoralObjectGenerator.makeTerm();
         span.put("wrap", wrappedTerm);
         ParseTree keyNode = getFirstChildWithCat(node, "key");
         ParseTree layerNode = getFirstChildWithCat(node, "layer");
@@ -473,8 +519,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
 
     private void processDisjunction (ParseTree node) {
-        LinkedHashMap<String, Object> disjunction = KoralObjectGenerator
-                .makeGroup("disjunction");
+        KoralGroup disjunction = KoralObjectGenerator.makeGroup("disjunction");
         putIntoSuperObject(disjunction);
         objectStack.push(disjunction);
         stackedObjects++;
@@ -482,7 +527,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
 
     private void processPosition (ParseTree node) {
-        LinkedHashMap<String, Object> position = parseFrame(node.getChild(0));
+        KoralGroup position = parseFrame(node.getChild(0));
         putIntoSuperObject(position);
         objectStack.push(position);
         stackedObjects++;
@@ -490,11 +535,9 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
 
     private void processRelation (ParseTree node) {
-        LinkedHashMap<String, Object> relationGroup = KoralObjectGenerator
-                .makeGroup("relation");
-        LinkedHashMap<String, Object> relation = KoralObjectGenerator
-                .makeRelation();
-        LinkedHashMap<String, Object> term = KoralObjectGenerator.makeTerm();
+        KoralGroup relationGroup = KoralObjectGenerator.makeGroup("relation");
+        KoralRelation relation = KoralObjectGenerator.makeRelation();
+        KoralTerm term = KoralObjectGenerator.makeTerm();
         relationGroup.put("relation", relation);
         relation.put("wrap", term);
         if (node.getChild(0).getText().equals("dominates")) {
@@ -543,8 +586,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
                 addError(StatusCodes.INVALID_CLASS_REFERENCE, msg);
             }
         }
-        LinkedHashMap<String, Object> classGroup = KoralObjectGenerator
-                .makeSpanClass(classId);
+        KoralClass classGroup = KoralObjectGenerator.makeSpanClass(classId);
         addHighlightClass(classId);
         putIntoSuperObject(classGroup);
         objectStack.push(classGroup);
@@ -580,7 +622,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         else {
             classRefs.add(1); // default
         }
-        LinkedHashMap<String, Object> referenceGroup = KoralObjectGenerator
+        KoralReference referenceGroup = KoralObjectGenerator
                 .makeReference(classRefs);
 
         String type = node.getChild(0).toStringTree(parser);
@@ -601,8 +643,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
 
 
     private void processSubmatch (ParseTree node) {
-        LinkedHashMap<String, Object> submatch = KoralObjectGenerator
-                .makeReference(null);
+        KoralReference submatch = KoralObjectGenerator.makeReference(null);
         submatch.put("operands", new ArrayList<Object>());
         ParseTree startpos = getFirstChildWithCat(node, "startpos");
         ParseTree length = getFirstChildWithCat(node, "length");
@@ -628,9 +669,23 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         addWarning("You used the 'meta' keyword in a PoliqarpPlus query. This"
                 + " feature is currently not supported. Please use virtual "
                 + "collections to restrict documents by metadata.");
-        CollectionQueryProcessor cq = new CollectionQueryProcessor(node
-                .getChild(1).getText());
-        requestMap.put("collection", cq.getRequestMap().get("collection"));
+        // the collection query shares the settings of this processor
+        CollectionQueryProcessor cq = QueryProcessorPool
+                .acquire(CollectionQueryProcessor.class);
+        try {
+            cq.setVerbose(printDebug);
+            cq.setTranslationListener(listener);
+            cq.setQueryLimits(limits);
+            cq.setDeadline(deadline);
+            cq.process(node.getChild(1).getText());
+            requestMap.put("collection", cq.getRequestMap().get("collection"));
+            for (List<Object> error : cq.getErrors()) {
+                addError(error);
+            }
+        }
+        finally {
+            QueryProcessorPool.release(cq);
+        }
         for (ParseTree child : getChildren(node)) {
             visited.add(child);
         }
@@ -641,14 +696,12 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
     private void processWithin (ParseTree node) {
         ParseTree domainNode = node.getChild(1);
         String domain = getNodeCat(domainNode);
-        LinkedHashMap<String, Object> span = KoralObjectGenerator
-                .makeSpan(domain);
+        KoralSpan span = KoralObjectGenerator.makeSpan(domain);
         LinkedHashMap<String, Object> queryObj = (LinkedHashMap<String, Object>) requestMap
                 .get("query");
-        LinkedHashMap<String, Object> contains = KoralObjectGenerator
+        KoralGroup contains = KoralObjectGenerator
                 .makePosition(new String[] { "frames:isAround" });
-        ArrayList<Object> operands = (ArrayList<Object>) contains
-                .get("operands");
+        List<Object> operands = contains.getOperands();
         operands.add(span);
         operands.add(queryObj);
         requestMap.put("query", contains);
@@ -716,7 +769,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
-    private LinkedHashMap<String, Object> parseFrame (ParseTree node) {
+    private KoralGroup parseFrame (ParseTree node) {
         String operator = node.toStringTree(parser).toLowerCase();
         String[] frames = new String[] { "" };
         switch (operator) {
@@ -767,8 +820,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
         String nodeCat = getNodeCat(node);
         if (nodeCat.equals("term")) {
             String key = null;
-            LinkedHashMap<String, Object> term = KoralObjectGenerator
-                    .makeTerm();
+            KoralTerm term = KoralObjectGenerator.makeTerm();
             // handle negation
             boolean negated = negatedGlobal;
             boolean isRegex = false;
@@ -854,7 +906,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
             // For termGroups, establish a boolean relation between
             // operands and recursively call this function with
             // the term or termGroup operands
-            LinkedHashMap<String, Object> termGroup = null;
+            KoralTermGroup termGroup = null;
             ParseTree leftOp = null;
             ParseTree rightOp = null;
             // check for leading/trailing parantheses
@@ -871,8 +923,7 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
             ParseTree boolOp = getFirstChildWithCat(node, "boolOp");
             String operator = boolOp.getText().equals("&") ? "and" : "or";
             termGroup = KoralObjectGenerator.makeTermGroup(operator);
-            ArrayList<Object> operands = (ArrayList<Object>) termGroup
-                    .get("operands");
+            List<Object> operands = termGroup.getOperands();
             // recursion with left/right operands
             operands.add(parseTermOrTermGroup(leftOp, negatedGlobal, mode));
             operands.add(parseTermOrTermGroup(rightOp, negatedGlobal, mode));
@@ -915,8 +966,8 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
     private void putIntoSuperObject (LinkedHashMap<String, Object> object,
             int objStackPosition) {
         if (objectStack.size() > objStackPosition) {
-            ArrayList<Object> topObjectOperands = (ArrayList<Object>) objectStack
-                    .get(objStackPosition).get("operands");
+            List<Object> topObjectOperands = objectStack.get(
+                    objStackPosition).getOperands();
             topObjectOperands.add(object);
         }
         else {
@@ -981,37 +1032,57 @@ public class PoliqarpPlusQueryProcessor extends Antlr4AbstractQueryProcessor {
     }
 
 
+    /**
+     * Returns the settings and statistics of the two-stage parsing of
+     * PoliqarpPlus queries. The SLL stage can be switched off, and the
+     * counters show how often the parser had to fall back to LL mode.
+     * 
+     * @return The {@link TwoStageParsing} shared by all processors.
+     */
+    public static TwoStageParsing getTwoStageParsing () {
+        return twoStageParsing;
+    }
+
+
     private ParserRuleContext parsePoliqarpQuery (String query) {
-        Lexer lexer = new PoliqarpPlusLexer((CharStream) null);
         ParserRuleContext tree = null;
         Antlr4DescriptiveErrorListener errorListener = new Antlr4DescriptiveErrorListener(
                 query);
         // Like p. 111
         try {
+            // Reuse lexer and parser of previous queries
+            if (parser == null) {
+                lexer = new PoliqarpPlusLexer((CharStream) null);
+                parser = new PoliqarpPlusParser((TokenStream) null);
+                // Don't throw out erroneous stuff
+                parser.setErrorHandler(new StacklessBailErrorStrategy());
+            }
+            // Reject queries with unbalanced brackets without lexing
+            // and parsing
+            int offset = QueryPreScanner.scanPoliqarpPlus(query);
+            if (offset != QueryPreScanner.UNDECIDED) {
+                addError(StatusCodes.MALFORMED_QUERY,
+                        QueryUtils.UNBALANCED_PARS, offset);
+                return null;
+            }
             // Tokenize input data
-            ANTLRInputStream input = new ANTLRInputStream(query);
-            lexer.setInputStream(input);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            parser = new PoliqarpPlusParser(tokens);
-
-            // Don't throw out erroneous stuff
-            parser.setErrorHandler(new BailErrorStrategy());
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(errorListener);
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-
-            // Get starting rule from parser
-            Method startRule = PoliqarpPlusParser.class.getMethod("request");
-            tree = (ParserRuleContext) startRule
-                    .invoke(parser, (Object[]) null);
+            if (!setInput(query, errorListener))
+                return null;
+
+            long parsingStart = startTiming();
+            tree = twoStageParsing.parse((PoliqarpPlusParser) parser, startRule);
+            stageCompleted(TranslationListener.Stage.PARSING, parsingStart);
+        }
+        catch (TranslationCancelledException e) {
+            throw e;
         }
         // Some things went wrong ...
         catch (Exception e) {
-            log.error("Could not parse query. "
-                    + "Please make sure it is well-formed.");
-            log.error(errorListener.generateFullErrorMsg().toString());
-            addError(errorListener.generateFullErrorMsg());
+            // the error is only generated if it is read
+            List<Object> error = errorListener.getFullErrorMsg();
+            if (log.isDebugEnabled())
+                log.debug("Could not parse query: " + error);
+            addError(error);
         }
         return tree;
     }
@@ -0,0 +1,146 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Limits on the complexity of the queries translated by a
+ * {@link QuerySerializer} (see
+ * {@link QuerySerializer#setQueryLimits(QueryLimits)}), such that a
+ * pathological query cannot tie up a thread for long or overflow its
+ * stack. A query exceeding a limit is rejected with a
+ * {@link de.ids_mannheim.korap.query.serialize.util.StatusCodes#QUERY_TOO_COMPLEX}
+ * error instead of being translated.
+ *
+ * The limits are checked as early as possible: the length of the
+ * query before it is tokenized, the number of tokens and the nesting
+ * of brackets before it is parsed, and the depth and the number of
+ * nodes of the parse tree before it is translated. The numbers of
+ * classes and the bounds of distances and repetitions are checked
+ * during the translation. By default, no limit is set.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class QueryLimits {
+
+    private int maxQueryLength = Integer.MAX_VALUE;
+    private int maxTokens = Integer.MAX_VALUE;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int maxNodes = Integer.MAX_VALUE;
+    private int maxClasses = Integer.MAX_VALUE;
+    private int maxDistance = Integer.MAX_VALUE;
+
+
+    /**
+     * @param maxQueryLength
+     *            The maximum number of characters of a query.
+     * @return These limits.
+     */
+    public QueryLimits setMaxQueryLength (int maxQueryLength) {
+        this.maxQueryLength = maxQueryLength;
+        return this;
+    }
+
+
+    /**
+     * @param maxTokens
+     *            The maximum number of tokens of a query, as
+     *            recognized by the lexer of its query language.
+     * @return These limits.
+     */
+    public QueryLimits setMaxTokens (int maxTokens) {
+        this.maxTokens = maxTokens;
+        return this;
+    }
+
+
+    /**
+     * @param maxDepth
+     *            The maximum depth of the parse tree of a query. As
+     *            every bracket adds at least one level to the tree,
+     *            queries with more deeply nested brackets are already
+     *            rejected before they are parsed.
+     * @return These limits.
+     */
+    public QueryLimits setMaxDepth (int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+
+    /**
+     * @param maxNodes
+     *            The maximum number of nodes of the parse tree of a
+     *            query.
+     * @return These limits.
+     */
+    public QueryLimits setMaxNodes (int maxNodes) {
+        this.maxNodes = maxNodes;
+        return this;
+    }
+
+
+    /**
+     * @param maxClasses
+     *            The maximum number of classes in the translation of
+     *            a query, including classes introduced by the
+     *            translation.
+     * @return These limits.
+     */
+    public QueryLimits setMaxClasses (int maxClasses) {
+        this.maxClasses = maxClasses;
+        return this;
+    }
+
+
+    /**
+     * @param maxDistance
+     *            The maximum bound of a distance or a repetition.
+     * @return These limits.
+     */
+    public QueryLimits setMaxDistance (int maxDistance) {
+        this.maxDistance = maxDistance;
+        return this;
+    }
+
+
+    public int getMaxQueryLength () {
+        return maxQueryLength;
+    }
+
+
+    public int getMaxTokens () {
+        return maxTokens;
+    }
+
+
+    public int getMaxDepth () {
+        return maxDepth;
+    }
+
+
+    public int getMaxNodes () {
+        return maxNodes;
+    }
+
+
+    public int getMaxClasses () {
+        return maxClasses;
+    }
+
+
+    public int getMaxDistance () {
+        return maxDistance;
+    }
+
+
+    /**
+     * @return The current values of all limits, e.g. to tell apart
+     *         translations made with different limits.
+     */
+    List<Integer> values () {
+        return Arrays.asList(maxQueryLength, maxTokens, maxDepth, maxNodes,
+                maxClasses, maxDistance);
+    }
+}
@@ -0,0 +1,73 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps one idle query processor per processor class and thread,
+ * such that the processors, and in particular their lexers and
+ * parsers, are reused by subsequent translations on the same thread
+ * instead of being constructed anew.
+ *
+ * A processor is taken out of the pool with {@link #acquire(Class)}
+ * and has to be given back with {@link #release(AbstractQueryProcessor)}
+ * after its request map has been retrieved. If a processor of the same
+ * class is acquired again before it is released (e.g. by a nested
+ * translation), a new processor is constructed.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+class QueryProcessorPool {
+
+    private static final ThreadLocal<Map<Class<?>, AbstractQueryProcessor>> idleProcessors = new ThreadLocal<Map<Class<?>, AbstractQueryProcessor>>() {
+        @Override
+        protected Map<Class<?>, AbstractQueryProcessor> initialValue () {
+            return new HashMap<Class<?>, AbstractQueryProcessor>();
+        }
+    };
+
+
+    private QueryProcessorPool () {}
+
+
+    /**
+     * Takes the idle processor of the given class out of the pool of
+     * the current thread, or constructs a new one if there is none.
+     *
+     * @param processorClass
+     *            The class of the processor, which needs a public
+     *            constructor without arguments.
+     * @return A processor in the state of a freshly constructed one.
+     */
+    static <T extends AbstractQueryProcessor> T acquire (
+            Class<T> processorClass) {
+        AbstractQueryProcessor processor = idleProcessors.get().remove(
+                processorClass);
+        if (processor != null) {
+            return processorClass.cast(processor);
+        }
+        try {
+            return processorClass.newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot construct "
+                    + processorClass.getName(), e);
+        }
+    }
+
+
+    /**
+     * Resets the processor and puts it back into the pool of the
+     * current thread. The processor must not be used by the caller
+     * afterwards, but the request map it returned stays valid.
+     *
+     * @param processor
+     *            A processor taken out of the pool by
+     *            {@link #acquire(Class)}.
+     */
+    static void release (AbstractQueryProcessor processor) {
+        processor.reset();
+        idleProcessors.get().put(processor.getClass(), processor);
+    }
+}
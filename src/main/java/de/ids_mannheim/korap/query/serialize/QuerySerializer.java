@@ -1,15 +1,38 @@
 package de.ids_mannheim.korap.query.serialize;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.ids_mannheim.korap.query.object.KoralDocGroup;
+import de.ids_mannheim.korap.query.serialize.util.CollectionSimplifier;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
 import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.PatternLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Main class for Koral, serializes queries from concrete QLs to
@@ -39,15 +62,44 @@ public class QuerySerializer {
     }
 
     private static ObjectMapper mapper = new ObjectMapper();
+    /**
+     * Writes nested values while streaming, without flushing after
+     * each of them.
+     */
+    private static ObjectWriter valueWriter = mapper.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     private Logger qllogger = LoggerFactory.getLogger("ql");
     public static String queryLanguageVersion;
 
-    private AbstractQueryProcessor ast;
+    /**
+     * The request map of the processed query.
+     */
+    private Map<String, Object> requestMap;
     private Map<String, Object> collection = new LinkedHashMap<>();
+    /**
+     * The serialization of the collection, if it has been taken from
+     * the collection cache.
+     */
+    private String collectionJson;
     private Map<String, Object> meta;
     private List<Object> errors;
     private List<Object> warnings;
     private List<Object> messages;
+    @SuppressWarnings("deprecation")
+    private boolean verbose = AbstractQueryProcessor.verbose;
+    private boolean simplifyCollections = false;
+    private CollectionRegistry collectionRegistry;
+    private boolean expandCollectionReferences = false;
+
+    private TranslationCache cache;
+    private CollectionCache collectionCache;
+    private TranslationListener listener;
+    private QueryLimits limits;
+    private TranslationDeadline deadline;
+    private String query;
+    private String ql;
+    private String version;
+    private String collectionQuery;
     private org.slf4j.Logger log = LoggerFactory
             .getLogger(QuerySerializer.class);
 
@@ -61,6 +113,9 @@ public class QuerySerializer {
      * @param args
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(runBatch(args));
+        }
         /*
          * just for testing...
          */
@@ -72,6 +127,7 @@ public class QuerySerializer {
         if (args.length < 2) {
             System.err
                     .println("Usage: QuerySerializer \"query\" queryLanguage");
+            System.err.println("       " + BATCH_USAGE);
             System.exit(1);
         }else {
             queries = new String[] { args[0] };
@@ -91,6 +147,65 @@ public class QuerySerializer {
         }
     }
 
+    private static final String BATCH_USAGE = "QuerySerializer --batch [--threads n] [requests.jsonl]";
+
+    /**
+     * Translates JSON lines requests from the given file, or from the
+     * standard input, to JSON lines on the standard output and prints
+     * a summary to the standard error, see {@link JsonLinesTranslator}.
+     *
+     * @param args The command line arguments, starting with
+     *             <tt>--batch</tt>.
+     * @return The exit status.
+     */
+    private static int runBatch(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String file = null;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                }else if (file == null && !args[i].startsWith("--")) {
+                    file = args[i];
+                }else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (threads < 1)
+                throw new IllegalArgumentException("--threads " + threads);
+        }catch (IllegalArgumentException e) {
+            System.err.println("Invalid argument: " + e.getMessage());
+            System.err.println("Usage: " + BATCH_USAGE);
+            return 1;
+        }
+
+        // logging goes to the standard error, the standard output is
+        // reserved for the serializations
+        PrintStream out = System.out;
+        BasicConfigurator.configure(new ConsoleAppender(new PatternLayout(
+                PatternLayout.TTCC_CONVERSION_PATTERN),
+                ConsoleAppender.SYSTEM_ERR));
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.WARN);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        JsonLinesTranslator translator = new JsonLinesTranslator(
+                new QuerySerializer(), executor);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                file == null ? System.in : new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+                    StandardCharsets.UTF_8));
+            translator.translate(in, writer);
+            return 0;
+        }catch (IOException | InterruptedException e) {
+            System.err.println("Batch translation failed: " + e);
+            return 1;
+        }finally {
+            executor.shutdown();
+            translator.printSummary(System.err);
+        }
+    }
+
     /**
      * Runs the QuerySerializer by initializing the relevant
      * AbstractSyntaxTree implementation (depending on specified query
@@ -104,15 +219,15 @@ public class QuerySerializer {
      */
     public void run(String query, String queryLanguage) throws IOException {
         if (queryLanguage.equalsIgnoreCase("poliqarp")) {
-            ast = new PoliqarpPlusQueryProcessor(query);
+            requestMap = process(PoliqarpPlusQueryProcessor.class, query);
         }else if (queryLanguage.equalsIgnoreCase("cosmas2")) {
-            ast = new Cosmas2QueryProcessor(query);
+            requestMap = process(Cosmas2QueryProcessor.class, query);
         }else if (queryLanguage.equalsIgnoreCase("poliqarpplus")) {
-            ast = new PoliqarpPlusQueryProcessor(query);
+            requestMap = process(PoliqarpPlusQueryProcessor.class, query);
         }else if (queryLanguage.equalsIgnoreCase("cql")) {
-            ast = new CqlQueryProcessor(query);
+            requestMap = processCql(query, CqlQueryProcessor.VERSION_1_2);
         }else if (queryLanguage.equalsIgnoreCase("annis")) {
-            ast = new AnnisQueryProcessor(query);
+            requestMap = process(AnnisQueryProcessor.class, query);
         }else {
             throw new IllegalArgumentException(
                     queryLanguage + " is not a supported query language!");
@@ -121,100 +236,701 @@ public class QuerySerializer {
     }
 
     public QuerySerializer setQuery(String query, String ql, String version) {
-        ast = new DummyQueryProcessor();
+        this.query = query;
+        this.ql = ql;
+        this.version = version;
+        if (cache != null) {
+            // translated lazily, once the collection is known
+            return this;
+        }
+        try {
+            requestMap = translate(query, ql, version);
+        }catch (TranslationCancelledException e) {
+            requestMap = errorRequest(StatusCodes.TRANSLATION_CANCELLED,
+                    e.getMessage());
+        }
+        return this;
+    }
+
+    /**
+     * Translates the query with the processor of its query language.
+     *
+     * @return The request map of the query.
+     * @throws TranslationCancelledException If the deadline of this
+     *                                       serializer has expired.
+     */
+    private Map<String, Object> translate(String query, String ql,
+            String version) {
         if (query == null || query.isEmpty()) {
-            ast.addError(StatusCodes.NO_QUERY, "You did not specify a query!");
+            return errorRequest(StatusCodes.NO_QUERY,
+                    "You did not specify a query!");
         }else if (ql == null || ql.isEmpty()) {
-            ast.addError(StatusCodes.NO_QUERY,
+            return errorRequest(StatusCodes.NO_QUERY,
                     "You did not specify any query language!");
         }else if (ql.equalsIgnoreCase("poliqarp")) {
-            ast = new PoliqarpPlusQueryProcessor(query);
+            return process(PoliqarpPlusQueryProcessor.class, query);
         }else if (ql.equalsIgnoreCase("cosmas2")) {
-            ast = new Cosmas2QueryProcessor(query);
+            return process(Cosmas2QueryProcessor.class, query);
         }else if (ql.equalsIgnoreCase("poliqarpplus")) {
-            ast = new PoliqarpPlusQueryProcessor(query);
+            return process(PoliqarpPlusQueryProcessor.class, query);
         }else if (ql.equalsIgnoreCase("cql")) {
             if (version == null)
-                ast = new CqlQueryProcessor(query);
+                return processCql(query, CqlQueryProcessor.VERSION_1_2);
             else
-                ast = new CqlQueryProcessor(query, version);
+                return processCql(query, version);
         }else if (ql.equalsIgnoreCase("annis")) {
-            ast = new AnnisQueryProcessor(query);
+            return process(AnnisQueryProcessor.class, query);
         }else {
-            ast.addError(StatusCodes.UNKNOWN_QL,
+            return errorRequest(StatusCodes.UNKNOWN_QL,
                     ql + " is not a supported query language!");
         }
-        return this;
+    }
+
+    /**
+     * Lets a processor of the given class, taken from the pool of the
+     * current thread and configured with the settings of this
+     * serializer, process the query.
+     *
+     * @return The request map of the query.
+     */
+    private Map<String, Object> process(
+            Class<? extends AbstractQueryProcessor> processorClass,
+            String query) {
+        AbstractQueryProcessor processor = acquire(processorClass);
+        try {
+            processor.process(query);
+            return processor.getRequestMap();
+        }finally {
+            QueryProcessorPool.release(processor);
+        }
+    }
+
+    /**
+     * Takes a processor of the given class from the pool of the
+     * current thread and configures it with the settings of this
+     * serializer. It has to be released after use.
+     */
+    private AbstractQueryProcessor acquire(
+            Class<? extends AbstractQueryProcessor> processorClass) {
+        AbstractQueryProcessor processor = QueryProcessorPool
+                .acquire(processorClass);
+        processor.setVerbose(verbose);
+        processor.setTranslationListener(listener);
+        processor.setQueryLimits(limits);
+        processor.setDeadline(deadline);
+        return processor;
+    }
+
+    /**
+     * Lets a CQL processor for the given version, taken from the pool
+     * of the current thread, process the query.
+     *
+     * @return The request map of the query.
+     */
+    private Map<String, Object> processCql(String query, String version) {
+        CqlQueryProcessor processor = acquireCql(version);
+        try {
+            processor.process(query);
+            return processor.getRequestMap();
+        }finally {
+            QueryProcessorPool.release(processor);
+        }
+    }
+
+    /**
+     * Takes a CQL processor from the pool of the current thread and
+     * configures it for the given version and with the settings of
+     * this serializer. It has to be released after use.
+     */
+    private CqlQueryProcessor acquireCql(String version) {
+        CqlQueryProcessor processor = (CqlQueryProcessor) acquire(
+                CqlQueryProcessor.class);
+        processor.setVersion(version);
+        return processor;
+    }
+
+    /**
+     * Returns the request map of an unprocessed query with an error.
+     */
+    private Map<String, Object> errorRequest(int code, String msg) {
+        AbstractQueryProcessor processor = new DummyQueryProcessor();
+        processor.addError(code, msg);
+        return processor.getRequestMap();
     }
 
     public QuerySerializer setQuery(String query, String ql) {
         return setQuery(query, ql, "");
     }
 
+    /**
+     * Checks a query for errors and warnings without assembling and
+     * serializing a request, see
+     * {@link #validate(String, String, String)}.
+     *
+     * @param query The query string.
+     * @param ql    The query language.
+     * @return The errors and warnings of the query.
+     */
+    public ValidationResult validate(String query, String ql) {
+        return validate(query, ql, "");
+    }
+
+    /**
+     * Checks a query for errors and warnings, e.g. to check its
+     * syntax while it is being typed. The query is parsed and its
+     * tree is walked by the processor of its query language, just as
+     * in a translation, such that it gets the same errors and
+     * warnings, including those of the semantic checks like unbound
+     * ANNIS relations, invalid class references or the conformance of
+     * operators and values in collection queries. This builds the
+     * KoralQuery tree of the query, but skips the assembly of the
+     * request and its serialization to JSON. The translation cache is
+     * bypassed, and the query, collection and request of this
+     * serializer are not changed.
+     *
+     * @param query   The query string.
+     * @param ql      The query language, i.e. one of the languages of
+     *                {@link #setQuery(String, String, String)}, or
+     *                'collection' for a virtual collection query as
+     *                passed to {@link #setCollection(String)}.
+     * @param version The version of the query language.
+     * @return The errors and warnings of the query.
+     */
+    public ValidationResult validate(String query, String ql,
+            String version) {
+        try {
+            if (query == null || query.isEmpty()) {
+                return ValidationResult.error(StatusCodes.NO_QUERY,
+                        "You did not specify a query!");
+            }else if (ql == null || ql.isEmpty()) {
+                return ValidationResult.error(StatusCodes.NO_QUERY,
+                        "You did not specify any query language!");
+            }else if (ql.equalsIgnoreCase("poliqarp")
+                    || ql.equalsIgnoreCase("poliqarpplus")) {
+                return validate(PoliqarpPlusQueryProcessor.class, query);
+            }else if (ql.equalsIgnoreCase("cosmas2")) {
+                return validate(Cosmas2QueryProcessor.class, query);
+            }else if (ql.equalsIgnoreCase("cql")) {
+                return validate(acquireCql(version == null
+                        ? CqlQueryProcessor.VERSION_1_2 : version), query);
+            }else if (ql.equalsIgnoreCase("annis")) {
+                return validate(AnnisQueryProcessor.class, query);
+            }else if (ql.equalsIgnoreCase("collection")) {
+                return validate(CollectionQueryProcessor.class, query);
+            }else {
+                return ValidationResult.error(StatusCodes.UNKNOWN_QL,
+                        ql + " is not a supported query language!");
+            }
+        }catch (TranslationCancelledException e) {
+            return ValidationResult.error(StatusCodes.TRANSLATION_CANCELLED,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Lets a processor of the given class, taken from the pool of the
+     * current thread, process the query.
+     *
+     * @return The errors and warnings of the query.
+     */
+    private ValidationResult validate(
+            Class<? extends AbstractQueryProcessor> processorClass,
+            String query) {
+        return validate(acquire(processorClass), query);
+    }
+
+    /**
+     * Lets a processor acquired from the pool process the query and
+     * releases it afterwards.
+     *
+     * @return The errors and warnings of the query.
+     */
+    private ValidationResult validate(AbstractQueryProcessor processor,
+            String query) {
+        try {
+            processor.process(query);
+            // the lists are replaced, not cleared, on release
+            return new ValidationResult(processor.getErrors(),
+                    processor.getWarnings());
+        }finally {
+            QueryProcessorPool.release(processor);
+        }
+    }
+
+    /**
+     * Switches printing of debug statements on or off for the queries
+     * processed by this serializer. Must be called before
+     * {@link #setQuery(String, String, String)}.
+     *
+     * @param verbose If true, print debug statements.
+     */
     public void setVerbose(boolean verbose) {
-        AbstractQueryProcessor.verbose = verbose;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Lets this serializer look up translations in the given cache
+     * instead of translating every query anew. The cache can be
+     * shared by several serializers and threads. Must be called
+     * before {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param cache A translation cache, or null to disable caching.
+     * @return This serializer.
+     */
+    public QuerySerializer setTranslationCache(TranslationCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Lets this serializer look up compiled collections in the given
+     * cache instead of translating and serializing every collection
+     * query anew. Unlike the translation cache, the collection cache
+     * is independent of the query, so that requests with different
+     * queries and meta information share the collection. The cache
+     * can be shared by several serializers and threads. Must be
+     * called before {@link #setCollection(String)}.
+     *
+     * @param collectionCache A collection cache, or null to disable
+     *                        caching.
+     * @return This serializer.
+     */
+    public QuerySerializer setCollectionCache(
+            CollectionCache collectionCache) {
+        this.collectionCache = collectionCache;
+        return this;
+    }
+
+    /**
+     * Simplifies the collections of this serializer, i.e. flattens
+     * nested groups with the same operation, including the groups
+     * merging the collection of the query with the one set by
+     * {@link #setCollection(String)}, and removes duplicate and
+     * subsumed constraints (see {@link CollectionSimplifier}). The
+     * simplified collections select the same documents, but are
+     * smaller and shallower. Must be called before
+     * {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param simplify If true, simplify collections. They are not
+     *                 simplified by default.
+     * @return This serializer.
+     */
+    public QuerySerializer setCollectionSimplification(boolean simplify) {
+        this.simplifyCollections = simplify;
+        return this;
+    }
+
+    /**
+     * Resolves the references to named collections, i.e.
+     * <tt>referTo name</tt> in collection queries, against the given
+     * registry. References to collections that are not registered are
+     * reported as errors. By default, the references are kept as
+     * <tt>koral:docGroupRef</tt>s, such that the cost of a request
+     * does not depend on the size of the referenced collections (see
+     * {@link #setCollectionReferenceExpansion(boolean)}). The registry
+     * can be shared by several serializers and threads. Must be
+     * called before {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param registry A collection registry, or null to leave
+     *                 references unresolved.
+     * @return This serializer.
+     */
+    public QuerySerializer setCollectionRegistry(
+            CollectionRegistry registry) {
+        this.collectionRegistry = registry;
+        return this;
+    }
+
+    /**
+     * Replaces the references to named collections by the collections
+     * of the registry set with
+     * {@link #setCollectionRegistry(CollectionRegistry)}. The
+     * serializations of the collections are copied from their
+     * registry files. Must be called before
+     * {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param expand If true, expand references. They are not expanded
+     *               by default.
+     * @return This serializer.
+     */
+    public QuerySerializer setCollectionReferenceExpansion(boolean expand) {
+        this.expandCollectionReferences = expand;
+        return this;
+    }
+
+    /**
+     * Lets the listener receive the timings of the translation stages
+     * of this serializer and its query processors. The listener can
+     * be shared by several serializers and threads. Must be called
+     * before {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param listener A translation listener, or null to take no
+     *                 timings.
+     * @return This serializer.
+     */
+    public QuerySerializer setTranslationListener(
+            TranslationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Rejects queries and collection queries exceeding the given
+     * limits with a {@link StatusCodes#QUERY_TOO_COMPLEX} error. Must
+     * be called before
+     * {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}.
+     *
+     * @param limits The limits, or null to translate queries of any
+     *               complexity.
+     * @return This serializer.
+     */
+    public QuerySerializer setQueryLimits(QueryLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * Aborts the translations of this serializer once the deadline
+     * has expired, with a {@link StatusCodes#TRANSLATION_CANCELLED}
+     * error instead of the query or collection. Aborted translations
+     * are not cached. Must be called before
+     * {@link #setQuery(String, String, String)} and
+     * {@link #setCollection(String)}; with a translation cache, the
+     * translation only happens when the serialization is requested.
+     *
+     * @param deadline The deadline or cancellation token, or null to
+     *                 translate queries without a time limit.
+     * @return This serializer.
+     */
+    public QuerySerializer setDeadline(TranslationDeadline deadline) {
+        this.deadline = deadline;
+        return this;
     }
 
     public final String toJSON() {
-        String ser;
+        StringWriter writer = new StringWriter();
         try {
-            ser = mapper.writeValueAsString(raw());
-            qllogger.info("Serialized query: " + ser);
-        }catch (JsonProcessingException e) {
+            writeJSON(writer);
+        }catch (IOException e) {
             return "";
         }
+        String ser = writer.toString();
+        qllogger.info("Serialized query: " + ser);
         return ser;
     }
 
-    public final Map build() {
-        return raw();
+    /**
+     * Writes the KoralQuery serialization of the current query to
+     * the given stream, encoded in UTF-8. The stream is flushed, but
+     * not closed.
+     *
+     * @param out The output stream.
+     * @throws IOException
+     */
+    public void writeJSON(OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out,
+                JsonEncoding.UTF8);
+        writeJSON(generator);
     }
 
-    private Map raw() {
-        if (ast != null) {
-            Map<String, Object> requestMap = ast.getRequestMap();
-            Map meta = (Map) requestMap.get("meta");
-            Map collection = (Map) requestMap.get("collection");
-            List errors = (List) requestMap.get("errors");
-            List warnings = (List) requestMap.get("warnings");
-            List messages = (List) requestMap.get("messages");
-            this.collection = mergeCollection(collection, this.collection);
-            requestMap.put("collection", this.collection);
-            if (this.meta != null) {
-                this.meta.putAll(meta);
-                requestMap.put("meta", this.meta);
-            }
-            if (this.errors != null && !this.errors.isEmpty()) {
-                errors.addAll(this.errors);
-                requestMap.put("errors", errors);
-            }
-            if (this.warnings != null && !this.warnings.isEmpty()) {
-                warnings.addAll(this.warnings);
-                requestMap.put("warnings", warnings);
+    /**
+     * Writes the KoralQuery serialization of the current query to
+     * the given writer. The writer is flushed, but not closed.
+     *
+     * @param writer The writer.
+     * @throws IOException
+     */
+    public void writeJSON(Writer writer) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+        writeJSON(generator);
+    }
+
+    /**
+     * Streams the same tree that {@link #build()} returns to the
+     * generator. The collection, meta information, errors, warnings
+     * and messages of this serializer are merged into the processor's
+     * request while it is being written, and empty entries are
+     * skipped, so that neither a merged request map nor a copy of it
+     * is created.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeJSON(JsonGenerator generator) throws IOException {
+        long start = listener == null ? 0 : System.nanoTime();
+        Map<String, Object> requestMap = null;
+        Map<String, Object> collection = this.collection;
+        List<Object> errors = this.errors;
+        List<Object> warnings = this.warnings;
+        List<Object> messages = this.messages;
+        if (cache != null) {
+            if (query != null || ql != null)
+                requestMap = cachedTranslation();
+            // the collection of this serializer has only been set if
+            // it has been built, and is not part of the translation
+            errors = warnings = messages = Collections.emptyList();
+        }else {
+            requestMap = this.requestMap;
+        }
+
+        generator.writeStartObject();
+        if (requestMap != null) {
+            Set<String> keys = new LinkedHashSet<>(requestMap.keySet());
+            keys.addAll(MERGED_KEYS);
+            for (String key : keys) {
+                Object value = requestMap.get(key);
+                switch (key) {
+                    case "collection":
+                        if (collectionJson != null
+                                && collection == this.collection
+                                && (!simplifyCollections || value == null
+                                        || isEmpty(value))) {
+                            writeCollection(generator,
+                                    (Map<String, Object>) value);
+                            continue;
+                        }
+                        value = mergeCollection((Map<String, Object>) value,
+                                collection);
+                        break;
+                    case "meta":
+                        if (this.meta != null) {
+                            writeMeta(generator, (Map<String, Object>) value);
+                            continue;
+                        }
+                        break;
+                    case "errors":
+                        writeList(generator, key, (List<Object>) value,
+                                errors);
+                        continue;
+                    case "warnings":
+                        writeList(generator, key, (List<Object>) value,
+                                warnings);
+                        continue;
+                    case "messages":
+                        writeList(generator, key, (List<Object>) value,
+                                messages);
+                        continue;
+                }
+                if (value == null && !requestMap.containsKey(key))
+                    continue;
+                if (!isEmpty(value)) {
+                    generator.writeFieldName(key);
+                    valueWriter.writeValue(generator, value);
+                }
             }
-            if (this.messages != null && !this.messages.isEmpty()) {
-                messages.addAll(this.messages);
-                requestMap.put("messages", messages);
+        }
+        generator.writeEndObject();
+        generator.flush();
+        if (listener != null) {
+            listener.stageCompleted(ql, TranslationListener.Stage.SERIALIZATION,
+                    System.nanoTime() - start);
+        }
+    }
+
+    private static final List<String> MERGED_KEYS = Arrays.asList(
+            "collection", "meta", "errors", "warnings", "messages");
+
+    /**
+     * Writes the collection of this serializer, whose serialization
+     * has been taken from the collection cache, merged with the
+     * collection of the query like in
+     * {@link #mergeCollection(Map, Map)}.
+     */
+    private void writeCollection(JsonGenerator generator,
+            Map<String, Object> collection) throws IOException {
+        generator.writeFieldName("collection");
+        if (collection == null || collection.isEmpty()) {
+            generator.writeRawValue(collectionJson);
+            return;
+        }
+        long start = listener == null ? 0 : System.nanoTime();
+        KoralDocGroup docGroup = KoralObjectGenerator.makeDocGroup("and");
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> entry : docGroup.entrySet()) {
+            if (entry.getKey().equals("operands"))
+                continue;
+            generator.writeFieldName(entry.getKey());
+            valueWriter.writeValue(generator, entry.getValue());
+        }
+        generator.writeArrayFieldStart("operands");
+        valueWriter.writeValue(generator, collection);
+        generator.writeRawValue(collectionJson);
+        generator.writeEndArray();
+        generator.writeEndObject();
+        if (listener != null) {
+            listener.stageCompleted(ql,
+                    TranslationListener.Stage.COLLECTION_MERGE,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes the meta information of this serializer, overridden by
+     * the entries in the processor's meta map.
+     */
+    private void writeMeta(JsonGenerator generator, Map<String, Object> meta)
+            throws IOException {
+        if (meta == null)
+            meta = Collections.emptyMap();
+        if (this.meta.isEmpty() && meta.isEmpty())
+            return;
+        generator.writeObjectFieldStart("meta");
+        for (Map.Entry<String, Object> entry : this.meta.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            Object value = meta.containsKey(entry.getKey()) ? meta.get(entry
+                    .getKey()) : entry.getValue();
+            valueWriter.writeValue(generator, value);
+        }
+        for (Map.Entry<String, Object> entry : meta.entrySet()) {
+            if (!this.meta.containsKey(entry.getKey())) {
+                generator.writeFieldName(entry.getKey());
+                valueWriter.writeValue(generator, entry.getValue());
             }
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the concatenation of two lists, unless both are empty.
+     */
+    private void writeList(JsonGenerator generator, String key,
+            List<Object> list1, List<Object> list2) throws IOException {
+        if ((list1 == null || list1.isEmpty())
+                && (list2 == null || list2.isEmpty()))
+            return;
+        generator.writeArrayFieldStart(key);
+        if (list1 != null) {
+            for (Object item : list1)
+                valueWriter.writeValue(generator, item);
+        }
+        if (list2 != null) {
+            for (Object item : list2)
+                valueWriter.writeValue(generator, item);
+        }
+        generator.writeEndArray();
+    }
 
-            return cleanup(requestMap);
+    /**
+     * Empty lists, maps and strings are not serialized, see
+     * {@link #cleanup(Map)}.
+     */
+    private static boolean isEmpty(Object value) {
+        return (value instanceof List && ((List<?>) value).isEmpty())
+                || (value instanceof Map && ((Map<?, ?>) value).isEmpty())
+                || (value instanceof String && ((String) value).isEmpty());
+    }
+
+    public final Map build() {
+        return raw();
+    }
+
+    private Map<String, Object> raw() {
+        if (cache != null) {
+            if (query == null && ql == null)
+                return new HashMap<>();
+            List<Object> none = Collections.emptyList();
+            return assemble(cachedTranslation(), this.collection, none, none,
+                    none);
+        }
+        if (requestMap != null) {
+            return assemble(requestMap, this.collection, this.errors,
+                    this.warnings, this.messages);
         }
         return new HashMap<>();
     }
 
+    /**
+     * Combines the request map of a query processor with the
+     * collection, meta information, errors, warnings and messages
+     * set on this serializer. The request map and its entries are
+     * not modified, so that this method can be called repeatedly and
+     * on cached translations.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> assemble(Map<String, Object> requestMap,
+            Map<String, Object> collection, List<Object> errors,
+            List<Object> warnings, List<Object> messages) {
+        Map<String, Object> request = new LinkedHashMap<>(requestMap);
+        request.put("collection", mergeCollection(
+                (Map<String, Object>) requestMap.get("collection"),
+                collection));
+        if (this.meta != null) {
+            Map<String, Object> meta = new LinkedHashMap<>(this.meta);
+            if (requestMap.get("meta") != null)
+                meta.putAll((Map<String, Object>) requestMap.get("meta"));
+            request.put("meta", meta);
+        }
+        request.put("errors",
+                concat((List<Object>) requestMap.get("errors"), errors));
+        request.put("warnings",
+                concat((List<Object>) requestMap.get("warnings"), warnings));
+        request.put("messages",
+                concat((List<Object>) requestMap.get("messages"), messages));
+        return cleanup(request);
+    }
+
+    private List<Object> concat(List<Object> list1, List<Object> list2) {
+        List<Object> list = new ArrayList<>();
+        if (list1 != null)
+            list.addAll(list1);
+        if (list2 != null)
+            list.addAll(list2);
+        return list;
+    }
+
+    /**
+     * Looks up the translation of the current query and collection in
+     * the cache, translating them on a miss. The translation runs
+     * under the deadline of this serializer; if it is aborted, other
+     * serializers waiting for it translate the query under their own
+     * deadlines.
+     */
+    private Map<String, Object> cachedTranslation() {
+        final String query = this.query;
+        final String collection = this.collectionQuery;
+        try {
+            return cache.get(query, ql, version, collection,
+                    cacheSettings(),
+                    new Callable<Map<String, Object>>() {
+                        @Override
+                        public Map<String, Object> call() {
+                            QuerySerializer serializer = new QuerySerializer();
+                            serializer.setVerbose(verbose);
+                            serializer.setCollectionCache(collectionCache);
+                            serializer.setCollectionSimplification(
+                                    simplifyCollections);
+                            serializer.setCollectionRegistry(
+                                    collectionRegistry);
+                            serializer.setCollectionReferenceExpansion(
+                                    expandCollectionReferences);
+                            serializer.setTranslationListener(listener);
+                            serializer.setQueryLimits(limits);
+                            serializer.setDeadline(deadline);
+                            // an aborted translation is thrown, such
+                            // that it is not cached
+                            serializer.requestMap = serializer.translate(
+                                    query, ql, version);
+                            if (collection != null)
+                                serializer.setCollection(serializer
+                                        .translateCollection(collection));
+                            return serializer.raw();
+                        }
+                    }, deadline);
+        }catch (TranslationCancelledException e) {
+            return errorRequest(StatusCodes.TRANSLATION_CANCELLED,
+                    e.getMessage());
+        }
+    }
+
     private Map<String, Object> cleanup(Map<String, Object> requestMap) {
         Iterator<Map.Entry<String, Object>> set = requestMap.entrySet()
                 .iterator();
         while (set.hasNext()) {
-            Map.Entry<String, Object> entry = set.next();
-            if (entry.getValue() instanceof List && ((List) entry.getValue())
-                    .isEmpty())
-                set.remove();
-            else if (entry.getValue() instanceof Map && ((Map) entry.getValue())
-                    .isEmpty())
-                set.remove();
-            else if (entry.getValue() instanceof String && ((String) entry
-                    .getValue()).isEmpty())
+            if (isEmpty(set.next().getValue()))
                 set.remove();
         }
         return requestMap;
@@ -227,13 +943,20 @@ public class QuerySerializer {
         }else if (collection2 == null || collection2.isEmpty()) {
             return collection1;
         }else {
-            LinkedHashMap<String, Object> docGroup = KoralObjectGenerator
-                    .makeDocGroup("and");
-            ArrayList<Object> operands = (ArrayList<Object>) docGroup
-                    .get("operands");
+            long start = listener == null ? 0 : System.nanoTime();
+            KoralDocGroup docGroup = KoralObjectGenerator.makeDocGroup("and");
+            List<Object> operands = docGroup.getOperands();
             operands.add(collection1);
             operands.add(collection2);
-            return docGroup;
+            Map<String, Object> merged = docGroup;
+            if (simplifyCollections)
+                merged = CollectionSimplifier.simplify(docGroup);
+            if (listener != null) {
+                listener.stageCompleted(ql,
+                        TranslationListener.Stage.COLLECTION_MERGE,
+                        System.nanoTime() - start);
+            }
+            return merged;
         }
     }
 
@@ -259,17 +982,319 @@ public class QuerySerializer {
     }
 
     public QuerySerializer setCollection(String collection) {
-        CollectionQueryProcessor tree = new CollectionQueryProcessor();
-        tree.process(collection);
-        Map<String, Object> collectionRequest = tree.getRequestMap();
+        if (cache != null) {
+            this.collectionQuery = collection;
+            this.collection = new LinkedHashMap<>();
+            return this;
+        }
+        try {
+            if (collectionCache != null) {
+                CollectionCache.CompiledCollection compiled = cachedCollection(
+                        collection);
+                setCollection(compiled.request);
+                this.collectionJson = compiled.json;
+                return this;
+            }
+            return setCollection(processCollection(collection));
+        }catch (TranslationCancelledException e) {
+            this.errors.add(Arrays.asList(StatusCodes.TRANSLATION_CANCELLED,
+                    e.getMessage()));
+            return this;
+        }
+    }
+
+    /**
+     * Sets a collection assembled by a builder instead of a collection
+     * query, such that it is not parsed. Like the collection of a
+     * collection query, it is merged with the collection of the query
+     * and simplified if requested. Unlike a collection query, it is
+     * not part of the cached translations.
+     *
+     * @param builder A collection builder.
+     * @return This serializer.
+     */
+    public QuerySerializer setCollection(CollectionBuilder builder) {
+        Map<String, Object> collection = builder.build();
+        if (collection == null)
+            collection = new LinkedHashMap<>();
+        else if (simplifyCollections)
+            collection = CollectionSimplifier.simplify(collection);
+        this.collection = collection;
+        this.collectionJson = null;
+        this.collectionQuery = null;
+        return this;
+    }
+
+    /**
+     * Sets the collection of a collection query that has already been
+     * translated. The request map is not modified and can be shared
+     * by several serializers.
+     */
+    @SuppressWarnings("unchecked")
+    private QuerySerializer setCollection(
+            Map<String, Object> collectionRequest) {
         if (collectionRequest.get("errors") != null)
-            this.errors.addAll((List) collectionRequest.get("errors"));
+            this.errors.addAll((List<Object>) collectionRequest.get("errors"));
         if (collectionRequest.get("warnings") != null)
-            this.warnings.addAll((List) collectionRequest.get("warnings"));
+            this.warnings.addAll(
+                    (List<Object>) collectionRequest.get("warnings"));
         if (collectionRequest.get("messages") != null)
-            this.messages.addAll((List) collectionRequest.get("messages"));
+            this.messages.addAll(
+                    (List<Object>) collectionRequest.get("messages"));
         this.collection = (Map<String, Object>) collectionRequest
                 .get("collection");
+        this.collectionJson = null;
         return this;
     }
+
+    /**
+     * Translates a collection query, or takes its translation from
+     * the collection cache.
+     *
+     * @return The request map of the collection query.
+     */
+    private Map<String, Object> translateCollection(String collection) {
+        if (collectionCache != null)
+            return cachedCollection(collection).request;
+        return processCollection(collection);
+    }
+
+    /**
+     * Lets a collection processor translate a collection query,
+     * resolves its references to named collections if a registry is
+     * set, and simplifies the collection if requested. A simplified
+     * collection that provably selects no documents is reported by a
+     * warning.
+     *
+     * @return The request map of the collection query.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> processCollection(String collection) {
+        AbstractQueryProcessor processor = acquire(
+                CollectionQueryProcessor.class);
+        try {
+            processor.process(collection);
+            Map<String, Object> request = processor.getRequestMap();
+            Map<String, Object> translated = (Map<String, Object>) request
+                    .get("collection");
+            if (collectionRegistry != null && translated != null) {
+                translated = collectionRegistry.resolve(translated,
+                        expandCollectionReferences, processor);
+                request.put("collection", translated);
+            }
+            if (simplifyCollections && translated != null) {
+                translated = CollectionSimplifier.simplify(translated);
+                request.put("collection", translated);
+                if (CollectionSimplifier.isEmpty(translated)) {
+                    processor.addWarning(StatusCodes.EMPTY_COLLECTION,
+                            "The constraints of the collection contradict"
+                                    + " each other, such that it contains"
+                                    + " no documents.");
+                }
+            }
+            return request;
+        }finally {
+            QueryProcessorPool.release(processor);
+        }
+    }
+
+    /**
+     * Returns the settings of this serializer that translations
+     * depend on, such that serializers with different settings can
+     * share caches without mixing up their translations. The
+     * registry is compared by identity and by the number of its
+     * registrations, such that translations made before a collection
+     * was registered or replaced are not reused.
+     */
+    private List<Object> cacheSettings() {
+        return Arrays.<Object>asList(
+                limits == null ? null : limits.values(),
+                simplifyCollections, collectionRegistry,
+                collectionRegistry == null ? 0
+                        : collectionRegistry.getGeneration(),
+                expandCollectionReferences);
+    }
+
+    /**
+     * Looks up the compiled collection in the collection cache,
+     * translating the collection query on a miss.
+     *
+     * @throws TranslationCancelledException If the deadline of this
+     *                                       serializer has expired.
+     */
+    private CollectionCache.CompiledCollection cachedCollection(
+            final String collection) {
+        return collectionCache.get(collection, cacheSettings(),
+                new Callable<Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> call() {
+                        // an aborted translation is thrown, such that
+                        // it is not cached
+                        return processCollection(collection);
+                    }
+                }, deadline);
+    }
+
+    /**
+     * Translates a batch of requests with a fixed thread pool of one
+     * thread per available processor, see
+     * {@link #translateAll(List, ExecutorService)}.
+     *
+     * @param requests The translation requests.
+     * @return The KoralQuery serializations of the requests, in the
+     * order of the requests.
+     * @throws InterruptedException If the current thread is interrupted
+     *                              while waiting for the translations.
+     */
+    public List<String> translateAll(List<TranslationRequest> requests)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime
+                .getRuntime().availableProcessors());
+        try {
+            return translateAll(requests, executor);
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Translates a batch of requests, see
+     * {@link #translateAll(List, ExecutorService)}.
+     *
+     * @param requests The translation requests, which are all read
+     *                 before the first one is translated.
+     * @param executor The executor translating the requests.
+     * @return The KoralQuery serializations of the requests, in the
+     * order of the requests.
+     * @throws InterruptedException If the current thread is interrupted
+     *                              while waiting for the translations.
+     */
+    public List<String> translateAll(Iterator<TranslationRequest> requests,
+            ExecutorService executor) throws InterruptedException {
+        List<TranslationRequest> list = new ArrayList<>();
+        while (requests.hasNext())
+            list.add(requests.next());
+        return translateAll(list, executor);
+    }
+
+    /**
+     * Translates a batch of requests in parallel and serializes them
+     * to KoralQuery. Every request is translated by a new serializer
+     * with the settings of this serializer, i.e. its verbosity,
+     * translation and collection caches, translation listener, query
+     * limits and deadline, and results in the same JSON as a
+     * sequential translation.
+     *
+     * Without a translation or collection cache, every distinct
+     * collection query of the batch is translated only once, before
+     * the queries are translated, and its translation is shared by all
+     * requests restricted to it. A request whose translation fails with an
+     * exception results in an {@link StatusCodes#UNKNOWN_QUERY_ERROR}
+     * instead of failing the batch.
+     *
+     * @param requests The translation requests.
+     * @param executor The executor translating the requests, e.g. a
+     *                 {@link java.util.concurrent.ForkJoinPool} or a
+     *                 thread pool. It is not shut down.
+     * @return The KoralQuery serializations of the requests, in the
+     * order of the requests.
+     * @throws InterruptedException If the current thread is interrupted
+     *                              while waiting for the translations.
+     */
+    public List<String> translateAll(List<TranslationRequest> requests,
+            ExecutorService executor) throws InterruptedException {
+        Map<String, Future<Map<String, Object>>> collectionTasks = new HashMap<>();
+        if (cache == null && collectionCache == null) {
+            for (TranslationRequest request : requests) {
+                final String collection = request.getCollection();
+                if (collection == null
+                        || collectionTasks.containsKey(collection))
+                    continue;
+                collectionTasks.put(collection, executor
+                        .submit(new Callable<Map<String, Object>>() {
+                            @Override
+                            public Map<String, Object> call() {
+                                return processCollection(collection);
+                            }
+                        }));
+            }
+        }
+        // all collections are translated before the first query, such
+        // that no query task waits for a collection task in the queue
+        Map<String, Map<String, Object>> collections = new HashMap<>();
+        for (Map.Entry<String, Future<Map<String, Object>>> task : collectionTasks
+                .entrySet()) {
+            try {
+                collections.put(task.getKey(), task.getValue().get());
+            }catch (ExecutionException e) {
+                // translated again, and reported, by the query tasks
+                log.warn("Could not translate collection query: "
+                        + task.getKey(), e.getCause());
+            }
+        }
+
+        List<Future<String>> tasks = new ArrayList<>(requests.size());
+        for (final TranslationRequest request : requests) {
+            final Map<String, Object> collection = collections.get(request
+                    .getCollection());
+            tasks.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return translate(request, collection);
+                }
+            }));
+        }
+        List<String> results = new ArrayList<>(requests.size());
+        for (Future<String> task : tasks) {
+            try {
+                results.add(task.get());
+            }catch (ExecutionException e) {
+                throw new IllegalStateException("Translation failed",
+                        e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Translates a request of a batch with a new serializer.
+     *
+     * @param collectionRequest The translated collection query of the
+     *                          request, or null if it has to be
+     *                          translated.
+     */
+    private String translate(TranslationRequest request,
+            Map<String, Object> collectionRequest) {
+        QuerySerializer serializer = new QuerySerializer();
+        serializer.setVerbose(verbose);
+        serializer.setTranslationCache(cache);
+        serializer.setCollectionCache(collectionCache);
+        serializer.setCollectionSimplification(simplifyCollections);
+        serializer.setCollectionRegistry(collectionRegistry);
+        serializer.setCollectionReferenceExpansion(expandCollectionReferences);
+        serializer.setTranslationListener(listener);
+        serializer.setQueryLimits(limits);
+        serializer.setDeadline(deadline);
+        try {
+            if (request.getVersion() == null)
+                serializer.setQuery(request.getQuery(),
+                        request.getQueryLanguage());
+            else
+                serializer.setQuery(request.getQuery(),
+                        request.getQueryLanguage(), request.getVersion());
+            if (collectionRequest != null)
+                serializer.setCollection(collectionRequest);
+            else if (request.getCollection() != null)
+                serializer.setCollection(request.getCollection());
+            if (request.getMeta() != null)
+                serializer.setMeta(request.getMeta());
+            return serializer.toJSON();
+        }catch (RuntimeException e) {
+            log.error("Could not translate query: " + request.getQuery(), e);
+            QuerySerializer failed = new QuerySerializer();
+            failed.requestMap = errorRequest(StatusCodes.UNKNOWN_QUERY_ERROR,
+                    "Could not translate query: " + e);
+            return failed.toJSON();
+        }
+    }
 }
@@ -12,6 +12,8 @@ import java.util.Stack;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
+
 /**
  * @author Joachim Bingel (bingel@ids-mannheim.de),
  *         Michael Hanl (hanl@ids-mannheim.de)
@@ -21,34 +23,18 @@ import java.util.regex.Pattern;
  */
 public class QueryUtils {
 
+    /**
+     * The message of the error reported for queries with unbalanced
+     * brackets.
+     */
+    public static final String UNBALANCED_PARS = "Parantheses/brackets unbalanced.";
+
+
     public static SimpleEntry<String, Integer> checkUnbalancedPars (String q) {
-        Map<Character, Character> brackets = new HashMap<Character, Character>();
-        brackets.put('[', ']');
-        brackets.put('{', '}');
-        brackets.put('(', ')');
-        Set<Character> allChars = new HashSet<Character>();
-        allChars.addAll(brackets.keySet());
-        allChars.addAll(brackets.values());
-        int lastOpenBracket = 0;
-
-        final Stack<Character> stack = new Stack<Character>();
-        for (int i = 0; i < q.length(); i++) {
-            if (!allChars.contains(q.charAt(i)))
-                continue;
-            if (brackets.containsKey(q.charAt(i))) {
-                stack.push(q.charAt(i));
-                lastOpenBracket = i;
-            }
-            else if (stack.empty()
-                    || (q.charAt(i) != brackets.get(stack.pop()))) {
-                return new SimpleEntry<String, Integer>(
-                        "Parantheses/brackets unbalanced.", i);
-            }
-        }
-        if (!stack.empty())
-            return new SimpleEntry<String, Integer>(
-                    "Parantheses/brackets unbalanced.", lastOpenBracket);
-        return null;
+        int offset = QueryPreScanner.findUnbalancedBracket(q);
+        if (offset == QueryPreScanner.UNDECIDED)
+            return null;
+        return new SimpleEntry<String, Integer>(UNBALANCED_PARS, offset);
     }
 
 
@@ -0,0 +1,263 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of values that are expensive to compute, such as
+ * translations, which can be shared by any number of threads.
+ * Concurrent requests for a key that is not yet cached wait for a
+ * single computation, failed computations are not cached, and the
+ * least recently used entries are evicted once the maximum size is
+ * reached. This is the common base of the {@link TranslationCache}
+ * and the {@link CollectionCache}.
+ *
+ * @param <K>
+ *            The type of the keys, which must be immutable and
+ *            implement {@link Object#equals(Object)} and
+ *            {@link Object#hashCode()}.
+ * @param <V>
+ *            The type of the values, which must be safe to hand out
+ *            to concurrent callers.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+class SingleFlightCache<K, V> {
+
+    /**
+     * The interval in milliseconds at which a request waiting for the
+     * computation of another request checks its deadline.
+     */
+    private static final long CHECK_INTERVAL = 10;
+
+    /**
+     * Values in access order, such that the eldest entry is the least
+     * recently used one. A value that is still being computed is
+     * represented by its unfinished task.
+     */
+    private final LinkedHashMap<K, Entry<K, V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    /**
+     * @param maximumSize
+     *            The maximum number of values kept in the cache.
+     */
+    SingleFlightCache (final int maximumSize) {
+        entries = new LinkedHashMap<K, Entry<K, V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry (
+                    Map.Entry<K, Entry<K, V>> eldest) {
+                if (size() > maximumSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the cached value for the given key, computing it with
+     * the loader if it is not cached yet. A cached value is only
+     * handed out if {@link #isReusable(Object, Object, Object)}
+     * agrees, otherwise it is computed anew and not cached.
+     *
+     * The loader of the first request for a key runs under the
+     * deadline of that request. If it is aborted, the requests
+     * waiting for it do not share its
+     * {@link TranslationCancelledException}, but compute the value
+     * under their own deadlines. A request waits for the computation
+     * of another request only until its own deadline has expired.
+     *
+     * @param key
+     *            The key of the value.
+     * @param loader
+     *            Computes the value if it is not cached yet.
+     * @param deadline
+     *            The deadline of the request, may be null.
+     * @return The value.
+     * @throws TranslationCancelledException
+     *             If the deadline of the request has expired.
+     */
+    V get (K key, Callable<? extends V> loader, TranslationDeadline deadline) {
+        while (true) {
+            Entry<K, V> task;
+            boolean compute = false;
+            synchronized (entries) {
+                task = entries.get(key);
+                if (task == null) {
+                    task = new Entry<K, V>(key, loader);
+                    entries.put(key, task);
+                    compute = true;
+                }
+            }
+            if (compute) {
+                misses.incrementAndGet();
+                task.run();
+            }
+            V value;
+            try {
+                // the computation of this request has already finished
+                value = await(task, compute ? null : deadline);
+            }
+            catch (ExecutionException e) {
+                // failed computations are not cached
+                synchronized (entries) {
+                    if (entries.get(key) == task)
+                        entries.remove(key);
+                }
+                // the deadline of another request has expired
+                if (!compute
+                        && e.getCause() instanceof TranslationCancelledException)
+                    continue;
+                throw unwrap(e.getCause());
+            }
+            if (compute)
+                return value;
+            if (!isReusable(key, task.key, value)) {
+                misses.incrementAndGet();
+                try {
+                    return loader.call();
+                }
+                catch (Exception e) {
+                    throw unwrap(e);
+                }
+            }
+            hits.incrementAndGet();
+            return value;
+        }
+    }
+
+
+    /**
+     * Waits for a computation, but only until the deadline has
+     * expired. A deadline may also be cancelled, so it is checked
+     * at least every {@link #CHECK_INTERVAL} milliseconds.
+     */
+    private static <V> V await (Entry<?, V> task, TranslationDeadline deadline)
+            throws ExecutionException {
+        try {
+            if (deadline == null)
+                return task.get();
+            while (true) {
+                deadline.check();
+                try {
+                    return task.get(Math.min(deadline.getRemainingNanos(),
+                            TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL)),
+                            TimeUnit.NANOSECONDS);
+                }
+                catch (TimeoutException e) {
+                    continue;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Decides whether a cached value is handed out for a key that is
+     * equal to, but not necessarily the same as, the key it was
+     * computed for. By default, cached values are always reused.
+     *
+     * @param key
+     *            The key of the lookup.
+     * @param cachedKey
+     *            The key the value was computed for.
+     * @param value
+     *            The cached value.
+     * @return True if the value can be handed out for the key.
+     */
+    protected boolean isReusable (K key, K cachedKey, V value) {
+        return true;
+    }
+
+
+    private static RuntimeException unwrap (Throwable cause) {
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new IllegalStateException(cause);
+    }
+
+
+    /**
+     * The computation of a value together with the key it is
+     * computed for.
+     */
+    private static class Entry<K, V> extends FutureTask<V> {
+
+        final K key;
+
+
+        @SuppressWarnings("unchecked")
+        Entry (K key, Callable<? extends V> loader) {
+            super((Callable<V>) loader);
+            this.key = key;
+        }
+    }
+
+
+    /**
+     * @return The number of lookups that were answered from the
+     *         cache.
+     */
+    public long getHitCount () {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of lookups that required a computation.
+     */
+    public long getMissCount () {
+        return misses.get();
+    }
+
+
+    /**
+     * @return The number of values that were evicted from the cache.
+     */
+    public long getEvictionCount () {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return The number of values in the cache.
+     */
+    public int size () {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void invalidateAll () {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Token;
+
+import de.ids_mannheim.korap.query.parse.annis.AqlLexer;
+import de.ids_mannheim.korap.query.parse.poliqarpplus.PoliqarpPlusLexer;
+
+/**
+ * A bounded cache of query translations that can be shared by any
+ * number of {@link QuerySerializer}s (see
+ * {@link QuerySerializer#setTranslationCache(TranslationCache)}).
+ *
+ * Translations are keyed on the whitespace-normalised query string
+ * together with the query language, its version, the virtual
+ * collection query and the settings of the serializer that the
+ * translation depends on, i.e. its query limits and its handling of
+ * collections. The query itself is translated as it was given, such
+ * that error positions and messages do not depend on whether the
+ * cache is used. Cached translations (including their errors,
+ * warnings and messages) are immutable snapshots, so that they can
+ * be handed out to concurrent callers. Concurrent requests for a key
+ * that is not yet cached wait for a single translation. The least
+ * recently used entries are evicted once the maximum size is
+ * reached.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class TranslationCache extends
+        SingleFlightCache<TranslationCache.Key, Map<String, Object>> {
+
+    /**
+     * @param maximumSize
+     *            The maximum number of translations kept in the
+     *            cache.
+     */
+    public TranslationCache (int maximumSize) {
+        super(maximumSize);
+    }
+
+
+    /**
+     * Returns the cached translation for the given key, translating
+     * it with the loader if it is not cached yet.
+     *
+     * The query is looked up by its whitespace-normalised form (see
+     * {@link #normalize(String, String)}), but the loader translates the
+     * query as it was given. Errors refer to positions in and quote
+     * the query string, so a cached translation with errors is only
+     * handed out for the very string it was translated from. Other
+     * spellings of the query are translated anew and not cached.
+     *
+     * @param query
+     *            The query string.
+     * @param ql
+     *            The query language.
+     * @param version
+     *            The version of the query language, may be null.
+     * @param collection
+     *            The virtual collection query, may be null.
+     * @param settings
+     *            The settings of the serializer the translation
+     *            depends on, e.g. its query limits, which must
+     *            implement {@link Object#equals(Object)}.
+     * @param loader
+     *            Translates the query if it is not cached yet.
+     * @param deadline
+     *            The deadline of the request, may be null.
+     * @return An immutable translation.
+     * @throws TranslationCancelledException
+     *             If the deadline has expired.
+     */
+    Map<String, Object> get (String query, String ql, String version,
+            String collection, Object settings,
+            final Callable<Map<String, Object>> loader,
+            TranslationDeadline deadline) {
+        return get(new Key(query, Arrays.<Object> asList(normalize(query, ql),
+                ql, version, collection, settings)),
+                new Callable<Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> call () throws Exception {
+                        return freeze(loader.call());
+                    }
+                }, deadline);
+    }
+
+
+    @Override
+    protected boolean isReusable (Key key, Key cachedKey,
+            Map<String, Object> translation) {
+        return (key.query == null ? cachedKey.query == null : key.query
+                .equals(cachedKey.query)) || !hasErrors(translation);
+    }
+
+
+    private static boolean hasErrors (Map<String, Object> translation) {
+        Object errors = translation.get("errors");
+        return errors instanceof List && !((List<?>) errors).isEmpty();
+    }
+
+
+    /**
+     * The key of a translation, which tells apart queries by their
+     * normalised form only, but keeps the query string as it was
+     * given.
+     */
+    static final class Key {
+
+        final String query;
+        private final List<Object> normalized;
+
+
+        Key (String query, List<Object> normalized) {
+            this.query = query;
+            this.normalized = normalized;
+        }
+
+
+        @Override
+        public boolean equals (Object other) {
+            return other instanceof Key
+                    && normalized.equals(((Key) other).normalized);
+        }
+
+
+        @Override
+        public int hashCode () {
+            return normalized.hashCode();
+        }
+    }
+
+
+    /**
+     * Normalises the whitespace of a query with the tokens of its
+     * query language: leading and trailing whitespace is removed, and
+     * runs of whitespace between two tokens are collapsed into a
+     * single blank. Tokens, e.g. strings and regular expressions, are
+     * left untouched, as whitespace is significant there. Queries of
+     * languages without an ANTLR 4 lexer, i.e. COSMAS II and CQL, are
+     * only trimmed.
+     *
+     * @param query
+     *            A query string.
+     * @param ql
+     *            The query language.
+     * @return The normalised query string.
+     */
+    public static String normalize (String query, String ql) {
+        if (query == null)
+            return null;
+        Lexer lexer;
+        if ("poliqarp".equalsIgnoreCase(ql)
+                || "poliqarpplus".equalsIgnoreCase(ql))
+            lexer = new PoliqarpPlusLexer(new ANTLRInputStream(query));
+        else if ("annis".equalsIgnoreCase(ql))
+            lexer = new AqlLexer(new ANTLRInputStream(query));
+        else
+            return query.trim();
+        lexer.removeErrorListeners();
+        StringBuilder normalized = new StringBuilder(query.length());
+        int end = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer
+                .nextToken()) {
+            appendGap(normalized, query.substring(end, token.getStartIndex()));
+            end = token.getStopIndex() + 1;
+            normalized.append(query, token.getStartIndex(), end);
+        }
+        String gap = query.substring(end);
+        if (!gap.trim().isEmpty())
+            normalized.append(gap);
+        return normalized.toString();
+    }
+
+
+    /**
+     * Appends the characters the lexer skipped between two tokens:
+     * a blank if they are whitespace, or else the characters
+     * themselves, e.g. ones the lexer could not recognise.
+     */
+    private static void appendGap (StringBuilder normalized, String gap) {
+        if (gap.trim().isEmpty()) {
+            if (!gap.isEmpty() && normalized.length() > 0)
+                normalized.append(' ');
+        }
+        else {
+            normalized.append(gap);
+        }
+    }
+
+
+    private static final Set<Class<?>> FROZEN_CLASSES = new HashSet<Class<?>>(
+            Arrays.<Class<?>> asList(Collections.unmodifiableMap(
+                    new HashMap<String, Object>()).getClass(), Collections
+                    .unmodifiableList(new ArrayList<Object>()).getClass(),
+                    Collections.unmodifiableList(new LinkedList<Object>())
+                            .getClass()));
+
+
+    /**
+     * Turns a (cleaned up) request map into an immutable snapshot by
+     * wrapping all nested maps and lists in unmodifiable views. Parts
+     * that are already immutable snapshots, e.g. the translation of a
+     * collection query taken from a {@link CollectionCache} or the
+     * collections of a {@link CollectionRegistry}, are left as they
+     * are.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object freezeObject (Object object) {
+        if (object != null && FROZEN_CLASSES.contains(object.getClass())
+                || object instanceof CollectionRegistry.RegisteredCollection) {
+            return object;
+        }
+        else if (object instanceof Map) {
+            return freeze((Map<String, Object>) object);
+        }
+        else if (object instanceof List) {
+            ListIterator<Object> it = ((List<Object>) object).listIterator();
+            while (it.hasNext()) {
+                it.set(freezeObject(it.next()));
+            }
+            return Collections.unmodifiableList((List<Object>) object);
+        }
+        return object;
+    }
+
+
+    static Map<String, Object> freeze (Map<String, Object> map) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            entry.setValue(freezeObject(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -0,0 +1,27 @@
+package de.ids_mannheim.korap.query.serialize;
+
+/**
+ * Thrown by the query processors to abort a translation once its
+ * {@link TranslationDeadline} has expired. The exception unwinds the
+ * lexer, the parser and the translation of the query and is turned
+ * into a
+ * {@link de.ids_mannheim.korap.query.serialize.util.StatusCodes#TRANSLATION_CANCELLED}
+ * error by the {@link QuerySerializer}. As it is an expected outcome
+ * rather than a bug, it carries no stack trace.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class TranslationCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * @param message
+     *            The reason of the cancellation.
+     */
+    public TranslationCancelledException (String message) {
+        super(message, null, false, false);
+    }
+}
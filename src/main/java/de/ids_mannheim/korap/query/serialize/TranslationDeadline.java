@@ -0,0 +1,111 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deadline and cancellation token for the translations of a
+ * {@link QuerySerializer} (see
+ * {@link QuerySerializer#setDeadline(TranslationDeadline)}). The
+ * query processors check it periodically while they tokenize, parse
+ * and translate a query, and abort the translation once the deadline
+ * has passed or the token has been cancelled, e.g. because the client
+ * waiting for the translation has given up. An aborted translation
+ * results in a
+ * {@link de.ids_mannheim.korap.query.serialize.util.StatusCodes#TRANSLATION_CANCELLED}
+ * error.
+ *
+ * A deadline can be shared by several serializers and threads, and
+ * can be cancelled from any thread.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class TranslationDeadline {
+
+    /**
+     * The deadline as returned by {@link System#nanoTime()}, only
+     * valid if {@link #timed}.
+     */
+    private final long deadline;
+    private final boolean timed;
+    private volatile boolean cancelled = false;
+
+
+    /**
+     * Constructs a token without a deadline, which only aborts
+     * translations once it is cancelled.
+     */
+    public TranslationDeadline () {
+        this.deadline = 0;
+        this.timed = false;
+    }
+
+
+    /**
+     * Constructs a token that aborts translations once the given time
+     * has passed or it is cancelled.
+     *
+     * @param timeout
+     *            The time from now until the deadline.
+     * @param unit
+     *            The unit of the timeout.
+     */
+    public TranslationDeadline (long timeout, TimeUnit unit) {
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.timed = true;
+    }
+
+
+    /**
+     * Aborts all running and future translations checking this token.
+     */
+    public void cancel () {
+        cancelled = true;
+    }
+
+
+    /**
+     * @return true iff {@link #cancel()} has been called.
+     */
+    public boolean isCancelled () {
+        return cancelled;
+    }
+
+
+    /**
+     * @return true iff the token has been cancelled or the deadline
+     *         has passed.
+     */
+    public boolean isExpired () {
+        return cancelled || (timed && System.nanoTime() - deadline >= 0);
+    }
+
+
+    /**
+     * @return The nanoseconds until the deadline, which are negative
+     *         once it has passed, or {@link Long#MAX_VALUE} if the
+     *         token has no deadline.
+     */
+    long getRemainingNanos () {
+        return timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Aborts the current translation if the token has expired.
+     *
+     * @throws TranslationCancelledException
+     *             If the token has been cancelled or the deadline has
+     *             passed.
+     */
+    public void check () {
+        if (cancelled) {
+            throw new TranslationCancelledException(
+                    "The translation of the query has been cancelled.");
+        }
+        if (timed && System.nanoTime() - deadline >= 0) {
+            throw new TranslationCancelledException(
+                    "The translation of the query has exceeded its deadline.");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.List;
+
+/**
+ * Receives the timings of the stages of query translations, e.g. to
+ * feed them into latency histograms. A listener is registered with
+ * {@link QuerySerializer#setTranslationListener(TranslationListener)}
+ * and is called by the serializer and its query processors. Without
+ * a listener, no timings are taken.
+ *
+ * A listener that is shared by several serializers is called
+ * concurrently and has to be thread-safe. Its methods are called on
+ * the translating thread and should return quickly.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public interface TranslationListener {
+
+    /**
+     * The stages of a translation.
+     */
+    enum Stage {
+        /**
+         * Tokenization of a query.
+         */
+        LEXING,
+        /**
+         * Parsing of the tokens of a query into a parse tree.
+         */
+        PARSING,
+        /**
+         * Translation of the parse tree into KoralQuery objects.
+         */
+        TRANSLATION,
+        /**
+         * Merging the virtual collection of a query with the
+         * collection set on the serializer.
+         */
+        COLLECTION_MERGE,
+        /**
+         * Serialization of a request to JSON, including
+         * {@link #COLLECTION_MERGE}.
+         */
+        SERIALIZATION
+    }
+
+
+    /**
+     * Called when a stage of a translation is completed.
+     *
+     * @param ql
+     *            The query language, <tt>collection</tt> for
+     *            collection queries, or null if the query language is
+     *            unknown.
+     * @param stage
+     *            The completed stage.
+     * @param nanos
+     *            The duration of the stage in nanoseconds.
+     */
+    void stageCompleted (String ql, Stage stage, long nanos);
+
+
+    /**
+     * Called when a query processor has processed a query.
+     *
+     * @param ql
+     *            The query language, <tt>collection</tt> for
+     *            collection queries.
+     * @param nodeCount
+     *            The number of nodes of the parse tree, 0 if the query
+     *            could not be parsed.
+     * @param errors
+     *            The errors of the query, each consisting of an error
+     *            code and a message. The list is empty if the query
+     *            was translated successfully.
+     * @param nanos
+     *            The duration of the processing in nanoseconds,
+     *            including lexing, parsing and translation.
+     */
+    void queryProcessed (String ql, int nodeCount,
+            List<List<Object>> errors, long nanos);
+}
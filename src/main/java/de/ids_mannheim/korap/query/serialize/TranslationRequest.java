@@ -0,0 +1,107 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.Map;
+
+/**
+ * A request for the translation of a query, possibly restricted to a
+ * virtual collection and with meta information, as translated in a
+ * batch by {@link QuerySerializer#translateAll(java.util.List)}. The
+ * optional parts of a request correspond to the setters of the
+ * {@link QuerySerializer}.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class TranslationRequest {
+
+    private final String query;
+    private final String ql;
+    private String version;
+    private String collection;
+    private Map<String, Object> meta;
+
+
+    /**
+     * @param query
+     *            The query string.
+     * @param ql
+     *            The query language.
+     */
+    public TranslationRequest (String query, String ql) {
+        this.query = query;
+        this.ql = ql;
+    }
+
+
+    /**
+     * @param version
+     *            The version of the query language, see
+     *            {@link QuerySerializer#setQuery(String, String, String)}.
+     * @return This request.
+     */
+    public TranslationRequest setVersion (String version) {
+        this.version = version;
+        return this;
+    }
+
+
+    /**
+     * @param collection
+     *            A virtual collection query, see
+     *            {@link QuerySerializer#setCollection(String)}.
+     * @return This request.
+     */
+    public TranslationRequest setCollection (String collection) {
+        this.collection = collection;
+        return this;
+    }
+
+
+    /**
+     * @param meta
+     *            The meta information, see
+     *            {@link QuerySerializer#setMeta(Map)}.
+     * @return This request.
+     */
+    public TranslationRequest setMeta (Map<String, Object> meta) {
+        this.meta = meta;
+        return this;
+    }
+
+
+    /**
+     * @param meta
+     *            The meta information, see
+     *            {@link QuerySerializer#setMeta(MetaQueryBuilder)}.
+     * @return This request.
+     */
+    public TranslationRequest setMeta (MetaQueryBuilder meta) {
+        this.meta = meta.raw();
+        return this;
+    }
+
+
+    public String getQuery () {
+        return query;
+    }
+
+
+    public String getQueryLanguage () {
+        return ql;
+    }
+
+
+    public String getVersion () {
+        return version;
+    }
+
+
+    public String getCollection () {
+        return collection;
+    }
+
+
+    public Map<String, Object> getMeta () {
+        return meta;
+    }
+}
@@ -1,15 +1,12 @@
 package de.ids_mannheim.korap.query.serialize;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,8 +15,11 @@ import org.slf4j.LoggerFactory;
 import de.ids_mannheim.korap.query.parse.annis.AqlLexer;
 //TODO replace AqlParser with parser for your Antlr4 grammar!
 import de.ids_mannheim.korap.query.parse.annis.AqlParser;
+import de.ids_mannheim.korap.query.serialize.util.Antlr4DescriptiveErrorListener;
 import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy;
 import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
 
 /**
  * Map representation of syntax tree as returned by ANTLR
@@ -31,6 +31,18 @@ import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
 public class TreeTemplate extends Antlr4AbstractQueryProcessor {
     private static Logger log = LoggerFactory.getLogger(TreeTemplate.class);
 
+    /**
+     * Two-stage (SLL, then LL) parsing of queries, shared by all
+     * processors.
+     */
+    private static final TwoStageParsing twoStageParsing = new TwoStageParsing();
+    private static final TwoStageParsing.StartRule<AqlParser> startRule = new TwoStageParsing.StartRule<AqlParser>() {
+        @Override
+        public ParserRuleContext invoke (AqlParser parser) {
+            return parser.start();
+        }
+    };
+
 
     /**
      * 
@@ -41,30 +53,40 @@ public class TreeTemplate extends Antlr4AbstractQueryProcessor {
      *            tree
      */
     public TreeTemplate (String query) {
-        KoralObjectGenerator.setQueryProcessor(this);
         process(query);
     }
 
 
     @Override
     public void process (String query) {
-        ParseTree tree = parseQuery(query);
-        super.parser = this.parser;
-        if (tree != null) {
-            log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
-            processNode(tree);
+        AbstractQueryProcessor previous = KoralObjectGenerator
+                .getQueryProcessor();
+        KoralObjectGenerator.setQueryProcessor(this);
+        try {
+            ParseTree tree = parseQuery(query);
+            super.parser = this.parser;
+            if (tree != null) {
+                if (log.isDebugEnabled())
+                    log.debug("ANTLR parse tree: " + tree.toStringTree(parser));
+                walk(tree);
+            }
+            else if (getErrors().isEmpty()) {
+                addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
+                        + query + " <<<.");
+            }
         }
-        else {
-            addError(StatusCodes.MALFORMED_QUERY, "Could not parse query >>> "
-                    + query + " <<<.");
+        finally {
+            releaseParseTree();
+            KoralObjectGenerator.setQueryProcessor(previous);
         }
     }
 
 
-    private void processNode (ParseTree node) {
+    @Override
+    protected boolean enterNode (ParseTree node) {
         // Top-down processing
         if (visited.contains(node))
-            return;
+            return false;
         else
             visited.add(node);
 
@@ -73,7 +95,7 @@ public class TreeTemplate extends Antlr4AbstractQueryProcessor {
 
         stackedObjects = 0;
 
-        if (verbose) {
+        if (printDebug) {
             System.err.println(" " + objectStack);
             System.out.println(openNodeCats);
         }
@@ -90,15 +112,16 @@ public class TreeTemplate extends Antlr4AbstractQueryProcessor {
         /*
          ****************************************************************
          **************************************************************** 
-         *  Recursion until 'request' node (root of tree) is processed  *
+         *  walk(ParseTree) continues with the children of the node     *
          ****************************************************************
          ****************************************************************
          */
-        for (int i = 0; i < node.getChildCount(); i++) {
-            ParseTree child = node.getChild(i);
-            processNode(child);
-        }
+        return true;
+    }
+
 
+    @Override
+    protected void exitNode (ParseTree node) {
         /*
          ***************************************************************
          ***************************************************************
@@ -125,8 +148,8 @@ public class TreeTemplate extends Antlr4AbstractQueryProcessor {
     private void putIntoSuperObject (LinkedHashMap<String, Object> object,
             int objStackPosition) {
         if (objectStack.size() > objStackPosition) {
-            ArrayList<Object> topObjectOperands = (ArrayList<Object>) objectStack
-                    .get(objStackPosition).get("operands");
+            List<Object> topObjectOperands = objectStack.get(
+                    objStackPosition).getOperands();
             topObjectOperands.add(0, object);
 
         }
@@ -136,38 +159,55 @@ public class TreeTemplate extends Antlr4AbstractQueryProcessor {
     }
 
 
+    /**
+     * Returns the settings and statistics of the two-stage parsing of
+     * queries. The SLL stage can be switched off, and the counters
+     * show how often the parser had to fall back to LL mode.
+     * 
+     * @return The {@link TwoStageParsing} shared by all processors.
+     */
+    public static TwoStageParsing getTwoStageParsing () {
+        return twoStageParsing;
+    }
+
+
     private ParserRuleContext parseQuery (String q) {
-        // TODO replace AqlLexer with lexer for your Antlr4 grammar!
-        Lexer qlLexer = new AqlLexer((CharStream) null);
         ParserRuleContext tree = null;
+        Antlr4DescriptiveErrorListener errorListener = new Antlr4DescriptiveErrorListener(
+                q);
         // Like p. 111
         try {
+            // Reuse lexer and parser of previous queries
+            if (parser == null) {
+                // TODO replace AqlLexer with lexer for your Antlr4
+                // grammar!
+                lexer = new AqlLexer((CharStream) null);
+                // TODO replace AqlParser with parser for your Antlr4
+                // grammar!
+                parser = new AqlParser((TokenStream) null);
+                // Don't throw out erroneous stuff
+                parser.setErrorHandler(new StacklessBailErrorStrategy());
+            }
             // Tokenize input data
-            ANTLRInputStream input = new ANTLRInputStream(q);
-            qlLexer.setInputStream(input);
-            CommonTokenStream tokens = new CommonTokenStream(qlLexer);
+            if (!setInput(q, errorListener))
+                return null;
             // TODO replace AqlParser with parser for your Antlr4
             // grammar!
-            parser = new AqlParser(tokens);
-
-            // Don't throw out erroneous stuff
-            parser.setErrorHandler(new BailErrorStrategy());
-            parser.removeErrorListeners();
-
-            // Get starting rule from parser
-            // TODO replace AqlParser with parser for your Antlr4
-            // grammar!
-            Method startRule = AqlParser.class.getMethod("start");
-            tree = (ParserRuleContext) startRule
-                    .invoke(parser, (Object[]) null);
+            tree = twoStageParsing.parse((AqlParser) parser, startRule);
+        }
+        catch (TranslationCancelledException e) {
+            throw e;
         }
-
         // Some things went wrong ...
         catch (Exception e) {
-            System.err.println(e.getMessage());
+            // the error is only generated if it is read
+            List<Object> error = errorListener.getFullErrorMsg();
+            if (log.isDebugEnabled())
+                log.debug("Could not parse query: " + error);
+            addError(error);
         }
 
         // Return the generated tree
         return tree;
     }
-}
\ No newline at end of file
+}
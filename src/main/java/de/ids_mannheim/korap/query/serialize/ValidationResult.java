@@ -0,0 +1,73 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of the validation of a query by
+ * {@link QuerySerializer#validate(String, String)}: the errors and
+ * warnings the translation of the query would report, in the form
+ * they take in the <tt>errors</tt> and <tt>warnings</tt> of a
+ * KoralQuery request.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class ValidationResult {
+
+    private final List<List<Object>> errors;
+    private final List<List<Object>> warnings;
+
+
+    ValidationResult (List<List<Object>> errors,
+                      List<List<Object>> warnings) {
+        this.errors = Collections.unmodifiableList(errors);
+        this.warnings = Collections.unmodifiableList(warnings);
+    }
+
+
+    /**
+     * Returns the result of a query that could not be validated at
+     * all, e.g. because its query language is unknown.
+     */
+    static ValidationResult error (int code, String msg) {
+        List<List<Object>> errors = new ArrayList<List<Object>>();
+        errors.add(Arrays.<Object> asList(code, msg));
+        return new ValidationResult(errors, new ArrayList<List<Object>>());
+    }
+
+
+    /**
+     * @return true iff the query has no errors. It may still have
+     *         warnings.
+     */
+    public boolean isValid () {
+        return errors.isEmpty();
+    }
+
+
+    /**
+     * @return The errors, each consisting of an error code, a message
+     *         and possibly the offset of the error in the query.
+     */
+    public List<List<Object>> getErrors () {
+        return errors;
+    }
+
+
+    /**
+     * @return The warnings, each consisting of an optional warning
+     *         code and a message.
+     */
+    public List<List<Object>> getWarnings () {
+        return warnings;
+    }
+
+
+    @Override
+    public String toString () {
+        return "errors: " + errors + ", warnings: " + warnings;
+    }
+}
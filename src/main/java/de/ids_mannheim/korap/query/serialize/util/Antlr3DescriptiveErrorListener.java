@@ -1,6 +1,7 @@
 package de.ids_mannheim.korap.query.serialize.util;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,6 +19,9 @@ import de.ids_mannheim.korap.query.serialize.QueryUtils;
  */
 public class Antlr3DescriptiveErrorListener implements IErrorReporter {
 
+    private static final Pattern ERROR_PATTERN = Pattern
+            .compile("line \\d+:(\\d+).* '(.+?)' expecting (.+)");
+
     private String query;
     private String offendingSymbol;
     private String expected;
@@ -34,9 +38,7 @@ public class Antlr3DescriptiveErrorListener implements IErrorReporter {
         String charPositionStr = null;
         String offendingSymbol = null;
         String expected = null;
-        Pattern p = Pattern
-                .compile("line \\d+:(\\d+).* '(.+?)' expecting (.+)");
-        Matcher m = p.matcher(error);
+        Matcher m = ERROR_PATTERN.matcher(error);
         if (m.find()) {
             charPositionStr = m.group(1);
             offendingSymbol = m.group(2);
@@ -51,6 +53,23 @@ public class Antlr3DescriptiveErrorListener implements IErrorReporter {
     }
 
 
+    /**
+     * Returns the error of the query, which is only generated when
+     * it is first read, see {@link DeferredErrorMsg}.
+     * 
+     * @return The error as generated by
+     *         {@link #generateFullErrorMsg()}.
+     */
+    public List<Object> getFullErrorMsg () {
+        return new DeferredErrorMsg() {
+            @Override
+            protected List<Object> generate () {
+                return generateFullErrorMsg();
+            }
+        };
+    }
+
+
     public ArrayList<Object> generateFullErrorMsg () {
         ArrayList<Object> errorSpecs = new ArrayList<Object>();
         String msg = getDetailedErrorMessage();
@@ -64,6 +83,14 @@ public class Antlr3DescriptiveErrorListener implements IErrorReporter {
     private String getDetailedErrorMessage () {
         // default message, in case no detailed info is available;
         String msg = "Malformed query. Could not parse.";
+        if (query.isEmpty())
+            return msg;
+        // check for unbalanced parantheses, which moves the offset
+        // of the error to the unbalanced bracket
+        SimpleEntry<String, Integer> unbalanced = QueryUtils
+                .checkUnbalancedPars(query);
+        if (unbalanced != null)
+            charPosition = unbalanced.getValue();
         char offendingSymbol = query.charAt(0);
         if (query.length() > charPosition)
             offendingSymbol = query.charAt(charPosition);
@@ -76,13 +103,8 @@ public class Antlr3DescriptiveErrorListener implements IErrorReporter {
                 msg += " Expected '" + expected + "'";
             }
         }
-        // check for unbalanced parantheses
-        SimpleEntry<String, Integer> unbalanced = QueryUtils
-                .checkUnbalancedPars(query);
-        if (unbalanced != null) {
+        if (unbalanced != null)
             msg = unbalanced.getKey();
-            charPosition = unbalanced.getValue();
-        }
         // check if more more arguments expected before closing
         // operator
         if (String.valueOf(offendingSymbol).equals(")")) {
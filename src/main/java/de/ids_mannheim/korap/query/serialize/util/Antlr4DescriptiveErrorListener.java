@@ -1,6 +1,7 @@
 package de.ids_mannheim.korap.query.serialize.util;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.AbstractMap.SimpleEntry;
 
 import org.antlr.v4.runtime.BaseErrorListener;
@@ -47,6 +48,23 @@ public class Antlr4DescriptiveErrorListener extends BaseErrorListener {
     }
 
 
+    /**
+     * Returns the error of the query, which is only generated when
+     * it is first read, see {@link DeferredErrorMsg}.
+     * 
+     * @return The error as generated by
+     *         {@link #generateFullErrorMsg()}.
+     */
+    public List<Object> getFullErrorMsg () {
+        return new DeferredErrorMsg() {
+            @Override
+            protected List<Object> generate () {
+                return generateFullErrorMsg();
+            }
+        };
+    }
+
+
     public ArrayList<Object> generateFullErrorMsg () {
         ArrayList<Object> errorSpecs = new ArrayList<Object>();
         String msg = getDetailedErrorMessage();
@@ -60,17 +78,20 @@ public class Antlr4DescriptiveErrorListener extends BaseErrorListener {
     private String getDetailedErrorMessage () {
         // default message, in case no detailed info is available;
         String msg = "Malformed query. Could not parse.";
+        if (query.isEmpty())
+            return msg;
+        // check for unbalanced parantheses, which moves the offset
+        // of the error to the unbalanced bracket
+        SimpleEntry<String, Integer> unbalanced = QueryUtils
+                .checkUnbalancedPars(query);
+        if (unbalanced != null)
+            charPosition = unbalanced.getValue();
         char offendingSymbol = query.charAt(0);
         if (query.length() > charPosition)
             offendingSymbol = query.charAt(charPosition);
         msg = "Failing to parse at symbol: '" + offendingSymbol + "'";
-        // check for unbalanced parantheses
-        SimpleEntry<String, Integer> unbalanced = QueryUtils
-                .checkUnbalancedPars(query);
-        if (unbalanced != null) {
+        if (unbalanced != null)
             msg = unbalanced.getKey();
-            charPosition = unbalanced.getValue();
-        }
         // check if more more arguments expected before closing operator
         if (String.valueOf(offendingSymbol).equals(")")) {
             msg = "Early closing parenthesis. Possibly lacking arguments for operator.";
@@ -0,0 +1,714 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.ids_mannheim.korap.query.object.KoralDoc;
+import de.ids_mannheim.korap.query.object.KoralDocGroup;
+
+/**
+ * Simplifies virtual collections, i.e. trees of
+ * <tt>koral:docGroup</tt>s, without changing the documents they
+ * select:
+ * <ul>
+ * <li>nested groups with the same operation are flattened into one
+ * group with all their operands, e.g. the nested binary groups of
+ * <tt>a &amp; b &amp; c</tt> or of merged collections,</li>
+ * <li>duplicate operands are removed, e.g. <tt>a &amp; a</tt> becomes
+ * <tt>a</tt>,</li>
+ * <li>operands subsumed by other operands are removed (absorption),
+ * e.g. <tt>a &amp; (a | b)</tt> becomes <tt>a</tt> and
+ * <tt>a | (a &amp; b)</tt> becomes <tt>a</tt>,</li>
+ * <li>the date constraints (<tt>since</tt>, <tt>until</tt>,
+ * <tt>in</tt>, <tt>on</tt>, and the inequations on dates) on the
+ * same key in a conjunction are normalised into a single interval,
+ * i.e. at most a lower and an upper bound, e.g.
+ * <tt>pubDate since 2010 &amp; pubDate since 2012</tt> becomes
+ * <tt>pubDate since 2012</tt>,</li>
+ * <li>overlapping date intervals on the same key in a disjunction are
+ * merged, e.g. <tt>pubDate in 2010 | pubDate since 2005</tt> becomes
+ * <tt>pubDate since 2005</tt>,</li>
+ * <li>groups with a single operand are replaced by the operand.</li>
+ * </ul>
+ * A conjunction whose date intervals do not overlap, e.g.
+ * <tt>pubDate since 2010 &amp; pubDate until 2005</tt>, selects no
+ * documents. It is reduced to the two contradicting constraints, and
+ * {@link #isEmpty(Map)} recognises it.
+ *
+ * Dates are compared by their components, such that a date without a
+ * day (or month) covers all days (or months) of its month (or year).
+ * Negations are pushed down to the matches of the
+ * <tt>koral:doc</tt>s, see {@link #negate(Map)}, so that simplified
+ * collections never contain negated groups.
+ *
+ * The given collections are not modified, and unchanged parts of them
+ * are shared by the simplified collections.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class CollectionSimplifier {
+
+    private static final Pattern DATE_PATTERN = Pattern
+            .compile("([0-9]{4})(?:-([0-9]{2})(?:-([0-9]{2}))?)?");
+
+
+    private CollectionSimplifier () {}
+
+
+    /**
+     * Simplifies a collection.
+     *
+     * @param collection
+     *            A <tt>koral:doc</tt>, a <tt>koral:docGroup</tt> or any
+     *            other collection object, which is left as it is.
+     * @return The simplified collection.
+     */
+    public static Map<String, Object> simplify (Map<String, Object> collection) {
+        if (!isGroup(collection))
+            return collection;
+        Simplification simplification = new Simplification();
+        simplification.walk(collection);
+        return simplification.result;
+    }
+
+
+    /**
+     * Simplifies the groups of a collection bottom-up, without
+     * recursion, such that deeply nested collections (e.g. of
+     * generated queries) do not overflow the stack. The operands of a
+     * group with the same operation as its parent are collected by
+     * the parent right away, i.e. nested groups are flattened before
+     * they are simplified.
+     */
+    private static class Simplification extends
+            TreeWalker<Map<String, Object>> {
+
+        /**
+         * The groups that have been entered but not exited yet.
+         */
+        private final LinkedList<Group> groups = new LinkedList<Group>();
+        private Map<String, Object> result;
+
+
+        @Override
+        protected boolean enter (Map<String, Object> node) {
+            if (!isGroup(node)) {
+                add(node);
+                return false;
+            }
+            String operation = (String) node.get("operation");
+            if (!groups.isEmpty()
+                    && groups.peek().operation.equals(operation))
+                groups.push(groups.peek());
+            else
+                groups.push(new Group(operation));
+            return true;
+        }
+
+
+        @Override
+        protected void exit (Map<String, Object> node) {
+            Group group = groups.pop();
+            if (groups.isEmpty() || groups.peek() != group)
+                add(group.simplify());
+        }
+
+
+        @Override
+        protected int getChildCount (Map<String, Object> node) {
+            return isGroup(node) ? operands(node).size() : 0;
+        }
+
+
+        @Override
+        protected Map<String, Object> getChild (Map<String, Object> node,
+                int index) {
+            return operands(node).get(index);
+        }
+
+
+        /**
+         * Adds a simplified operand to the innermost open group, or
+         * takes it as the result if there is none.
+         */
+        private void add (Map<String, Object> operand) {
+            if (groups.isEmpty())
+                result = operand;
+            else
+                groups.peek().add(operand);
+        }
+    }
+
+
+    /**
+     * A group whose operands are being simplified.
+     */
+    private static class Group {
+
+        final String operation;
+        final List<Map<String, Object>> operands = new ArrayList<Map<String, Object>>();
+        final Set<Map<String, Object>> distinct = new HashSet<Map<String, Object>>();
+
+
+        Group (String operation) {
+            this.operation = operation;
+        }
+
+
+        /**
+         * Adds a simplified operand, flattening it if it is a group
+         * with the same operation and dropping duplicates.
+         */
+        void add (Map<String, Object> operand) {
+            List<Map<String, Object>> flattened = isGroup(operand)
+                    && operation.equals(operand.get("operation")) ? operands(operand)
+                    : Collections.singletonList(operand);
+            for (Map<String, Object> flat : flattened) {
+                if (distinct.add(flat))
+                    operands.add(flat);
+            }
+        }
+
+
+        /**
+         * @return The simplified group, or its only operand.
+         */
+        Map<String, Object> simplify () {
+            boolean and = operation.equals("operation:and");
+            List<Map<String, Object>> simplified = and ? intersectDates(operands)
+                    : uniteDates(operands);
+            if (simplified.size() > 1)
+                simplified = absorb(simplified, operation);
+            if (simplified.size() == 1)
+                return simplified.get(0);
+            KoralDocGroup group = new KoralDocGroup(operation
+                    .substring(operation.indexOf(':') + 1));
+            group.getOperands().addAll(simplified);
+            return group;
+        }
+    }
+
+
+    /**
+     * Checks whether a collection provably selects no documents,
+     * because it requires a date to lie in intervals that do not
+     * overlap, e.g. <tt>pubDate since 2010 &amp; (pubDate until 2005
+     * | pubDate in 2008)</tt>. The collection need not be simplified.
+     *
+     * @param collection
+     *            A collection.
+     * @return true if the collection is provably empty, false if it
+     *         may select documents.
+     */
+    public static boolean isEmpty (Map<String, Object> collection) {
+        return isEmpty(collection, new HashMap<Object, Interval>());
+    }
+
+
+    /**
+     * Checks whether a collection is provably empty within
+     * conjunctions that require the given date intervals.
+     */
+    private static boolean isEmpty (Map<String, Object> collection,
+            Map<Object, Interval> context) {
+        if (!isGroup(collection)) {
+            Interval interval = Interval.of(collection);
+            return interval != null && context.containsKey(interval.key)
+                    && context.get(interval.key).intersect(interval).isEmpty();
+        }
+        List<Map<String, Object>> operands = operands(collection);
+        if ("operation:or".equals(collection.get("operation"))) {
+            for (Map<String, Object> operand : operands) {
+                if (!isEmpty(operand, context))
+                    return false;
+            }
+            return !operands.isEmpty();
+        }
+        Map<Object, Interval> intervals = new HashMap<Object, Interval>(context);
+        List<Map<String, Object>> groups = new ArrayList<Map<String, Object>>();
+        if (!conjoin(collection, intervals, groups))
+            return true;
+        for (Map<String, Object> group : groups) {
+            if (isEmpty(group, intervals))
+                return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Intersects the date intervals of a conjunction and its nested
+     * conjunctions, and collects their other groups.
+     *
+     * @return false if an intersection is empty.
+     */
+    private static boolean conjoin (Map<String, Object> conjunction,
+            Map<Object, Interval> intervals, List<Map<String, Object>> groups) {
+        for (Map<String, Object> operand : operands(conjunction)) {
+            if (isGroup(operand)) {
+                if (!"operation:and".equals(operand.get("operation")))
+                    groups.add(operand);
+                else if (!conjoin(operand, intervals, groups))
+                    return false;
+                continue;
+            }
+            Interval interval = Interval.of(operand);
+            if (interval == null)
+                continue;
+            Interval other = intervals.get(interval.key);
+            if (other != null)
+                interval = other.intersect(interval);
+            if (interval.isEmpty())
+                return false;
+            intervals.put(interval.key, interval);
+        }
+        return true;
+    }
+
+
+    /**
+     * Negates a collection by pushing the negation down to the
+     * <tt>koral:doc</tt>s: groups are negated by De Morgan's laws and
+     * the matches of the documents are inverted, i.e.
+     * <tt>match:eq</tt> becomes <tt>match:ne</tt> and
+     * <tt>match:contains</tt> becomes <tt>match:containsnot</tt>, and
+     * vice versa. Comparisons like <tt>match:geq</tt> (since) are
+     * not inverted, since the inverted comparison would not select
+     * the documents without a value of the field, and there is no
+     * inverse of <tt>match:in</tt>.
+     *
+     * @param collection
+     *            A <tt>koral:doc</tt> or <tt>koral:docGroup</tt>.
+     * @return The negated and simplified collection.
+     * @throws IllegalArgumentException
+     *             If the collection contains an object that cannot be
+     *             negated, e.g. a <tt>koral:token</tt> or a date
+     *             comparison.
+     */
+    public static Map<String, Object> negate (Map<String, Object> collection) {
+        Object type = collection.get("@type");
+        if ("koral:docGroup".equals(type)) {
+            String operation = (String) collection.get("operation");
+            KoralDocGroup group = new KoralDocGroup(
+                    operation.equals("operation:and") ? "or" : "and");
+            for (Map<String, Object> operand : operands(collection)) {
+                group.getOperands().add(negate(operand));
+            }
+            return simplify(group);
+        }
+        else if ("koral:doc".equals(type)) {
+            KoralDoc doc = KoralObjectGenerator.makeDoc();
+            doc.putAll(collection);
+            doc.put("match", invert((String) collection.get("match")));
+            return doc;
+        }
+        throw new IllegalArgumentException("Cannot negate a " + type + "!");
+    }
+
+
+    /**
+     * Replaces the date constraints on each key of a conjunction by
+     * the bounds of their intersection. If an intersection is empty,
+     * the conjunction is reduced to the two contradicting constraints.
+     */
+    private static List<Map<String, Object>> intersectDates (
+            List<Map<String, Object>> operands) {
+        Map<Object, Interval> intervals = new LinkedHashMap<Object, Interval>();
+        Map<Object, Integer> counts = new HashMap<Object, Integer>();
+        for (Map<String, Object> operand : operands) {
+            Interval interval = Interval.of(operand);
+            if (interval == null)
+                continue;
+            Interval other = intervals.get(interval.key);
+            if (other != null)
+                interval = other.intersect(interval);
+            if (interval.isEmpty()) {
+                List<Map<String, Object>> contradiction = new ArrayList<Map<String, Object>>();
+                contradiction.add(interval.lower);
+                contradiction.add(interval.upper);
+                return contradiction;
+            }
+            intervals.put(interval.key, interval);
+            counts.put(interval.key, counts.containsKey(interval.key) ? counts
+                    .get(interval.key) + 1 : 1);
+        }
+        List<Map<String, Object>> intersected = new ArrayList<Map<String, Object>>();
+        for (Map<String, Object> operand : operands) {
+            Interval interval = Interval.of(operand);
+            if (interval == null || counts.get(interval.key) == 1) {
+                intersected.add(operand);
+            }
+            else if (intervals.containsKey(interval.key)) {
+                // the bounds take the place of the first constraint
+                intersected.addAll(intervals.remove(interval.key).bounds());
+            }
+        }
+        return intersected;
+    }
+
+
+    /**
+     * Merges the overlapping date intervals on each key of a
+     * disjunction, i.e. date constraints and conjunctions of date
+     * constraints on the same key, and removes the operands that are
+     * provably empty.
+     */
+    private static List<Map<String, Object>> uniteDates (
+            List<Map<String, Object>> operands) {
+        List<Map<String, Object>> nonEmpty = new ArrayList<Map<String, Object>>();
+        for (Map<String, Object> operand : operands) {
+            if (!isEmpty(operand))
+                nonEmpty.add(operand);
+        }
+        if (nonEmpty.isEmpty())
+            return operands;
+        final Interval[] intervals = new Interval[nonEmpty.size()];
+        Map<Object, List<Integer>> keys = new LinkedHashMap<Object, List<Integer>>();
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = Interval.of(nonEmpty.get(i));
+            if (intervals[i] == null)
+                continue;
+            if (!keys.containsKey(intervals[i].key))
+                keys.put(intervals[i].key, new ArrayList<Integer>());
+            keys.get(intervals[i].key).add(i);
+        }
+        Map<Integer, Map<String, Object>> merged = new HashMap<Integer, Map<String, Object>>();
+        boolean[] removed = new boolean[intervals.length];
+        for (List<Integer> indices : keys.values()) {
+            // sweep over the intervals ordered by their lower bounds
+            Collections.sort(indices, new Comparator<Integer>() {
+                @Override
+                public int compare (Integer i, Integer j) {
+                    return Long.compare(intervals[i].lo, intervals[j].lo);
+                }
+            });
+            List<Integer> members = new ArrayList<Integer>();
+            Interval union = null;
+            for (int index : indices) {
+                if (union != null && !union.overlaps(intervals[index])) {
+                    merge(members, union, merged, removed);
+                    members.clear();
+                    union = null;
+                }
+                members.add(index);
+                union = union == null ? intervals[index] : union
+                        .unite(intervals[index]);
+            }
+            merge(members, union, merged, removed);
+        }
+        List<Map<String, Object>> united = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < intervals.length; i++) {
+            if (merged.containsKey(i))
+                united.add(merged.get(i));
+            else if (!removed[i])
+                united.add(nonEmpty.get(i));
+        }
+        return united;
+    }
+
+
+    /**
+     * Replaces the first of the given operands of a disjunction by the
+     * union of their intervals and removes the others.
+     */
+    private static void merge (List<Integer> members, Interval union,
+            Map<Integer, Map<String, Object>> merged, boolean[] removed) {
+        // an interval without bounds would select all documents with
+        // the key, which a date constraint cannot express
+        if (members.size() < 2 || union.lower == null && union.upper == null)
+            return;
+        int first = Collections.min(members);
+        for (int member : members) {
+            removed[member] = true;
+        }
+        List<Map<String, Object>> bounds = union.bounds();
+        if (bounds.size() == 1) {
+            merged.put(first, bounds.get(0));
+        }
+        else {
+            KoralDocGroup group = new KoralDocGroup("and");
+            group.getOperands().addAll(bounds);
+            merged.put(first, group);
+        }
+    }
+
+
+    /**
+     * Removes the operands that are subsumed by other operands, i.e.
+     * in a conjunction the operands that are disjunctions of (at
+     * least) the operands of another disjunct, and vice versa. Each
+     * operand is put into the bucket of its rarest part, such that an
+     * operand is only compared with the operands in the buckets of
+     * its own parts, which are the only ones that can subsume it.
+     */
+    private static List<Map<String, Object>> absorb (
+            List<Map<String, Object>> operands, String operation) {
+        String dual = operation.equals("operation:and") ? "operation:or"
+                : "operation:and";
+        List<Set<Map<String, Object>>> parts = new ArrayList<Set<Map<String, Object>>>();
+        Map<Map<String, Object>, Integer> frequencies = new HashMap<Map<String, Object>, Integer>();
+        for (Map<String, Object> operand : operands) {
+            Set<Map<String, Object>> part;
+            if (isGroup(operand) && dual.equals(operand.get("operation")))
+                part = new HashSet<Map<String, Object>>(operands(operand));
+            else
+                part = Collections.singleton(operand);
+            parts.add(part);
+            for (Map<String, Object> p : part) {
+                Integer frequency = frequencies.get(p);
+                frequencies.put(p, frequency == null ? 1 : frequency + 1);
+            }
+        }
+        Map<Map<String, Object>, List<Integer>> buckets = new HashMap<Map<String, Object>, List<Integer>>();
+        // operands without parts, i.e. empty groups, subsume all others
+        List<Integer> empty = new ArrayList<Integer>();
+        for (int i = 0; i < operands.size(); i++) {
+            Map<String, Object> rarest = null;
+            for (Map<String, Object> p : parts.get(i)) {
+                if (rarest == null
+                        || frequencies.get(p) < frequencies.get(rarest))
+                    rarest = p;
+            }
+            List<Integer> bucket = empty;
+            if (rarest != null) {
+                bucket = buckets.get(rarest);
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>(1);
+                    buckets.put(rarest, bucket);
+                }
+            }
+            bucket.add(i);
+        }
+        List<Map<String, Object>> kept = new ArrayList<Map<String, Object>>();
+        boolean[] absorbed = new boolean[operands.size()];
+        for (int i = 0; i < operands.size(); i++) {
+            absorbed[i] = isSubsumed(i, empty, parts, absorbed);
+            for (Map<String, Object> part : parts.get(i)) {
+                if (absorbed[i])
+                    break;
+                List<Integer> bucket = buckets.get(part);
+                if (bucket != null)
+                    absorbed[i] = isSubsumed(i, bucket, parts, absorbed);
+            }
+            if (!absorbed[i])
+                kept.add(operands.get(i));
+        }
+        return kept;
+    }
+
+
+    /**
+     * Checks whether an operand is subsumed by one of the given
+     * candidates that has not been absorbed yet.
+     */
+    private static boolean isSubsumed (int i, List<Integer> candidates,
+            List<Set<Map<String, Object>>> parts, boolean[] absorbed) {
+        for (int j : candidates) {
+            if (j == i || absorbed[j])
+                continue;
+            // of two operands with the same parts, the first one is
+            // kept
+            if (parts.get(i).containsAll(parts.get(j))
+                    && (parts.get(i).size() > parts.get(j).size() || j < i))
+                return true;
+        }
+        return false;
+    }
+
+
+    private static String invert (String match) {
+        switch (match) {
+            case "match:eq":
+                return "match:ne";
+            case "match:ne":
+                return "match:eq";
+            case "match:contains":
+                return "match:containsnot";
+            case "match:containsnot":
+                return "match:contains";
+        }
+        throw new IllegalArgumentException("Cannot negate " + match + "!");
+    }
+
+
+    private static boolean isGroup (Map<String, Object> collection) {
+        return collection != null
+                && "koral:docGroup".equals(collection.get("@type"));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> operands (
+            Map<String, Object> group) {
+        return (List<Map<String, Object>>) group.get("operands");
+    }
+
+
+    /**
+     * The dates a date constraint, or a conjunction of date
+     * constraints on the same key, requires. Dates are represented as
+     * numbers <tt>yyyymmdd</tt>, where a missing month or day is 00 in
+     * a lower bound and 99 in an upper bound, so that a partial date
+     * covers all its days. Both bounds are inclusive.
+     */
+    private static class Interval {
+
+        final Object key;
+        final long lo;
+        final long hi;
+        /**
+         * The constraints that define the bounds, or null if the
+         * interval is unbounded.
+         */
+        final Map<String, Object> lower;
+        final Map<String, Object> upper;
+
+
+        Interval (Object key, long lo, Map<String, Object> lower, long hi,
+                  Map<String, Object> upper) {
+            this.key = key;
+            this.lo = lo;
+            this.lower = lower;
+            this.hi = hi;
+            this.upper = upper;
+        }
+
+
+        /**
+         * @return The interval of a date constraint or of a
+         *         conjunction of date constraints on the same key, or
+         *         null if the collection is neither.
+         */
+        static Interval of (Map<String, Object> collection) {
+            if (isGroup(collection)) {
+                if (!"operation:and".equals(collection.get("operation")))
+                    return null;
+                Interval intersection = null;
+                for (Map<String, Object> operand : operands(collection)) {
+                    Interval interval = of(operand);
+                    if (interval == null || intersection != null
+                            && !intersection.key.equals(interval.key))
+                        return null;
+                    intersection = intersection == null ? interval
+                            : intersection.intersect(interval);
+                }
+                return intersection;
+            }
+            Object key = collection.get("key");
+            Object value = collection.get("value");
+            if (key == null || !(value instanceof String)
+                    || !"koral:doc".equals(collection.get("@type"))
+                    || !"type:date".equals(collection.get("type")))
+                return null;
+            Matcher matcher = DATE_PATTERN.matcher((String) value);
+            if (!matcher.matches())
+                return null;
+            long year = Long.parseLong(matcher.group(1));
+            long month = matcher.group(2) == null ? -1 : Long
+                    .parseLong(matcher.group(2));
+            long day = matcher.group(3) == null ? -1 : Long
+                    .parseLong(matcher.group(3));
+            if (month > 12 || day > 31)
+                return null;
+            long start = year * 10000 + Math.max(month, 0) * 100
+                    + Math.max(day, 0);
+            long end = year * 10000 + (month < 0 ? 99 : month) * 100
+                    + (day < 0 ? 99 : day);
+            switch ((String) collection.get("match")) {
+                case "match:eq":
+                    return new Interval(key, start, collection, end,
+                            collection);
+                case "match:geq":
+                    return new Interval(key, start, collection,
+                            Long.MAX_VALUE, null);
+                case "match:gt":
+                    return new Interval(key, end + 1, collection,
+                            Long.MAX_VALUE, null);
+                case "match:leq":
+                    return new Interval(key, Long.MIN_VALUE, null, end,
+                            collection);
+                case "match:lt":
+                    return new Interval(key, Long.MIN_VALUE, null,
+                            start - 1, collection);
+            }
+            return null;
+        }
+
+
+        boolean isEmpty () {
+            return lo > hi;
+        }
+
+
+        boolean overlaps (Interval other) {
+            return Math.max(lo, other.lo) <= Math.min(hi, other.hi);
+        }
+
+
+        /**
+         * Intersects the intervals. On equal bounds, the constraints of
+         * this interval are kept.
+         */
+        Interval intersect (Interval other) {
+            return new Interval(key, Math.max(lo, other.lo),
+                    other.lo > lo ? other.lower : lower, Math.min(hi,
+                            other.hi), other.hi < hi ? other.upper : upper);
+        }
+
+
+        /**
+         * Unites the overlapping intervals. On equal bounds, the
+         * constraints of this interval are kept.
+         */
+        Interval unite (Interval other) {
+            return new Interval(key, Math.min(lo, other.lo),
+                    other.lo < lo ? other.lower : lower, Math.max(hi,
+                            other.hi), other.hi > hi ? other.upper : upper);
+        }
+
+
+        /**
+         * @return The constraints that express the interval, i.e. the
+         *         constraint that defines both bounds, or a lower and
+         *         an upper bound.
+         */
+        List<Map<String, Object>> bounds () {
+            List<Map<String, Object>> bounds = new ArrayList<Map<String, Object>>();
+            if (lower != null && lower == upper) {
+                bounds.add(lower);
+                return bounds;
+            }
+            if (lower != null)
+                bounds.add(bound(lower, "match:geq"));
+            if (upper != null)
+                bounds.add(bound(upper, "match:leq"));
+            return bounds;
+        }
+
+
+        /**
+         * Turns a date equation into an inequation for one of its
+         * bounds.
+         */
+        private static Map<String, Object> bound (
+                Map<String, Object> constraint, String match) {
+            if (!"match:eq".equals(constraint.get("match")))
+                return constraint;
+            KoralDoc doc = KoralObjectGenerator.makeDoc();
+            doc.putAll(constraint);
+            doc.put("match", match);
+            return doc;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An error, i.e. a list of an error code, a message and possibly the
+ * offset of the error in the query, which is only generated when it
+ * is first read, e.g. when the request is serialized. Queries that
+ * fail to parse thereby cost no more than necessary if their errors
+ * are never looked at. The error is generated at most once and can be
+ * read from several threads. Like the generated list, it can be
+ * modified, which generates it first.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public abstract class DeferredErrorMsg extends AbstractList<Object> {
+
+    private volatile List<Object> errorSpecs;
+
+
+    /**
+     * Generates the error.
+     *
+     * @return The error code, the message and possibly the offset.
+     */
+    protected abstract List<Object> generate ();
+
+
+    private List<Object> errorSpecs () {
+        List<Object> specs = errorSpecs;
+        if (specs == null) {
+            synchronized (this) {
+                specs = errorSpecs;
+                if (specs == null) {
+                    specs = generate();
+                    errorSpecs = specs;
+                }
+            }
+        }
+        return specs;
+    }
+
+
+    @Override
+    public Object get (int index) {
+        return errorSpecs().get(index);
+    }
+
+
+    @Override
+    public int size () {
+        return errorSpecs().size();
+    }
+
+
+    @Override
+    public Object set (int index, Object element) {
+        return errorSpecs().set(index, element);
+    }
+
+
+    @Override
+    public void add (int index, Object element) {
+        errorSpecs().add(index, element);
+    }
+
+
+    @Override
+    public Object remove (int index) {
+        return errorSpecs().remove(index);
+    }
+}
@@ -4,85 +4,110 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 
+import de.ids_mannheim.korap.query.object.KoralBoundary;
+import de.ids_mannheim.korap.query.object.KoralClass;
+import de.ids_mannheim.korap.query.object.KoralDistance;
+import de.ids_mannheim.korap.query.object.KoralDoc;
+import de.ids_mannheim.korap.query.object.KoralDocGroup;
+import de.ids_mannheim.korap.query.object.KoralDocGroupRef;
+import de.ids_mannheim.korap.query.object.KoralGroup;
+import de.ids_mannheim.korap.query.object.KoralObject;
+import de.ids_mannheim.korap.query.object.KoralReference;
+import de.ids_mannheim.korap.query.object.KoralRelation;
+import de.ids_mannheim.korap.query.object.KoralSpan;
+import de.ids_mannheim.korap.query.object.KoralTerm;
+import de.ids_mannheim.korap.query.object.KoralTermGroup;
+import de.ids_mannheim.korap.query.object.KoralToken;
 import de.ids_mannheim.korap.query.serialize.AbstractQueryProcessor;
 
 public class KoralObjectGenerator {
 
     protected static final Integer MAXIMUM_DISTANCE = 100;
-    private static AbstractQueryProcessor qp;
+    /**
+     * The processor that receives messages and warnings generated by
+     * this class. It is bound to the current thread, so that
+     * translations running concurrently on different threads report
+     * into their own processors.
+     */
+    private static final ThreadLocal<AbstractQueryProcessor> qp = new ThreadLocal<AbstractQueryProcessor>();
 
 
+    /**
+     * Registers the processor that is currently translating a query
+     * on this thread.
+     * 
+     * @param qp
+     *            The active query processor, or <tt>null</tt> to
+     *            unregister.
+     */
     public static void setQueryProcessor (AbstractQueryProcessor qp) {
-        KoralObjectGenerator.qp = qp;
+        if (qp == null)
+            KoralObjectGenerator.qp.remove();
+        else
+            KoralObjectGenerator.qp.set(qp);
     }
 
 
-    public static LinkedHashMap<String, Object> makeSpan () {
-        LinkedHashMap<String, Object> span = new LinkedHashMap<String, Object>();
-        span.put("@type", "koral:span");
-        return span;
+    /**
+     * @return The processor that is currently translating a query on
+     *         this thread, <tt>null</tt> if there is none.
+     */
+    public static AbstractQueryProcessor getQueryProcessor () {
+        return qp.get();
+    }
+
+
+    public static KoralSpan makeSpan () {
+        return new KoralSpan();
     }
 
 
-    public static LinkedHashMap<String, Object> makeSpan (String key) {
-        LinkedHashMap<String, Object> span = new LinkedHashMap<String, Object>();
-        span.put("@type", "koral:span");
+    public static KoralSpan makeSpan (String key) {
+        KoralSpan span = new KoralSpan();
         span.put("key", key);
         return span;
     }
 
 
-    public static LinkedHashMap<String, Object> makeTerm () {
-        LinkedHashMap<String, Object> term = new LinkedHashMap<String, Object>();
-        term.put("@type", "koral:term");
-        return term;
+    public static KoralTerm makeTerm () {
+        return new KoralTerm();
+    }
+
+
+    public static KoralTermGroup makeTermGroup (String relation) {
+        return new KoralTermGroup(relation);
     }
 
 
-    public static LinkedHashMap<String, Object> makeTermGroup (String relation) {
-        LinkedHashMap<String, Object> term = new LinkedHashMap<String, Object>();
-        term.put("@type", "koral:termGroup");
-        term.put("relation", "relation:" + relation);
-        term.put("operands", new ArrayList<Object>());
-        return term;
+    public static KoralDoc makeDoc () {
+        return new KoralDoc();
     }
 
 
-    public static LinkedHashMap<String, Object> makeDoc () {
-        LinkedHashMap<String, Object> term = new LinkedHashMap<String, Object>();
-        term.put("@type", "koral:doc");
-        return term;
+    public static KoralDocGroup makeDocGroup (String relation) {
+        return new KoralDocGroup(relation);
     }
 
 
-    public static LinkedHashMap<String, Object> makeDocGroup (String relation) {
-        LinkedHashMap<String, Object> term = new LinkedHashMap<String, Object>();
-        term.put("@type", "koral:docGroup");
-        term.put("operation", "operation:" + relation);
-        term.put("operands", new ArrayList<Object>());
-        return term;
+    public static KoralDocGroupRef makeDocGroupRef (String ref) {
+        return new KoralDocGroupRef(ref);
     }
 
 
-    public static LinkedHashMap<String, Object> makeToken () {
-        LinkedHashMap<String, Object> token = new LinkedHashMap<String, Object>();
-        token.put("@type", "koral:token");
-        return token;
+    public static KoralToken makeToken () {
+        return new KoralToken();
     }
 
 
-    public static LinkedHashMap<String, Object> makeGroup (String operation) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:" + operation);
+    public static KoralGroup makeGroup (String operation) {
+        KoralGroup group = new KoralGroup(operation);
         group.put("operands", new ArrayList<Object>());
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makeRepetition (Integer min,
-            Integer max) {
-        LinkedHashMap<String, Object> group = makeGroup("repetition");
+    public static KoralGroup makeRepetition (Integer min, Integer max) {
+        KoralGroup group = makeGroup("repetition");
         group.put("boundary", makeBoundary(min, max));
         group.put("min", min);
         return group;
@@ -90,41 +115,35 @@ public class KoralObjectGenerator {
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makePosition (String frame) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:position");
+    public static KoralGroup makePosition (String frame) {
+        KoralGroup group = new KoralGroup("position");
         group.put("frame", "frame:" + frame);
         group.put("operands", new ArrayList<Object>());
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makePosition (
-            String[] allowedFrames) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:position");
+    public static KoralGroup makePosition (String[] allowedFrames) {
+        KoralGroup group = new KoralGroup("position");
         group.put("frames", Arrays.asList(allowedFrames));
         group.put("operands", new ArrayList<Object>());
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makeSpanClass (int classId) {
+    public static KoralClass makeSpanClass (int classId) {
         return makeSpanClass(classId, false);
     }
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makeSpanClass (int classId,
-            boolean setBySystem) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:class");
+    public static KoralClass makeSpanClass (int classId, boolean setBySystem) {
+        KoralClass group = new KoralClass();
+        if (qp.get() != null)
+            qp.get().countClass();
         if (setBySystem) {
             classId += 128;
-            qp.addMessage("A class has been introduced into the backend representation of "
+            qp.get().addMessage("A class has been introduced into the backend representation of "
                     + "your query for later reference to a part of the query. The class id is "
                     + classId);
         }
@@ -134,11 +153,9 @@ public class KoralObjectGenerator {
     }
 
 
-    public static LinkedHashMap<String, Object> makeClassRefCheck (
-            ArrayList<String> check, Integer[] classIn, int classOut) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:class");
+    public static KoralClass makeClassRefCheck (ArrayList<String> check,
+            Integer[] classIn, int classOut) {
+        KoralClass group = new KoralClass();
         group.put("classRefCheck", check);
         group.put("classIn", Arrays.asList(classIn));
         group.put("classOut", classOut);
@@ -147,11 +164,9 @@ public class KoralObjectGenerator {
     }
 
 
-    public static LinkedHashMap<String, Object> makeClassRefOp (
-            String operation, Integer[] classIn, int classOut) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:group");
-        group.put("operation", "operation:class");
+    public static KoralClass makeClassRefOp (String operation,
+            Integer[] classIn, int classOut) {
+        KoralClass group = new KoralClass();
         group.put("classRefOp", operation);
         group.put("classIn", Arrays.asList(classIn));
         group.put("classOut", classOut);
@@ -161,61 +176,44 @@ public class KoralObjectGenerator {
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makeTreeRelation (String reltype) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:treeRelation");
+    public static KoralObject makeTreeRelation (String reltype) {
+        KoralObject group = new KoralObject("koral:treeRelation");
         if (reltype != null)
             group.put("reltype", reltype);
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makeRelation () {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:relation");
-        return group;
+    public static KoralRelation makeRelation () {
+        return new KoralRelation();
     }
 
 
-    public static LinkedHashMap<String, Object> makeBoundary (Integer min,
-            Integer max) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:boundary");
-        group.put("min", min);
-        if (max != null) {
-            group.put("max", max);
-        }
-        return group;
+    public static KoralBoundary makeBoundary (Integer min, Integer max) {
+        if (qp.get() != null)
+            qp.get().checkBoundary(min, max);
+        return new KoralBoundary(min, max);
     }
 
 
-    public static LinkedHashMap<String, Object> makeDistance (String key,
-            Integer min, Integer max) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        if (key.equals("w")) {
-            group.put("@type", "koral:distance");
-        }
-        else {
-            group.put("@type", "cosmas:distance");
-        }
-        group.put("key", key);
+    public static KoralDistance makeDistance (String key, Integer min,
+            Integer max) {
+        KoralDistance group = new KoralDistance(key);
         group.put("boundary", makeBoundary(min, max));
         group.put("min", min);
         if (max != null) {
             group.put("max", max);
         }
-        qp.addMessage(
+        qp.get().addMessage(
                 StatusCodes.DEPRECATED_QUERY_ELEMENT,
                 "Deprecated 2014-07-24: 'min' and 'max' to be supported until 3 months from deprecation date.");
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makeReference (
-            ArrayList<Integer> classRefs, String operation) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:reference");
-        group.put("operation", "operation:" + operation);
+    public static KoralReference makeReference (ArrayList<Integer> classRefs,
+            String operation) {
+        KoralReference group = new KoralReference(operation);
         if (classRefs != null && !classRefs.isEmpty()) {
             group.put("classRef", classRefs);
         }
@@ -223,14 +221,13 @@ public class KoralObjectGenerator {
     }
 
 
-    public static LinkedHashMap<String, Object> makeReference (
-            ArrayList<Integer> classRefs) {
+    public static KoralReference makeReference (ArrayList<Integer> classRefs) {
         return makeReference(classRefs, "focus");
     }
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makeReference (int classRef,
+    public static KoralReference makeReference (int classRef,
             String operation, boolean setBySystem) {
         ArrayList<Integer> classRefs = new ArrayList<Integer>();
         if (setBySystem)
@@ -241,7 +238,7 @@ public class KoralObjectGenerator {
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makeReference (int classRef,
+    public static KoralReference makeReference (int classRef,
             boolean setBySystem) {
         ArrayList<Integer> classRefs = new ArrayList<Integer>();
         if (setBySystem)
@@ -251,27 +248,23 @@ public class KoralObjectGenerator {
     }
 
 
-    public static LinkedHashMap<String, Object> makeReference (int classRef) {
+    public static KoralReference makeReference (int classRef) {
         return makeReference(classRef, false);
     }
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> makeResetReference () {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:reference");
-        group.put("operation", "operation:focus");
+    public static KoralReference makeResetReference () {
+        KoralReference group = new KoralReference("focus");
         group.put("reset", true);
         group.put("operands", new ArrayList<Object>());
         return group;
     }
 
 
-    public static LinkedHashMap<String, Object> makeSpanReference (
-            Integer[] spanRef, String operation) {
-        LinkedHashMap<String, Object> group = new LinkedHashMap<String, Object>();
-        group.put("@type", "koral:reference");
-        group.put("operation", "operation:" + operation);
+    public static KoralReference makeSpanReference (Integer[] spanRef,
+            String operation) {
+        KoralReference group = new KoralReference(operation);
         group.put("spanRef", Arrays.asList(spanRef));
         group.put("operands", new ArrayList<Object>());
         return group;
@@ -284,9 +277,9 @@ public class KoralObjectGenerator {
     }
 
 
-    public static LinkedHashMap<String, Object> wrapInReference (
+    public static KoralReference wrapInReference (
             LinkedHashMap<String, Object> group, Integer classId) {
-        LinkedHashMap<String, Object> refGroup = makeReference(classId);
+        KoralReference refGroup = makeReference(classId);
         ArrayList<Object> operands = new ArrayList<Object>();
         operands.add(group);
         refGroup.put("operands", operands);
@@ -295,10 +288,10 @@ public class KoralObjectGenerator {
 
 
     @Deprecated
-    public static LinkedHashMap<String, Object> wrapInReference (
+    public static KoralReference wrapInReference (
             LinkedHashMap<String, Object> group, Integer classId,
             boolean setBySystem) {
-        LinkedHashMap<String, Object> refGroup = makeReference(classId);
+        KoralReference refGroup = makeReference(classId);
         ArrayList<Object> operands = new ArrayList<Object>();
         operands.add(group);
         refGroup.put("operands", operands);
@@ -306,11 +299,10 @@ public class KoralObjectGenerator {
     }
 
 
-    @SuppressWarnings("unchecked")
-    public static LinkedHashMap<String, Object> wrapInClass (
-            LinkedHashMap<String, Object> group, Integer classId) {
-        LinkedHashMap<String, Object> classGroup = makeSpanClass(classId);
-        ((ArrayList<Object>) classGroup.get("operands")).add(group);
+    public static KoralClass wrapInClass (LinkedHashMap<String, Object> group,
+            Integer classId) {
+        KoralClass classGroup = makeSpanClass(classId);
+        classGroup.getOperands().add(group);
         return classGroup;
     }
 
@@ -330,7 +322,7 @@ public class KoralObjectGenerator {
                     .format("You specified a distance between two segments that is greater than "
                             + "the allowed max value of %d. Your query will be re-interpreted using a distance of %d.",
                             MAXIMUM_DISTANCE, MAXIMUM_DISTANCE);
-            qp.addWarning(warning);
+            qp.get().addWarning(warning);
         }
         return number;
     }
@@ -0,0 +1,248 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+/**
+ * A linear pre-scan of queries, which rejects malformed queries
+ * before they are tokenized and parsed. Each method scans a query of
+ * one query language for unbalanced brackets and unterminated quoted
+ * strings in a single pass, without allocating any objects (unless
+ * brackets are nested more than 32 levels deep).
+ *
+ * A query is only rejected if the parser is bound to fail on it and
+ * the error reported for it does not depend on where the parser
+ * fails, such that a rejected query results in the same error, with
+ * the same offset, as the parser. The methods therefore give up on
+ * queries containing characters that can hide brackets in a token,
+ * e.g. the delimiters of strings and regular expressions, or that
+ * let the parser fail at a closing parenthesis, which changes the
+ * error message. Such queries are left to the parser.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class QueryPreScanner {
+
+    /**
+     * Returned by the scan methods if the query has to be parsed to
+     * tell whether it is well-formed.
+     */
+    public static final int UNDECIDED = -1;
+
+    // the types of brackets, which fit into two bits
+    private static final int PARENTHESES = 1;
+    private static final int BRACKETS = 2;
+    private static final int BRACES = 3;
+    private static final int ALL_BRACKETS = 1 << PARENTHESES | 1 << BRACKETS
+            | 1 << BRACES;
+
+
+    private QueryPreScanner () {}
+
+
+    /**
+     * Scans a PoliqarpPlus query. Outside of quoted regular
+     * expressions, every bracket is a token of its own, which the
+     * grammar only accepts in balanced pairs.
+     *
+     * @param query
+     *            The query string.
+     * @return The offset of the unbalanced bracket, as reported by
+     *         {@link #findUnbalancedBracket(String)}, if the query
+     *         is malformed, {@link #UNDECIDED} otherwise.
+     */
+    public static int scanPoliqarpPlus (String query) {
+        if (containsAny(query, "\"')"))
+            return UNDECIDED;
+        return findUnbalancedBracket(query);
+    }
+
+
+    /**
+     * Scans an ANNIS QL query. Outside of quoted texts and regular
+     * expressions, parentheses and square brackets are tokens of
+     * their own, which the grammar only accepts in balanced pairs,
+     * while braces are skipped by the lexer.
+     *
+     * @param query
+     *            The query string.
+     * @return The offset of the unbalanced bracket, as reported by
+     *         {@link #findUnbalancedBracket(String)}, if the query
+     *         is malformed, {@link #UNDECIDED} otherwise.
+     */
+    public static int scanAnnis (String query) {
+        if (containsAny(query, "/)"))
+            return UNDECIDED;
+        int offset = findUnbalancedBracket(query);
+        if (offset == UNDECIDED)
+            return UNDECIDED;
+        // without closing parentheses, the tokens are unbalanced if
+        // there is an opening one, a square bracket is unbalanced or
+        // a text is unterminated
+        int brackets = 0;
+        boolean text = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (text) {
+                if (c == '\\' && i + 1 < query.length()
+                        && query.charAt(i + 1) == '"')
+                    i++;
+                else if (c == '"')
+                    text = false;
+                continue;
+            }
+            // the lexer skips the character following an incomplete
+            // token like '!' (of '!='), '@l', '->' or a '#' reference
+            if ("([]\"".indexOf(c) >= 0 && i > 0
+                    && "!@-#".indexOf(query.charAt(i - 1)) >= 0)
+                return UNDECIDED;
+            if (c == '"')
+                text = true;
+            else if (c == '(' || (c == ']' && --brackets < 0))
+                return offset;
+            else if (c == '[')
+                brackets++;
+        }
+        return text || brackets != 0 ? offset : UNDECIDED;
+    }
+
+
+    /**
+     * Scans a (rewritten) Cosmas II query. Square brackets and braces
+     * are part of the search words, while an opening parenthesis is a
+     * token of its own, unless it is part of an operator like
+     * <tt>#ELEM(</tt>, <tt>MORPH(</tt> or the conditions of
+     * <tt>#BED</tt>, or of a quoted search word.
+     *
+     * @param query
+     *            The query string, after the rewriting of position
+     *            conditions.
+     * @return The offset of the unbalanced bracket, as reported by
+     *         {@link #findUnbalancedBracket(String)}, if the query
+     *         is malformed, {@link #UNDECIDED} otherwise.
+     */
+    public static int scanCosmas2 (String query) {
+        if (containsAny(query, "\"#,)") || query.indexOf('(') < 0
+                || query.contains("MORPH("))
+            return UNDECIDED;
+        // the opening parenthesis cannot be closed
+        return findUnbalancedBracket(query);
+    }
+
+
+    /**
+     * Scans a collection query. Outside of regular expressions,
+     * parentheses and square brackets are tokens of their own, which
+     * the grammar only accepts in balanced pairs, and quotes enclose
+     * multiple words, which must not contain any bracket.
+     *
+     * @param query
+     *            The query string.
+     * @return The offset of the first unbalanced bracket or quote if
+     *         the query is malformed, {@link #UNDECIDED} otherwise.
+     */
+    public static int scanCollection (String query) {
+        if (query.indexOf('/') >= 0)
+            return UNDECIDED;
+        return scanBrackets(query, 1 << PARENTHESES | 1 << BRACKETS, '"');
+    }
+
+
+    /**
+     * Checks the balance of all parentheses, square brackets and
+     * braces of a query, regardless of its syntax.
+     *
+     * @param query
+     *            The query string.
+     * @return The offset of the first closing bracket that does not
+     *         match the last unclosed opening bracket, or, if all
+     *         closing brackets match, the offset of the last opening
+     *         bracket if some remain unclosed, {@link #UNDECIDED} if
+     *         all brackets are balanced.
+     */
+    public static int findUnbalancedBracket (String query) {
+        return scanBrackets(query, ALL_BRACKETS, '\0');
+    }
+
+
+    /**
+     * Checks the balance of the given types of brackets. The types of
+     * the unclosed brackets are kept as a stack of two bits per
+     * bracket in a long, and only in an array if they are nested more
+     * than 32 levels deep.
+     *
+     * @param types
+     *            The types of brackets to check, as a bit set.
+     * @param quote
+     *            A character enclosing text without brackets, or 0
+     *            if there is none.
+     */
+    private static int scanBrackets (String query, int types, char quote) {
+        long stack = 0;
+        byte[] deepStack = null;
+        int depth = 0;
+        int lastOpening = 0;
+        int openQuote = UNDECIDED;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == quote && quote != '\0') {
+                openQuote = openQuote == UNDECIDED ? i : UNDECIDED;
+                continue;
+            }
+            int type = bracketType(c);
+            if ((types & 1 << type) == 0)
+                continue;
+            if (openQuote != UNDECIDED)
+                return i;
+            if (c == '(' || c == '[' || c == '{') {
+                if (depth < 32) {
+                    stack |= (long) type << (2 * depth);
+                }
+                else {
+                    if (deepStack == null)
+                        deepStack = new byte[query.length()];
+                    deepStack[depth - 32] = (byte) type;
+                }
+                depth++;
+                lastOpening = i;
+                continue;
+            }
+            if (depth == 0)
+                return i;
+            depth--;
+            int opening = depth < 32 ? (int) (stack >>> (2 * depth)) & 3
+                    : deepStack[depth - 32];
+            if (opening != type)
+                return i;
+            if (depth < 32)
+                stack &= ~(3L << (2 * depth));
+        }
+        if (openQuote != UNDECIDED)
+            return openQuote;
+        return depth == 0 ? UNDECIDED : lastOpening;
+    }
+
+
+    private static int bracketType (char c) {
+        switch (c) {
+            case '(':
+            case ')':
+                return PARENTHESES;
+            case '[':
+            case ']':
+                return BRACKETS;
+            case '{':
+            case '}':
+                return BRACES;
+            default:
+                return 0;
+        }
+    }
+
+
+    private static boolean containsAny (String query, String characters) {
+        for (int i = 0; i < query.length(); i++) {
+            if (characters.indexOf(query.charAt(i)) >= 0)
+                return true;
+        }
+        return false;
+    }
+}
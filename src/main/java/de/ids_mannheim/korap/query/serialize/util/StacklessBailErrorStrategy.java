@@ -0,0 +1,88 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * A {@link BailErrorStrategy} for which a failed parse is cheap. Like
+ * its superclass, it stops the parser at the first syntax error, but
+ * signals the failure with a {@link ParseFailure}, which carries no
+ * stack trace, instead of wrapping a newly created exception into a
+ * {@link ParseCancellationException}. Errors are only reported if the
+ * parser has error listeners, i.e. not in the SLL stage of
+ * {@link TwoStageParsing}, where the messages would be discarded.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class StacklessBailErrorStrategy extends BailErrorStrategy {
+
+    /**
+     * Thrown to abort the parsing of a malformed query. As a failed
+     * parse is an expected outcome, it carries no stack trace, only
+     * the rule context in which the parser failed.
+     */
+    public static class ParseFailure extends ParseCancellationException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient ParserRuleContext context;
+
+
+        /**
+         * @param context
+         *            The rule context in which the parser failed.
+         * @param cause
+         *            The recognition exception reported by the
+         *            parser, or null if the parser failed to match a
+         *            token.
+         */
+        public ParseFailure (ParserRuleContext context,
+                             RecognitionException cause) {
+            super(cause);
+            this.context = context;
+        }
+
+
+        /**
+         * @return The rule context in which the parser failed, or null
+         *         if it failed before entering the start rule.
+         */
+        public ParserRuleContext getContext () {
+            return context;
+        }
+
+
+        @Override
+        public synchronized Throwable fillInStackTrace () {
+            return this;
+        }
+    }
+
+
+    @Override
+    public void reportError (Parser recognizer, RecognitionException e) {
+        if (!recognizer.getErrorListeners().isEmpty())
+            super.reportError(recognizer, e);
+    }
+
+
+    @Override
+    public void recover (Parser recognizer, RecognitionException e) {
+        for (ParserRuleContext context = recognizer.getContext(); context != null; context = context
+                .getParent()) {
+            context.exception = e;
+        }
+        throw new ParseFailure(recognizer.getContext(), e);
+    }
+
+
+    @Override
+    public Token recoverInline (Parser recognizer) {
+        throw new ParseFailure(recognizer.getContext(), null);
+    }
+}
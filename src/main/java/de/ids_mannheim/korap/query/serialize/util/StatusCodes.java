@@ -9,5 +9,9 @@ public class StatusCodes {
     public final static int UNKNOWN_QUERY_ELEMENT = 306;
     public final static int UNKNOWN_QL = 307;
     public final static int UNBOUND_ANNIS_RELATION = 308;
+    public final static int QUERY_TOO_COMPLEX = 309;
+    public final static int TRANSLATION_CANCELLED = 310;
+    public final static int EMPTY_COLLECTION = 311;
+    public final static int UNKNOWN_COLLECTION_REFERENCE = 312;
     public final static int UNKNOWN_QUERY_ERROR = 399;
 }
@@ -0,0 +1,130 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+import java.util.Arrays;
+
+/**
+ * Traverses a tree in a top-down, depth-first, left-to-right fashion
+ * with an explicit stack instead of recursion, such that the depth of
+ * a tree is only limited by the heap and not by the stack of the
+ * current thread. Every node is {@link #enter(Object) entered} before
+ * its children and {@link #exit(Object) exited} after them, as in a
+ * recursive traversal.
+ *
+ * The children of a node are looked up one at a time, when the
+ * previous child has been exited, so that the processing of a node
+ * can still affect its following siblings, e.g. by marking them as
+ * visited. A walker keeps no state between walks, so a node may
+ * start a nested walk, e.g. of a subtree elsewhere in the tree. A
+ * search can end a walk early with {@link #stop()}.
+ *
+ * @param <T>
+ *            The type of the tree nodes.
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public abstract class TreeWalker<T> {
+
+    /**
+     * True once the current walk is to end, see {@link #stop()}.
+     */
+    private boolean stopped = false;
+
+
+    /**
+     * Walks the tree below and including the given root.
+     *
+     * @param root
+     *            The root of the (sub-)tree.
+     */
+    public void walk (T root) {
+        boolean outerStopped = stopped;
+        stopped = false;
+        try {
+            walkTree(root);
+        }
+        finally {
+            stopped = outerStopped;
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void walkTree (T root) {
+        if (!enter(root) || stopped)
+            return;
+        Object[] nodes = new Object[16];
+        int[] nextChild = new int[16];
+        nodes[0] = root;
+        int depth = 1;
+        while (depth > 0 && !stopped) {
+            T node = (T) nodes[depth - 1];
+            int index = nextChild[depth - 1];
+            if (index < getChildCount(node)) {
+                nextChild[depth - 1]++;
+                T child = getChild(node, index);
+                if (!enter(child))
+                    continue;
+                if (depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    nextChild = Arrays.copyOf(nextChild, depth * 2);
+                }
+                nodes[depth] = child;
+                nextChild[depth] = 0;
+                depth++;
+            }
+            else {
+                exit(node);
+                nodes[--depth] = null;
+            }
+        }
+    }
+
+
+    /**
+     * Ends the current walk once the current call of
+     * {@link #enter(Object)} or {@link #exit(Object)} has returned.
+     * The nodes that have been entered but not exited yet are not
+     * exited.
+     */
+    protected void stop () {
+        stopped = true;
+    }
+
+
+    /**
+     * Called when a node is reached, before its children.
+     *
+     * @param node
+     *            The node.
+     * @return true iff the children of the node are to be walked and
+     *         the node is to be exited afterwards.
+     */
+    protected abstract boolean enter (T node);
+
+
+    /**
+     * Called after the children of a node have been walked.
+     *
+     * @param node
+     *            The node.
+     */
+    protected abstract void exit (T node);
+
+
+    /**
+     * @param node
+     *            A node.
+     * @return The number of children of the node.
+     */
+    protected abstract int getChildCount (T node);
+
+
+    /**
+     * @param node
+     *            A node.
+     * @param index
+     *            The index of a child.
+     * @return The child of the node with the given index.
+     */
+    protected abstract T getChild (T node, int index);
+}
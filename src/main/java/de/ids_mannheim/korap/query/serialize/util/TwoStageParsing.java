@@ -0,0 +1,197 @@
+package de.ids_mannheim.korap.query.serialize.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy.ParseFailure;
+
+/**
+ * Two-stage parsing for an ANTLR v4 grammar: a query is first parsed
+ * in the faster SLL prediction mode and only parsed again in full LL
+ * mode if SLL parsing fails. If SLL parsing succeeds, the parse tree
+ * is the same as in LL mode. Malformed queries fail in both stages,
+ * so their errors are reported by the LL stage as before.
+ *
+ * Every query language has one instance, which is shared by all its
+ * processors. The SLL stage can be switched off per query language,
+ * and the number of fallbacks to LL mode is counted per rule in which
+ * the SLL stage failed.
+ *
+ * The parser has to be set up with a
+ * {@link StacklessBailErrorStrategy} (or another
+ * {@link org.antlr.v4.runtime.BailErrorStrategy}), such that the SLL
+ * stage stops at the first error.
+ *
+ * @version 0.3.0
+ * @since 0.3.0
+ */
+public class TwoStageParsing {
+
+    private volatile boolean enabled = true;
+
+    private final AtomicLong sllParses = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> fallbacksPerRule = new ConcurrentHashMap<String, AtomicLong>();
+
+
+    /**
+     * The start rule of a parser, which is invoked directly rather
+     * than by reflection.
+     *
+     * @param <P>
+     *            The type of the parser.
+     */
+    public interface StartRule<P extends Parser> {
+
+        /**
+         * Invokes the start rule.
+         *
+         * @param parser
+         *            The parser.
+         * @return The parse tree.
+         */
+        public ParserRuleContext invoke (P parser);
+    }
+
+
+    /**
+     * Invokes the start rule of the parser, first in SLL mode if
+     * two-stage parsing is enabled and, if that fails, in LL mode.
+     * The error listeners of the parser are only notified in the LL
+     * stage.
+     *
+     * @param parser
+     *            The parser, set up with a
+     *            {@link StacklessBailErrorStrategy} and the error
+     *            listeners for the LL stage.
+     * @param startRule
+     *            The start rule of the parser.
+     * @return The parse tree.
+     * @throws ParseCancellationException
+     *             If the query cannot be parsed in LL mode. Other
+     *             runtime exceptions thrown by the parser or its
+     *             token stream, e.g. to cancel the parsing, are
+     *             passed on from either stage.
+     */
+    public <P extends Parser> ParserRuleContext parse (P parser,
+            StartRule<P> startRule) {
+        if (enabled) {
+            List<ANTLRErrorListener> listeners = new ArrayList<ANTLRErrorListener>(
+                    parser.getErrorListeners());
+            parser.removeErrorListeners();
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            try {
+                ParserRuleContext tree = startRule.invoke(parser);
+                sllParses.incrementAndGet();
+                return tree;
+            }
+            catch (ParseCancellationException e) {
+                countFallback(parser, e);
+                // rewinds the token stream
+                parser.reset();
+            }
+            finally {
+                for (ANTLRErrorListener listener : listeners) {
+                    parser.addErrorListener(listener);
+                }
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            }
+        }
+        return startRule.invoke(parser);
+    }
+
+
+    private void countFallback (Parser parser, ParseCancellationException e) {
+        fallbacks.incrementAndGet();
+        RuleContext context = parser.getContext();
+        if (e instanceof ParseFailure) {
+            context = ((ParseFailure) e).getContext();
+        }
+        else if (e.getCause() instanceof RecognitionException
+                && ((RecognitionException) e.getCause()).getCtx() != null) {
+            context = ((RecognitionException) e.getCause()).getCtx();
+        }
+        String rule = context == null ? "" : parser.getRuleNames()[context
+                .getRuleIndex()];
+        AtomicLong count = fallbacksPerRule.get(rule);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = fallbacksPerRule.putIfAbsent(rule, newCount);
+            if (count == null)
+                count = newCount;
+        }
+        count.incrementAndGet();
+    }
+
+
+    /**
+     * @return true iff queries are parsed in SLL mode first.
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+
+    /**
+     * @param enabled
+     *            Whether queries are parsed in SLL mode first. If
+     *            false, they are only parsed in LL mode.
+     */
+    public void setEnabled (boolean enabled) {
+        this.enabled = enabled;
+    }
+
+
+    /**
+     * @return The number of queries that were parsed in SLL mode.
+     */
+    public long getSllCount () {
+        return sllParses.get();
+    }
+
+
+    /**
+     * @return The number of queries that had to be parsed again in
+     *         LL mode, including malformed queries.
+     */
+    public long getFallbackCount () {
+        return fallbacks.get();
+    }
+
+
+    /**
+     * @return The number of fallbacks to LL mode per rule in which
+     *         the SLL stage failed.
+     */
+    public Map<String, Long> getFallbackCountsPerRule () {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : fallbacksPerRule
+                .entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+
+    /**
+     * Resets all counters.
+     */
+    public void resetCounts () {
+        sllParses.set(0);
+        fallbacks.set(0);
+        fallbacksPerRule.clear();
+    }
+}
@@ -0,0 +1,121 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the batch translation of queries by
+ * {@link QuerySerializer#translateAll(List, ExecutorService)}.
+ *
+ * @version 1.0
+ */
+public class BatchTranslationTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+
+    @After
+    public void tearDown () {
+        executor.shutdown();
+    }
+
+
+    private String translate (TranslationRequest request) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery(request.getQuery(), request.getQueryLanguage());
+        if (request.getCollection() != null)
+            qs.setCollection(request.getCollection());
+        if (request.getMeta() != null)
+            qs.setMeta(request.getMeta());
+        return qs.toJSON();
+    }
+
+
+    @Test
+    public void testSameResultsInOrder () throws InterruptedException {
+        String[] collections = new String[] { null, "textClass=politik",
+                "pubDate since 2014 & corpusSigle=WPD" };
+        List<TranslationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            requests.add(new TranslationRequest("[base=Mann" + i + "]",
+                    "poliqarpplus").setCollection(collections[i % 3]));
+            requests.add(new TranslationRequest("$wegen #IN(L) <s>",
+                    "cosmas2").setCollection(collections[i % 3]));
+            requests.add(new TranslationRequest("cat=\"NP\" & cat=\"VP\" & #1 . #2",
+                    "annis").setMeta(new MetaQueryBuilder().addEntry(
+                    "startIndex", i)));
+        }
+        List<String> results = new QuerySerializer().translateAll(requests,
+                executor);
+        assertEquals(requests.size(), results.size());
+        for (int i = 0; i < requests.size(); i++) {
+            assertEquals(translate(requests.get(i)), results.get(i));
+        }
+    }
+
+
+    @Test
+    public void testIterator () throws InterruptedException {
+        List<TranslationRequest> requests = new ArrayList<>();
+        requests.add(new TranslationRequest("Mann", "cql").setVersion("1.2"));
+        requests.add(new TranslationRequest("[orth=der]", "poliqarpplus"));
+        List<String> results = new QuerySerializer().translateAll(
+                requests.iterator(), executor);
+        assertEquals(2, results.size());
+        assertEquals(translate(requests.get(1)), results.get(1));
+    }
+
+
+    @Test
+    public void testErrors () throws JsonProcessingException, IOException,
+            InterruptedException {
+        List<TranslationRequest> requests = new ArrayList<>();
+        requests.add(new TranslationRequest("[base=Mann", "poliqarpplus"));
+        requests.add(new TranslationRequest("Mann", "unknown"));
+        requests.add(new TranslationRequest("[base=Mann]", "poliqarpplus")
+                .setCollection("textClass=politik &"));
+        List<String> results = new QuerySerializer().translateAll(requests,
+                executor);
+
+        res = mapper.readTree(results.get(0));
+        assertEquals(StatusCodes.MALFORMED_QUERY,
+                res.at("/errors/0/0").asInt());
+        res = mapper.readTree(results.get(1));
+        assertEquals(StatusCodes.UNKNOWN_QL, res.at("/errors/0/0").asInt());
+        res = mapper.readTree(results.get(2));
+        assertEquals("koral:token", res.at("/query/@type").asText());
+        assertEquals(translate(requests.get(2)), results.get(2));
+    }
+
+
+    @Test
+    public void testCache () throws InterruptedException {
+        List<TranslationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new TranslationRequest("[base=Mann]", "poliqarpplus")
+                    .setCollection("textClass=politik"));
+        }
+        List<String> results = new QuerySerializer().setTranslationCache(
+                new TranslationCache(10)).translateAll(requests, executor);
+        for (String result : results) {
+            assertEquals(translate(requests.get(0)), result);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.CollectionBuilder.Match;
+import de.ids_mannheim.korap.query.serialize.util.CollectionSimplifier;
+
+/**
+ * Tests for the assembly of collections by a
+ * {@link CollectionBuilder}.
+ *
+ * @version 1.0
+ */
+public class CollectionBuilderTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> collection (String query) {
+        return (Map<String, Object>) new CollectionQueryProcessor(query)
+                .getRequestMap().get("collection");
+    }
+
+
+    private void assertSameAsQuery (String query, CollectionBuilder builder)
+            throws JsonProcessingException {
+        // the processor nests conjunctions
+        assertEquals(mapper.writeValueAsString(CollectionSimplifier
+                .simplify(collection(query))), mapper
+                .writeValueAsString(builder.build()));
+    }
+
+
+    @Test
+    public void testConstraints () throws JsonProcessingException {
+        assertSameAsQuery("textClass=politik", new CollectionBuilder()
+                .string("textClass", Match.EQ, "politik"));
+        assertSameAsQuery("textClass!~pol", new CollectionBuilder().string(
+                "textClass", Match.CONTAINSNOT, "pol"));
+        assertSameAsQuery("textClass=/pol.*/", new CollectionBuilder().regex(
+                "textClass", Match.EQ, "pol.*"));
+        assertSameAsQuery("pubDate since 2010-04", new CollectionBuilder()
+                .date("pubDate", Match.GEQ, "2010-04"));
+        assertSameAsQuery("pubDate in 2010", new CollectionBuilder().date(
+                "pubDate", Match.EQ, "2010"));
+        assertSameAsQuery("corpusSigle in [GOE, WPD]", new CollectionBuilder()
+                .in("corpusSigle", Arrays.asList("GOE", "WPD", "GOE")));
+        assertSameAsQuery("referTo recent",
+                new CollectionBuilder().reference("recent"));
+        assertNull(new CollectionBuilder().build());
+    }
+
+
+    @Test
+    public void testGroups () throws JsonProcessingException {
+        assertSameAsQuery("textClass=politik & corpusSigle=WPD & "
+                + "pubDate until 2015", new CollectionBuilder()
+                .string("textClass", Match.EQ, "politik")
+                .string("corpusSigle", Match.EQ, "WPD")
+                .date("pubDate", Match.LEQ, "2015"));
+        assertSameAsQuery(
+                "textClass=politik & (pubDate since 2010 | referTo recent)",
+                new CollectionBuilder().string("textClass", Match.EQ,
+                        "politik").and(
+                        new CollectionBuilder().date("pubDate", Match.GEQ,
+                                "2010").or(
+                                new CollectionBuilder().reference("recent"))));
+        assertSameAsQuery("textClass!=politik | corpusSigle!=WPD",
+                new CollectionBuilder()
+                        .string("textClass", Match.EQ, "politik")
+                        .string("corpusSigle", Match.EQ, "WPD").not());
+    }
+
+
+    @Test
+    public void testCompiledCollection () throws JsonProcessingException {
+        Map<String, Object> compiled = collection("corpusSigle=WPD & "
+                + "textClass=politik");
+        String before = compiled.toString();
+        CollectionBuilder builder = new CollectionBuilder(compiled).date(
+                "pubDate", Match.GEQ, "2010").string("author", Match.NE,
+                "Goethe");
+        assertEquals(before, compiled.toString());
+        res = mapper.valueToTree(builder.build());
+        assertEquals("operation:and", res.at("/operation").asText());
+        assertEquals(3, res.at("/operands").size());
+        assertEquals(mapper.valueToTree(compiled), res.at("/operands/0"));
+        assertEquals("pubDate", res.at("/operands/1/key").asText());
+
+        // built collections are not modified afterwards
+        builder.string("textClass", Match.EQ, "sport");
+        assertEquals(3, res.at("/operands").size());
+        assertEquals(2, mapper.valueToTree(builder.build()).at("/operands")
+                .size());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStringInequation () {
+        new CollectionBuilder().string("textClass", Match.LT, "politik");
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedDate () {
+        new CollectionBuilder().date("pubDate", Match.GEQ, "April 2010");
+    }
+
+
+    @Test
+    public void testSerializer () throws JsonProcessingException,
+            IOException {
+        CollectionBuilder builder = new CollectionBuilder().string(
+                "textClass", Match.EQ, "politik").string("corpusSigle",
+                Match.EQ, "WPD");
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann] meta textClass=Sport", "poliqarpplus");
+        qs.setCollection(builder);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("Sport", res.at("/collection/operands/0/value").asText());
+        assertEquals("WPD", res.at("/collection/operands/1/operands/1/value")
+                .asText());
+        assertEquals(res, mapper.valueToTree(qs.build()));
+
+        // the same with cached translations
+        String expected = qs.toJSON();
+        TranslationCache cache = new TranslationCache(10);
+        for (int i = 0; i < 2; i++) {
+            qs = new QuerySerializer().setTranslationCache(cache);
+            qs.setQuery("[base=Mann] meta textClass=Sport", "poliqarpplus");
+            qs.setCollection(builder);
+            assertEquals(expected, qs.toJSON());
+            assertEquals(res, mapper.valueToTree(qs.build()));
+        }
+    }
+}
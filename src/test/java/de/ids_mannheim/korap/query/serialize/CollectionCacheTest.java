@@ -0,0 +1,212 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the {@link CollectionCache}.
+ *
+ * @version 1.0
+ */
+public class CollectionCacheTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    String[][] queries = new String[][] {
+            { "[base=Mann] meta textClass=Sport", "poliqarpplus" },
+            { "der []{2,5} Mann", "poliqarpplus" },
+            { "Mann /+w1:3 Frau", "cosmas2" },
+            { "[base=Mann", "poliqarpplus" } };
+    String[] collections = new String[] {
+            "corpusSigle=GOE & availability=/CC-BY.*/",
+            "pubDate = 2014-04-01", "textClass > politik", "pubDate since" };
+
+
+    private QuerySerializer serializer (CollectionCache cache, String query,
+            String ql, String collection) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setCollectionCache(cache);
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        return qs;
+    }
+
+
+    private String translate (TranslationCache translationCache,
+            CollectionCache collectionCache, String query, String ql,
+            String collection) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setTranslationCache(translationCache);
+        qs.setCollectionCache(collectionCache);
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        return qs.toJSON();
+    }
+
+
+    @Test
+    public void testCachedCollectionIsIdentical ()
+            throws JsonProcessingException, IOException {
+        CollectionCache cache = new CollectionCache(10);
+        for (String[] query : queries) {
+            for (String collection : collections) {
+                QuerySerializer expected = serializer(null, query[0],
+                        query[1], collection);
+                QuerySerializer qs = serializer(cache, query[0], query[1],
+                        collection);
+                assertEquals(expected.toJSON(), qs.toJSON());
+                assertEquals(expected.build(), qs.build());
+            }
+        }
+        assertEquals(collections.length, cache.getMissCount());
+        assertEquals((queries.length - 1) * collections.length,
+                cache.getHitCount());
+
+        // merged with the collection of the query
+        res = mapper.readTree(serializer(cache, queries[0][0], queries[0][1],
+                collections[0]).toJSON());
+        assertEquals("koral:docGroup", res.at("/collection/@type").asText());
+        assertEquals("Sport", res.at("/collection/operands/0/value").asText());
+        assertEquals("GOE",
+                res.at("/collection/operands/1/operands/0/value").asText());
+    }
+
+
+    @Test
+    public void testIndependentOfQueryAndMeta ()
+            throws JsonProcessingException, IOException {
+        CollectionCache cache = new CollectionCache(10);
+        QuerySerializer qs = serializer(cache, "[base=Mann]", "poliqarpplus",
+                "textClass=politik & corpusID=WPD");
+        qs.setMeta(new MetaQueryBuilder().addEntry("count", 10));
+        String first = qs.toJSON();
+        assertEquals(first, qs.toJSON());
+        res = mapper.readTree(first);
+        assertEquals(10, res.at("/meta/count").asInt());
+
+        qs = serializer(cache, "Mann", "cql",
+                "textClass=politik & corpusID=WPD");
+        qs.setMeta(new MetaQueryBuilder().addEntry("count", 25));
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(25, res.at("/meta/count").asInt());
+        assertEquals("WPD", res.at("/collection/operands/1/value").asText());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testSettingsArePartOfTheKey () {
+        CollectionCache collectionCache = new CollectionCache(10);
+        TranslationCache translationCache = new TranslationCache(10);
+        String collection = "textClass=politik & (corpusSigle=GOE & "
+                + "corpusSigle=GOE)";
+        for (boolean simplify : new boolean[] { false, true, false }) {
+            for (int maxDepth : new int[] { 2, 100 }) {
+                QuerySerializer expected = new QuerySerializer()
+                        .setCollectionSimplification(simplify)
+                        .setQueryLimits(new QueryLimits()
+                                .setMaxDepth(maxDepth));
+                expected.setQuery("[base=Mann]", "poliqarpplus");
+                expected.setCollection(collection);
+                QuerySerializer qs = new QuerySerializer()
+                        .setCollectionSimplification(simplify)
+                        .setQueryLimits(new QueryLimits()
+                                .setMaxDepth(maxDepth))
+                        .setCollectionCache(collectionCache)
+                        .setTranslationCache(translationCache);
+                qs.setQuery("[base=Mann]", "poliqarpplus");
+                qs.setCollection(collection);
+                assertEquals(expected.toJSON(), qs.toJSON());
+            }
+        }
+        assertEquals(4, collectionCache.getMissCount());
+        assertEquals(4, translationCache.getMissCount());
+        assertEquals(2, translationCache.getHitCount());
+    }
+
+
+    @Test
+    public void testWithTranslationCache () {
+        CollectionCache collectionCache = new CollectionCache(10);
+        TranslationCache translationCache = new TranslationCache(10);
+        for (String[] query : queries) {
+            for (String collection : collections) {
+                String expected = translate(new TranslationCache(1), null,
+                        query[0], query[1], collection);
+                assertEquals(expected, translate(translationCache,
+                        collectionCache, query[0], query[1], collection));
+            }
+        }
+        assertEquals(queries.length * collections.length,
+                translationCache.getMissCount());
+        assertEquals(collections.length, collectionCache.getMissCount());
+    }
+
+
+    @Test
+    public void testCancelledTranslationIsNotCached ()
+            throws JsonProcessingException, IOException {
+        CollectionCache cache = new CollectionCache(10);
+        TranslationDeadline deadline = new TranslationDeadline();
+        deadline.cancel();
+        QuerySerializer qs = new QuerySerializer();
+        qs.setCollectionCache(cache);
+        qs.setDeadline(deadline);
+        qs.setCollection("textClass=politik");
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                res.at("/errors/0/0").asInt());
+        assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void testEviction () {
+        CollectionCache cache = new CollectionCache(2);
+        for (String collection : collections) {
+            serializer(cache, "[base=Mann]", "poliqarpplus", collection);
+        }
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+
+
+    @Test
+    public void testBatchTranslation () throws InterruptedException {
+        List<TranslationRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            requests.add(new TranslationRequest("[base=Mann" + i + "]",
+                    "poliqarpplus").setCollection(collections[i
+                    % collections.length]));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> expected = new QuerySerializer().translateAll(
+                    requests, executor);
+            CollectionCache cache = new CollectionCache(10);
+            assertEquals(expected, new QuerySerializer()
+                    .setCollectionCache(cache)
+                    .translateAll(requests, executor));
+            assertEquals(collections.length, cache.size());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package de.ids_mannheim.korap.query.serialize;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -502,4 +503,79 @@ public class CollectionQueryProcessorTest {
         assertEquals("type:date", res.at("/collection/type").asText());
         assertEquals("match:leq", res.at("/collection/match").asText());
     }
+
+    @Test
+    public void testSetConstraint() throws JsonProcessingException, IOException {
+        collection = "corpusSigle in [GOE, WPD, \"Die Zeit\", 2014-04]";
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("koral:doc", res.at("/collection/@type").asText());
+        assertEquals("corpusSigle", res.at("/collection/key").asText());
+        assertEquals("match:in", res.at("/collection/match").asText());
+        assertEquals(4, res.at("/collection/value").size());
+        assertEquals("GOE", res.at("/collection/value/0").asText());
+        assertEquals("Die Zeit", res.at("/collection/value/2").asText());
+        assertEquals("2014-04", res.at("/collection/value/3").asText());
+
+        collection = "textClass=politik & corpusSigle in [GOE]";
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("koral:docGroup", res.at("/collection/@type").asText());
+        assertEquals("match:in", res.at("/collection/operands/1/match").asText());
+        assertEquals("GOE", res.at("/collection/operands/1/value/0").asText());
+
+        collection = "textClass=politik & corpusSigle in [GOE, /W.*/]";
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        // like an inequation on a string, the collection is discarded
+        // and the request is rejected
+        assertTrue(res.at("/collection").isNull());
+        assertEquals(StatusCodes.INCOMPATIBLE_OPERATOR_AND_OPERAND,
+                res.at("/errors/0/0").asInt());
+    }
+
+    @Test
+    public void testCollapsedDisjunction() throws JsonProcessingException, IOException {
+        StringBuilder sb = new StringBuilder("textClass=politik");
+        for (int i = 0; i < 2000; i++) {
+            sb.append(" | corpusSigle=C" + i);
+        }
+        collection = sb.toString();
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("operation:or", res.at("/collection/operation").asText());
+        assertEquals(2, res.at("/collection/operands").size());
+        assertEquals("textClass", res.at("/collection/operands/0/key").asText());
+        assertEquals("match:in", res.at("/collection/operands/1/match").asText());
+        assertEquals(2000, res.at("/collection/operands/1/value").size());
+        assertEquals("C1999", res.at("/collection/operands/1/value/1999").asText());
+
+        // nested disjunctions are flattened, others are kept
+        collection = "a=1 | a=2 | b=1 | (a=3 | a=4 | a=5) | a=6 | a=7 | "
+                + "(c=1 & (a=9 | a=10)) | a=8 | a!=9";
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(4, res.at("/collection/operands").size());
+        assertEquals(8, res.at("/collection/operands/0/value").size());
+        assertEquals("8", res.at("/collection/operands/0/value/7").asText());
+        assertEquals("b", res.at("/collection/operands/1/key").asText());
+        assertEquals("operation:and",
+                res.at("/collection/operands/2/operation").asText());
+        assertEquals(2, res.at("/collection/operands/2/operands/1/operands").size());
+        assertEquals("match:ne", res.at("/collection/operands/3/match").asText());
+
+        // short disjunctions are kept
+        collection = "a=1 | a=2 | a=3";
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("koral:docGroup", res.at("/collection/@type").asText());
+        assertEquals("match:eq", res.at("/collection/operands/0/match").asText());
+        assertEquals("1", res.at("/collection/operands/0/value").asText());
+    }
 }
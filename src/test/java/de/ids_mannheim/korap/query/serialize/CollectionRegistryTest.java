@@ -0,0 +1,291 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for references to named collections and their resolution by
+ * a {@link CollectionRegistry}.
+ *
+ * @version 1.0
+ */
+public class CollectionRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+    CollectionRegistry registry;
+
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> collection (String query) {
+        return (Map<String, Object>) new CollectionQueryProcessor(query)
+                .getRequestMap().get("collection");
+    }
+
+
+    @Before
+    public void setUp () throws IOException {
+        registry = new CollectionRegistry(folder.getRoot());
+        StringBuilder sb = new StringBuilder("textSigle in [");
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i == 0 ? "" : ", ").append("T" + i);
+        }
+        registry.register("big", collection(sb.append("]").toString()));
+        registry.register("Wikipedia recent",
+                collection("corpusSigle=WPD & pubDate since 2010"));
+    }
+
+
+    private QuerySerializer serializer (String collection, boolean expand) {
+        QuerySerializer qs = new QuerySerializer().setCollectionRegistry(
+                registry).setCollectionReferenceExpansion(expand);
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection(collection);
+        return qs;
+    }
+
+
+    @Test
+    public void testReference () throws JsonProcessingException,
+            IOException {
+        res = mapper.valueToTree(collection("referTo big"));
+        assertEquals("koral:docGroupRef", res.at("/@type").asText());
+        assertEquals("big", res.at("/ref").asText());
+
+        res = mapper.valueToTree(collection("referTo \"my collection\" | "
+                + "textClass=politik"));
+        assertEquals("koral:docGroupRef", res.at("/operands/0/@type")
+                .asText());
+        assertEquals("my collection", res.at("/operands/0/ref").asText());
+
+        // referTo is a keyword only in front of a collection name
+        res = mapper.valueToTree(collection("referTo=referTo & "
+                + "referTo in [referTo, big]"));
+        assertEquals("koral:doc", res.at("/operands/0/@type").asText());
+        assertEquals("referTo", res.at("/operands/0/key").asText());
+        assertEquals("referTo", res.at("/operands/0/value").asText());
+        assertEquals("referTo", res.at("/operands/1/key").asText());
+        assertEquals("referTo", res.at("/operands/1/value/0").asText());
+
+        // without a registry, references are not resolved
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection("referTo unknown");
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("unknown", res.at("/collection/ref").asText());
+        assertTrue(res.at("/errors").isMissingNode());
+    }
+
+
+    @Test
+    public void testCompactReference () throws JsonProcessingException,
+            IOException {
+        res = mapper.readTree(serializer("referTo big & textClass=politik",
+                false).toJSON());
+        assertEquals("koral:docGroupRef",
+                res.at("/collection/operands/0/@type").asText());
+        assertEquals("big", res.at("/collection/operands/0/ref").asText());
+        assertTrue(res.at("/errors").isMissingNode());
+
+        res = mapper.readTree(serializer("referTo unknown", false).toJSON());
+        assertEquals(StatusCodes.UNKNOWN_COLLECTION_REFERENCE,
+                res.at("/errors/0/0").asInt());
+    }
+
+
+    @Test
+    public void testExpandedReference () throws JsonProcessingException,
+            IOException {
+        QuerySerializer qs = serializer("textClass=politik & "
+                + "(referTo big | referTo \"Wikipedia recent\")", true);
+        res = mapper.readTree(qs.toJSON());
+        JsonNode expanded = res.at("/collection/operands/1/operands");
+        assertEquals("match:in", expanded.at("/0/match").asText());
+        assertEquals(1000, expanded.at("/0/value").size());
+        assertEquals(mapper.valueToTree(collection("corpusSigle=WPD & "
+                + "pubDate since 2010")), expanded.at("/1"));
+        assertEquals(res, mapper.valueToTree(qs.build()));
+        assertTrue(res.at("/errors").isMissingNode());
+
+        res = mapper.readTree(serializer("referTo \"Wikipedia recent\"", true)
+                .toJSON());
+        assertEquals("WPD", res.at("/collection/operands/0/value").asText());
+    }
+
+
+    @Test
+    public void testCaches () {
+        String collection = "referTo big & textClass=politik";
+        for (boolean expand : new boolean[] { false, true }) {
+            String expected = serializer(collection, expand).toJSON();
+            CollectionCache collectionCache = new CollectionCache(10);
+            TranslationCache translationCache = new TranslationCache(10);
+            for (int i = 0; i < 2; i++) {
+                QuerySerializer qs = new QuerySerializer()
+                        .setCollectionRegistry(registry)
+                        .setCollectionReferenceExpansion(expand);
+                qs.setCollectionCache(collectionCache);
+                qs.setQuery("[base=Mann]", "poliqarpplus");
+                qs.setCollection(collection);
+                assertEquals(expected, qs.toJSON());
+
+                qs = new QuerySerializer().setCollectionRegistry(registry)
+                        .setCollectionReferenceExpansion(expand);
+                qs.setTranslationCache(translationCache);
+                qs.setQuery("[base=Mann]", "poliqarpplus");
+                qs.setCollection(collection);
+                assertEquals(expected, qs.toJSON());
+            }
+        }
+    }
+
+
+    private QuerySerializer serializer (String collection,
+            CollectionCache collectionCache, TranslationCache translationCache) {
+        QuerySerializer qs = new QuerySerializer().setCollectionRegistry(
+                registry).setCollectionReferenceExpansion(true);
+        qs.setCollectionCache(collectionCache);
+        qs.setTranslationCache(translationCache);
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection(collection);
+        return qs;
+    }
+
+
+    @Test
+    public void testCachesAfterRegistration ()
+            throws JsonProcessingException, IOException {
+        CollectionCache collectionCache = new CollectionCache(10);
+        TranslationCache translationCache = new TranslationCache(10);
+        String[] collections = new String[] { "referTo \"Wikipedia recent\"",
+                "referTo later" };
+        for (int i = 0; i < 2; i++) {
+            for (String collection : collections) {
+                String expected = serializer(collection, true).toJSON();
+                assertEquals(expected, serializer(collection,
+                        collectionCache, null).toJSON());
+                assertEquals(expected, serializer(collection, null,
+                        translationCache).toJSON());
+            }
+            // replaces an expanded collection and registers an
+            // unknown one while both are cached
+            registry.register("Wikipedia recent",
+                    collection("corpusSigle=WDD"));
+            registry.register("later", collection("textSigle=T2"));
+        }
+
+        res = mapper.readTree(serializer(collections[0], collectionCache,
+                null).toJSON());
+        assertEquals("WDD", res.at("/collection/value").asText());
+        res = mapper.readTree(serializer(collections[1], null,
+                translationCache).toJSON());
+        assertEquals("T2", res.at("/collection/value").asText());
+        assertTrue(res.at("/errors").isMissingNode());
+    }
+
+
+    @Test
+    public void testRegistry () throws IOException {
+        assertTrue(registry.contains("big"));
+        assertFalse(registry.contains("unknown"));
+        assertEquals(null, registry.get("unknown"));
+        CollectionRegistry.RegisteredCollection big = registry.get("big");
+        assertEquals("koral:doc", big.get("@type"));
+        assertEquals(big, registry.get("big"));
+
+        // names are encoded into file names
+        registry.register("user/../big", collection("textSigle=T2"));
+        assertEquals("T2", registry.get("user/../big").get("value"));
+        assertEquals(3, folder.getRoot().list().length);
+
+        // replaced collections are mapped anew
+        registry.register("big", collection("textSigle=T1"));
+        assertEquals("T1", registry.get("big").get("value"));
+
+        FileOutputStream out = new FileOutputStream(new File(
+                folder.getRoot(), "broken" + CollectionRegistry.SUFFIX));
+        out.write("{\"@type\":\"koral:doc\"".getBytes("UTF-8"));
+        out.close();
+        res = mapper.readTree(serializer("referTo broken", false).toJSON());
+        assertEquals(StatusCodes.UNKNOWN_COLLECTION_REFERENCE,
+                res.at("/errors/0/0").asInt());
+    }
+
+
+    @Test
+    public void testStreamedCollection () throws JsonProcessingException,
+            IOException {
+        // larger than a chunk, with characters of several bytes
+        StringBuilder sb = new StringBuilder("corpusTitle in [");
+        for (int i = 0; i < 5000; i++) {
+            sb.append(i == 0 ? "" : ", ").append("\"Zeitungsb\u00fcro \u20ac" + i + "\"");
+        }
+        Map<String, Object> collection = collection(sb.append("]").toString());
+        registry.register("titles", collection);
+        res = mapper.readTree(serializer("referTo titles", true).toJSON());
+        assertEquals(mapper.valueToTree(collection), res.at("/collection"));
+        assertEquals("Zeitungsb\u00fcro \u20ac4999",
+                res.at("/collection/value/4999").asText());
+        assertEquals(mapper.writeValueAsString(collection), registry.get(
+                "titles").getJson());
+    }
+
+
+    @Test
+    public void testConcurrentReplacement () throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread() {
+            @Override
+            public void run () {
+                try {
+                    while (!done.get()) {
+                        registry.get("replaced");
+                    }
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        registry.register("replaced", collection("textSigle=T0"));
+        reader.start();
+        try {
+            for (int i = 1; i < 200; i++) {
+                registry.register("replaced", collection("textSigle=T" + i));
+                // a mapping of the replaced file is never cached
+                assertEquals("T" + i, registry.get("replaced").get("value"));
+            }
+        }
+        finally {
+            done.set(true);
+            reader.join();
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingDirectory () {
+        new CollectionRegistry(new File(folder.getRoot(), "missing"));
+    }
+}
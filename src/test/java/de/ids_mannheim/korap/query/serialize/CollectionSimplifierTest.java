@@ -0,0 +1,332 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.object.KoralDocGroup;
+import de.ids_mannheim.korap.query.serialize.util.CollectionSimplifier;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the simplification of collections by the
+ * {@link CollectionSimplifier}.
+ *
+ * @version 1.0
+ */
+public class CollectionSimplifierTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> collection (String query) {
+        return (Map<String, Object>) new CollectionQueryProcessor(query)
+                .getRequestMap().get("collection");
+    }
+
+
+    private JsonNode simplify (String query) {
+        Map<String, Object> collection = collection(query);
+        String before = collection.toString();
+        JsonNode simplified = mapper.valueToTree(CollectionSimplifier
+                .simplify(collection));
+        // the collection is not modified
+        assertEquals(before, collection.toString());
+        return simplified;
+    }
+
+
+    @Test
+    public void testFlattening () {
+        res = simplify("a=1 & b=2 & c=3 & d=4");
+        assertEquals("operation:and", res.at("/operation").asText());
+        assertEquals(4, res.at("/operands").size());
+        assertEquals("d", res.at("/operands/3/key").asText());
+
+        res = simplify("a=1 & (b=2 | c=3 | d=4) & e=5");
+        assertEquals(3, res.at("/operands").size());
+        assertEquals("operation:or", res.at("/operands/1/operation").asText());
+        assertEquals(3, res.at("/operands/1/operands").size());
+        assertEquals("e", res.at("/operands/2/key").asText());
+
+        // unchanged
+        res = simplify("a=1 | b=2");
+        assertEquals(mapper.valueToTree(collection("a=1 | b=2")), res);
+        res = simplify("a=1");
+        assertEquals("koral:doc", res.at("/@type").asText());
+    }
+
+
+    @Test
+    public void testDuplicates () {
+        res = simplify("a=1 & a=1");
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("a", res.at("/key").asText());
+
+        res = simplify("a=1 & b=2 & (a=1 & c=3)");
+        assertEquals(3, res.at("/operands").size());
+        assertEquals("c", res.at("/operands/2/key").asText());
+
+        // a different match is no duplicate
+        res = simplify("a=1 & a!=1");
+        assertEquals(2, res.at("/operands").size());
+    }
+
+
+    @Test
+    public void testAbsorption () {
+        res = simplify("a=1 & (a=1 | b=2)");
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("a", res.at("/key").asText());
+
+        res = simplify("(a=1 & b=2) | a=1");
+        assertEquals("koral:doc", res.at("/@type").asText());
+
+        res = simplify("(a=1 | b=2 | c=3) & (b=2 | a=1)");
+        assertEquals("operation:or", res.at("/operation").asText());
+        assertEquals(2, res.at("/operands").size());
+        assertEquals("b", res.at("/operands/0/key").asText());
+
+        res = simplify("(a=1 | b=2) & (a=1 | c=3)");
+        assertEquals(2, res.at("/operands").size());
+    }
+
+
+    private Map<String, Object> doc (String key, String value) {
+        Map<String, Object> doc = new LinkedHashMap<String, Object>();
+        doc.put("@type", "koral:doc");
+        doc.put("key", key);
+        doc.put("value", value);
+        doc.put("match", "match:eq");
+        return doc;
+    }
+
+
+    @Test
+    public void testManyAbsorbedOperands () {
+        KoralDocGroup conjunction = new KoralDocGroup("and");
+        for (int i = 0; i < 5000; i++) {
+            KoralDocGroup disjunction = new KoralDocGroup("or");
+            disjunction.getOperands().add(doc("k" + i, "1"));
+            disjunction.getOperands().add(doc("a", "1"));
+            conjunction.getOperands().add(disjunction);
+        }
+        conjunction.getOperands().add(doc("a", "1"));
+        res = mapper.valueToTree(CollectionSimplifier.simplify(conjunction));
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("a", res.at("/key").asText());
+    }
+
+
+    @Test
+    public void testDeepNesting () {
+        Map<String, Object> collection = doc("k0", "1");
+        for (int i = 1; i < 100000; i++) {
+            KoralDocGroup group = new KoralDocGroup("and");
+            group.getOperands().add(collection);
+            group.getOperands().add(doc("k" + i, "1"));
+            collection = group;
+        }
+        Map<String, Object> simplified = CollectionSimplifier
+                .simplify(collection);
+        assertEquals("operation:and", simplified.get("operation"));
+        assertEquals(100000, ((List<?>) simplified.get("operands")).size());
+    }
+
+
+    @Test
+    public void testNegation () {
+        res = mapper.valueToTree(CollectionSimplifier
+                .negate(collection("a=1 & (b!=2 | c~x)")));
+        assertEquals("operation:or", res.at("/operation").asText());
+        assertEquals("match:ne", res.at("/operands/0/match").asText());
+        assertEquals("operation:and", res.at("/operands/1/operation")
+                .asText());
+        assertEquals("match:eq", res.at("/operands/1/operands/0/match")
+                .asText());
+        assertEquals("match:containsnot", res.at(
+                "/operands/1/operands/1/match").asText());
+
+        res = mapper.valueToTree(CollectionSimplifier
+                .negate(collection("a~x | (b=1 | c=2)")));
+        assertEquals("operation:and", res.at("/operation").asText());
+        assertEquals(3, res.at("/operands").size());
+        assertEquals("match:containsnot", res.at("/operands/0/match")
+                .asText());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegatedToken () {
+        CollectionSimplifier.negate(collection("[base=Mann]"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegatedDate () {
+        // documents without a date would be dropped by match:lt
+        CollectionSimplifier.negate(collection("a=1 & pubDate since 2014"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegatedComparison () {
+        CollectionSimplifier.negate(collection("a=1 | pubDate until 2010"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegatedSet () {
+        // there is no match:notin
+        CollectionSimplifier.negate(collection("textSigle in [T1, T2]"));
+    }
+
+
+    @Test
+    public void testSerializer () throws JsonProcessingException,
+            IOException {
+        String query = "[base=Mann] meta textClass=Sport";
+        String collection = "textClass=politik & corpusID=WPD & textClass=politik";
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery(query, "poliqarpplus");
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals("operation:and",
+                res.at("/collection/operands/1/operands/1/operation").asText());
+
+        for (CollectionCache cache : new CollectionCache[] { null,
+                new CollectionCache(10) }) {
+            qs = new QuerySerializer().setCollectionSimplification(true);
+            qs.setCollectionCache(cache);
+            qs.setQuery(query, "poliqarpplus");
+            qs.setCollection(collection);
+            res = mapper.readTree(qs.toJSON());
+            assertEquals(3, res.at("/collection/operands").size());
+            assertEquals("Sport", res.at("/collection/operands/0/value")
+                    .asText());
+            assertEquals("WPD", res.at("/collection/operands/2/value")
+                    .asText());
+            assertEquals(res, mapper.valueToTree(qs.build()));
+        }
+    }
+
+
+    @Test
+    public void testDateIntersection () {
+        res = simplify("pubDate since 2010 & pubDate since 2012 & "
+                + "pubDate until 2015");
+        assertEquals("operation:and", res.at("/operation").asText());
+        assertEquals(2, res.at("/operands").size());
+        assertEquals("2012", res.at("/operands/0/value").asText());
+        assertEquals("match:geq", res.at("/operands/0/match").asText());
+        assertEquals("2015", res.at("/operands/1/value").asText());
+        assertEquals("match:leq", res.at("/operands/1/match").asText());
+
+        res = simplify("pubDate in 2012 & textClass=politik & "
+                + "pubDate until 2012-06");
+        assertEquals(3, res.at("/operands").size());
+        assertEquals("match:geq", res.at("/operands/0/match").asText());
+        assertEquals("2012", res.at("/operands/0/value").asText());
+        assertEquals("2012-06", res.at("/operands/1/value").asText());
+        assertEquals("textClass", res.at("/operands/2/key").asText());
+
+        // a date covers all its days
+        res = simplify("pubDate since 2010 & pubDate in 2014-04-01");
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("match:eq", res.at("/match").asText());
+        assertEquals("2014-04-01", res.at("/value").asText());
+
+        // different keys are not merged
+        res = simplify("pubDate since 2010 & createDate since 2012");
+        assertEquals(2, res.at("/operands").size());
+    }
+
+
+    @Test
+    public void testDateUnion () {
+        res = simplify("pubDate in 2010 | pubDate since 2009");
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("match:geq", res.at("/match").asText());
+        assertEquals("2009", res.at("/value").asText());
+
+        res = simplify("(pubDate since 2005 & pubDate until 2010) | "
+                + "textClass=politik | pubDate in 2008 | "
+                + "(pubDate since 2009 & pubDate until 2012)");
+        assertEquals("operation:or", res.at("/operation").asText());
+        assertEquals(2, res.at("/operands").size());
+        assertEquals("2005", res.at("/operands/0/operands/0/value").asText());
+        assertEquals("2012", res.at("/operands/0/operands/1/value").asText());
+        assertEquals("textClass", res.at("/operands/1/key").asText());
+
+        // disjoint intervals are kept
+        res = simplify("pubDate in 2010 | pubDate in 2012");
+        assertEquals(2, res.at("/operands").size());
+        // an interval without bounds cannot be expressed
+        res = simplify("pubDate since 2010 | pubDate until 2012");
+        assertEquals(2, res.at("/operands").size());
+    }
+
+
+    @Test
+    public void testContradiction () {
+        Map<String, Object> collection = collection("pubDate since 2010 & "
+                + "textClass=politik & pubDate until 2005");
+        assertTrue(CollectionSimplifier.isEmpty(collection));
+        res = simplify("pubDate since 2010 & textClass=politik & "
+                + "pubDate until 2005");
+        assertEquals(2, res.at("/operands").size());
+        assertEquals("2010", res.at("/operands/0/value").asText());
+        assertEquals("2005", res.at("/operands/1/value").asText());
+
+        assertTrue(CollectionSimplifier.isEmpty(collection(
+                "pubDate in 2014-04 & pubDate since 2014-05-01")));
+        assertFalse(CollectionSimplifier.isEmpty(collection(
+                "pubDate in 2014-04 & pubDate until 2014-04-01")));
+        assertFalse(CollectionSimplifier.isEmpty(collection(
+                "pubDate since 2010 & createDate until 2005")));
+
+        // empty disjuncts are removed
+        res = simplify("(pubDate since 2010 & pubDate until 2005) | "
+                + "textClass=politik");
+        assertEquals("koral:doc", res.at("/@type").asText());
+        assertEquals("textClass", res.at("/key").asText());
+        assertTrue(CollectionSimplifier.isEmpty(collection(
+                "(pubDate since 2010 & pubDate until 2005) | "
+                        + "(pubDate in 2014 & pubDate in 2015)")));
+        assertTrue(CollectionSimplifier.isEmpty(collection(
+                "pubDate since 2010 & (pubDate until 2005 | pubDate in 2008)")));
+    }
+
+
+    @Test
+    public void testEmptyCollectionWarning ()
+            throws JsonProcessingException, IOException {
+        String collection = "pubDate since 2010 & pubDate until 2005";
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertTrue(res.at("/warnings").isMissingNode());
+
+        qs = new QuerySerializer().setCollectionSimplification(true);
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection(collection);
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(StatusCodes.EMPTY_COLLECTION,
+                res.at("/warnings/0/0").asInt());
+        assertEquals("operation:and", res.at("/collection/operation").asText());
+    }
+}
@@ -0,0 +1,118 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests that queries can be translated concurrently by several
+ * threads without the translations influencing each other. The
+ * throughput is measured by the ConcurrencyBenchmark.
+ *
+ * @version 1.0
+ */
+public class ConcurrentQuerySerializerTest {
+
+    /**
+     * Queries (and their query languages) whose translations involve
+     * messages and warnings generated by the KoralObjectGenerator and
+     * nested processors.
+     */
+    String[][] queries = new String[][] {
+            { "[base=Mann]", "poliqarpplus" },
+            { "der []{2,5} Mann", "poliqarpplus" },
+            { "focus(1:{[base=der]}{1:[pos=ADJA]})", "poliqarpplus" },
+            { "contains(<s>, [base=Mann][orth=?])", "poliqarpplus" },
+            { "[base=Mann] meta textClass=Sport", "poliqarpplus" },
+            { "[base=der]{3,200}", "poliqarpplus" },
+            { "Mann /+w1:3 Frau", "cosmas2" },
+            { "#BEG(der /w3:5 Mann)", "cosmas2" },
+            { "$wegen #IN(L) <s>", "cosmas2" },
+            { "\"der\" & \"Mann\" & #1 . #2", "annis" },
+            { "cat=\"NP\" & cat=\"VP\" & #1 > #2", "annis" },
+            { "[base=Mann", "poliqarpplus" } };
+
+    String collection = "textClass=politik & pubDate since 2010";
+
+
+    private String translate (String query, String ql) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery(query, ql);
+        qs.setCollection(collection);
+        return qs.toJSON();
+    }
+
+
+    @Test
+    public void testConcurrentTranslation () throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        for (String[] query : queries) {
+            expected.add(translate(query[0], query[1]));
+        }
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        final int rounds = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call () {
+                        List<String> mismatches = new ArrayList<String>();
+                        for (int r = 0; r < rounds; r++) {
+                            for (int i = 0; i < queries.length; i++) {
+                                String json = translate(queries[i][0],
+                                        queries[i][1]);
+                                if (!json.equals(expected.get(i)))
+                                    mismatches.add(json);
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(new ArrayList<String>(), result.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDefaultVerbose () {
+        AbstractQueryProcessor.setDefaultVerbose(true);
+        try {
+            PoliqarpPlusQueryProcessor processor = new PoliqarpPlusQueryProcessor();
+            assertTrue(processor.printDebug);
+            processor.setVerbose(false);
+            processor.reset();
+            assertTrue(processor.printDebug);
+        }
+        finally {
+            AbstractQueryProcessor.setDefaultVerbose(false);
+        }
+        assertFalse(new PoliqarpPlusQueryProcessor().printDebug);
+
+        // the former static field is still the default
+        AbstractQueryProcessor.verbose = true;
+        try {
+            assertTrue(new CollectionQueryProcessor().printDebug);
+        }
+        finally {
+            AbstractQueryProcessor.verbose = false;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+
+/**
+ * Tests for the incremental parsing of queries by an
+ * {@link IncrementalParsingSession}.
+ *
+ * @version 1.0
+ */
+public class IncrementalParsingSessionTest {
+
+    IncrementalParsingSession session;
+
+
+    private IncrementalParsingSession fresh (String ql, String query) {
+        IncrementalParsingSession fresh = new IncrementalParsingSession(ql);
+        fresh.setQuery(query);
+        return fresh;
+    }
+
+
+    private void assertSameAsFresh (String ql) {
+        String query = session.getQuery();
+        IncrementalParsingSession fresh = fresh(ql, query);
+        assertEquals(query, fresh.isComplete(), session.isComplete());
+        assertEquals(query, fresh.getErrorOffset(), session.getErrorOffset());
+        for (int cursor = 0; cursor <= query.length(); cursor++) {
+            assertEquals(query + " at " + cursor,
+                    fresh.getExpectedTokens(cursor),
+                    session.getExpectedTokens(cursor));
+        }
+    }
+
+
+    @Test
+    public void testExpectedTokens () {
+        session = fresh("collection", "textClass=politik & pubDate");
+        assertTrue(session.getExpectedTokens(27).containsAll(
+                Arrays.asList("'='", "'since'", "'until'", "'in'")));
+        assertEquals(Arrays.asList("'('", "'['", "'referTo'", "WORD"),
+                session.getExpectedTokens(19));
+        // a token at the cursor counts as complete
+        assertEquals(Arrays.asList("<EOF>", "AND", "OR"),
+                session.getExpectedTokens(17));
+
+        session.setQuery("pubDate since");
+        assertEquals(Arrays.asList("DATE"), session.getExpectedTokens(13));
+
+        session = fresh("poliqarpplus", "[base=Mann");
+        assertTrue(session.getExpectedTokens(10).contains("']'"));
+        assertFalse(session.getExpectedTokenTypes(10).contains(Token.EOF));
+        session.setQuery("[base=Mann]");
+        assertTrue(session.getExpectedTokenTypes(11).contains(Token.EOF));
+    }
+
+
+    @Test
+    public void testCompleteness () {
+        session = fresh("poliqarpplus", "der Mann");
+        assertTrue(session.isComplete());
+        assertEquals(-1, session.getErrorOffset());
+
+        session.setQuery("der Mann)");
+        assertFalse(session.isComplete());
+        assertEquals(8, session.getErrorOffset());
+        assertFalse(session.getExpectedTokens(8).isEmpty());
+        assertTrue(session.getExpectedTokens(9).isEmpty());
+
+        // the query ends prematurely
+        session.setQuery("[base=Mann");
+        assertEquals(10, session.getErrorOffset());
+
+        session = fresh("collection", "textClass=");
+        assertFalse(session.isComplete());
+        assertEquals(10, session.getErrorOffset());
+        session.edit(10, 0, "politik");
+        assertTrue(session.isComplete());
+        assertEquals("textClass=politik", session.getQuery());
+    }
+
+
+    @Test
+    public void testTyping () {
+        String[][] queries = {
+                { "contains(<s>, [base=Mann & pos=NN]{2,3})", "poliqarpplus" },
+                { "der (Mann|Frau) []{1,3} sagt", "poliqarpplus" },
+                { "(textClass=politik | textClass=sport) & pubDate "
+                        + "since 2014-04", "collection" } };
+        for (String[] query : queries) {
+            session = new IncrementalParsingSession(query[1]);
+            for (int i = 0; i < query[0].length(); i++) {
+                session.edit(i, 0, query[0].substring(i, i + 1));
+                assertSameAsFresh(query[1]);
+            }
+            assertTrue(session.isComplete());
+        }
+    }
+
+
+    @Test
+    public void testEdits () {
+        String[][] queries = {
+                { "contains(<s>, [base=Mann & pos=NN]{2,3})", "poliqarpplus" },
+                { "textClass!=politik & pubDate in 2014 | corpusID=WPD",
+                        "collection" } };
+        Random random = new Random(1);
+        for (String[] query : queries) {
+            session = fresh(query[1], query[0]);
+            for (int i = 0; i < 50; i++) {
+                String current = session.getQuery();
+                int offset = random.nextInt(current.length() + 1);
+                int length = random.nextInt(Math.min(3,
+                        current.length() - offset) + 1);
+                int from = random.nextInt(query[0].length() - 2);
+                String replacement = query[0].substring(from, from
+                        + random.nextInt(3));
+                if (random.nextBoolean()) {
+                    session.edit(offset, length, replacement);
+                }
+                else {
+                    session.setQuery(current.substring(0, offset)
+                            + replacement + current.substring(offset + length));
+                }
+                assertSameAsFresh(query[1]);
+            }
+        }
+    }
+
+
+    @Test
+    public void testAmbiguousQuery () {
+        // every parenthesis may open several nested groups
+        session = fresh("poliqarpplus", "contains(<s>(de (der){3}");
+        assertFalse(session.isComplete());
+        session.edit(12, 0, ", ");
+        session.edit(session.getQuery().length(), 0, "))");
+        assertTrue(session.isComplete());
+    }
+
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testInvalidEdit () {
+        session = fresh("poliqarpplus", "der Mann");
+        session.edit(6, 3, "");
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedLanguage () {
+        new IncrementalParsingSession("cosmas2");
+    }
+}
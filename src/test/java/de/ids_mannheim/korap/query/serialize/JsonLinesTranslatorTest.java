@@ -0,0 +1,100 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the translation of JSON lines requests by the
+ * {@link JsonLinesTranslator}.
+ *
+ * @version 1.0
+ */
+public class JsonLinesTranslatorTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+
+    @After
+    public void tearDown () {
+        executor.shutdown();
+    }
+
+
+    private String[] translate (JsonLinesTranslator translator, String input)
+            throws IOException, InterruptedException {
+        StringWriter out = new StringWriter();
+        translator.translate(new BufferedReader(new StringReader(input)), out);
+        return out.toString().split("\n");
+    }
+
+
+    @Test
+    public void testTranslation () throws IOException, InterruptedException {
+        String input = "{\"query\":\"[base=Mann]\",\"ql\":\"poliqarpplus\",\"collection\":\"textClass=politik\"}\n"
+                + "\n"
+                + "{\"query\":\"Mann\",\"ql\":\"cql\",\"version\":\"1.2\",\"meta\":{\"startIndex\":3}}\n"
+                + "not a request\n"
+                + "[\"[base=Mann]\"]\n"
+                + "{\"query\":\"[base=Mann\",\"ql\":\"poliqarpplus\"}\n";
+        JsonLinesTranslator translator = new JsonLinesTranslator(
+                new QuerySerializer(), executor).setBatchSize(2);
+        String[] lines = translate(translator, input);
+        assertEquals(5, lines.length);
+
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection("textClass=politik");
+        assertEquals(qs.toJSON(), lines[0]);
+
+        res = mapper.readTree(lines[1]);
+        assertEquals("Mann", res.at("/query/wrap/key").asText());
+        assertEquals(3, res.at("/meta/startIndex").asInt());
+
+        res = mapper.readTree(lines[2]);
+        assertEquals(StatusCodes.UNKNOWN_QUERY_ERROR,
+                res.at("/errors/0/0").asInt());
+        res = mapper.readTree(lines[3]);
+        assertEquals(StatusCodes.UNKNOWN_QUERY_ERROR,
+                res.at("/errors/0/0").asInt());
+        res = mapper.readTree(lines[4]);
+        assertEquals(StatusCodes.MALFORMED_QUERY,
+                res.at("/errors/0/0").asInt());
+    }
+
+
+    @Test
+    public void testSummary () throws IOException, InterruptedException {
+        JsonLinesTranslator translator = new JsonLinesTranslator(
+                new QuerySerializer(), executor);
+        translate(translator, "{\"query\":\"[base=Mann]\",\"ql\":\"poliqarpplus\"}\n"
+                + "{\"query\":\"[base=Mann\",\"ql\":\"poliqarpplus\"}\n"
+                + "}\n");
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        translator.printSummary(new PrintStream(summary, true, "UTF-8"));
+        String text = summary.toString("UTF-8");
+        assertTrue(text, text.startsWith("Translated 3 requests"));
+        assertTrue(text,
+                text.contains("Queries with errors: 1, unreadable requests: 1"));
+        assertTrue(text, text.contains("Processing latency (ms)"));
+    }
+}
@@ -0,0 +1,102 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.object.KoralClass;
+import de.ids_mannheim.korap.query.object.KoralDistance;
+import de.ids_mannheim.korap.query.object.KoralGroup;
+import de.ids_mannheim.korap.query.object.KoralObject;
+import de.ids_mannheim.korap.query.object.KoralReference;
+import de.ids_mannheim.korap.query.object.KoralTerm;
+import de.ids_mannheim.korap.query.object.KoralToken;
+import de.ids_mannheim.korap.query.serialize.util.KoralObjectGenerator;
+
+/**
+ * Tests for the typed KoralQuery objects built by the
+ * {@link KoralObjectGenerator}.
+ *
+ * @version 1.0
+ */
+public class KoralObjectGeneratorTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    @Before
+    public void setUp () {
+        // the generator reports deprecation messages to the current
+        // processor
+        KoralObjectGenerator
+                .setQueryProcessor(new PoliqarpPlusQueryProcessor());
+    }
+
+
+    @After
+    public void tearDown () {
+        KoralObjectGenerator.setQueryProcessor(null);
+    }
+
+
+    @Test
+    public void testTypedAccessors () {
+        KoralGroup sequence = KoralObjectGenerator.makeGroup("sequence");
+        assertEquals("koral:group", sequence.getType());
+        assertEquals("operation:sequence", sequence.getOperation());
+        assertTrue(sequence.getOperands().isEmpty());
+
+        KoralClass cls = KoralObjectGenerator.makeSpanClass(1);
+        assertEquals("operation:class", cls.getOperation());
+        assertEquals(1, (int) cls.getClassOut());
+
+        KoralDistance distance = KoralObjectGenerator.makeDistance("w", 1, 3);
+        assertEquals("koral:distance", distance.getType());
+        assertEquals(1, (int) distance.getBoundary().getMin());
+        assertEquals(3, (int) distance.getBoundary().getMax());
+        assertEquals("cosmas:distance",
+                KoralObjectGenerator.makeDistance("s", 0, 0).getType());
+    }
+
+
+    @Test
+    public void testKeyOrder () throws JsonProcessingException, IOException {
+        KoralToken token = KoralObjectGenerator.makeToken();
+        KoralTerm term = KoralObjectGenerator.makeTerm();
+        term.put("layer", "lemma");
+        term.put("key", "Mann");
+        token.put("wrap", term);
+        KoralReference focus = KoralObjectGenerator.wrapInReference(
+                KoralObjectGenerator.wrapInClass(token, 1), 1);
+        assertEquals("{\"@type\":\"koral:reference\","
+                + "\"operation\":\"operation:focus\",\"classRef\":[1],"
+                + "\"operands\":[{\"@type\":\"koral:group\","
+                + "\"operation\":\"operation:class\",\"classOut\":1,"
+                + "\"operands\":[{\"@type\":\"koral:token\","
+                + "\"wrap\":{\"@type\":\"koral:term\",\"layer\":\"lemma\","
+                + "\"key\":\"Mann\"}}]}]}", mapper.writeValueAsString(focus));
+    }
+
+
+    @Test
+    public void testAddOperand () throws JsonProcessingException, IOException {
+        KoralObject object = new KoralObject("koral:group");
+        assertEquals(null, object.getOperands());
+        object.addOperand(KoralObjectGenerator.makeSpan("s"));
+        List<Object> operands = object.getOperands();
+        assertEquals(1, operands.size());
+        res = mapper.readTree(mapper.writeValueAsString(object));
+        assertEquals("s", res.at("/operands/0/key").asText());
+    }
+}
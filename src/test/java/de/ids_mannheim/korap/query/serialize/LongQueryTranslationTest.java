@@ -0,0 +1,158 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Translates queries with increasingly long token sequences. The
+ * translation time per token is measured by the LongQueryBenchmark.
+ *
+ * @version 1.0
+ */
+public class LongQueryTranslationTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    int[] lengths = new int[] { 50, 100, 200, 400 };
+
+
+    private String poliqarpSequence (int length) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            query.append("[base=w").append(i).append("] ");
+        }
+        return query.toString();
+    }
+
+
+    private String annisSequence (int length) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                query.append(" & ");
+            query.append("\"w").append(i).append("\"");
+        }
+        for (int i = 1; i < length; i++) {
+            query.append(" & #").append(i).append(" . #").append(i + 1);
+        }
+        return query.toString();
+    }
+
+
+    private String cosmasSequence (int length) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            query.append("w").append(i).append(" ");
+        }
+        return query.toString();
+    }
+
+
+    private String collectionSequence (int length) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                query.append(" & ");
+            query.append("textClass=w").append(i);
+        }
+        return query.toString();
+    }
+
+
+    private String translate (String query, String ql, boolean collection) {
+        QuerySerializer qs = new QuerySerializer();
+        if (collection) {
+            qs.setQuery("[]", "poliqarpplus");
+            qs.setCollection(query);
+        }
+        else {
+            qs.setQuery(query, ql);
+        }
+        return qs.toJSON();
+    }
+
+
+    private void translateAll (String[] queries, String ql,
+            boolean collection) throws JsonProcessingException, IOException {
+        for (int i = 0; i < lengths.length; i++) {
+            res = mapper.readTree(translate(queries[i], ql, collection));
+            assertEquals(0, res.at("/errors").size());
+            if (collection) {
+                assertEquals("koral:docGroup",
+                        res.at("/collection/@type").asText());
+            }
+            else {
+                assertEquals("operation:sequence",
+                        res.at("/query/operation").asText());
+                if (!ql.equals("annis"))
+                    assertEquals(lengths[i], res.at("/query/operands").size());
+            }
+        }
+    }
+
+
+    @Test
+    public void testPoliqarpSequence () throws JsonProcessingException,
+            IOException {
+        String[] queries = new String[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            queries[i] = poliqarpSequence(lengths[i]);
+        }
+        res = mapper.readTree(translate(queries[0], "poliqarpplus", false));
+        assertEquals("operation:sequence", res.at("/query/operation").asText());
+        assertEquals(lengths[0], res.at("/query/operands").size());
+        assertEquals("w49", res.at("/query/operands/49/wrap/key").asText());
+        translateAll(queries, "poliqarpplus", false);
+    }
+
+
+    @Test
+    public void testAnnisSequence () throws JsonProcessingException,
+            IOException {
+        String[] queries = new String[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            queries[i] = annisSequence(lengths[i]);
+        }
+        res = mapper.readTree(translate(queries[0], "annis", false));
+        assertEquals("operation:sequence", res.at("/query/operation").asText());
+        assertEquals(0, res.at("/errors").size());
+        translateAll(queries, "annis", false);
+    }
+
+
+    @Test
+    public void testCosmasSequence () throws JsonProcessingException,
+            IOException {
+        String[] queries = new String[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            queries[i] = cosmasSequence(lengths[i]);
+        }
+        res = mapper.readTree(translate(queries[0], "cosmas2", false));
+        assertEquals("operation:sequence", res.at("/query/operation").asText());
+        assertEquals(lengths[0], res.at("/query/operands").size());
+        assertEquals("w49", res.at("/query/operands/49/wrap/key").asText());
+        translateAll(queries, "cosmas2", false);
+    }
+
+
+    @Test
+    public void testCollectionSequence () throws JsonProcessingException,
+            IOException {
+        String[] queries = new String[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            queries[i] = collectionSequence(lengths[i]);
+        }
+        res = mapper.readTree(translate(queries[0], null, true));
+        assertEquals("koral:docGroup", res.at("/collection/@type").asText());
+        assertEquals("w0", res.at("/collection/operands/0/value").asText());
+        translateAll(queries, null, true);
+    }
+}
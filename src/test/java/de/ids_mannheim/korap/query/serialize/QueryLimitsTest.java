@@ -0,0 +1,171 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the rejection of queries exceeding {@link QueryLimits}.
+ *
+ * @version 1.0
+ */
+public class QueryLimitsTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    private JsonNode translate (String query, String ql, QueryLimits limits)
+            throws JsonProcessingException, IOException {
+        QuerySerializer qs = new QuerySerializer().setQueryLimits(limits);
+        qs.setQuery(query, ql);
+        return mapper.readTree(qs.toJSON());
+    }
+
+
+    private void assertRejected (String message) {
+        assertEquals(StatusCodes.QUERY_TOO_COMPLEX,
+                res.at("/errors/0/0").asInt());
+        assertEquals(message, res.at("/errors/0/1").asText());
+        assertEquals(1, res.at("/errors").size());
+        assertTrue(res.at("/query").isMissingNode());
+    }
+
+
+    private String nested (String open, String query, String close, int depth) {
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            nested.append(open);
+        nested.append(query);
+        for (int i = 0; i < depth; i++)
+            nested.append(close);
+        return nested.toString();
+    }
+
+
+    @Test
+    public void testWithinLimits () throws JsonProcessingException,
+            IOException {
+        QueryLimits limits = new QueryLimits().setMaxQueryLength(100)
+                .setMaxTokens(20).setMaxDepth(50).setMaxNodes(100)
+                .setMaxClasses(2).setMaxDistance(5);
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("der []{2,5} {1:Mann}", "poliqarpplus");
+        assertEquals(qs.toJSON(), mapper.writeValueAsString(translate(
+                "der []{2,5} {1:Mann}", "poliqarpplus", limits)));
+    }
+
+
+    @Test
+    public void testQueryLength () throws JsonProcessingException,
+            IOException {
+        QueryLimits limits = new QueryLimits().setMaxQueryLength(10);
+        res = translate("[base=Mann][base=Frau]", "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum length of 10 characters.");
+        res = translate("Mann /w5 Frau Kind", "cosmas2", limits);
+        assertRejected("The query exceeds the maximum length of 10 characters.");
+        res = translate("\"Mann\" & \"Frau\"", "annis", limits);
+        assertRejected("The query exceeds the maximum length of 10 characters.");
+        res = translate("Mann and Frau", "cql", limits);
+        assertEquals(StatusCodes.QUERY_TOO_COMPLEX,
+                res.at("/errors/0/0").asInt());
+    }
+
+
+    @Test
+    public void testTokens () throws JsonProcessingException, IOException {
+        QueryLimits limits = new QueryLimits().setMaxTokens(10);
+        res = translate("der alte Mann", "poliqarpplus", limits);
+        assertEquals(0, res.at("/errors").size());
+        res = translate("der alte Mann mit dem Hut und dem Stock im Park",
+                "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum number of 10 tokens.");
+        res = translate("der alte Mann mit dem Hut und dem Stock im Park",
+                "cosmas2", limits);
+        assertRejected("The query exceeds the maximum number of 10 tokens.");
+    }
+
+
+    @Test
+    public void testDepth () throws JsonProcessingException, IOException {
+        QueryLimits limits = new QueryLimits().setMaxDepth(100);
+        // rejected before parsing by the nesting of brackets
+        res = translate(nested("(", "Mann", ")", 5000), "cosmas2", limits);
+        assertRejected("The query exceeds the maximum nesting depth of 100.");
+        res = translate(nested("(", "[base=Mann]", ")", 5000),
+                "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum nesting depth of 100.");
+        // rejected after parsing by the depth of the tree
+        limits.setMaxDepth(30);
+        res = translate(nested("(", "[base=Mann]", ")", 20), "poliqarpplus",
+                limits);
+        assertRejected("The query exceeds the maximum nesting depth of 30.");
+        res = translate(nested("(", "[base=Mann]", ")", 2), "poliqarpplus",
+                limits);
+        assertEquals(0, res.at("/errors").size());
+    }
+
+
+    @Test
+    public void testNodes () throws JsonProcessingException, IOException {
+        QueryLimits limits = new QueryLimits().setMaxNodes(50);
+        res = translate("\"Mann\" & \"Frau\" & #1 . #2", "annis", limits);
+        assertEquals(0, res.at("/errors").size());
+        res = translate("\"Mann\" & \"Frau\" & \"Kind\" & \"Hund\" & "
+                + "#1 . #2 & #2 . #3 & #3 . #4", "annis", limits);
+        assertRejected("The query exceeds the maximum number of 50 parse tree nodes.");
+    }
+
+
+    @Test
+    public void testClasses () throws JsonProcessingException, IOException {
+        QueryLimits limits = new QueryLimits().setMaxClasses(2);
+        res = translate("{1:der} {2:Mann}", "poliqarpplus", limits);
+        assertEquals(0, res.at("/errors").size());
+        res = translate("{1:der} {2:alte} {3:Mann}", "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum number of 2 classes.");
+    }
+
+
+    @Test
+    public void testDistance () throws JsonProcessingException, IOException {
+        QueryLimits limits = new QueryLimits().setMaxDistance(10);
+        res = translate("der []{2,10} Mann", "poliqarpplus", limits);
+        assertEquals(0, res.at("/errors").size());
+        res = translate("der []{2,1000} Mann", "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum distance of 10.");
+        res = translate("Mann /w1000 Frau", "cosmas2", limits);
+        assertRejected("The query exceeds the maximum distance of 10.");
+        res = translate("[base=Mann]{1,1000}", "poliqarpplus", limits);
+        assertRejected("The query exceeds the maximum distance of 10.");
+    }
+
+
+    @Test
+    public void testCollection () throws JsonProcessingException,
+            IOException {
+        StringBuilder collection = new StringBuilder("textClass=a0");
+        for (int i = 1; i < 100; i++) {
+            collection.append(" | textClass=a").append(i);
+        }
+        QuerySerializer qs = new QuerySerializer()
+                .setQueryLimits(new QueryLimits().setMaxTokens(100));
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        qs.setCollection(collection.toString());
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(StatusCodes.QUERY_TOO_COMPLEX,
+                res.at("/errors/0/0").asInt());
+        assertEquals(1, res.at("/errors").size());
+        assertTrue(res.at("/collection").isMissingNode());
+        assertEquals("koral:token", res.at("/query/@type").asText());
+    }
+}
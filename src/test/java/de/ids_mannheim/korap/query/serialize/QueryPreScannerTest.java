@@ -0,0 +1,191 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.QueryPreScanner;
+
+/**
+ * Tests for the rejection of malformed queries by the
+ * {@link QueryPreScanner}, which must report the same errors as the
+ * parsers.
+ *
+ * @version 1.0
+ */
+public class QueryPreScannerTest {
+
+    static final int UNDECIDED = QueryPreScanner.UNDECIDED;
+
+    ObjectMapper mapper = new ObjectMapper();
+
+
+    private String repeat (String s, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++)
+            repeated.append(s);
+        return repeated.toString();
+    }
+
+
+    private String errors (String query, String ql)
+            throws JsonProcessingException, IOException {
+        QuerySerializer qs = new QuerySerializer();
+        if (ql.equals("collection")) {
+            qs.setQuery("[]", "poliqarpplus");
+            qs.setCollection(query);
+        }
+        else {
+            qs.setQuery(query, ql);
+        }
+        JsonNode res = mapper.readTree(qs.toJSON());
+        return res.at("/errors").toString();
+    }
+
+
+    @Test
+    public void testUnbalancedBrackets () {
+        assertEquals(UNDECIDED, QueryPreScanner.findUnbalancedBracket(""));
+        assertEquals(UNDECIDED,
+                QueryPreScanner.findUnbalancedBracket("{1:[base=Mann]}"));
+        assertEquals(3, QueryPreScanner.findUnbalancedBracket("([a)]"));
+        assertEquals(1, QueryPreScanner.findUnbalancedBracket("a]"));
+        // the last opening bracket, even if it is closed
+        assertEquals(1, QueryPreScanner.findUnbalancedBracket("((a)"));
+        // deeper than the stack kept in a long
+        assertEquals(UNDECIDED, QueryPreScanner.findUnbalancedBracket(repeat(
+                "([{", 40) + repeat("}])", 40)));
+        assertEquals(199, QueryPreScanner.findUnbalancedBracket(repeat("(",
+                100) + repeat(")", 99) + "]"));
+        assertEquals(40, QueryPreScanner.findUnbalancedBracket(repeat("[",
+                40) + repeat(")", 40)));
+
+        assertNull(QueryUtils.checkUnbalancedPars("[base=Mann]"));
+        assertEquals(Integer.valueOf(3),
+                QueryUtils.checkUnbalancedPars("([a)]").getValue());
+        assertEquals(QueryUtils.UNBALANCED_PARS,
+                QueryUtils.checkUnbalancedPars("([a)]").getKey());
+    }
+
+
+    @Test
+    public void testPoliqarpPlus () throws JsonProcessingException,
+            IOException {
+        assertEquals(0, QueryPreScanner.scanPoliqarpPlus("[base=Mann"));
+        assertEquals(14, QueryPreScanner
+                .scanPoliqarpPlus("contains(<s>, [base=Mann]"));
+        assertEquals(11, QueryPreScanner.scanPoliqarpPlus("[base=Mann]]"));
+        // quoted regular expressions and closing parentheses are left
+        // to the parser
+        assertEquals(UNDECIDED, QueryPreScanner.scanPoliqarpPlus("[orth=\"(\"]"));
+        assertEquals(UNDECIDED,
+                QueryPreScanner.scanPoliqarpPlus("contains(<s>, [base=Mann)"));
+        assertEquals(UNDECIDED, QueryPreScanner.scanPoliqarpPlus("[base=Mann]"));
+
+        assertEquals("[[302,\"Parantheses/brackets unbalanced.\",14],"
+                + "[302,\"Could not parse query >>> {1:[base=der] "
+                + "[base=Mann] <<<.\"]]",
+                errors("{1:[base=der] [base=Mann]", "poliqarpplus"));
+    }
+
+
+    @Test
+    public void testAnnis () throws JsonProcessingException, IOException {
+        assertEquals(11, QueryPreScanner.scanAnnis("cat=\"NP\" & (cat=\"VP\""));
+        assertEquals(0, QueryPreScanner.scanAnnis("[cat=\"NP\""));
+        // brackets in texts are no tokens
+        assertEquals(UNDECIDED,
+                QueryPreScanner.scanAnnis("tok=\"[\" & cat=\"NP\"]"));
+        assertEquals(UNDECIDED,
+                QueryPreScanner.scanAnnis("tok=\"a\\\"[\" & cat=\"NP\""));
+        // the lexer skips the bracket following the incomplete '!='
+        assertEquals(UNDECIDED, QueryPreScanner.scanAnnis("tok!]=\"Frau\""));
+        assertEquals(UNDECIDED, QueryPreScanner.scanAnnis("tok=/[a-z/"));
+
+        assertEquals("[[302,\"Parantheses/brackets unbalanced.\",11]]",
+                errors("cat=\"NP\" & (cat=\"VP\"", "annis"));
+        assertEquals("[[302,\"Failing to parse at symbol: 't'\",0]]",
+                errors("tok=\"[\" & cat=\"NP\"]", "annis"));
+        assertTrue(errors("tok!]=\"Frau\"", "annis").isEmpty());
+    }
+
+
+    @Test
+    public void testCosmas2 () throws JsonProcessingException, IOException {
+        assertEquals(0, QueryPreScanner.scanCosmas2("(Mann oder Frau"));
+        assertEquals(9, QueryPreScanner.scanCosmas2("Mann [x] (Frau"));
+        // square brackets are part of the search words
+        assertEquals(UNDECIDED, QueryPreScanner.scanCosmas2("Mann [x"));
+        assertEquals(UNDECIDED, QueryPreScanner.scanCosmas2("#ELEM(s"));
+        assertEquals(UNDECIDED, QueryPreScanner.scanCosmas2("MORPH(V"));
+        assertEquals(UNDECIDED,
+                QueryPreScanner.scanCosmas2("(Mann oder Frau) und Kind)"));
+
+        assertEquals("[[302,\"Parantheses/brackets unbalanced.\",9]]",
+                errors("Mann [x] (Frau", "cosmas2"));
+        assertEquals("[[302,\"Parantheses/brackets unbalanced.\",5]]",
+                errors("#ELEM(s", "cosmas2"));
+    }
+
+
+    @Test
+    public void testCollection () throws JsonProcessingException,
+            IOException {
+        assertEquals(20, QueryPreScanner
+                .scanCollection("textClass=politik & (corpusSigle=WPD"));
+        assertEquals(36, QueryPreScanner
+                .scanCollection("(textClass=politik | textClass=sport]"));
+        // an unterminated quote, and brackets between quotes
+        assertEquals(6, QueryPreScanner.scanCollection("title=\"Der Mann"));
+        assertEquals(7, QueryPreScanner.scanCollection("title=\"(Mann)\""));
+        assertEquals(UNDECIDED,
+                QueryPreScanner.scanCollection("title=\"Der Mann\""));
+        assertEquals(UNDECIDED, QueryPreScanner.scanCollection("title=/(a/"));
+
+        assertEquals("[[302,\"Could not parse query >>> title=\\\"Der Mann "
+                + "<<<.\"]]", errors("title=\"Der Mann", "collection"));
+        assertEquals("[[302,\"Could not parse query >>> (textClass=politik | "
+                + "textClass=sport] <<<.\"]]",
+                errors("(textClass=politik | textClass=sport]", "collection"));
+    }
+
+
+    @Test
+    public void testRejectedBeforeLexing () {
+        final List<String> stages = new ArrayList<String>();
+        TranslationListener listener = new TranslationListener() {
+            @Override
+            public void stageCompleted (String ql, Stage stage, long nanos) {
+                stages.add(ql + ":" + stage);
+            }
+
+
+            @Override
+            public void queryProcessed (String ql, int nodeCount,
+                    List<List<Object>> errors, long nanos) {}
+        };
+        String[][] queries = new String[][] {
+                { "[base=Mann] ([base=Frau]", "poliqarpplus" },
+                { "cat=\"NP\" & (cat=\"VP\"", "annis" },
+                { "Mann [x] (Frau", "cosmas2" } };
+        for (String[] query : queries) {
+            QuerySerializer qs = new QuerySerializer();
+            qs.setTranslationListener(listener);
+            qs.setQueryLimits(new QueryLimits());
+            qs.setQuery(query[0], query[1]);
+            assertTrue(qs.toJSON().contains(QueryUtils.UNBALANCED_PARS));
+        }
+        assertFalse(stages.toString(), stages.toString().contains("LEXING"));
+    }
+}
@@ -0,0 +1,104 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the reuse of query processors after a
+ * {@link AbstractQueryProcessor#reset()}.
+ *
+ * @version 1.0
+ */
+public class QueryProcessorResetTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+
+
+    private String serialize (Map<String, Object> requestMap)
+            throws JsonProcessingException {
+        return mapper.writeValueAsString(requestMap);
+    }
+
+
+    /**
+     * Processes the queries one after another with the same processor
+     * and compares the results with those of fresh processors.
+     */
+    private void checkReuse (AbstractQueryProcessor reused,
+            Class<? extends AbstractQueryProcessor> processorClass,
+            String ... queries) throws Exception {
+        Map<String, Object> first = null;
+        String firstJson = null;
+        for (String query : queries) {
+            AbstractQueryProcessor fresh = processorClass.newInstance();
+            fresh.process(query);
+            reused.reset();
+            reused.process(query);
+            assertEquals(query, serialize(fresh.getRequestMap()),
+                    serialize(reused.getRequestMap()));
+            if (first == null) {
+                first = reused.getRequestMap();
+                firstJson = serialize(first);
+            }
+        }
+        // the request map of the first query is not touched by the
+        // following ones
+        assertEquals(firstJson, serialize(first));
+    }
+
+
+    @Test
+    public void testPoliqarpPlus () throws Exception {
+        checkReuse(new PoliqarpPlusQueryProcessor(),
+                PoliqarpPlusQueryProcessor.class, "{1:[base=Mann]}",
+                "[base=Mann", "contains(<s>, {1:[base=Frau]})",
+                "[orth=der][orth=Mann]");
+    }
+
+
+    @Test
+    public void testAnnis () throws Exception {
+        checkReuse(new AnnisQueryProcessor(), AnnisQueryProcessor.class,
+                "\"Mann\" & \"Frau\" & #1 . #2", "cat=\"NP\" & #1 >",
+                "cat=\"NP\" & \"Mann\" & #1 > #2");
+    }
+
+
+    @Test
+    public void testCosmas2 () throws Exception {
+        checkReuse(new Cosmas2QueryProcessor(), Cosmas2QueryProcessor.class,
+                "der Mann", "Mann /+w1:3 Frau", "#ELEM(", "#BEG(der /w3:5 Mann)");
+    }
+
+
+    @Test
+    public void testCollection () throws Exception {
+        checkReuse(new CollectionQueryProcessor(),
+                CollectionQueryProcessor.class, "textClass=Sport",
+                "textClass=Sport & pubDate since 2014", "textClass=",
+                "(textClass=Sport | textClass=Kultur) & corpusID=WPD");
+    }
+
+
+    @Test
+    public void testPool () throws JsonProcessingException, IOException {
+        AbstractQueryProcessor processor = QueryProcessorPool
+                .acquire(PoliqarpPlusQueryProcessor.class);
+        // a nested acquisition gets a processor of its own
+        AbstractQueryProcessor nested = QueryProcessorPool
+                .acquire(PoliqarpPlusQueryProcessor.class);
+        assertEquals(false, processor == nested);
+        QueryProcessorPool.release(nested);
+        QueryProcessorPool.release(processor);
+        assertEquals(true, processor == QueryProcessorPool
+                .acquire(PoliqarpPlusQueryProcessor.class));
+        QueryProcessorPool.release(processor);
+    }
+}
@@ -0,0 +1,94 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the {@link QuerySerializer} API.
+ *
+ * @version 1.0
+ */
+public class QuerySerializerTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    String[][] queries = new String[][] {
+            { "[base=Mann] meta textClass=Sport", "poliqarpplus" },
+            { "der []{2,500} Mann", "poliqarpplus" },
+            { "[orth=Öl][base=Straße]", "poliqarpplus" },
+            { "Mann /+w1:3 Frau", "cosmas2" },
+            { "\"der\" & \"Mann\" & #1 . #2", "annis" },
+            { "prox/unit=word/distance<=5", "cql" },
+            { "[base=Mann", "poliqarpplus" },
+            { "[base=Mann]", "unknown" },
+            { "", "poliqarpplus" } };
+
+
+    @Test
+    public void testStreamingSerialization () throws IOException {
+        for (String[] query : queries) {
+            for (String collection : new String[] { null, "pubDate in 2010",
+                    "pubDate in 2010 & " }) {
+                for (boolean meta : new boolean[] { false, true }) {
+                    QuerySerializer qs = new QuerySerializer();
+                    qs.setQuery(query[0], query[1]);
+                    if (collection != null)
+                        qs.setCollection(collection);
+                    if (meta)
+                        qs.setMeta(new MetaQueryBuilder().setSpanContext(
+                                "3-token,5-token").addEntry("count", 10));
+                    String expected = mapper.writeValueAsString(qs.build());
+
+                    StringWriter writer = new StringWriter();
+                    qs.writeJSON(writer);
+                    assertEquals(expected, writer.toString());
+                    assertEquals(expected, qs.toJSON());
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    qs.writeJSON(out);
+                    assertEquals(expected, out.toString("UTF-8"));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testEmptySerializer () throws JsonProcessingException,
+            IOException {
+        QuerySerializer qs = new QuerySerializer();
+        assertEquals("{}", qs.toJSON());
+        qs.setCollection("textClass=Sport");
+        assertEquals("{}", qs.toJSON());
+    }
+
+
+    @Test
+    public void testSerializationDoesNotChangeRequest ()
+            throws JsonProcessingException, IOException {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann] meta textClass=Sport", "poliqarpplus");
+        qs.setCollection("pubDate in 2010");
+        qs.setMeta(new MetaQueryBuilder().addEntry("count", 10));
+        String first = qs.toJSON();
+        assertEquals(first, qs.toJSON());
+        res = mapper.readTree(first);
+        assertEquals("operation:and", res.at("/collection/operation")
+                .asText());
+        assertEquals("textClass", res.at("/collection/operands/0/key")
+                .asText());
+        assertEquals("pubDate", res.at("/collection/operands/1/key")
+                .asText());
+        assertEquals(10, res.at("/meta/count").asInt());
+    }
+}
@@ -0,0 +1,125 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the validation of queries by
+ * {@link QuerySerializer#validate(String, String)}.
+ *
+ * @version 1.0
+ */
+public class QueryValidationTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    QuerySerializer qs = new QuerySerializer();
+    ValidationResult result;
+
+
+    private int errorCode () {
+        return (Integer) result.getErrors().get(0).get(0);
+    }
+
+
+    @Test
+    public void testValidQueries () {
+        String[][] queries = { { "der []{2,5} {1:Mann}", "poliqarpplus" },
+                { "Mann /+w1:3 Frau", "cosmas2" },
+                { "\"Mann\" & \"Frau\" & #1 . #2", "annis" },
+                { "Mann and Frau", "cql" },
+                { "textClass=politik & pubDate since 2014", "collection" } };
+        for (String[] query : queries) {
+            result = qs.validate(query[0], query[1]);
+            assertTrue(query[0], result.isValid());
+            assertTrue(result.getWarnings().isEmpty());
+        }
+    }
+
+
+    @Test
+    public void testSameErrorsAsTranslation ()
+            throws JsonProcessingException, IOException {
+        String[][] queries = { { "[base=Mann", "poliqarpplus" },
+                { "[base=Mann)", "poliqarpplus" },
+                { "Mann /+w1:3", "cosmas2" },
+                { "cat=\"NP\" & (cat=\"VP\"", "annis" },
+                { "[base=Mann]", "unknown" } };
+        for (String[] query : queries) {
+            qs.setQuery(query[0], query[1]);
+            JsonNode res = mapper.readTree(qs.toJSON());
+            result = qs.validate(query[0], query[1]);
+            assertFalse(query[0], result.isValid());
+            assertEquals(query[0], res.at("/errors").toString(),
+                    mapper.writeValueAsString(result.getErrors()));
+        }
+    }
+
+
+    @Test
+    public void testSemanticErrors () {
+        result = qs.validate("cat=\"A\" & cat=\"B\" & cat=\"C\" & cat=\"D\" "
+                + "& #1 . #2 & #3 . #4", "annis");
+        assertEquals(StatusCodes.UNBOUND_ANNIS_RELATION, errorCode());
+
+        result = qs.validate("x meta textClass=Sport", "poliqarpplus");
+        assertTrue(result.isValid());
+        assertEquals(1, result.getWarnings().size());
+
+        qs.setQueryLimits(new QueryLimits().setMaxDistance(10));
+        result = qs.validate("der []{20} Mann", "poliqarpplus");
+        assertEquals(StatusCodes.QUERY_TOO_COMPLEX, errorCode());
+
+        result = qs.validate("Mann and", "cql");
+        assertEquals(StatusCodes.MALFORMED_QUERY, errorCode());
+
+        result = qs.validate("textClass > politik", "collection");
+        assertEquals(StatusCodes.INCOMPATIBLE_OPERATOR_AND_OPERAND,
+                errorCode());
+
+        result = qs.validate("pubDate = 2014-04-01", "collection");
+        assertTrue(result.isValid());
+        assertEquals(1, result.getWarnings().size());
+    }
+
+
+    @Test
+    public void testSerializerUnchanged () throws JsonProcessingException,
+            IOException {
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        String translation = qs.toJSON();
+        result = qs.validate("[base=Frau", "poliqarpplus");
+        assertEquals(StatusCodes.MALFORMED_QUERY, errorCode());
+        assertEquals(translation, qs.toJSON());
+
+        TranslationCache cache = new TranslationCache(10);
+        qs.setTranslationCache(cache);
+        assertTrue(qs.validate("[base=Mann]", "poliqarpplus").isValid());
+        assertEquals(0, cache.size());
+    }
+
+
+    @Test
+    public void testMissingQuery () {
+        result = qs.validate("", "poliqarpplus");
+        assertEquals(StatusCodes.NO_QUERY, errorCode());
+        result = qs.validate("[base=Mann]", null);
+        assertEquals(StatusCodes.NO_QUERY, errorCode());
+
+        TranslationDeadline deadline = new TranslationDeadline();
+        deadline.cancel();
+        result = qs.setDeadline(deadline).validate("[base=Mann]",
+                "poliqarpplus");
+        assertEquals(StatusCodes.TRANSLATION_CANCELLED, errorCode());
+    }
+}
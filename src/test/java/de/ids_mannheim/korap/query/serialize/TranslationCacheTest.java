@@ -0,0 +1,318 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the {@link TranslationCache}.
+ *
+ * @version 1.0
+ */
+public class TranslationCacheTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    private String translate (TranslationCache cache, String query,
+            String ql, String collection) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setTranslationCache(cache);
+        qs.setQuery(query, ql);
+        if (collection != null)
+            qs.setCollection(collection);
+        return qs.toJSON();
+    }
+
+
+    @Test
+    public void testCachedTranslationIsIdentical () {
+        TranslationCache cache = new TranslationCache(10);
+        String[][] queries = new String[][] {
+                { "[base=Mann] meta textClass=Sport", "poliqarpplus" },
+                { "der []{2,5} Mann", "poliqarpplus" },
+                { "Mann /+w1:3 Frau", "cosmas2" },
+                { "\"der\" & \"Mann\" & #1 . #2", "annis" },
+                { "[base=Mann", "poliqarpplus" },
+                { "[base=Mann]", "unknown" } };
+        for (String[] query : queries) {
+            for (String collection : new String[] { null, "pubDate in 2010" }) {
+                String expected = translate(null, query[0], query[1],
+                        collection);
+                assertEquals(expected,
+                        translate(cache, query[0], query[1], collection));
+                assertEquals(expected,
+                        translate(cache, query[0], query[1], collection));
+            }
+        }
+        assertEquals(queries.length * 2, cache.getMissCount());
+        assertEquals(queries.length * 2, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testWhitespaceNormalization () throws JsonProcessingException,
+            IOException {
+        assertEquals("[base=Mann] [orth=\"a  b\"]",
+                TranslationCache.normalize(" [base=Mann]\t\n [orth=\"a  b\"] ",
+                        "poliqarpplus"));
+        assertEquals("[base=Mann][orth=\"a  b\"]",
+                TranslationCache.normalize("[base=Mann][orth=\"a  b\"]",
+                        "poliqarpplus"));
+        // languages without an ANTLR 4 lexer are only trimmed
+        assertEquals("Mann  /+w1:3 Frau",
+                TranslationCache.normalize(" Mann  /+w1:3 Frau\n", "cosmas2"));
+        TranslationCache cache = new TranslationCache(10);
+        String expected = translate(null, "[base=Mann] [base=Frau]",
+                "poliqarpplus", null);
+        translate(cache, "[base=Mann]    [base=Frau]", "poliqarpplus", null);
+        assertEquals(expected,
+                translate(cache, " [base=Mann] [base=Frau]\n", "poliqarpplus",
+                        null));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+
+        // the collection is part of the key
+        res = mapper.readTree(translate(cache, "[base=Mann] [base=Frau]",
+                "poliqarpplus", "textClass=Sport"));
+        assertEquals("Sport", res.at("/collection/value").asText());
+        assertEquals(2, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testWhitespaceInStrings () throws JsonProcessingException,
+            IOException {
+        // the slash of the foundry does not start a regular expression
+        assertEquals("[tt/p=\"x/y\"] [orth=\"a  b\"]",
+                TranslationCache.normalize("[tt/p=\"x/y\"]  [orth=\"a  b\"]",
+                        "poliqarpplus"));
+        TranslationCache cache = new TranslationCache(10);
+        String[] queries = new String[] { "[tt/p=\"x/y\"] [orth=\"a  b\"]",
+                "[tt/p=\"x/y\"] [orth=\"a b\"]" };
+        for (String query : queries) {
+            assertEquals(translate(null, query, "poliqarpplus", null),
+                    translate(cache, query, "poliqarpplus", null));
+        }
+        res = mapper.readTree(translate(cache, queries[1], "poliqarpplus",
+                null));
+        assertEquals("a b", res.at("/query/operands/1/wrap/key").asText());
+        assertEquals(2, cache.getMissCount());
+    }
+
+
+    @Test
+    public void testErrorsReferToOriginalQuery () {
+        TranslationCache cache = new TranslationCache(10);
+        String[] queries = new String[] { "[base=Mann]    [base=Frau   &  ]",
+                "[base=Mann] [base=Frau & ]", "[base=Mann]    [base=Frau   &  ]" };
+        for (String query : queries) {
+            assertEquals(translate(null, query, "poliqarpplus", null),
+                    translate(cache, query, "poliqarpplus", null));
+        }
+        // the second spelling is translated anew
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    public void testEviction () {
+        TranslationCache cache = new TranslationCache(2);
+        translate(cache, "[base=a]", "poliqarpplus", null);
+        translate(cache, "[base=b]", "poliqarpplus", null);
+        translate(cache, "[base=c]", "poliqarpplus", null);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+    }
+
+
+    @Test
+    public void testRepeatedSerialization () throws JsonProcessingException,
+            IOException {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setTranslationCache(new TranslationCache(10));
+        qs.setQuery("[base=Haus]", "poliqarp");
+        qs.setCollection("textClass=politik & corpusID=WPD");
+        qs.setMeta(new MetaQueryBuilder().addEntry("count", 10));
+        String first = qs.toJSON();
+        assertEquals(first, qs.toJSON());
+        res = mapper.readTree(first);
+        assertEquals(10, res.at("/meta/count").asInt());
+        assertEquals("koral:docGroup", res.at("/collection/@type").asText());
+    }
+
+
+    @Test
+    public void testSingleTranslationForConcurrentRequests ()
+            throws Exception {
+        final TranslationCache cache = new TranslationCache(10);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call () throws Exception {
+                        start.await();
+                        return translate(cache,
+                                "contains(<s>, [base=Mann][orth=?])",
+                                "poliqarpplus", "textClass=Sport");
+                    }
+                }));
+            }
+            start.countDown();
+            String expected = translate(null,
+                    "contains(<s>, [base=Mann][orth=?])", "poliqarpplus",
+                    "textClass=Sport");
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(7, cache.getHitCount());
+    }
+
+
+    /**
+     * Holds up a translation after its first stage until it is
+     * released.
+     */
+    private static class BlockingListener implements TranslationListener {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+
+        @Override
+        public void stageCompleted (String ql, Stage stage, long nanos) {
+            started.countDown();
+            try {
+                released.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+
+        @Override
+        public void queryProcessed (String ql, int nodeCount,
+                List<List<Object>> errors, long nanos) {}
+    }
+
+
+    private Thread translateInBackground (final TranslationCache cache,
+            final String query, final TranslationDeadline deadline,
+            final TranslationListener listener,
+            final AtomicReference<String> result) {
+        Thread thread = new Thread() {
+            @Override
+            public void run () {
+                QuerySerializer qs = new QuerySerializer();
+                qs.setTranslationCache(cache);
+                qs.setDeadline(deadline);
+                qs.setTranslationListener(listener);
+                qs.setQuery(query, "poliqarpplus");
+                result.set(qs.toJSON());
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+
+    private void awaitWaiting (Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.TIMED_WAITING
+                && thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+
+    @Test
+    public void testCancellationIsNotShared () throws Exception {
+        TranslationCache cache = new TranslationCache(10);
+        String query = "[base=Mann] [base=Frau]";
+        BlockingListener listener = new BlockingListener();
+        TranslationDeadline first = new TranslationDeadline();
+        AtomicReference<String> firstResult = new AtomicReference<String>();
+        AtomicReference<String> secondResult = new AtomicReference<String>();
+        Thread firstThread = translateInBackground(cache, query, first,
+                listener, firstResult);
+        listener.started.await();
+        Thread secondThread = translateInBackground(cache, query,
+                new TranslationDeadline(1, TimeUnit.MINUTES), null,
+                secondResult);
+        awaitWaiting(secondThread);
+        // the first request is aborted while the second one waits
+        first.cancel();
+        listener.released.countDown();
+        firstThread.join();
+        secondThread.join();
+
+        res = mapper.readTree(firstResult.get());
+        assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                res.at("/errors/0/0").asInt());
+        assertEquals(translate(null, query, "poliqarpplus", null),
+                secondResult.get());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    public void testWaitingUntilOwnDeadline () throws Exception {
+        TranslationCache cache = new TranslationCache(10);
+        String query = "[base=Mann] [base=Frau]";
+        BlockingListener listener = new BlockingListener();
+        AtomicReference<String> firstResult = new AtomicReference<String>();
+        Thread firstThread = translateInBackground(cache, query, null,
+                listener, firstResult);
+        listener.started.await();
+        try {
+            // the second request does not wait for the first one
+            // beyond its own deadline
+            QuerySerializer qs = new QuerySerializer();
+            qs.setTranslationCache(cache);
+            qs.setDeadline(new TranslationDeadline(50,
+                    TimeUnit.MILLISECONDS));
+            qs.setQuery(query, "poliqarpplus");
+            res = mapper.readTree(qs.toJSON());
+            assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                    res.at("/errors/0/0").asInt());
+        }
+        finally {
+            listener.released.countDown();
+            firstThread.join();
+        }
+        assertEquals(translate(null, query, "poliqarpplus", null),
+                firstResult.get());
+        assertEquals(translate(null, query, "poliqarpplus", null),
+                translate(cache, query, "poliqarpplus", null));
+        assertEquals(1, cache.getMissCount());
+    }
+}
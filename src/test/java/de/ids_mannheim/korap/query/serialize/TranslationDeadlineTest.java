@@ -0,0 +1,157 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the abortion of translations by a
+ * {@link TranslationDeadline}.
+ *
+ * @version 1.0
+ */
+public class TranslationDeadlineTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+
+    private JsonNode translate (String query, String ql,
+            TranslationDeadline deadline) throws JsonProcessingException,
+            IOException {
+        QuerySerializer qs = new QuerySerializer().setDeadline(deadline);
+        qs.setQuery(query, ql);
+        return mapper.readTree(qs.toJSON());
+    }
+
+
+    private void assertCancelled (String message) {
+        assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                res.at("/errors/0/0").asInt());
+        assertEquals(message, res.at("/errors/0/1").asText());
+        assertEquals(1, res.at("/errors").size());
+        assertTrue(res.at("/query").isMissingNode());
+    }
+
+
+    @Test
+    public void testCancelled () throws JsonProcessingException,
+            IOException {
+        TranslationDeadline deadline = new TranslationDeadline();
+        assertFalse(deadline.isExpired());
+        deadline.cancel();
+        assertTrue(deadline.isCancelled());
+        assertTrue(deadline.isExpired());
+        String message = "The translation of the query has been cancelled.";
+        res = translate("[base=Mann]", "poliqarpplus", deadline);
+        assertCancelled(message);
+        res = translate("Mann /w5 Frau", "cosmas2", deadline);
+        assertCancelled(message);
+        res = translate("\"Mann\" & \"Frau\" & #1 . #2", "annis", deadline);
+        assertCancelled(message);
+        res = translate("Mann and Frau", "cql", deadline);
+        assertCancelled(message);
+    }
+
+
+    @Test
+    public void testExpired () throws JsonProcessingException, IOException {
+        TranslationDeadline deadline = new TranslationDeadline(0,
+                TimeUnit.MILLISECONDS);
+        assertTrue(deadline.isExpired());
+        assertFalse(deadline.isCancelled());
+        res = translate("der []{2,5} Mann", "poliqarpplus", deadline);
+        assertCancelled("The translation of the query has exceeded its deadline.");
+    }
+
+
+    @Test
+    public void testWithinDeadline () throws JsonProcessingException,
+            IOException {
+        TranslationDeadline deadline = new TranslationDeadline(1,
+                TimeUnit.HOURS);
+        String[][] queries = { { "der []{2,5} {1:Mann}", "poliqarpplus" },
+                { "Mann /+w1:3 Frau", "cosmas2" },
+                { "\"Mann\" & \"Frau\" & #1 . #2", "annis" },
+                { "Mann and Frau", "cql" } };
+        for (String[] query : queries) {
+            QuerySerializer qs = new QuerySerializer();
+            qs.setQuery(query[0], query[1]);
+            qs.setCollection("textClass=politik & pubDate since 2014");
+            QuerySerializer timed = new QuerySerializer()
+                    .setDeadline(deadline);
+            timed.setQuery(query[0], query[1]);
+            timed.setCollection("textClass=politik & pubDate since 2014");
+            assertEquals(qs.toJSON(), timed.toJSON());
+        }
+    }
+
+
+    @Test
+    public void testCollection () throws JsonProcessingException,
+            IOException {
+        TranslationDeadline deadline = new TranslationDeadline();
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        deadline.cancel();
+        qs.setDeadline(deadline);
+        qs.setCollection("textClass=politik");
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                res.at("/errors/0/0").asInt());
+        assertTrue(res.at("/collection").isMissingNode());
+        assertEquals("koral:token", res.at("/query/@type").asText());
+    }
+
+
+    @Test
+    public void testNotCached () throws JsonProcessingException,
+            IOException {
+        TranslationCache cache = new TranslationCache(10);
+        TranslationDeadline deadline = new TranslationDeadline();
+        deadline.cancel();
+        QuerySerializer qs = new QuerySerializer().setTranslationCache(cache)
+                .setDeadline(deadline);
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        res = mapper.readTree(qs.toJSON());
+        assertCancelled("The translation of the query has been cancelled.");
+        assertEquals(0, cache.size());
+
+        qs = new QuerySerializer().setTranslationCache(cache);
+        qs.setQuery("[base=Mann]", "poliqarpplus");
+        res = mapper.readTree(qs.toJSON());
+        assertEquals(0, res.at("/errors").size());
+        assertEquals("koral:token", res.at("/query/@type").asText());
+        assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    public void testReuseAfterCancellation ()
+            throws JsonProcessingException, IOException {
+        TranslationDeadline deadline = new TranslationDeadline();
+        deadline.cancel();
+        String[][] queries = { { "[base=Mann]", "poliqarpplus" },
+                { "Mann /w5 Frau", "cosmas2" }, { "\"Mann\"", "annis" } };
+        for (String[] query : queries) {
+            res = translate(query[0], query[1], deadline);
+            assertEquals(StatusCodes.TRANSLATION_CANCELLED,
+                    res.at("/errors/0/0").asInt());
+            // the pooled processor translates the next query as usual
+            res = translate(query[0], query[1], null);
+            assertEquals(0, res.at("/errors").size());
+            assertFalse(res.at("/query").isMissingNode());
+        }
+    }
+}
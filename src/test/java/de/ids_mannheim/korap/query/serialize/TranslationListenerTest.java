@@ -0,0 +1,123 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.ids_mannheim.korap.query.serialize.TranslationListener.Stage;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+
+/**
+ * Tests for the timings reported to a {@link TranslationListener}.
+ *
+ * @version 1.0
+ */
+public class TranslationListenerTest {
+
+    /**
+     * Records the reported stages and processed queries.
+     */
+    class RecordingListener implements TranslationListener {
+
+        List<String> stages = new ArrayList<String>();
+        List<String> processed = new ArrayList<String>();
+        List<List<Object>> errors;
+        int nodeCount;
+
+
+        @Override
+        public void stageCompleted (String ql, Stage stage, long nanos) {
+            assertTrue(nanos >= 0);
+            stages.add(ql + ":" + stage);
+        }
+
+
+        @Override
+        public void queryProcessed (String ql, int nodeCount,
+                List<List<Object>> errors, long nanos) {
+            assertTrue(nanos >= 0);
+            processed.add(ql);
+            this.nodeCount = nodeCount;
+            this.errors = errors;
+        }
+    }
+
+
+    private RecordingListener translate (String query, String ql,
+            String collection) {
+        RecordingListener listener = new RecordingListener();
+        QuerySerializer qs = new QuerySerializer();
+        qs.setTranslationListener(listener);
+        qs.setQuery(query, ql);
+        if (collection != null)
+            qs.setCollection(collection);
+        qs.toJSON();
+        return listener;
+    }
+
+
+    @Test
+    public void testStages () {
+        RecordingListener listener = translate("[base=Mann][base=Frau]",
+                "poliqarpplus", null);
+        assertEquals("[poliqarpplus:LEXING, poliqarpplus:PARSING, "
+                + "poliqarpplus:TRANSLATION, poliqarpplus:SERIALIZATION]",
+                listener.stages.toString());
+        assertEquals("[poliqarpplus]", listener.processed.toString());
+        assertTrue(listener.nodeCount > 2);
+        assertTrue(listener.errors.isEmpty());
+
+        listener = translate("der Mann", "cosmas2", null);
+        assertEquals("[cosmas2:LEXING, cosmas2:PARSING, "
+                + "cosmas2:TRANSLATION, cosmas2:SERIALIZATION]",
+                listener.stages.toString());
+        assertTrue(listener.nodeCount > 2);
+
+        listener = translate("\"Mann\" & \"Frau\" & #1 . #2", "annis", null);
+        assertEquals("[annis:LEXING, annis:PARSING, annis:TRANSLATION, "
+                + "annis:SERIALIZATION]", listener.stages.toString());
+
+        listener = translate("Kuh and Germ", "cql", null);
+        assertEquals("[cql:PARSING, cql:TRANSLATION, cql:SERIALIZATION]",
+                listener.stages.toString());
+        assertEquals(3, listener.nodeCount);
+    }
+
+
+    @Test
+    public void testCollection () {
+        RecordingListener listener = translate("[base=Mann]", "poliqarpplus",
+                "textClass=Sport");
+        assertEquals("[poliqarpplus, collection]",
+                listener.processed.toString());
+        assertTrue(listener.stages.contains("collection:TRANSLATION"));
+        assertTrue(listener.stages.contains("poliqarpplus:SERIALIZATION"));
+    }
+
+
+    @Test
+    public void testErrors () {
+        RecordingListener listener = translate("[base=Mann", "poliqarpplus",
+                null);
+        assertEquals(0, listener.nodeCount);
+        assertEquals(StatusCodes.MALFORMED_QUERY,
+                listener.errors.get(0).get(0));
+        assertTrue(!listener.stages.contains("poliqarpplus:TRANSLATION"));
+    }
+
+
+    @Test
+    public void testMetaCollection () {
+        // the collection query of the meta keyword is reported, too
+        RecordingListener listener = translate(
+                "[base=Mann] meta textClass=Sport", "poliqarpplus", null);
+        assertEquals("[collection, poliqarpplus]",
+                listener.processed.toString());
+        assertTrue(listener.stages.contains("collection:PARSING"));
+        assertTrue(listener.errors.isEmpty());
+    }
+}
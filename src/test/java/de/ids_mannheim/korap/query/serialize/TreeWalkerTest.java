@@ -0,0 +1,150 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.ids_mannheim.korap.query.serialize.util.TreeWalker;
+
+/**
+ * Tests for the non-recursive traversal of trees by a
+ * {@link TreeWalker}.
+ *
+ * @version 1.0
+ */
+public class TreeWalkerTest {
+
+    /**
+     * Walks a complete binary tree of integers, in which node n has
+     * the children 2n and 2n+1, and records the visits.
+     */
+    class BinaryTreeWalker extends TreeWalker<Integer> {
+
+        int size;
+        List<String> visits = new ArrayList<String>();
+        Set<Integer> skipped = new HashSet<Integer>();
+
+
+        BinaryTreeWalker (int size) {
+            this.size = size;
+        }
+
+
+        @Override
+        protected boolean enter (Integer node) {
+            if (skipped.contains(node))
+                return false;
+            visits.add("+" + node);
+            return true;
+        }
+
+
+        @Override
+        protected void exit (Integer node) {
+            visits.add("-" + node);
+        }
+
+
+        @Override
+        protected int getChildCount (Integer node) {
+            return 2 * node + 1 <= size ? 2 : 0;
+        }
+
+
+        @Override
+        protected Integer getChild (Integer node, int index) {
+            return 2 * node + index;
+        }
+    }
+
+
+    @Test
+    public void testOrder () {
+        BinaryTreeWalker walker = new BinaryTreeWalker(7);
+        walker.walk(1);
+        assertEquals("[+1, +2, +4, -4, +5, -5, -2, +3, +6, -6, +7, -7, -3, -1]",
+                walker.visits.toString());
+    }
+
+
+    @Test
+    public void testSkippedNodes () {
+        BinaryTreeWalker walker = new BinaryTreeWalker(7) {
+            @Override
+            protected boolean enter (Integer node) {
+                // the first child marks its sibling as visited
+                if (node == 2)
+                    skipped.add(3);
+                return super.enter(node);
+            }
+        };
+        walker.walk(1);
+        assertEquals("[+1, +2, +4, -4, +5, -5, -2, -1]",
+                walker.visits.toString());
+
+        walker = new BinaryTreeWalker(7);
+        walker.skipped.add(1);
+        walker.walk(1);
+        assertEquals(0, walker.visits.size());
+    }
+
+
+    @Test
+    public void testStop () {
+        BinaryTreeWalker walker = new BinaryTreeWalker(7) {
+            @Override
+            protected boolean enter (Integer node) {
+                if (node == 5)
+                    stop();
+                return super.enter(node);
+            }
+        };
+        walker.walk(1);
+        assertEquals("[+1, +2, +4, -4, +5]", walker.visits.toString());
+        // the next walk is not affected
+        walker.walk(6);
+        assertEquals("[+1, +2, +4, -4, +5, +6, -6]", walker.visits.toString());
+    }
+
+
+    @Test
+    public void testDeepTree () {
+        final int depth = 1000000;
+        final int[] counts = new int[2];
+        // a chain of nodes, deeper than any thread stack allows for
+        // a recursive traversal
+        new TreeWalker<Integer>() {
+            @Override
+            protected boolean enter (Integer node) {
+                counts[0]++;
+                return true;
+            }
+
+
+            @Override
+            protected void exit (Integer node) {
+                assertEquals(depth - counts[1], node.intValue());
+                counts[1]++;
+            }
+
+
+            @Override
+            protected int getChildCount (Integer node) {
+                return node < depth ? 1 : 0;
+            }
+
+
+            @Override
+            protected Integer getChild (Integer node, int index) {
+                return node + 1;
+            }
+        }.walk(1);
+        assertEquals(depth, counts[0]);
+        assertEquals(depth, counts[1]);
+    }
+}
@@ -0,0 +1,132 @@
+package de.ids_mannheim.korap.query.serialize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.ids_mannheim.korap.query.serialize.util.DeferredErrorMsg;
+import de.ids_mannheim.korap.query.serialize.util.StacklessBailErrorStrategy.ParseFailure;
+import de.ids_mannheim.korap.query.serialize.util.StatusCodes;
+import de.ids_mannheim.korap.query.serialize.util.TwoStageParsing;
+
+/**
+ * Tests for the two-stage (SLL, then LL) parsing of queries.
+ *
+ * @version 1.0
+ */
+public class TwoStageParsingTest {
+
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode res;
+
+    TwoStageParsing poliqarp = PoliqarpPlusQueryProcessor
+            .getTwoStageParsing();
+
+
+    private String translate (String query) {
+        QuerySerializer qs = new QuerySerializer();
+        qs.setQuery(query, "poliqarpplus");
+        return qs.toJSON();
+    }
+
+
+    @After
+    public void tearDown () {
+        poliqarp.setEnabled(true);
+    }
+
+
+    @Test
+    public void testSameResult () {
+        String[] queries = new String[] { "[base=Mann]",
+                "der [base=Mann] []{1,3} Frau", "contains(<s>, {1:Mann})",
+                "[orth=der][orth=Mann]|[orth=die][orth=Frau]" };
+        for (String query : queries) {
+            poliqarp.setEnabled(true);
+            String sll = translate(query);
+            poliqarp.setEnabled(false);
+            String ll = translate(query);
+            assertEquals(query, ll, sll);
+        }
+    }
+
+
+    @Test
+    public void testCounts () {
+        poliqarp.setEnabled(true);
+        long sll = poliqarp.getSllCount();
+        long fallbacks = poliqarp.getFallbackCount();
+        translate("[base=Mann]");
+        assertTrue(poliqarp.getSllCount() + poliqarp.getFallbackCount() > sll
+                + fallbacks);
+
+        poliqarp.setEnabled(false);
+        sll = poliqarp.getSllCount();
+        fallbacks = poliqarp.getFallbackCount();
+        translate("[base=Mann]");
+        assertEquals(sll, poliqarp.getSllCount());
+        assertEquals(fallbacks, poliqarp.getFallbackCount());
+    }
+
+
+    @Test
+    public void testMalformedQuery () throws JsonProcessingException,
+            IOException {
+        poliqarp.setEnabled(true);
+        long fallbacks = poliqarp.getFallbackCount();
+        // not rejected by the pre-scan, as the parser fails at the
+        // closing parenthesis
+        res = mapper.readTree(translate("[base=Mann)"));
+        assertTrue(poliqarp.getFallbackCount() > fallbacks);
+        assertTrue(!poliqarp.getFallbackCountsPerRule().isEmpty());
+        assertEquals(StatusCodes.MALFORMED_QUERY,
+                res.at("/errors/0/0").asInt());
+    }
+
+
+    @Test
+    public void testFailedParse () throws JsonProcessingException,
+            IOException {
+        assertEquals(0, new ParseFailure(null, null).getStackTrace().length);
+        poliqarp.setEnabled(true);
+        String sll = translate("[base=Mann)");
+        poliqarp.setEnabled(false);
+        assertEquals(translate("[base=Mann)"), sll);
+        res = mapper.readTree(sll);
+        assertEquals("Early closing parenthesis. Possibly lacking arguments "
+                + "for operator.", res.at("/errors/0/1").asText());
+        assertEquals(10, res.at("/errors/0/2").asInt());
+    }
+
+
+    @Test
+    public void testDeferredError () {
+        final List<String> generated = new ArrayList<String>();
+        List<Object> error = new DeferredErrorMsg() {
+            @Override
+            protected List<Object> generate () {
+                generated.add("error");
+                List<Object> error = new ArrayList<Object>();
+                error.add(StatusCodes.MALFORMED_QUERY);
+                error.add("Failing to parse at symbol: ')'");
+                return error;
+            }
+        };
+        assertTrue(generated.isEmpty());
+        assertEquals(2, error.size());
+        assertEquals(StatusCodes.MALFORMED_QUERY, error.get(0));
+        error.add(5);
+        assertEquals(3, error.size());
+        assertEquals(1, generated.size());
+    }
+}